@@ -0,0 +1,227 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The encoder stage, encodes PCM to AAC with MediaCodec and passes the frames to a sink.
+ * Presentation times are derived from the number of encoded samples, not from the clock,
+ * so they stay continuous whatever happens to the capture.
+ */
+public class AacEncoder implements PcmConsumer {
+    private static final long TIMEOUT_US = 10000;
+
+    private final EncodedAudioSink sink;
+    private final int bitRate;
+
+    private MediaCodec codec;
+    private ByteBuffer[] inputBuffers;
+    private ShortBuffer[] inputViews;
+    private ByteBuffer[] outputBuffers;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private final AtomicLong inputFull = RecorderMetrics.counter(RecorderMetrics.ENCODER_FULL);
+    private int sampleRate;
+    private int channelCount;
+    private long encodedFrames;
+
+    /**
+     * @param sink the container writer receiving encoded frames
+     * @param bitRate the target bit rate in bits per second
+     */
+    public AacEncoder(EncodedAudioSink sink, int bitRate) {
+        this(sink, bitRate, null);
+    }
+
+    /**
+     * @param sink the container writer receiving encoded frames
+     * @param bitRate the target bit rate in bits per second
+     * @param codec an encoder from {@link #createCodec(int, int, int)} for the format
+     *              passed to {@link #onStart(int, int)}, or null to create it there
+     */
+    public AacEncoder(EncodedAudioSink sink, int bitRate, MediaCodec codec) {
+        this.sink = sink;
+        this.bitRate = bitRate;
+        this.codec = codec;
+    }
+
+    /**
+     * Create and start an AAC encoder, this loads the codec and takes tens of
+     * milliseconds, so it's done ahead of the recording when possible
+     * @param sampleRate sample rate in Hz
+     * @param channelCount number of channels
+     * @param bitRate the target bit rate in bits per second
+     * @return the started encoder
+     * @throws IOException if no encoder is available
+     */
+    public static MediaCodec createCodec(int sampleRate, int channelCount, int bitRate)
+            throws IOException {
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC,
+                sampleRate, channelCount);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE,
+                MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        MediaCodec codec = null;
+        try {
+            codec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.start();
+            return codec;
+        } catch (IOException | RuntimeException e) {
+            if(codec != null) {
+                codec.release();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        if(codec == null) {
+            try {
+                codec = createCodec(sampleRate, channelCount, bitRate);
+            } catch (IOException | RuntimeException e) {
+                sink.close();
+                throw e;
+            }
+        }
+        inputBuffers = codec.getInputBuffers();
+        inputViews = createViews(inputBuffers);
+        outputBuffers = codec.getOutputBuffers();
+        encodedFrames = 0;
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) throws IOException {
+        while(length > 0) {
+            int index = codec.dequeueInputBuffer(TIMEOUT_US);
+            if(index < 0) {
+                // the encoder is full, make room by draining its output
+                inputFull.incrementAndGet();
+                drain(false);
+                continue;
+            }
+            ShortBuffer view = inputViews[index];
+            view.clear();
+            int count = Math.min(length, view.remaining());
+            count -= count % channelCount;
+            view.put(buffer, offset, count);
+            codec.queueInputBuffer(index, 0, count * 2, presentationTimeUs(), 0);
+            encodedFrames += count / channelCount;
+            offset += count;
+            length -= count;
+            drain(false);
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        try {
+            int index;
+            do {
+                index = codec.dequeueInputBuffer(TIMEOUT_US);
+                if(index < 0) {
+                    drain(false);
+                }
+            } while(index < 0);
+            codec.queueInputBuffer(index, 0, 0, presentationTimeUs(),
+                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drain(true);
+        } finally {
+            // a codec in an error state may fail to stop, the muxer is finished anyway
+            try {
+                try {
+                    codec.stop();
+                } finally {
+                    codec.release();
+                    codec = null;
+                }
+            } finally {
+                sink.close();
+            }
+        }
+    }
+
+    /**
+     * Drop the encoder without finishing the stream, e.g. when transcoding has been
+     * cancelled; the sink is closed with what it has written so far
+     * @throws IOException if the sink can't be closed
+     */
+    public void release() throws IOException {
+        if(codec == null) {
+            return;
+        }
+        try {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                // not started
+            }
+            codec.release();
+            codec = null;
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * @return duration of the encoded audio in microseconds
+     */
+    private long presentationTimeUs() {
+        return encodedFrames * 1000000L / sampleRate;
+    }
+
+    /**
+     * Pass available output frames to the sink
+     * @param endOfStream wait until the end of stream frame has been received
+     * @throws IOException if the sink can't write
+     */
+    private void drain(boolean endOfStream) throws IOException {
+        while(true) {
+            int index = codec.dequeueOutputBuffer(bufferInfo, endOfStream ? TIMEOUT_US : 0);
+            if(index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if(!endOfStream) {
+                    return;
+                }
+            } else if(index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                sink.onFormat(codec.getOutputFormat());
+            } else if(index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outputBuffers = codec.getOutputBuffers();
+            } else if(index >= 0) {
+                ByteBuffer output = outputBuffers[index];
+                // codec specific data is passed to the sink with the output format
+                if((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0
+                        && bufferInfo.size > 0) {
+                    output.position(bufferInfo.offset);
+                    output.limit(bufferInfo.offset + bufferInfo.size);
+                    sink.onFrame(output, bufferInfo);
+                }
+                codec.releaseOutputBuffer(index, false);
+                if((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a native order short view of every input buffer once, so filling an input
+     * buffer doesn't allocate
+     */
+    private static ShortBuffer[] createViews(ByteBuffer[] buffers) {
+        ShortBuffer[] views = new ShortBuffer[buffers.length];
+        for(int i = 0; i < buffers.length; i++) {
+            buffers[i].clear();
+            views[i] = buffers[i].order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+        return views;
+    }
+}
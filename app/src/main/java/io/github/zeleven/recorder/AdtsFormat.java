@@ -0,0 +1,120 @@
+package io.github.zeleven.recorder;
+
+/**
+ * Helpers for ADTS, the framing of a raw AAC stream. Every frame carries a 7 byte header
+ * with the codec parameters and the frame length, so a stream cut at any frame boundary
+ * is still playable.
+ */
+public class AdtsFormat {
+    public static final int HEADER_SIZE = 7;
+    public static final int PROFILE_AAC_LC = 2;
+
+    private static final int[] SAMPLE_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000,
+            7350
+    };
+
+    private AdtsFormat() {}
+
+    /**
+     * @param sampleRate sample rate in Hz
+     * @return the ADTS sampling frequency index
+     * @throws IllegalArgumentException if the rate can't be described in ADTS
+     */
+    public static int frequencyIndex(int sampleRate) {
+        for(int i = 0; i < SAMPLE_RATES.length; i++) {
+            if(SAMPLE_RATES[i] == sampleRate) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported sample rate " + sampleRate);
+    }
+
+    /**
+     * Fill a header for a frame
+     * @param header array of at least {@link #HEADER_SIZE} bytes
+     * @param profile the AAC audio object type, e.g. {@link #PROFILE_AAC_LC}
+     * @param frequencyIndex see {@link #frequencyIndex(int)}
+     * @param channelCount number of channels
+     * @param payloadSize size of the raw AAC frame following the header
+     */
+    public static void fillHeader(byte[] header, int profile, int frequencyIndex,
+                                  int channelCount, int payloadSize) {
+        int frameLength = payloadSize + HEADER_SIZE;
+        header[0] = (byte) 0xFF;
+        // MPEG-4, layer 0, no CRC
+        header[1] = (byte) 0xF1;
+        header[2] = (byte) (((profile - 1) << 6) | (frequencyIndex << 2) | (channelCount >> 2));
+        header[3] = (byte) (((channelCount & 3) << 6) | (frameLength >> 11));
+        header[4] = (byte) ((frameLength & 0x7FF) >> 3);
+        header[5] = (byte) (((frameLength & 7) << 5) | 0x1F);
+        header[6] = (byte) 0xFC;
+    }
+
+    /**
+     * Read the frame length out of a header
+     * @param header the header bytes
+     * @param offset index of the first header byte
+     * @return length of the frame including its header, or -1 if it's not a valid header
+     */
+    public static int frameLength(byte[] header, int offset) {
+        if((header[offset] & 0xFF) != 0xFF || (header[offset + 1] & 0xF0) != 0xF0) {
+            return -1;
+        }
+        int length = ((header[offset + 3] & 0x03) << 11) | ((header[offset + 4] & 0xFF) << 3)
+                | ((header[offset + 5] & 0xE0) >> 5);
+        return length >= HEADER_SIZE ? length : -1;
+    }
+
+    /**
+     * @param header a valid header, see {@link #frameLength(byte[], int)}
+     * @param offset index of the first header byte
+     * @return the AAC audio object type
+     */
+    public static int profile(byte[] header, int offset) {
+        return ((header[offset + 2] & 0xC0) >> 6) + 1;
+    }
+
+    /**
+     * @param header a valid header
+     * @param offset index of the first header byte
+     * @return the sample rate in Hz, or -1 if the index is reserved
+     */
+    public static int sampleRate(byte[] header, int offset) {
+        int index = (header[offset + 2] & 0x3C) >> 2;
+        return index < SAMPLE_RATES.length ? SAMPLE_RATES[index] : -1;
+    }
+
+    /**
+     * @param header a valid header
+     * @param offset index of the first header byte
+     * @return the channel configuration
+     */
+    public static int channelCount(byte[] header, int offset) {
+        return ((header[offset + 2] & 0x01) << 2) | ((header[offset + 3] & 0xC0) >> 6);
+    }
+
+    /**
+     * @param header a valid header
+     * @param offset index of the first header byte
+     * @return the size of the header, 9 if it's followed by a CRC
+     */
+    public static int headerSize(byte[] header, int offset) {
+        return (header[offset + 1] & 0x01) == 0 ? HEADER_SIZE + 2 : HEADER_SIZE;
+    }
+
+    /**
+     * Build the AudioSpecificConfig a decoder needs for the raw frames of a stream
+     * @param profile the AAC audio object type
+     * @param frequencyIndex see {@link #frequencyIndex(int)}
+     * @param channelCount the channel configuration
+     * @return the two config bytes
+     */
+    public static byte[] audioSpecificConfig(int profile, int frequencyIndex,
+                                             int channelCount) {
+        return new byte[] {
+                (byte) ((profile << 3) | (frequencyIndex >> 1)),
+                (byte) (((frequencyIndex & 1) << 7) | (channelCount << 3))
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Plays the ADTS streams of crash-safe recordings straight from a {@link MappedFile}.
+ * Opening walks the frame headers once and keeps every few frames in a {@link SeekIndex},
+ * a seek then starts from the indexed frame before the time and skips the remaining
+ * frames by their headers. Every AAC frame can be decoded on its own, so the seek is
+ * exact to one frame.
+ */
+public class AdtsPlaybackSource implements PlaybackSource {
+    private static final int SAMPLES_PER_FRAME = 1024;
+    // frames between two index entries, about 0.2 s at 44.1 kHz
+    private static final int INDEX_INTERVAL = 8;
+
+    private final MappedFile file;
+    private final SeekIndex seekIndex = new SeekIndex();
+    private final byte[] header = new byte[AdtsFormat.HEADER_SIZE];
+    private final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+    private int profile;
+    private int sampleRate;
+    private int channelCount;
+    private long frameCount;
+    private long end;
+    private long position;
+    private long frame;
+
+    /**
+     * @param recording the ADTS file
+     * @throws IOException if the file can't be read or has no valid frame
+     */
+    public AdtsPlaybackSource(File recording) throws IOException {
+        file = new MappedFile(recording);
+        try {
+            buildIndex();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void buildIndex() throws IOException {
+        long framePosition = 0;
+        while(readHeader(framePosition)) {
+            int length = AdtsFormat.frameLength(header, 0);
+            if(length < 0 || framePosition + length > file.size()) {
+                // a partial frame at the end, playback stops before it
+                break;
+            }
+            if(frameCount == 0) {
+                profile = AdtsFormat.profile(header, 0);
+                sampleRate = AdtsFormat.sampleRate(header, 0);
+                channelCount = AdtsFormat.channelCount(header, 0);
+            }
+            if(frameCount % INDEX_INTERVAL == 0) {
+                seekIndex.add(timeOf(frameCount), framePosition);
+            }
+            frameCount++;
+            framePosition += length;
+        }
+        if(frameCount == 0 || sampleRate <= 0) {
+            throw new IOException("No ADTS frames");
+        }
+        end = framePosition;
+    }
+
+    private boolean readHeader(long framePosition) throws IOException {
+        headerBuffer.clear();
+        return file.read(framePosition, headerBuffer) == AdtsFormat.HEADER_SIZE;
+    }
+
+    @Override
+    public MediaFormat getFormat() {
+        MediaFormat format = MediaFormat.createAudioFormat("audio/mp4a-latm", sampleRate,
+                channelCount);
+        format.setByteBuffer("csd-0", ByteBuffer.wrap(AdtsFormat.audioSpecificConfig(profile,
+                AdtsFormat.frequencyIndex(sampleRate), channelCount)));
+        return format;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public long getDurationUs() {
+        return timeOf(frameCount);
+    }
+
+    @Override
+    public long seekTo(long timeUs) throws IOException {
+        long target = Math.max(0, Math.min(frameCount - 1,
+                timeUs * sampleRate / SAMPLES_PER_FRAME / 1000000));
+        // an entry is kept for every INDEX_INTERVAL frames
+        int entry = seekIndex.find(timeOf(target));
+        frame = (long) entry * INDEX_INTERVAL;
+        position = seekIndex.getPosition(entry);
+        while(frame < target && readHeader(position)) {
+            position += AdtsFormat.frameLength(header, 0);
+            frame++;
+        }
+        return timeOf(frame);
+    }
+
+    @Override
+    public long getSampleTimeUs() {
+        return timeOf(frame);
+    }
+
+    @Override
+    public int readSample(ByteBuffer buffer) throws IOException {
+        if(position >= end || !readHeader(position)) {
+            return -1;
+        }
+        int length = AdtsFormat.frameLength(header, 0);
+        int headerSize = AdtsFormat.headerSize(header, 0);
+        // the decoder is configured with the AudioSpecificConfig and gets raw frames
+        int size = length - headerSize;
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + size);
+        file.read(position + headerSize, buffer);
+        buffer.limit(limit);
+        position += length;
+        frame++;
+        return size;
+    }
+
+    /**
+     * @return the byte position of the frame {@link #seekTo(long)} went to, which
+     *         {@link RecordingEditor} copies from
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the byte position after the last complete frame
+     */
+    long getEndPosition() {
+        return end;
+    }
+
+    private long timeOf(long frameNumber) {
+        return frameNumber * SAMPLES_PER_FRAME * 1000000 / sampleRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes encoded AAC frames as an ADTS stream through {@link ChunkedFileWriter}. Unlike
+ * MPEG-4 there is no index to write at the end, so the file is playable up to the last
+ * flush even if the process dies while recording.
+ */
+public class AdtsSink implements EncodedAudioSink {
+    private final ChunkedFileWriter writer;
+    private final byte[] header = new byte[AdtsFormat.HEADER_SIZE];
+    private final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+    private int frequencyIndex;
+    private int channelCount;
+
+    /**
+     * @param filePath the output file
+     * @param flushIntervalMs media time between two flushes to disk
+     * @throws IOException if the file can't be opened
+     */
+    public AdtsSink(String filePath, long flushIntervalMs) throws IOException {
+        this(new ChunkedFileWriter(new File(filePath), flushIntervalMs));
+    }
+
+    /**
+     * @param writer the writer of the output file, closed with the sink
+     */
+    public AdtsSink(ChunkedFileWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void onFormat(MediaFormat format) {
+        frequencyIndex = AdtsFormat.frequencyIndex(
+                format.getInteger(MediaFormat.KEY_SAMPLE_RATE));
+        channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+    }
+
+    @Override
+    public void onFrame(ByteBuffer data, MediaCodec.BufferInfo info) throws IOException {
+        AdtsFormat.fillHeader(header, AdtsFormat.PROFILE_AAC_LC, frequencyIndex, channelCount,
+                data.remaining());
+        headerBuffer.clear();
+        writer.write(headerBuffer);
+        writer.write(data);
+        writer.flushIfDue(info.presentationTimeUs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
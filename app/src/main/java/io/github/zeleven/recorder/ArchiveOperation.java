@@ -0,0 +1,111 @@
+package io.github.zeleven.recorder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs recordings into one zip archive, e.g. to share them together. Audio is already
+ * compressed, so entries are stored without compression.
+ */
+public class ArchiveOperation extends FileOperation {
+    // archives handed to other apps are kept for a while, they may still be reading them
+    private static final long KEEP_ARCHIVES_MILLIS = 60 * 60 * 1000;
+
+    private final File archive;
+    private final byte[] buffer = new byte[64 * 1024];
+    private final Set<String> entryNames = new HashSet<>();
+    private ZipOutputStream zip;
+
+    /**
+     * @param archive the archive to create, replaced if it exists
+     */
+    public ArchiveOperation(File archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    protected void begin(Result result) throws IOException {
+        File folder = archive.getParentFile();
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        deleteOldArchives(folder);
+        zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+        zip.setLevel(Deflater.NO_COMPRESSION);
+    }
+
+    private void deleteOldArchives(File folder) {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for(File file : files) {
+            if(file.getName().endsWith(".zip")
+                    && now - file.lastModified() > KEEP_ARCHIVES_MILLIS) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    protected File apply(File file) throws IOException {
+        String name = addEntry(file.getName(), file);
+        if(SessionManifest.isManifest(file)) {
+            // the manifest refers to its segments relative to itself, keep that layout
+            String folder = SessionManifest.segmentFolderFor(new File(name)).getName();
+            for(SessionManifest.Segment segment : SessionManifest.read(file)) {
+                addEntry(folder + "/" + segment.file.getName(), segment.file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Store a file in the archive under a name which is not taken yet
+     * @return the name of the entry
+     */
+    private String addEntry(String entryName, File file) throws IOException {
+        String name = entryName;
+        for(int i = 1; !entryNames.add(name); i++) {
+            name = i + "_" + entryName;
+        }
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(file.lastModified());
+        zip.putNextEntry(entry);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while((read = in.read(buffer)) > 0) {
+                zip.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        zip.closeEntry();
+        return name;
+    }
+
+    @Override
+    protected void end(Result result) throws IOException {
+        try {
+            zip.close();
+        } catch (IOException e) {
+            archive.delete();
+            throw e;
+        }
+        if(result.cancelled || result.processed.isEmpty()) {
+            archive.delete();
+        } else {
+            result.output = archive;
+        }
+    }
+}
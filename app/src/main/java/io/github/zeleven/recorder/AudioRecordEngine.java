@@ -0,0 +1,383 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.media.AudioDeviceInfo;
+import android.media.MediaCodec;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The recorder backend built on AudioRecord. Each input is a {@link CaptureSource}, a
+ * high priority capture thread reads PCM into a preallocated ring buffer, a consumer
+ * thread drains it and feeds the consumer stages (level meter, encoder and container
+ * writer) in order.
+ * <p>
+ * Pausing stops the AudioRecord and parks both threads, so nothing is captured or encoded
+ * until resume. The encoder derives timestamps from the sample count, so the output is
+ * one continuous file on every API level.
+ * <p>
+ * The encoder profile decides between AAC and PCM. In crash-safe mode AAC frames are
+ * written as ADTS and flushed to disk at a fixed interval, otherwise they are muxed into
+ * MPEG-4, which needs API 18. PCM is always written as WAV.
+ * <p>
+ * A {@link DspChain} processes the captured audio in front of every other stage, its
+ * noise suppression and gain control run as platform effects where the device has them.
+ * <p>
+ * With silence skipping the output stages sit behind a {@link SilenceGate}, the level
+ * meter still sees all captured audio.
+ * <p>
+ * With a segment length the output stages are created per segment by a
+ * {@link SegmentedOutput}, the file passed to {@link #prepare(String)} is then the
+ * {@link SessionManifest} of the segments.
+ * <p>
+ * {@link #prewarm()} opens the audio input and the AAC encoder of the first output ahead
+ * of time, prepare then only opens the files.
+ * <p>
+ * A second input is recorded in parallel into its own file, see
+ * {@link #getSecondTrackPath()}. A {@link DriftCorrector} keeps it sample-aligned with the
+ * first input. If the device refuses to capture both at once, only the first is recorded.
+ */
+public class AudioRecordEngine implements Recorder {
+    private static final String TAG = "AudioRecordEngine";
+    // appended to the name of the file of the second input
+    private static final String SECOND_TRACK_SUFFIX = "_2";
+
+    /**
+     * An audio input to capture from
+     */
+    public static class Input {
+        /** the MediaRecorder.AudioSource */
+        public final int audioSource;
+        /** the preferred device, or null for the default routing */
+        public final AudioDeviceInfo device;
+
+        public Input(int audioSource, AudioDeviceInfo device) {
+            this.audioSource = audioSource;
+            this.device = device;
+        }
+    }
+
+    private final EncoderProfile profile;
+    private final boolean crashSafe;
+    private final long flushIntervalMs;
+    private final boolean skipSilence;
+    private final long segmentMillis;
+    private final Input secondInput;
+    private final int dspStages;
+    private SilenceGate silenceGate;
+    private final LevelMeter levelMeter = new LevelMeter();
+
+    private final CaptureSource source;
+    private CaptureSource secondSource;
+    private String secondTrackPath;
+    private ErrorListener errorListener;
+    // started by prewarm, handed to the encoder of the first output
+    private MediaCodec prewarmedCodec;
+
+    /**
+     * @param profile the sample rate, channels and encoding to record with
+     * @param crashSafe write ADTS and flush it periodically instead of writing MPEG-4
+     * @param flushIntervalMs recorded time between two flushes in crash-safe mode
+     * @param skipSilence drop long silent stretches instead of writing them
+     * @param segmentMillis recorded time after which a new segment file is started, or 0
+     *                      to write a single file
+     */
+    public AudioRecordEngine(EncoderProfile profile, boolean crashSafe, long flushIntervalMs,
+                             boolean skipSilence, long segmentMillis) {
+        this(profile, crashSafe, flushIntervalMs, skipSilence, segmentMillis,
+                new Input(MediaRecorder.AudioSource.MIC, null), null, DspChain.NONE);
+    }
+
+    /**
+     * @param profile the sample rate, channels and encoding to record with
+     * @param crashSafe write ADTS and flush it periodically instead of writing MPEG-4
+     * @param flushIntervalMs recorded time between two flushes in crash-safe mode
+     * @param skipSilence drop long silent stretches instead of writing them
+     * @param segmentMillis recorded time after which a new segment file is started, or 0
+     *                      to write a single file
+     * @param input the input to record
+     * @param secondInput the input to record into a second file, or null. Ignored with
+     *                    silence skipping, which would break the alignment.
+     * @param dspStages the {@link DspChain} stages to process both inputs with
+     */
+    public AudioRecordEngine(EncoderProfile profile, boolean crashSafe, long flushIntervalMs,
+                             boolean skipSilence, long segmentMillis, Input input,
+                             Input secondInput, int dspStages) {
+        this.profile = profile;
+        this.crashSafe = crashSafe;
+        this.flushIntervalMs = flushIntervalMs;
+        this.skipSilence = skipSilence;
+        this.segmentMillis = segmentMillis;
+        this.secondInput = skipSilence ? null : secondInput;
+        this.dspStages = dspStages;
+        source = new CaptureSource("Audio", input, profile.getSampleRate(),
+                profile.getChannelCount());
+    }
+
+    @Override
+    public void prewarm() throws IOException {
+        source.open();
+        if(profile.getCodec() == EncoderProfile.Codec.AAC) {
+            try {
+                prewarmedCodec = AacEncoder.createCodec(profile.getSampleRate(),
+                        profile.getChannelCount(), profile.getBitRate());
+            } catch (IOException | RuntimeException e) {
+                // prepare tries again
+                Log.w(TAG, "Cannot prewarm the encoder", e);
+            }
+        }
+    }
+
+    @Override
+    public void prepare(String filePath) throws IOException {
+        if(!source.isOpen()) {
+            source.open();
+        }
+        try {
+            List<PcmConsumer> consumers = new ArrayList<>();
+            addDspChain(source, consumers);
+            consumers.add(levelMeter);
+            List<PcmConsumer> outputs = createOutputs(filePath);
+            if(skipSilence) {
+                silenceGate = new SilenceGate(outputs);
+                consumers.add(silenceGate);
+            } else {
+                consumers.addAll(outputs);
+            }
+            source.startConsumers(consumers);
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+        if(secondInput != null) {
+            prepareSecondInput(secondTrackPathFor(filePath));
+        }
+    }
+
+    /**
+     * Open the second input, the recording goes on without it if that fails
+     */
+    private void prepareSecondInput(String filePath) {
+        CaptureSource second = new CaptureSource("SecondAudio", secondInput,
+                profile.getSampleRate(), profile.getChannelCount());
+        try {
+            second.open();
+            List<PcmConsumer> consumers = new ArrayList<>();
+            addDspChain(second, consumers);
+            consumers.add(new DriftCorrector(source.getClock(), second.getClock(),
+                    createOutputs(filePath)));
+            second.startConsumers(consumers);
+            secondSource = second;
+            secondTrackPath = filePath;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot open the second input", e);
+            RecorderMetrics.counter(RecorderMetrics.SECOND_INPUT_FAILED).incrementAndGet();
+            second.release();
+            deleteTrack(filePath);
+        }
+    }
+
+    /**
+     * Add the processing stages which the platform effects of an input don't cover
+     */
+    private void addDspChain(CaptureSource input, List<PcmConsumer> consumers) {
+        if(dspStages == DspChain.NONE) {
+            return;
+        }
+        int stages = dspStages & ~input.attachEffects(dspStages);
+        if(stages != DspChain.NONE) {
+            consumers.add(new DspChain(stages));
+        }
+    }
+
+    /**
+     * @param filePath the output file
+     * @return the file of the second input next to it, with the same extension
+     */
+    static String secondTrackPathFor(String filePath) {
+        int dot = filePath.lastIndexOf('.');
+        int slash = filePath.lastIndexOf(File.separatorChar);
+        if(dot <= slash) {
+            return filePath + SECOND_TRACK_SUFFIX;
+        }
+        return filePath.substring(0, dot) + SECOND_TRACK_SUFFIX + filePath.substring(dot);
+    }
+
+    private void deleteTrack(String filePath) {
+        File file = new File(filePath);
+        if(SessionManifest.isManifest(file)) {
+            SessionManifest.delete(file);
+        } else {
+            file.delete();
+            WaveformSummary.sidecarFor(file).delete();
+        }
+    }
+
+    @Override
+    public String getFileExtension() {
+        return segmentMillis > 0 ? SessionManifest.EXTENSION
+                : profile.getFileExtension(crashSafe);
+    }
+
+    @Override
+    public String getSecondTrackPath() {
+        return secondTrackPath;
+    }
+
+    @Override
+    public void setErrorListener(ErrorListener listener) {
+        errorListener = listener;
+    }
+
+    @Override
+    public void start() {
+        source.setErrorListener(errorListener);
+        if(!source.start()) {
+            Log.e(TAG, "The audio input doesn't capture");
+            if(errorListener != null) {
+                errorListener.onRecordingError(new IOException("The audio input doesn't capture"));
+            }
+        }
+        if(secondSource != null) {
+            // a failing second track ends the recording too, its file would stop short
+            secondSource.setErrorListener(errorListener);
+        }
+        if(secondSource != null && !secondSource.start()) {
+            // before Android 10 most devices give the input to one client only
+            Log.w(TAG, "The second input doesn't capture, recording one input");
+            RecorderMetrics.counter(RecorderMetrics.SECOND_INPUT_FAILED).incrementAndGet();
+            secondSource.release();
+            secondSource = null;
+            deleteTrack(secondTrackPath);
+            secondTrackPath = null;
+        }
+    }
+
+    @Override
+    public boolean canPause() {
+        return true;
+    }
+
+    @Override
+    public void pause() {
+        source.pause();
+        if(secondSource != null) {
+            secondSource.pause();
+        }
+    }
+
+    @Override
+    public void resume() {
+        source.resume();
+        if(secondSource != null) {
+            secondSource.resume();
+        }
+    }
+
+    @Override
+    public void stop() {
+        source.stop();
+        if(secondSource != null) {
+            secondSource.stop();
+            secondSource = null;
+        }
+    }
+
+    @Override
+    public void release() {
+        source.release();
+        if(secondSource != null) {
+            secondSource.release();
+            secondSource = null;
+        }
+        releasePrewarmedCodec();
+    }
+
+    private void releasePrewarmedCodec() {
+        if(prewarmedCodec != null) {
+            prewarmedCodec.release();
+            prewarmedCodec = null;
+        }
+    }
+
+    @Override
+    public long getSkippedMillis() {
+        return silenceGate != null ? silenceGate.getSkippedMillis() : 0;
+    }
+
+    @Override
+    public LevelMeter getLevelMeter() {
+        return levelMeter;
+    }
+
+    /**
+     * Create the stages which write a recording, a single file or a session of segments
+     */
+    private List<PcmConsumer> createOutputs(String filePath) throws IOException {
+        if(segmentMillis <= 0) {
+            return createOutputStages(filePath);
+        }
+        List<PcmConsumer> outputs = new ArrayList<>();
+        outputs.add(new SegmentedOutput(new File(filePath),
+                profile.getFileExtension(crashSafe), segmentMillis,
+                new SegmentedOutput.StageFactory() {
+            @Override
+            public List<PcmConsumer> createStages(File segment) throws IOException {
+                return createOutputStages(segment.getPath());
+            }
+        }));
+        // the waveform of the whole session, shown in the file list
+        outputs.add(new WaveformWriter(filePath));
+        return outputs;
+    }
+
+    /**
+     * Create the stages which write one file, the output and its waveform
+     */
+    private List<PcmConsumer> createOutputStages(String filePath) throws IOException {
+        List<PcmConsumer> stages = new ArrayList<>();
+        stages.add(createOutput(filePath));
+        // after the output, so the waveform sidecar sees the finished file
+        stages.add(new WaveformWriter(filePath));
+        return stages;
+    }
+
+    /**
+     * Create the stage which encodes and writes the file
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private PcmConsumer createOutput(String filePath) throws IOException {
+        long interval = crashSafe ? flushIntervalMs : 0;
+        if(profile.getCodec() == EncoderProfile.Codec.PCM) {
+            return new WavWriter(filePath, interval);
+        }
+        EncodedAudioSink sink = crashSafe ? new AdtsSink(filePath, interval)
+                : new Mp4MuxerSink(filePath);
+        AacEncoder encoder = new AacEncoder(sink, profile.getBitRate(), prewarmedCodec);
+        prewarmedCodec = null;
+        return encoder;
+    }
+
+    static void joinQuietly(Thread thread) {
+        if(thread == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while(thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.media.AudioDeviceInfo;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.audiofx.AudioEffect;
+import android.media.audiofx.AutomaticGainControl;
+import android.media.audiofx.NoiseSuppressor;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One audio input of {@link AudioRecordEngine}. A high priority capture thread reads PCM
+ * into a preallocated ring buffer, a consumer thread drains it and feeds the consumer
+ * stages in order, so several sources capture and encode in parallel.
+ * <p>
+ * The capture thread timestamps every read into the {@link StreamClock} of the source,
+ * from API 24 with the capture time reported by AudioRecord.
+ * <p>
+ * Noise suppression and gain control of the {@link DspChain} run as platform effects on
+ * the input where the device has them, see {@link #attachEffects(int)}.
+ */
+class CaptureSource {
+    private static final String TAG = "CaptureSource";
+    // capacity of the ring buffer, the consumer may fall behind by this much
+    private static final int RING_BUFFER_MILLIS = 2000;
+
+    private final String name;
+    private final AudioRecordEngine.Input input;
+    private final int sampleRate;
+    private final int channelCount;
+    private final StreamClock clock;
+    private final List<PcmConsumer> consumers = new ArrayList<>();
+
+    private AudioRecord audioRecord;
+    private AudioTimestamp timestamp;
+    private NoiseSuppressor noiseSuppressor;
+    private AutomaticGainControl gainControl;
+    private PcmRingBuffer ringBuffer;
+    private short[] captureBuffer;
+    private short[] consumerBuffer;
+    private Thread captureThread;
+    private Thread consumerThread;
+    private volatile boolean capturing = false;
+    private volatile boolean captureFinished = false;
+    private volatile boolean paused = false;
+    private int startedConsumers = 0;
+    // frames written into the ring buffer, only used by the capture thread
+    private long deliveredFrames;
+    private volatile long overrunSamples = 0;
+    private volatile IOException consumerError;
+    // why the capture thread gave up, reported by the consumer once it has drained
+    private volatile IOException captureError;
+    private Recorder.ErrorListener errorListener;
+    private final AtomicLong overrunCounter =
+            RecorderMetrics.counter(RecorderMetrics.OVERRUN_SAMPLES);
+    private final AtomicLong readErrorCounter =
+            RecorderMetrics.counter(RecorderMetrics.READ_ERRORS);
+    private final Histogram backlogMillis =
+            RecorderMetrics.histogram(RecorderMetrics.BACKLOG_MILLIS);
+
+    /**
+     * @param name the name of the threads
+     * @param input the audio source and device
+     * @param sampleRate the sample rate in Hz
+     * @param channelCount the number of channels
+     */
+    CaptureSource(String name, AudioRecordEngine.Input input, int sampleRate,
+                  int channelCount) {
+        this.name = name;
+        this.input = input;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.clock = new StreamClock(sampleRate);
+    }
+
+    StreamClock getClock() {
+        return clock;
+    }
+
+    boolean isOpen() {
+        return audioRecord != null;
+    }
+
+    /**
+     * Open the audio input and allocate the capture buffers, all buffers are allocated
+     * here, none while capturing
+     */
+    void open() throws IOException {
+        int channelConfig = channelCount == 1 ? AudioFormat.CHANNEL_IN_MONO
+                : AudioFormat.CHANNEL_IN_STEREO;
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if(minBufferSize <= 0) {
+            throw new IOException("Unsupported capture format");
+        }
+        audioRecord = new AudioRecord(input.audioSource, sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 2);
+        if(audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            release();
+            throw new IOException("Cannot open audio input " + name);
+        }
+        if(input.device != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            setPreferredDevice(input.device);
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            timestamp = new AudioTimestamp();
+        }
+        captureBuffer = new short[minBufferSize / 2];
+        consumerBuffer = new short[minBufferSize / 2];
+        ringBuffer = new PcmRingBuffer(sampleRate * channelCount * RING_BUFFER_MILLIS / 1000);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setPreferredDevice(AudioDeviceInfo device) {
+        if(!audioRecord.setPreferredDevice(device)) {
+            Log.w(TAG, "Cannot route " + name + " to " + device.getProductName());
+        }
+    }
+
+    /**
+     * Enable the platform effects for processing stages, they usually run in the audio
+     * DSP and cost the app nothing
+     * @param stages the {@link DspChain} stages which should run
+     * @return the stages which are done by platform effects, the others must run in the
+     *         app
+     */
+    int attachEffects(int stages) {
+        int attached = DspChain.NONE;
+        int session = audioRecord.getAudioSessionId();
+        if((stages & DspChain.NOISE_SUPPRESSION) != 0 && noiseSuppressor == null
+                && NoiseSuppressor.isAvailable()) {
+            noiseSuppressor = NoiseSuppressor.create(session);
+            if(enable(noiseSuppressor)) {
+                attached |= DspChain.NOISE_SUPPRESSION;
+            } else {
+                noiseSuppressor = null;
+            }
+        }
+        if((stages & DspChain.GAIN_CONTROL) != 0 && gainControl == null
+                && AutomaticGainControl.isAvailable()) {
+            gainControl = AutomaticGainControl.create(session);
+            if(enable(gainControl)) {
+                attached |= DspChain.GAIN_CONTROL;
+            } else {
+                gainControl = null;
+            }
+        }
+        return attached;
+    }
+
+    /**
+     * @return true if the effect has been created and enabled, it's released otherwise
+     */
+    private boolean enable(AudioEffect effect) {
+        if(effect == null) {
+            return false;
+        }
+        try {
+            if(effect.setEnabled(true) == AudioEffect.SUCCESS) {
+                return true;
+            }
+        } catch (IllegalStateException e) {
+            // the effect engine has gone
+        }
+        Log.w(TAG, "Cannot enable " + effect.getClass().getSimpleName() + " of " + name);
+        effect.release();
+        return false;
+    }
+
+    /**
+     * Start the stages in order, stages which have been started are finished by
+     * {@link #stop()} or {@link #release()}
+     * @param stages the stages
+     * @throws IOException if a stage can't open its output
+     */
+    void startConsumers(List<PcmConsumer> stages) throws IOException {
+        consumers.clear();
+        startedConsumers = 0;
+        consumers.addAll(stages);
+        for(PcmConsumer consumer : consumers) {
+            consumer.onStart(sampleRate, channelCount);
+            startedConsumers++;
+        }
+    }
+
+    /**
+     * @param listener receives the failure of a stage while capturing, or null
+     */
+    void setErrorListener(Recorder.ErrorListener listener) {
+        errorListener = listener;
+    }
+
+    /**
+     * Start capturing
+     * @return false if the input can't be started, e.g. because another app or source
+     *         holds it, {@link #release()} must be called then
+     */
+    boolean start() {
+        audioRecord.startRecording();
+        if(audioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            return false;
+        }
+        capturing = true;
+        captureFinished = false;
+        captureError = null;
+        paused = false;
+        deliveredFrames = 0;
+        clock.reset(0);
+        consumerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, name + "Consumer");
+        captureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                capture();
+            }
+        }, name + "Capture");
+        consumerThread.start();
+        captureThread.start();
+        return true;
+    }
+
+    void pause() {
+        paused = true;
+    }
+
+    void resume() {
+        paused = false;
+        LockSupport.unpark(captureThread);
+    }
+
+    /**
+     * Stop capturing, drain the ring buffer, finish the stages and release the input
+     */
+    void stop() {
+        capturing = false;
+        LockSupport.unpark(captureThread);
+        AudioRecordEngine.joinQuietly(captureThread);
+        audioRecord.stop();
+        // the consumer drains what is left in the ring buffer and finishes the stages
+        LockSupport.unpark(consumerThread);
+        AudioRecordEngine.joinQuietly(consumerThread);
+        if(consumerThread == null) {
+            // capture never started, the output is finished empty
+            stopConsumers();
+        }
+        releaseEffects();
+        audioRecord.release();
+        audioRecord = null;
+        if(consumerError != null) {
+            RecorderMetrics.counter(RecorderMetrics.OUTPUT_ERRORS).incrementAndGet();
+            Log.e(TAG, "Output of " + name + " is incomplete", consumerError);
+        }
+        if(overrunSamples > 0) {
+            Log.w(TAG, name + " dropped " + overrunSamples
+                    + " samples, the consumer fell behind");
+        }
+    }
+
+    /**
+     * Release the input without finishing the output, used when prepare or start failed
+     */
+    void release() {
+        if(consumerThread == null) {
+            // the consumer thread never ran, close the stages which have been started
+            stopConsumers();
+        }
+        releaseEffects();
+        if(audioRecord != null) {
+            audioRecord.release();
+            audioRecord = null;
+        }
+    }
+
+    /**
+     * Free the platform effects of {@link #attachEffects(int)}, before the input they are
+     * attached to
+     */
+    private void releaseEffects() {
+        if(noiseSuppressor != null) {
+            noiseSuppressor.release();
+            noiseSuppressor = null;
+        }
+        if(gainControl != null) {
+            gainControl.release();
+            gainControl = null;
+        }
+    }
+
+    /**
+     * The capture loop, reads from AudioRecord into the ring buffer
+     */
+    private void capture() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        boolean firstRead = true;
+        try {
+            while(capturing) {
+                if(paused) {
+                    if(!waitWhilePaused()) {
+                        break;
+                    }
+                    continue;
+                }
+                int read = audioRecord.read(captureBuffer, 0, captureBuffer.length);
+                if(paused) {
+                    // drop the buffer which was being read when pause was requested
+                    continue;
+                }
+                if(read < 0) {
+                    // e.g. ERROR_DEAD_OBJECT after the audio server has restarted, no
+                    // later read succeeds
+                    failCapture(name + " read failed: " + read);
+                    break;
+                } else if(read == 0) {
+                    continue;
+                }
+                if(firstRead) {
+                    StartupMetrics.onFirstSample();
+                    firstRead = false;
+                }
+                int written = ringBuffer.write(captureBuffer, 0, read);
+                if(written < read) {
+                    overrunSamples += read - written;
+                    overrunCounter.addAndGet(read - written);
+                }
+                deliveredFrames += written / channelCount;
+                addTimestamp();
+                LockSupport.unpark(consumerThread);
+            }
+        } finally {
+            captureFinished = true;
+            LockSupport.unpark(consumerThread);
+        }
+    }
+
+    /**
+     * End capture because of an error of the input, called on the capture thread. The
+     * consumer finishes the output with what has been captured and reports the error.
+     */
+    private void failCapture(String message) {
+        readErrorCounter.incrementAndGet();
+        Log.e(TAG, message);
+        captureError = new IOException(message);
+    }
+
+    /**
+     * Add the capture time of the last delivered frame to the clock
+     */
+    private void addTimestamp() {
+        if(timestamp != null && getTimestamp()) {
+            // positions count from the start of the epoch, the read since then
+            clock.add(clock.getBase() + timestamp.framePosition, timestamp.nanoTime);
+        } else {
+            // includes the input latency, which is about constant
+            clock.add(deliveredFrames, System.nanoTime());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private boolean getTimestamp() {
+        return audioRecord.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC)
+                == AudioRecord.SUCCESS;
+    }
+
+    /**
+     * Stop the audio input and park the capture thread until resume or stop
+     * @return false if the input can't be restarted, e.g. because another app has taken
+     *         it meanwhile
+     */
+    private boolean waitWhilePaused() {
+        audioRecord.stop();
+        while(paused && capturing) {
+            LockSupport.park(this);
+        }
+        if(capturing) {
+            // the stream has a gap, the timestamps start over
+            clock.reset(deliveredFrames);
+            audioRecord.startRecording();
+            if(audioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+                failCapture(name + " doesn't capture after resume");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The consumer loop, feeds the stages until capture has stopped and the ring buffer
+     * is empty. If a stage or the input fails, capture stops and the error listener is
+     * told.
+     */
+    private void consume() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        int samplesPerSecond = sampleRate * channelCount;
+        IOException error = null;
+        try {
+            while(true) {
+                // how far the stages are behind capture, before this read
+                int backlog = ringBuffer.available();
+                int read = ringBuffer.read(consumerBuffer, 0, consumerBuffer.length);
+                if(read > 0) {
+                    backlogMillis.record(backlog * 1000L / samplesPerSecond);
+                    for(int i = 0; i < consumers.size(); i++) {
+                        consumers.get(i).onPcm(consumerBuffer, 0, read);
+                    }
+                } else if(captureFinished && ringBuffer.available() == 0) {
+                    // null unless the input has failed
+                    error = captureError;
+                    break;
+                } else {
+                    // woken up by the capture thread after every write and when it ends
+                    LockSupport.park(this);
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            // e.g. MediaCodec or MediaMuxer in an error state
+            error = new IOException("Output of " + name + " failed", e);
+        } finally {
+            if(error != null) {
+                consumerError = error;
+                // nothing drains the ring buffer anymore
+                capturing = false;
+                LockSupport.unpark(captureThread);
+            }
+            stopConsumers();
+        }
+        if(error != null && errorListener != null) {
+            errorListener.onRecordingError(error);
+        }
+    }
+
+    /**
+     * Finish the stages which have been started, in order
+     */
+    private void stopConsumers() {
+        for(int i = 0; i < startedConsumers; i++) {
+            try {
+                consumers.get(i).onStop();
+            } catch (IOException | RuntimeException e) {
+                consumerError = new IOException("Cannot finish " + consumers.get(i), e);
+            }
+        }
+        startedConsumers = 0;
+    }
+}
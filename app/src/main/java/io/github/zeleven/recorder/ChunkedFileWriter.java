@@ -0,0 +1,153 @@
+package io.github.zeleven.recorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams bytes to a file through a direct staging buffer and flushes the buffer to disk,
+ * including an fsync, at a fixed interval of media time. Everything written before the
+ * last flush survives a process kill or power loss.
+ */
+public class ChunkedFileWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Meter bytesWritten = RecorderMetrics.meter(RecorderMetrics.BYTES_WRITTEN);
+    private final Histogram fsyncMicros = RecorderMetrics.histogram(RecorderMetrics.FSYNC_MICROS);
+    private final long flushIntervalUs;
+    private long lastFlushUs = 0;
+    private long flushedBytes = 0;
+
+    /**
+     * @param file the output file, truncated if it exists
+     * @param flushIntervalMs media time between two flushes, in milliseconds, 0 to flush
+     *                        only on close
+     * @throws IOException if the file can't be opened
+     */
+    public ChunkedFileWriter(File file, long flushIntervalMs) throws IOException {
+        this(file, 0, flushIntervalMs);
+    }
+
+    /**
+     * @param file the output file, truncated to the given length if it's longer
+     * @param position length of the file to keep and append to, e.g. the output up to a
+     *                 checkpoint
+     * @param flushIntervalMs media time between two flushes, in milliseconds, 0 to flush
+     *                        only on close
+     * @throws IOException if the file can't be opened or is shorter than position
+     */
+    public ChunkedFileWriter(File file, long position, long flushIntervalMs)
+            throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            if(this.file.length() < position) {
+                throw new IOException(file + " is shorter than " + position);
+            }
+            this.file.setLength(position);
+            this.file.seek(position);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+        this.channel = this.file.getChannel();
+        this.flushIntervalUs = flushIntervalMs * 1000;
+        this.flushedBytes = position;
+    }
+
+    /**
+     * Append the remaining bytes of a buffer, the buffer's position is moved to its limit
+     * @param source the bytes to write
+     * @throws IOException if the staging buffer can't be written out
+     */
+    public void write(ByteBuffer source) throws IOException {
+        while(source.hasRemaining()) {
+            if(!buffer.hasRemaining()) {
+                drain();
+            }
+            if(source.remaining() <= buffer.remaining()) {
+                buffer.put(source);
+            } else {
+                int limit = source.limit();
+                source.limit(source.position() + buffer.remaining());
+                buffer.put(source);
+                source.limit(limit);
+            }
+        }
+    }
+
+    /**
+     * Overwrite bytes which have already been flushed, used to update container headers
+     * @param position file offset to write at
+     * @param source the bytes to write
+     * @throws IOException if the bytes can't be written
+     */
+    public void writeAt(long position, ByteBuffer source) throws IOException {
+        while(source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    /**
+     * Flush if the flush interval has passed since the last flush
+     * @param timeUs media time of the data written last
+     * @return true if the writer has flushed
+     * @throws IOException if the data can't be written
+     */
+    public boolean flushIfDue(long timeUs) throws IOException {
+        if(flushIntervalUs <= 0 || timeUs - lastFlushUs < flushIntervalUs) {
+            return false;
+        }
+        lastFlushUs = timeUs;
+        flush();
+        return true;
+    }
+
+    /**
+     * Write the staging buffer to the file and sync the file to the storage device
+     * @throws IOException if the data can't be written
+     */
+    public void flush() throws IOException {
+        drain();
+        long start = System.nanoTime();
+        channel.force(false);
+        fsyncMicros.record((System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * @return number of bytes written to the file, not counting the staging buffer
+     */
+    public long getFlushedBytes() {
+        return flushedBytes;
+    }
+
+    /**
+     * @return number of bytes written including the staging buffer
+     */
+    public long getPosition() {
+        return flushedBytes + buffer.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        bytesWritten.mark(buffer.remaining());
+        while(buffer.hasRemaining()) {
+            flushedBytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
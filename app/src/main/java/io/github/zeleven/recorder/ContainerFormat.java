@@ -0,0 +1,121 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The file formats recordings are stored in, with their extension and MIME type. Older
+ * versions of the app named MPEG-4 recordings ".mp3", so the format of an existing file
+ * is detected from its first bytes rather than trusted from its name.
+ */
+public enum ContainerFormat {
+    MPEG4("m4a", "audio/mp4"),
+    ADTS("aac", "audio/aac"),
+    WAV("wav", "audio/x-wav"),
+    MP3("mp3", "audio/mpeg"),
+    UNKNOWN("", "audio/*");
+
+    /** number of bytes {@link #detect(byte[], int)} looks at */
+    public static final int HEADER_SIZE = 12;
+
+    private final String extension;
+    private final String mimeType;
+
+    ContainerFormat(String extension, String mimeType) {
+        this.extension = extension;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * @return the extension without the dot, empty for {@link #UNKNOWN}
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @param fileName name of a recording file
+     * @return the format its extension stands for, {@link #UNKNOWN} if none
+     */
+    public static ContainerFormat fromFileName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if(dot < 0) {
+            return UNKNOWN;
+        }
+        String extension = fileName.substring(dot + 1).toLowerCase();
+        for(ContainerFormat format : values()) {
+            if(format != UNKNOWN && format.extension.equals(extension)) {
+                return format;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * @param header the first bytes of a file
+     * @param length number of valid bytes in header
+     * @return the format of the content
+     */
+    public static ContainerFormat detect(byte[] header, int length) {
+        if(length >= 8 && header[4] == 'f' && header[5] == 't' && header[6] == 'y'
+                && header[7] == 'p') {
+            return MPEG4;
+        }
+        if(length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F'
+                && header[3] == 'F' && header[8] == 'W' && header[9] == 'A'
+                && header[10] == 'V' && header[11] == 'E') {
+            return WAV;
+        }
+        if(length >= 3 && header[0] == 'I' && header[1] == 'D' && header[2] == '3') {
+            return MP3;
+        }
+        if(length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xE0) == 0xE0) {
+            // MPEG audio frame sync, ADTS has layer 0 where MP3 has layer 1
+            int layer = (header[1] >> 1) & 0x03;
+            if((header[1] & 0xF0) == 0xF0 && layer == 0) {
+                return ADTS;
+            }
+            if(layer == 1) {
+                return MP3;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Detect the format of a file from its content, this reads the file so it must not
+     * be called on the UI thread
+     * @param file the recording file
+     * @return the format, {@link #UNKNOWN} if the file can't be read
+     */
+    public static ContainerFormat detect(File file) {
+        byte[] header = new byte[HEADER_SIZE];
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int length = 0;
+            int count;
+            while(length < header.length
+                    && (count = in.read(header, length, header.length - length)) > 0) {
+                length += count;
+            }
+            return detect(header, length);
+        } catch (IOException e) {
+            return UNKNOWN;
+        } finally {
+            if(in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+
+/**
+ * Deletes recordings together with their waveform and bookmark sidecars, and the segments
+ * of session manifests
+ */
+public class DeleteOperation extends FileOperation {
+    @Override
+    protected File apply(File file) {
+        return delete(file) ? file : null;
+    }
+
+    /**
+     * Delete a recording and everything which belongs to it
+     * @param file the recording file
+     * @return true if the recording is gone
+     */
+    static boolean delete(File file) {
+        if(SessionManifest.isManifest(file)) {
+            if(!SessionManifest.delete(file)) {
+                return false;
+            }
+        } else if(!file.delete() && file.exists()) {
+            return false;
+        }
+        WaveformSummary.sidecarFor(file).delete();
+        MarkerIndex.delete(file);
+        Transcript.delete(file);
+        return true;
+    }
+}
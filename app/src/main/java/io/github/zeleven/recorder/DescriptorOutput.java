@@ -0,0 +1,37 @@
+package io.github.zeleven.recorder;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * An output of a content provider, the backends add what has to happen when the file is
+ * committed or aborted
+ */
+class DescriptorOutput implements StorageBackend.Output {
+    private final ParcelFileDescriptor descriptor;
+
+    DescriptorOutput(ParcelFileDescriptor descriptor) {
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public FileDescriptor getFileDescriptor() {
+        return descriptor.getFileDescriptor();
+    }
+
+    @Override
+    public void commit() throws IOException {
+        descriptor.close();
+    }
+
+    @Override
+    public void abort() {
+        try {
+            descriptor.close();
+        } catch (IOException e) {
+            // removed by the backend anyway
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.zeleven.recorder;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.annotation.Nullable;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+/**
+ * Shows the metrics of the recording pipeline, refreshed every second, and shares them
+ * as a text report. The same metrics are printed by
+ * {@code adb shell dumpsys activity service io.github.zeleven.recorder/.RecordingService}.
+ */
+public class DiagnosticsActivity extends BaseActivity {
+    private static final long REFRESH_INTERVAL_MILLIS = 1000;
+
+    private TextView reportText;
+    private RecordingService recordingService;
+    private Handler handler = new Handler();
+
+    private Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            reportText.setText(buildReport());
+            handler.postDelayed(this, REFRESH_INTERVAL_MILLIS);
+        }
+    };
+
+    private ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            recordingService = ((RecordingService.LocalBinder) binder).getService();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            recordingService = null;
+        }
+    };
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.layoutId = R.layout.activity_diagnostics;
+        super.onCreate(savedInstanceState);
+        reportText = (TextView) findViewById(R.id.diagnostics_text);
+        // only shows the state of a running service, doesn't create one
+        bindService(new Intent(this, RecordingService.class), serviceConnection, 0);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onStop() {
+        handler.removeCallbacks(refresh);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        unbindService(serviceConnection);
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.diagnostics_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_share_report:
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("text/plain");
+                intent.putExtra(Intent.EXTRA_TEXT, buildReport());
+                startActivity(Intent.createChooser(intent,
+                        getString(R.string.share_dialog_title)));
+                return true;
+            case R.id.action_reset_metrics:
+                RecorderMetrics.reset();
+                reportText.setText(buildReport());
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * @return the device, the recording state and every metric
+     */
+    private String buildReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Recorder ").append(BuildConfig.VERSION_NAME)
+                .append(" (").append(BuildConfig.VERSION_CODE).append(")\n");
+        report.append("Android ").append(Build.VERSION.RELEASE)
+                .append(" (API ").append(Build.VERSION.SDK_INT).append("), ")
+                .append(Build.MANUFACTURER).append(' ').append(Build.MODEL).append('\n');
+        if(recordingService != null && recordingService.isRecording()) {
+            report.append(getString(R.string.diagnostics_recording,
+                    recordingService.getFilePath()));
+        } else {
+            report.append(getString(R.string.diagnostics_idle));
+        }
+        report.append("\n\n").append(RecorderMetrics.report());
+        return report.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Exports into a folder the user picked through the storage access framework, which may
+ * be on an SD card, a USB drive or in a cloud storage app
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class DocumentTreeBackend implements StorageBackend {
+    private final Context context;
+    private final Uri tree;
+
+    /**
+     * @param context the context
+     * @param tree the folder returned by {@link android.content.Intent#ACTION_OPEN_DOCUMENT_TREE},
+     *             with a persisted write permission
+     */
+    public DocumentTreeBackend(Context context, Uri tree) {
+        this.context = context.getApplicationContext();
+        this.tree = tree;
+    }
+
+    @Override
+    public String getDescription() {
+        // e.g. "primary:Music/Interviews"
+        return DocumentsContract.getTreeDocumentId(tree);
+    }
+
+    @Override
+    public Output create(String name, String mimeType) throws IOException {
+        final ContentResolver resolver = context.getContentResolver();
+        Uri folder = DocumentsContract.buildDocumentUriUsingTree(tree,
+                DocumentsContract.getTreeDocumentId(tree));
+        // the provider numbers the name if it's taken
+        final Uri document;
+        try {
+            document = DocumentsContract.createDocument(resolver, folder, mimeType, name);
+        } catch (RuntimeException e) {
+            // e.g. the permission has been revoked
+            throw new IOException("Cannot create " + name + " in " + tree, e);
+        }
+        if(document == null) {
+            throw new IOException("Cannot create " + name + " in " + tree);
+        }
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = resolver.openFileDescriptor(document, "w");
+        } catch (FileNotFoundException e) {
+            // deleted below
+        }
+        if(descriptor == null) {
+            delete(resolver, document);
+            throw new IOException("Cannot open " + document);
+        }
+        return new DescriptorOutput(descriptor) {
+            @Override
+            public void abort() {
+                super.abort();
+                delete(resolver, document);
+            }
+        };
+    }
+
+    private static void delete(ContentResolver resolver, Uri document) {
+        try {
+            DocumentsContract.deleteDocument(resolver, document);
+        } catch (FileNotFoundException e) {
+            // already gone
+        }
+    }
+}
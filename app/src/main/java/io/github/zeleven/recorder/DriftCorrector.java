@@ -0,0 +1,170 @@
+package io.github.zeleven.recorder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a second capture stream sample-aligned with the first one. Sample k of the output
+ * is placed where the first stream captured sample k, the position is found through the
+ * {@link StreamClock}s of both streams.
+ * <p>
+ * At the start of every epoch the output is aligned at once, by padding silence or
+ * dropping frames. Afterwards the drift between the two input clocks is corrected by
+ * repeating or dropping a single frame, at most one per {@link #FRAMES_PER_CORRECTION},
+ * which is inaudible. Buffers are passed on without copying and nothing is allocated
+ * per buffer.
+ */
+public class DriftCorrector implements PcmConsumer {
+    // 1000 ppm, far more than the drift of real clocks
+    static final int FRAMES_PER_CORRECTION = 1000;
+    private static final int SILENCE_FRAMES = 1024;
+
+    private final StreamClock reference;
+    private final StreamClock clock;
+    private final List<PcmConsumer> stages;
+    private final AtomicLong correctedFrames =
+            RecorderMetrics.counter(RecorderMetrics.DRIFT_CORRECTED_FRAMES);
+    private int channelCount;
+    private short[] silence;
+    // differences below this are jitter of the timestamps
+    private long toleranceFrames;
+    private long inputFrames;
+    private long outputFrames;
+    private int alignedEpoch = -1;
+    private boolean aligning;
+    private long framesSinceCorrection;
+    private int startedStages;
+
+    /**
+     * @param reference the clock of the first stream, the output follows it
+     * @param clock the clock of this stream
+     * @param stages the stages which write the aligned stream
+     */
+    public DriftCorrector(StreamClock reference, StreamClock clock, List<PcmConsumer> stages) {
+        this.reference = reference;
+        this.clock = clock;
+        this.stages = stages;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.channelCount = channelCount;
+        silence = new short[SILENCE_FRAMES * channelCount];
+        // 2 ms
+        toleranceFrames = Math.max(1, sampleRate / 500);
+        try {
+            for(PcmConsumer stage : stages) {
+                stage.onStart(sampleRate, channelCount);
+                startedStages++;
+            }
+        } catch (IOException | RuntimeException e) {
+            // the engine only finishes the corrector once it has started
+            try {
+                onStop();
+            } catch (IOException ignored) {
+                // the start error is reported
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) throws IOException {
+        int frames = length / channelCount;
+        long start = inputFrames;
+        inputFrames += frames;
+        int epoch = clock.getEpoch();
+        if(epoch != reference.getEpoch() || start < clock.getBase() || !clock.isReady()
+                || !reference.isReady()) {
+            // e.g. one stream has resumed and the other hasn't yet
+            write(buffer, offset, length);
+            return;
+        }
+        if(epoch != alignedEpoch) {
+            alignedEpoch = epoch;
+            aligning = true;
+        }
+        long target = Math.round(reference.frameAt(clock.timeOf(inputFrames)));
+        long error = target - (outputFrames + frames);
+        if(aligning) {
+            if(error > toleranceFrames) {
+                writeSilence(error);
+            } else if(error < -toleranceFrames) {
+                int drop = (int) Math.min(-error, frames);
+                offset += drop * channelCount;
+                length -= drop * channelCount;
+                if(drop < -error) {
+                    // the rest is dropped from the next buffers
+                    write(buffer, offset, length);
+                    return;
+                }
+            }
+            aligning = false;
+            framesSinceCorrection = 0;
+            write(buffer, offset, length);
+            return;
+        }
+        framesSinceCorrection += frames;
+        if(Math.abs(error) <= toleranceFrames) {
+            // no credit for corrections saved up while in sync
+            framesSinceCorrection = Math.min(framesSinceCorrection, FRAMES_PER_CORRECTION);
+            write(buffer, offset, length);
+            return;
+        }
+        if(framesSinceCorrection < FRAMES_PER_CORRECTION || frames == 0) {
+            write(buffer, offset, length);
+            return;
+        }
+        framesSinceCorrection -= FRAMES_PER_CORRECTION;
+        correctedFrames.incrementAndGet();
+        if(error > 0) {
+            // repeat the last frame
+            write(buffer, offset, length);
+            write(buffer, offset + length - channelCount, channelCount);
+        } else {
+            write(buffer, offset, length - channelCount);
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        IOException error = null;
+        for(int i = 0; i < startedStages; i++) {
+            try {
+                stages.get(i).onStop();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        startedStages = 0;
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return the frames written to the stages
+     */
+    public long getOutputFrames() {
+        return outputFrames;
+    }
+
+    private void write(short[] buffer, int offset, int length) throws IOException {
+        if(length <= 0) {
+            return;
+        }
+        for(int i = 0; i < stages.size(); i++) {
+            stages.get(i).onPcm(buffer, offset, length);
+        }
+        outputFrames += length / channelCount;
+    }
+
+    private void writeSilence(long frames) throws IOException {
+        while(frames > 0) {
+            int chunk = (int) Math.min(frames, SILENCE_FRAMES);
+            write(silence, 0, chunk * channelCount);
+            frames -= chunk;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package io.github.zeleven.recorder;
+
+/**
+ * The processing stage between capture and the other stages: high-pass, noise
+ * suppression, automatic gain control and limiter, each of which can be turned off. The
+ * stage processes the buffer in place, so it must come first and every following stage
+ * sees the processed audio.
+ * <p>
+ * The high-pass is a second order Butterworth filter which removes rumble, hum and DC.
+ * Noise suppression and gain control share a level detector: every 10 ms frame is
+ * compared with an adaptive noise floor. Frames close to the floor are attenuated like
+ * by a downward expander; the gain of frames well above it moves the speech level
+ * towards a target, and is held in pauses so the noise isn't pumped up. The gain changes
+ * in a linear ramp over each frame. The limiter has an instant attack and keeps peaks
+ * below -1 dBFS without clipping.
+ * <p>
+ * All state is allocated in {@link #onStart(int, int)}, processing a buffer only does
+ * float arithmetic.
+ */
+public class DspChain implements PcmConsumer {
+    public static final int NONE = 0;
+    public static final int HIGH_PASS = 1;
+    public static final int NOISE_SUPPRESSION = 1 << 1;
+    public static final int GAIN_CONTROL = 1 << 2;
+    public static final int LIMITER = 1 << 3;
+
+    public static final String PRESET_OFF = "off";
+    public static final String PRESET_BASIC = "basic";
+    public static final String PRESET_VOICE = "voice";
+    public static final String PRESET_FULL = "full";
+
+    private static final int FRAME_MILLIS = 10;
+    private static final float HIGH_PASS_HZ = 80f;
+    // frames this far above the noise floor are speech, about 12 dB
+    private static final float SPEECH_RATIO = 4f;
+    // noise is attenuated by at most 18 dB
+    private static final float MIN_NOISE_GAIN = 0.125f;
+    // how fast the attenuation sets in per frame, the release of the expander
+    private static final float NOISE_RELEASE = 0.2f;
+    // the floor falls immediately and rises with a time constant of 20 seconds
+    private static final float FLOOR_RISE = 0.0005f;
+    // RMS level below which nothing is speech, about -60 dBFS
+    private static final float MIN_LEVEL = 33f;
+    // RMS speech level of the output, about -20 dBFS
+    private static final float TARGET_LEVEL = 3277f;
+    // about -6 dB to +24 dB
+    private static final float MIN_AGC_GAIN = 0.5f;
+    private static final float MAX_AGC_GAIN = 16f;
+    // time constant of the speech level of about half a second
+    private static final float LEVEL_SMOOTHING = 0.02f;
+    // the gain falls within a few frames and rises over about a second
+    private static final float AGC_ATTACK = 0.1f;
+    private static final float AGC_RELEASE = 0.01f;
+    private static final float LIMIT = 29205f;
+    private static final float LIMITER_RELEASE_MILLIS = 50f;
+
+    private final boolean highPass;
+    private final boolean noiseSuppression;
+    private final boolean gainControl;
+    private final boolean limiter;
+
+    private int channelCount;
+    private int channel;
+    // transposed direct form II biquad, the state per channel
+    private float b0, b1, b2, a1, a2;
+    private float[] z1 = new float[0];
+    private float[] z2 = new float[0];
+
+    private int frameSamples;
+    private int frameFill;
+    private float frameSum;
+    private float noiseFloor;
+    private float noiseGain;
+    private float speechLevel;
+    private float agcGain;
+    private float gain;
+    private float gainStep;
+
+    private float limiterRelease;
+    private float envelope;
+
+    /**
+     * @param stages the stages to run, a combination of {@link #HIGH_PASS},
+     *               {@link #NOISE_SUPPRESSION}, {@link #GAIN_CONTROL} and {@link #LIMITER}
+     */
+    public DspChain(int stages) {
+        highPass = (stages & HIGH_PASS) != 0;
+        noiseSuppression = (stages & NOISE_SUPPRESSION) != 0;
+        gainControl = (stages & GAIN_CONTROL) != 0;
+        limiter = (stages & LIMITER) != 0;
+    }
+
+    /**
+     * The presets of the settings. Gain control always comes with noise suppression,
+     * otherwise it would raise the noise in quiet recordings.
+     * @param preset the value of the setting
+     * @return the stages of the preset, {@link #NONE} for unknown values
+     */
+    public static int fromPreference(String preset) {
+        switch (preset) {
+            case PRESET_BASIC:
+                return HIGH_PASS | LIMITER;
+            case PRESET_VOICE:
+                return HIGH_PASS | NOISE_SUPPRESSION | LIMITER;
+            case PRESET_FULL:
+                return HIGH_PASS | NOISE_SUPPRESSION | GAIN_CONTROL | LIMITER;
+            default:
+                return NONE;
+        }
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) {
+        this.channelCount = channelCount;
+        channel = 0;
+        // bilinear transform of the analog prototype with Q = 1/sqrt(2)
+        double w = 2 * Math.PI * HIGH_PASS_HZ / sampleRate;
+        double alpha = Math.sin(w) / Math.sqrt(2);
+        double cos = Math.cos(w);
+        double a0 = 1 + alpha;
+        b0 = (float) ((1 + cos) / 2 / a0);
+        b1 = (float) (-(1 + cos) / a0);
+        b2 = b0;
+        a1 = (float) (-2 * cos / a0);
+        a2 = (float) ((1 - alpha) / a0);
+        z1 = new float[channelCount];
+        z2 = new float[channelCount];
+
+        frameSamples = Math.max(1, sampleRate * FRAME_MILLIS / 1000 * channelCount);
+        frameFill = 0;
+        frameSum = 0;
+        noiseFloor = -1;
+        noiseGain = 1;
+        speechLevel = TARGET_LEVEL;
+        agcGain = 1;
+        gain = 1;
+        gainStep = 0;
+
+        limiterRelease = (float) Math.exp(-1000.0 / (LIMITER_RELEASE_MILLIS * sampleRate));
+        envelope = 0;
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) {
+        boolean adaptive = noiseSuppression || gainControl;
+        int end = offset + length;
+        for(int i = offset; i < end; i++) {
+            float x = buffer[i];
+            if(highPass) {
+                int c = channel;
+                float y = b0 * x + z1[c];
+                z1[c] = b1 * x - a1 * y + z2[c];
+                z2[c] = b2 * x - a2 * y;
+                x = y;
+                if(++channel == channelCount) {
+                    channel = 0;
+                }
+            }
+            if(adaptive) {
+                frameSum += x * x;
+                x *= gain;
+                gain += gainStep;
+                if(++frameFill == frameSamples) {
+                    endFrame();
+                }
+            }
+            if(limiter) {
+                float abs = x < 0 ? -x : x;
+                envelope = abs > envelope ? abs : envelope * limiterRelease;
+                if(envelope > LIMIT) {
+                    x *= LIMIT / envelope;
+                }
+            }
+            buffer[i] = (short) (x > Short.MAX_VALUE ? Short.MAX_VALUE
+                    : x < Short.MIN_VALUE ? Short.MIN_VALUE : x);
+        }
+    }
+
+    /**
+     * Update the noise floor and the gains with the level of the finished frame, the gain
+     * ramps to the new value over the next frame
+     */
+    private void endFrame() {
+        float level = (float) Math.sqrt(frameSum / frameSamples);
+        frameFill = 0;
+        frameSum = 0;
+        // digital silence, e.g. while the input starts, would pin the floor to 0
+        if(level >= 1f) {
+            if(noiseFloor < 0 || level < noiseFloor) {
+                noiseFloor = level;
+            } else {
+                noiseFloor += (level - noiseFloor) * FLOOR_RISE;
+            }
+        }
+        float ratio = level / Math.max(noiseFloor, 1f);
+        boolean speech = ratio >= SPEECH_RATIO && level >= MIN_LEVEL;
+
+        if(noiseSuppression) {
+            // an expander of ratio 1:2 below the speech threshold
+            float target = Math.max(MIN_NOISE_GAIN, Math.min(1f, ratio / SPEECH_RATIO));
+            noiseGain = target > noiseGain ? target
+                    : noiseGain + (target - noiseGain) * NOISE_RELEASE;
+        }
+        if(gainControl && speech) {
+            speechLevel += (level - speechLevel) * LEVEL_SMOOTHING;
+            float target = Math.max(MIN_AGC_GAIN,
+                    Math.min(MAX_AGC_GAIN, TARGET_LEVEL / speechLevel));
+            agcGain += (target - agcGain) * (target < agcGain ? AGC_ATTACK : AGC_RELEASE);
+        }
+        gainStep = (noiseGain * agcGain - gain) / frameSamples;
+    }
+
+    @Override
+    public void onStop() {
+        // nothing to finish
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Trims, cuts or splits a recording with {@link RecordingEditor}. The edited parts are
+ * written as new recordings next to the original, which is left as it is, and get the
+ * bookmarks which fall into them.
+ */
+public class EditOperation extends FileOperation {
+    private final List<List<RecordingEditor.Range>> parts;
+    private final List<String> suffixes;
+    private final List<File> outputs = new ArrayList<>();
+
+    private EditOperation(List<List<RecordingEditor.Range>> parts, List<String> suffixes) {
+        this.parts = parts;
+        this.suffixes = suffixes;
+    }
+
+    /**
+     * @return an operation which keeps only the part between start and end
+     */
+    public static EditOperation trim(long startUs, long endUs) {
+        return new EditOperation(
+                Collections.singletonList(RecordingEditor.trim(startUs, endUs)),
+                Collections.singletonList("_trim"));
+    }
+
+    /**
+     * @return an operation which removes the part between start and end
+     */
+    public static EditOperation cut(long startUs, long endUs) {
+        return new EditOperation(
+                Collections.singletonList(RecordingEditor.cut(startUs, endUs)),
+                Collections.singletonList("_cut"));
+    }
+
+    /**
+     * @return an operation which splits a recording into two at the position
+     */
+    public static EditOperation split(long positionUs) {
+        List<List<RecordingEditor.Range>> parts = new ArrayList<>();
+        parts.add(RecordingEditor.trim(0, positionUs));
+        parts.add(RecordingEditor.trim(positionUs, Long.MAX_VALUE));
+        List<String> suffixes = new ArrayList<>();
+        suffixes.add("_1");
+        suffixes.add("_2");
+        return new EditOperation(parts, suffixes);
+    }
+
+    /**
+     * @return every recording written by the operation, a split writes two per file
+     */
+    public List<File> getOutputs() {
+        return outputs;
+    }
+
+    @Override
+    protected File apply(File file) throws IOException {
+        if(SessionManifest.isManifest(file)) {
+            return null;
+        }
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        File folder = file.getParentFile();
+        long[] markers = MarkerIndex.read(file);
+        List<File> written = new ArrayList<>();
+        try {
+            for(int i = 0; i < parts.size(); i++) {
+                List<RecordingEditor.Range> ranges = parts.get(i);
+                // hidden while it's written, so the recordings observer doesn't index it
+                File temp = new File(folder, "." + base + suffixes.get(i) + extension + ".tmp");
+                RecordingEditor.write(file, ranges, temp);
+                File target = FolderBackend.uniqueFile(folder, base + suffixes.get(i) + extension);
+                if(!temp.renameTo(target)) {
+                    temp.delete();
+                    throw new IOException("Cannot create " + target);
+                }
+                written.add(target);
+                for(long marker : RecordingEditor.mapMarkers(markers, ranges)) {
+                    MarkerIndex.append(target, marker);
+                }
+            }
+        } catch (IOException e) {
+            for(File target : written) {
+                target.delete();
+                MarkerIndex.delete(target);
+            }
+            throw e;
+        }
+        outputs.addAll(written);
+        return written.get(0);
+    }
+}
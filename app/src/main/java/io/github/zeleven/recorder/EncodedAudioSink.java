@@ -0,0 +1,33 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The output of {@link AacEncoder}, writes encoded frames into a container file
+ */
+public interface EncodedAudioSink {
+    /**
+     * Called once with the encoder output format, before the first frame
+     * @param format the output format including codec specific data
+     * @throws IOException if the container can't be started
+     */
+    void onFormat(MediaFormat format) throws IOException;
+
+    /**
+     * Called for every encoded frame
+     * @param data the frame, between position and limit
+     * @param info size, flags and presentation time of the frame
+     * @throws IOException if the frame can't be written
+     */
+    void onFrame(ByteBuffer data, MediaCodec.BufferInfo info) throws IOException;
+
+    /**
+     * Finish the container and close the file
+     * @throws IOException if the container can't be finished
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,118 @@
+package io.github.zeleven.recorder;
+
+/**
+ * A named set of encoder settings selected by the recording quality preference. The
+ * profile is applied to whichever capture backend records.
+ */
+public class EncoderProfile {
+    /**
+     * The encoding and the kind of file it's stored in
+     */
+    public enum Codec {
+        /** AAC LC, written as ADTS or MPEG-4 */
+        AAC,
+        /** 16 bit PCM, written as WAV */
+        PCM
+    }
+
+    public static final EncoderProfile VOICE =
+            new EncoderProfile("voice", Codec.AAC, 16000, 1, 32000);
+    public static final EncoderProfile STANDARD =
+            new EncoderProfile("standard", Codec.AAC, 44100, 1, 96000);
+    public static final EncoderProfile HIGH =
+            new EncoderProfile("high", Codec.AAC, 48000, 2, 192000);
+    public static final EncoderProfile LOSSLESS =
+            new EncoderProfile("lossless", Codec.PCM, 44100, 1, 44100 * 16);
+
+    private static final EncoderProfile[] PROFILES = {VOICE, STANDARD, HIGH, LOSSLESS};
+    private static final int AAC_FRAME_SAMPLES = 1024;
+    private static final int WAV_HEADER_SIZE = 44;
+
+    private final String name;
+    private final Codec codec;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bitRate;
+
+    private EncoderProfile(String name, Codec codec, int sampleRate, int channelCount,
+                           int bitRate) {
+        this.name = name;
+        this.codec = codec;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitRate = bitRate;
+    }
+
+    /**
+     * Find the profile of a preference value, values of older versions ("1" and "2")
+     * map to the standard and high profiles
+     * @param value the value of the recording quality preference
+     * @return the profile, {@link #STANDARD} for unknown values
+     */
+    public static EncoderProfile fromPreference(String value) {
+        if("2".equals(value)) {
+            return HIGH;
+        }
+        for(EncoderProfile profile : PROFILES) {
+            if(profile.name.equals(value)) {
+                return profile;
+            }
+        }
+        return STANDARD;
+    }
+
+    /**
+     * Estimated size of one minute of recording. AAC runs at a constant bit rate here,
+     * so this is close to the real size.
+     * @param crashSafe whether AAC is written as ADTS, which adds a header to every frame
+     * @return bytes per minute
+     */
+    public long getBytesPerMinute(boolean crashSafe) {
+        if(codec == Codec.PCM) {
+            return (long) sampleRate * channelCount * 2 * 60 + WAV_HEADER_SIZE;
+        }
+        long bytes = (long) bitRate / 8 * 60;
+        if(crashSafe) {
+            long frames = (long) sampleRate * 60 / AAC_FRAME_SAMPLES;
+            bytes += frames * AdtsFormat.HEADER_SIZE;
+        }
+        return bytes;
+    }
+
+    /**
+     * @param crashSafe whether AAC is written as ADTS instead of MPEG-4
+     * @return the extension of the recording files, without the dot
+     */
+    public String getFileExtension(boolean crashSafe) {
+        if(codec == Codec.PCM) {
+            return "wav";
+        }
+        return crashSafe ? "aac" : "m4a";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + codec + " " + sampleRate + "Hz " + channelCount + "ch " + bitRate
+                + "bps";
+    }
+}
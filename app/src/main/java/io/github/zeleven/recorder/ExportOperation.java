@@ -0,0 +1,95 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies or moves recordings to a {@link StorageBackend}. The segments of a session are
+ * exported as single files named after the session, since its manifest can't point into
+ * another store. The result lists the source of every exported recording as its target.
+ */
+public class ExportOperation extends FileOperation {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final StorageBackend backend;
+    private final boolean move;
+    // reused for every file, direct so the data isn't copied through the Java heap
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * @param backend where the recordings go
+     * @param move whether the recordings are deleted once they have been exported
+     */
+    public ExportOperation(StorageBackend backend, boolean move) {
+        this.backend = backend;
+        this.move = move;
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    public boolean isMove() {
+        return move;
+    }
+
+    @Override
+    protected File apply(File file) throws IOException {
+        if(SessionManifest.isManifest(file)) {
+            String name = file.getName();
+            String base = name.substring(0, name.lastIndexOf('.'));
+            for(SessionManifest.Segment segment : SessionManifest.read(file)) {
+                export(segment.file, base + " " + segment.file.getName());
+            }
+        } else {
+            export(file, file.getName());
+        }
+        if(move && !DeleteOperation.delete(file)) {
+            throw new IOException("Cannot delete " + file);
+        }
+        return file;
+    }
+
+    private void export(File source, String name) throws IOException {
+        StorageBackend.Output output = backend.create(name,
+                ContainerFormat.fromFileName(name).getMimeType());
+        boolean done = false;
+        try {
+            copy(source, output.getFileDescriptor());
+            output.commit();
+            done = true;
+        } finally {
+            if(!done) {
+                output.abort();
+            }
+        }
+    }
+
+    /**
+     * Copy a file into a descriptor through a large buffer, a pipe of a document provider
+     * can't be the target of {@link FileChannel#transferTo}
+     */
+    private void copy(File source, FileDescriptor target) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileChannel inChannel = in.getChannel();
+            // owned by the output, which closes the descriptor
+            FileChannel outChannel = new FileOutputStream(target).getChannel();
+            buffer.clear();
+            while(inChannel.read(buffer) != -1) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    outChannel.write(buffer);
+                }
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
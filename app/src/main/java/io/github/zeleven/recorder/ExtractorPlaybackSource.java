@@ -0,0 +1,100 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Plays any format MediaExtractor understands, e.g. MPEG-4 recordings, which carry their
+ * own table of sync samples. From API 23 the extractor reads through a
+ * {@link MappedDataSource}.
+ */
+public class ExtractorPlaybackSource implements PlaybackSource {
+    private final MediaExtractor extractor = new MediaExtractor();
+    private MappedDataSource dataSource;
+    private MediaFormat format;
+    private long durationUs;
+
+    /**
+     * @param recording the file
+     * @throws IOException if the file can't be read or has no audio track
+     */
+    public ExtractorPlaybackSource(File recording) throws IOException {
+        try {
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                dataSource = new MappedDataSource(recording);
+                extractor.setDataSource(dataSource);
+            } else {
+                extractor.setDataSource(recording.getAbsolutePath());
+            }
+            for(int i = 0; i < extractor.getTrackCount() && format == null; i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if(mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                }
+            }
+            if(format == null) {
+                throw new IOException("No audio track in " + recording);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        durationUs = format.containsKey(MediaFormat.KEY_DURATION)
+                ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+    }
+
+    @Override
+    public MediaFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+    }
+
+    @Override
+    public int getChannelCount() {
+        return format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+    }
+
+    @Override
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    @Override
+    public long seekTo(long timeUs) {
+        extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        return Math.max(0, extractor.getSampleTime());
+    }
+
+    @Override
+    public long getSampleTimeUs() {
+        return extractor.getSampleTime();
+    }
+
+    @Override
+    public int readSample(ByteBuffer buffer) {
+        int size = extractor.readSampleData(buffer, buffer.position());
+        if(size >= 0) {
+            extractor.advance();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        extractor.release();
+        if(dataSource != null) {
+            dataSource.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bulk operation on recording files, run by {@link FileOperationQueue} on a background
+ * thread. Files are processed one by one, the operation can be cancelled between two
+ * files and reports its progress after each.
+ */
+public abstract class FileOperation {
+    private volatile boolean cancelled = false;
+
+    /**
+     * Receives the progress, called on the thread which runs the operation
+     */
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * The outcome of an operation
+     */
+    public static class Result {
+        /** files which have been processed */
+        public final List<File> processed = new ArrayList<>();
+        /** where each processed file went, for operations which move or copy files */
+        public final List<File> targets = new ArrayList<>();
+        /** files which could not be processed */
+        public final List<File> failed = new ArrayList<>();
+        /** the file created by the operation, e.g. an archive */
+        public File output;
+        public boolean cancelled;
+    }
+
+    /**
+     * Stop the operation before the next file, files already processed stay processed
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Process the files, called on a background thread
+     * @param files the files to process
+     * @param listener receives the progress
+     * @return the result
+     */
+    public Result run(List<File> files, ProgressListener listener) {
+        Result result = new Result();
+        int total = files.size();
+        try {
+            begin(result);
+            for(int i = 0; i < total; i++) {
+                if(cancelled) {
+                    break;
+                }
+                File file = files.get(i);
+                try {
+                    File target = apply(file);
+                    if(target != null) {
+                        result.processed.add(file);
+                        result.targets.add(target);
+                    } else {
+                        result.failed.add(file);
+                    }
+                } catch (IOException e) {
+                    result.failed.add(file);
+                }
+                listener.onProgress(i + 1, total);
+            }
+            result.cancelled = cancelled;
+            end(result);
+        } catch (IOException e) {
+            // the operation as a whole failed, e.g. the archive can't be written
+            result.output = null;
+            for(File file : files) {
+                if(!result.processed.contains(file) && !result.failed.contains(file)) {
+                    result.failed.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Called before the first file
+     * @throws IOException if the operation can't start
+     */
+    protected void begin(Result result) throws IOException {}
+
+    /**
+     * Process one file
+     * @param file the file
+     * @return where the file went, the file itself if it stays in place, or null if it
+     *         could not be processed
+     * @throws IOException if the file could not be processed
+     */
+    protected abstract File apply(File file) throws IOException;
+
+    /**
+     * Called after the last file, or after cancellation
+     * @throws IOException if the operation can't be finished
+     */
+    protected void end(Result result) throws IOException {}
+}
@@ -0,0 +1,96 @@
+package io.github.zeleven.recorder;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs {@link FileOperation}s one after another on a background thread. Progress is
+ * delivered to the listener on the main thread at most every {@link #PROGRESS_INTERVAL_MS},
+ * the result once per operation, so the list is updated once per batch.
+ */
+public class FileOperationQueue {
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<FileOperation> operations = new ArrayList<>();
+    private boolean released = false;
+
+    /**
+     * The callbacks of an operation, all called on the main thread
+     */
+    public interface Listener {
+        void onProgress(FileOperation operation, int done, int total);
+
+        void onFinished(FileOperation operation, FileOperation.Result result);
+    }
+
+    /**
+     * Queue an operation
+     * @param operation the operation
+     * @param files the files to process, copied
+     * @param listener receives progress and result
+     */
+    public void submit(final FileOperation operation, List<File> files, final Listener listener) {
+        final List<File> fileList = new ArrayList<>(files);
+        operations.add(operation);
+        executor.execute(new Runnable() {
+            private long lastProgressTime = 0;
+
+            @Override
+            public void run() {
+                final FileOperation.Result result = operation.run(fileList,
+                        new FileOperation.ProgressListener() {
+                    @Override
+                    public void onProgress(final int done, final int total) {
+                        long now = SystemClock.uptimeMillis();
+                        if(done < total && now - lastProgressTime < PROGRESS_INTERVAL_MS) {
+                            return;
+                        }
+                        lastProgressTime = now;
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if(!released) {
+                                    listener.onProgress(operation, done, total);
+                                }
+                            }
+                        });
+                    }
+                });
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        operations.remove(operation);
+                        if(!released) {
+                            listener.onFinished(operation, result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Whether an operation is queued or running
+     */
+    public boolean isBusy() {
+        return !operations.isEmpty();
+    }
+
+    /**
+     * Stop delivering callbacks, queued and running operations still complete so no
+     * batch is left half done without the user asking for it
+     */
+    public void release() {
+        released = true;
+        executor.shutdown();
+    }
+}
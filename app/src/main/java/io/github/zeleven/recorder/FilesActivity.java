@@ -1,16 +1,105 @@
 package io.github.zeleven.recorder;
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.DefaultItemAnimator;
 import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.Spinner;
+
+import java.util.Calendar;
 
 /**
- * The file activity to list all files
+ * The file activity to list all files, selected files are handled in an action mode. The
+ * toolbar searches names, tags, notes and transcripts and filters by date, duration and
+ * size.
  */
-public class FilesActivity extends BaseActivity {
+public class FilesActivity extends BaseActivity implements FilesListAdapter.SelectionListener {
+    private static final long MINUTE = 60 * 1000;
+    private static final long MEGABYTE = 1024 * 1024;
+    // the options of the filter spinners, option i is the range of bounds i - 1 and i
+    private static final int[] DATE_OPTION_DAYS = {0, 1, 7, 30};
+    private static final long[] DURATION_OPTION_BOUNDS = {SearchQuery.UNBOUNDED, MINUTE,
+            10 * MINUTE, 60 * MINUTE, SearchQuery.UNBOUNDED};
+    private static final long[] SIZE_OPTION_BOUNDS = {SearchQuery.UNBOUNDED, MEGABYTE,
+            10 * MEGABYTE, 100 * MEGABYTE, SearchQuery.UNBOUNDED};
+
+    private FilesListAdapter adapter;
+    private ActionMode actionMode;
+    private String searchText = "";
+    private int dateOption = 0;
+    private int durationOption = 0;
+    private int sizeOption = 0;
+
+    private ActionMode.Callback actionModeCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.selection_menu, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            // only a single file can be renamed or annotated
+            menu.findItem(R.id.action_rename).setVisible(adapter.getSelectedCount() == 1);
+            menu.findItem(R.id.action_annotate).setVisible(adapter.getSelectedCount() == 1);
+            menu.findItem(R.id.action_bookmarks).setVisible(adapter.getSelectedCount() == 1);
+            menu.findItem(R.id.action_edit).setVisible(adapter.getSelectedCount() == 1);
+            return true;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+                case R.id.action_select_all:
+                    adapter.selectAll();
+                    return true;
+                case R.id.action_rename:
+                    adapter.renameSelected();
+                    break;
+                case R.id.action_annotate:
+                    adapter.annotateSelected();
+                    break;
+                case R.id.action_bookmarks:
+                    adapter.showBookmarksOfSelected();
+                    break;
+                case R.id.action_edit:
+                    adapter.editSelected();
+                    break;
+                case R.id.action_share:
+                    adapter.shareSelected();
+                    break;
+                case R.id.action_export:
+                    adapter.exportSelected(false);
+                    break;
+                case R.id.action_move:
+                    adapter.exportSelected(true);
+                    break;
+                case R.id.action_delete:
+                    adapter.deleteSelected();
+                    break;
+                default:
+                    return false;
+            }
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            actionMode = null;
+            adapter.clearSelection();
+        }
+    };
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -22,14 +111,129 @@ public class FilesActivity extends BaseActivity {
 
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         layoutManager.setOrientation(LinearLayoutManager.VERTICAL);
-        layoutManager.setReverseLayout(true);
-        layoutManager.setStackFromEnd(true);
 
         mRecyclerView.setLayoutManager(layoutManager);
         mRecyclerView.setItemAnimator(new DefaultItemAnimator());
         mRecyclerView.addItemDecoration(new DividerItemDecoration(this,
                 DividerItemDecoration.VERTICAL));
-        FilesListAdapter adapter = new FilesListAdapter(this, layoutManager);
+        adapter = new FilesListAdapter(this, layoutManager);
+        adapter.setSelectionListener(this);
         mRecyclerView.setAdapter(adapter);
     }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.files_menu, menu);
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // searches as the user types, the adapter only shows the latest result
+                searchText = newText;
+                search();
+                return true;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if(item.getItemId() == R.id.action_filter) {
+            showFilterDialog();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showFilterDialog() {
+        View view = LayoutInflater.from(this).inflate(R.layout.search_filter_dialog, null);
+        final Spinner dateSpinner = view.findViewById(R.id.filter_date_spinner);
+        final Spinner durationSpinner = view.findViewById(R.id.filter_duration_spinner);
+        final Spinner sizeSpinner = view.findViewById(R.id.filter_size_spinner);
+        dateSpinner.setSelection(dateOption);
+        durationSpinner.setSelection(durationOption);
+        sizeSpinner.setSelection(sizeOption);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getString(R.string.filter_dialog_title));
+        builder.setView(view);
+        builder.setPositiveButton(getString(R.string.dialog_button_ok),
+                new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                dateOption = dateSpinner.getSelectedItemPosition();
+                durationOption = durationSpinner.getSelectedItemPosition();
+                sizeOption = sizeSpinner.getSelectedItemPosition();
+                search();
+            }
+        });
+        builder.setNegativeButton(getString(R.string.dialog_button_reset),
+                new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                dateOption = 0;
+                durationOption = 0;
+                sizeOption = 0;
+                search();
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Show the recordings matching the search text and filters
+     */
+    private void search() {
+        SearchQuery query = new SearchQuery().setText(searchText);
+        if(dateOption > 0) {
+            // whole days, today counts as the first one
+            Calendar calendar = Calendar.getInstance();
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            calendar.add(Calendar.DAY_OF_MONTH, 1 - DATE_OPTION_DAYS[dateOption]);
+            query.setTimeRange(calendar.getTimeInMillis(), SearchQuery.UNBOUNDED);
+        }
+        if(durationOption > 0) {
+            query.setDurationRange(DURATION_OPTION_BOUNDS[durationOption - 1],
+                    DURATION_OPTION_BOUNDS[durationOption]);
+        }
+        if(sizeOption > 0) {
+            query.setSizeRange(SIZE_OPTION_BOUNDS[sizeOption - 1],
+                    SIZE_OPTION_BOUNDS[sizeOption]);
+        }
+        adapter.setQuery(query);
+    }
+
+    @Override
+    public void onSelectionStarted() {
+        actionMode = startSupportActionMode(actionModeCallback);
+    }
+
+    @Override
+    public void onSelectionChanged(int count) {
+        if(actionMode == null) {
+            return;
+        }
+        if(count == 0) {
+            actionMode.finish();
+        } else {
+            actionMode.setTitle(getString(R.string.selection_title, count));
+            actionMode.invalidate();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        adapter.release();
+        super.onDestroy();
+    }
 }
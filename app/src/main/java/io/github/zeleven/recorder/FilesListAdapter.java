@@ -1,16 +1,19 @@
 package io.github.zeleven.recorder;
 
 import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.ClipData;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.media.MediaMetadataRetriever;
 import android.net.Uri;
-import android.os.Environment;
-import android.support.v4.app.FragmentActivity;
-import android.support.v4.app.FragmentTransaction;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.SortedList;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.util.SortedListAdapterCallback;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -22,31 +25,115 @@ import android.widget.Toast;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
- * The file list adapter for FilesActivity
+ * The file list adapter for FilesActivity. The folder is listed in background and every
+ * later change (rename, delete, new recording) is applied to a sorted list which only
+ * notifies the rows that actually moved or changed.
+ * <p>
+ * Long press starts selecting rows. File operations on the selection run on a
+ * {@link FileOperationQueue}, their result is applied to the list as one batch.
+ * <p>
+ * While a search is active only the matching recordings are shown, the search runs on
+ * the {@link SearchIndex}.
  */
-public class FilesListAdapter extends RecyclerView.Adapter<FilesListAdapter.ViewHolder> {
+public class FilesListAdapter extends RecyclerView.Adapter<FilesListAdapter.ViewHolder>
+        implements MetadataScanner.Listener, RecordingsLoader.Listener,
+        RecordingsObserver.Listener, WaveformCache.Listener, FileOperationQueue.Listener,
+        SearchIndex.SearchCallback {
+    private static final String SHARE_FOLDER_NAME = "share";
+
     private Context mContext;
     private LinearLayoutManager linearLayoutManager;
-    private File[] recordingFiles;
-    private String filesFolder = Environment.getExternalStorageDirectory().
-            getAbsolutePath() + "/Recorder/";
+    private SortedList<RecordingItem> recordingItems;
+    private Map<String, RecordingItem> itemsByPath = new HashMap<>();
+    private RecordingsRepository repository;
+    private File recordingsFolder;
+    private MetadataScanner metadataScanner;
+    private WaveformCache waveformCache;
+    private RecordingsLoader recordingsLoader;
+    private RecordingsObserver recordingsObserver;
+    // files removed while the loader is still delivering pages, which may contain them
+    private Set<String> removedWhileLoading = new HashSet<>();
+    private boolean loading = true;
+    private Handler mainHandler = new Handler(Looper.getMainLooper());
+    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+    private FileOperationQueue operationQueue = new FileOperationQueue();
+    // files of queued operations, folder events about them are applied with the batch
+    private Set<String> busyPaths = new HashSet<>();
+    private Set<String> selectedPaths = new HashSet<>();
+    private boolean selecting = false;
+    private SelectionListener selectionListener;
+    private ProgressDialog progressDialog;
+    private SearchIndex searchIndex;
+    private SearchQuery query;
+    // paths matching the query, null shows every recording
+    private Set<String> searchResults;
+
+    /**
+     * The callbacks of row selection, FilesActivity shows an action mode for the selection
+     */
+    public interface SelectionListener {
+        /**
+         * Called when a long press has started selecting rows
+         */
+        void onSelectionStarted();
+
+        /**
+         * Called when rows have been selected or deselected
+         * @param count number of selected rows, selecting ends when it's 0
+         */
+        void onSelectionChanged(int count);
+    }
 
     public FilesListAdapter(Context context, LinearLayoutManager layoutManager) {
         super();
         mContext = context;
         linearLayoutManager = layoutManager;
-        // list files in files folder
-        recordingFiles = new File(filesFolder).listFiles();
+        recordingItems = new SortedList<>(RecordingItem.class,
+                new SortedListAdapterCallback<RecordingItem>(this) {
+            @Override
+            public int compare(RecordingItem a, RecordingItem b) {
+                return RecordingItem.NEWEST_FIRST.compare(a, b);
+            }
+
+            @Override
+            public boolean areContentsTheSame(RecordingItem oldItem, RecordingItem newItem) {
+                return oldItem.sameContentAs(newItem);
+            }
+
+            @Override
+            public boolean areItemsTheSame(RecordingItem a, RecordingItem b) {
+                return a.getPath().equals(b.getPath());
+            }
+        });
+        metadataScanner = new MetadataScanner(context, this);
+        searchIndex = SearchIndex.getInstance(context);
+        waveformCache = new WaveformCache(this);
+        repository = RecordingsRepository.getInstance(context);
+        recordingsFolder = repository.getRecordingsFolder();
+
+        // watch the folder before listing it, so no new recording is missed
+        recordingsObserver = new RecordingsObserver(recordingsFolder, this);
+        recordingsObserver.startWatching();
+        // list files in files folder in background
+        recordingsLoader = new RecordingsLoader(recordingsFolder, this);
+        recordingsLoader.load();
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
         protected TextView nameText;
         protected TextView durationText;
         protected TextView createTimeText;
+        protected WaveformView waveformView;
         protected LinearLayout listItem;
 
         public ViewHolder(View itemView) {
@@ -55,6 +142,7 @@ public class FilesListAdapter extends RecyclerView.Adapter<FilesListAdapter.View
             nameText = itemView.findViewById(R.id.file_name_text);
             durationText = itemView.findViewById(R.id.file_duration_text);
             createTimeText = itemView.findViewById(R.id.file_create_time_text);
+            waveformView = itemView.findViewById(R.id.file_waveform_view);
             listItem = itemView.findViewById(R.id.list_item);
         }
     }
@@ -70,88 +158,410 @@ public class FilesListAdapter extends RecyclerView.Adapter<FilesListAdapter.View
     }
 
     @Override
-    public void onBindViewHolder(final ViewHolder holder, final int position) {
+    public void onBindViewHolder(final ViewHolder holder, int position) {
         // get file in folder by position
-        final File file = recordingFiles[position];
-        // get file's path
-        final String filePath = file.getAbsolutePath();
-
-        // create MediaMetadataRetriever object to get the audio file duration
-        MediaMetadataRetriever metadataRetriever = new MediaMetadataRetriever();
-        metadataRetriever.setDataSource(filePath);
-        final long duration = Long.parseLong(metadataRetriever.extractMetadata(
-                MediaMetadataRetriever.METADATA_KEY_DURATION));
-        long minutes = TimeUnit.MILLISECONDS.toMinutes(duration);
-        long seconds = TimeUnit.MILLISECONDS.toSeconds(duration) -
-                TimeUnit.MINUTES.toSeconds(minutes);
+        final RecordingItem item = recordingItems.get(position);
+        final File file = item.getFile();
 
-        holder.nameText.setText(file.getName());
-        holder.durationText.setText(String.format("%02d:%02d", minutes, seconds));
+        // get duration and create time from the metadata index, files which are not
+        // indexed yet are rebound once the scanner has extracted their metadata
+        RecordingMetadata metadata = metadataScanner.get(item);
 
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
-        holder.createTimeText.setText(dateFormat.format(new Date(file.lastModified())));
+        holder.nameText.setText(file.getName());
+        if(metadata != null) {
+            long duration = metadata.getDuration();
+            long minutes = TimeUnit.MILLISECONDS.toMinutes(duration);
+            long seconds = TimeUnit.MILLISECONDS.toSeconds(duration) -
+                    TimeUnit.MINUTES.toSeconds(minutes);
+            holder.durationText.setText(String.format("%02d:%02d", minutes, seconds));
+            holder.createTimeText.setText(dateFormat.format(new Date(metadata.getCreateTime())));
+        } else {
+            holder.durationText.setText("--:--");
+            holder.createTimeText.setText(dateFormat.format(new Date(item.getCreateTime())));
+        }
+        // thumbnails which are not in memory are rebound once they have been loaded
+        holder.waveformView.setSummary(waveformCache.get(item));
 
+        holder.listItem.setActivated(selectedPaths.contains(item.getPath()));
         holder.listItem.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                Intent intent = new Intent();
-                intent.setAction(Intent.ACTION_VIEW);
-                intent.setDataAndType(Uri.fromFile(file), "audio/*");
-                mContext.startActivity(intent);
+                if(selecting) {
+                    toggleSelection(item);
+                    return;
+                }
+                mContext.startActivity(PlayerActivity.newIntent(mContext, file));
             }
         });
 
-        // set long click listener for RecyclerView item
+        // long press starts selecting rows
         holder.listItem.setOnLongClickListener(new View.OnLongClickListener() {
             @Override
             public boolean onLongClick(View view) {
-                ArrayList<String> dialogText = new ArrayList<>();
-                dialogText.add(mContext.getString(R.string.dialog_item_rename));
-                dialogText.add(mContext.getString(R.string.dialog_item_delete));
-                dialogText.add(mContext.getString(R.string.dialog_item_share));
+                if(!selecting) {
+                    selecting = true;
+                    if(selectionListener != null) {
+                        selectionListener.onSelectionStarted();
+                    }
+                }
+                toggleSelection(item);
+                return true;
+            }
+        });
+    }
 
-                CharSequence[] items = dialogText.toArray(new CharSequence[dialogText.size()]);
+    @Override
+    public int getItemCount() {
+        return recordingItems.size();
+    }
 
-                AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
-                builder.setTitle(mContext.getString(R.string.dialog_title));
-                builder.setItems(items, new DialogInterface.OnClickListener() {
-                    @Override
-                    public void onClick(DialogInterface dialogInterface, int i) {
-                        if(i == 0) {
-                            // open rename file dialog
-                            renameFileDialog(file, position);
-                        } else if(i == 1) {
-                            // open delete file dialog
-                            deleteFileDialog(file, position);
-                        } else if(i == 2) {
-                            // open share file dialog
-                            shareFileDialog(file);
-                        }
-                    }
-                });
-                builder.setCancelable(true);
-                builder.setNegativeButton(mContext.getString(R.string.dialog_button_cancel),
-                        new DialogInterface.OnClickListener() {
-                    @Override
-                    public void onClick(DialogInterface dialogInterface, int i) {
-                        dialogInterface.cancel();
-                    }
-                });
+    @Override
+    public void onPageLoaded(List<RecordingItem> page) {
+        recordingItems.beginBatchedUpdates();
+        for(RecordingItem item : page) {
+            if(!removedWhileLoading.contains(item.getPath())) {
+                addItem(item);
+            }
+        }
+        recordingItems.endBatchedUpdates();
+    }
 
-                builder.create().show();
-                return false;
+    @Override
+    public void onLoadFinished(List<RecordingItem> items) {
+        loading = false;
+        removedWhileLoading.clear();
+        // check the metadata index against the folder in background
+        metadataScanner.sync(items);
+    }
+
+    @Override
+    public void onRecordingAdded(RecordingItem item) {
+        removedWhileLoading.remove(item.getPath());
+        addItem(item);
+        metadataScanner.update(item);
+    }
+
+    @Override
+    public void onRecordingRemoved(File file) {
+        if(busyPaths.contains(file.getAbsolutePath())) {
+            // removed by a queued operation, which updates the list when it's done
+            return;
+        }
+        if(loading) {
+            removedWhileLoading.add(file.getAbsolutePath());
+        }
+        removeItem(file);
+    }
+
+    @Override
+    public void onIndexLoaded() {
+        notifyItemRangeChanged(0, recordingItems.size());
+    }
+
+    @Override
+    public void onMetadataReady(RecordingItem item, RecordingMetadata metadata) {
+        notifyItemChanged(item);
+    }
+
+    @Override
+    public void onWaveformReady(RecordingItem item) {
+        notifyItemChanged(item);
+    }
+
+    /**
+     * Rebind the row of a file if it's in the list
+     * @param item the changed file
+     */
+    private void notifyItemChanged(RecordingItem item) {
+        RecordingItem current = itemsByPath.get(item.getPath());
+        if(current != null) {
+            int position = recordingItems.indexOf(current);
+            if(position != SortedList.INVALID_POSITION) {
+                notifyItemChanged(position);
+            }
+        }
+    }
+
+    /**
+     * Add an item, or replace the item of the same file. It's only shown if it matches
+     * the search.
+     * @param item the item to add
+     */
+    private void addItem(RecordingItem item) {
+        RecordingItem old = itemsByPath.put(item.getPath(), item);
+        if(old != null) {
+            // the sort key may have changed, remove the old item instead of updating it
+            recordingItems.remove(old);
+        }
+        if(searchResults == null || searchResults.contains(item.getPath())) {
+            recordingItems.add(item);
+        }
+    }
+
+    /**
+     * Show only the recordings matching a query
+     * @param query the query, an empty query shows every recording
+     */
+    public void setQuery(SearchQuery query) {
+        if(query.isEmpty()) {
+            this.query = null;
+            showSearchResults(null);
+        } else {
+            this.query = query;
+            searchIndex.search(query, this);
+        }
+    }
+
+    @Override
+    public void onSearchFinished(SearchQuery query, Set<String> paths) {
+        // results of an older query arrive after the user has typed on
+        if(query == this.query) {
+            showSearchResults(paths);
+        }
+    }
+
+    /**
+     * Apply a search result to the list as one batch
+     * @param paths the matching paths, null to show every recording
+     */
+    private void showSearchResults(Set<String> paths) {
+        searchResults = paths;
+        recordingItems.beginBatchedUpdates();
+        for(RecordingItem item : itemsByPath.values()) {
+            if(paths == null || paths.contains(item.getPath())) {
+                recordingItems.add(item);
+            } else {
+                recordingItems.remove(item);
+                selectedPaths.remove(item.getPath());
+            }
+        }
+        recordingItems.endBatchedUpdates();
+        notifySelectionChanged();
+    }
+
+    /**
+     * Remove the item of a file if it's in the list
+     * @param file the removed file
+     */
+    private void removeItem(File file) {
+        RecordingItem old = itemsByPath.remove(file.getAbsolutePath());
+        if(old != null) {
+            recordingItems.remove(old);
+        }
+    }
+
+    /**
+     * Stop the loader, folder observer and metadata callbacks, called when the activity
+     * is destroyed
+     */
+    public void release() {
+        recordingsLoader.release();
+        recordingsObserver.release();
+        metadataScanner.release();
+        waveformCache.release();
+        operationQueue.release();
+        // drops results of a search which is still running
+        query = null;
+        if(progressDialog != null) {
+            progressDialog.dismiss();
+        }
+    }
+
+    public void setSelectionListener(SelectionListener listener) {
+        selectionListener = listener;
+    }
+
+    /**
+     * @return number of selected rows
+     */
+    public int getSelectedCount() {
+        return selectedPaths.size();
+    }
+
+    public void selectAll() {
+        for(int i = 0; i < recordingItems.size(); i++) {
+            selectedPaths.add(recordingItems.get(i).getPath());
+        }
+        notifyItemRangeChanged(0, recordingItems.size());
+        notifySelectionChanged();
+    }
+
+    /**
+     * Deselect all rows and stop selecting, called when the action mode ends
+     */
+    public void clearSelection() {
+        selecting = false;
+        if(!selectedPaths.isEmpty()) {
+            selectedPaths.clear();
+            notifyItemRangeChanged(0, recordingItems.size());
+        }
+    }
+
+    private void toggleSelection(RecordingItem item) {
+        if(!selectedPaths.remove(item.getPath())) {
+            selectedPaths.add(item.getPath());
+        }
+        notifyItemChanged(item);
+        notifySelectionChanged();
+    }
+
+    private void notifySelectionChanged() {
+        if(selectionListener != null) {
+            selectionListener.onSelectionChanged(selectedPaths.size());
+        }
+    }
+
+    /**
+     * @return the selected files in list order
+     */
+    private List<File> getSelectedFiles() {
+        List<File> files = new ArrayList<>();
+        for(int i = 0; i < recordingItems.size(); i++) {
+            RecordingItem item = recordingItems.get(i);
+            if(selectedPaths.contains(item.getPath())) {
+                files.add(item.getFile());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Queue an operation on files and show its progress
+     * @param operation the operation
+     * @param files the files to process
+     * @param titleId title of the progress dialog
+     */
+    private void submit(final FileOperation operation, List<File> files, int titleId) {
+        if(files.isEmpty()) {
+            return;
+        }
+        for(File file : files) {
+            busyPaths.add(file.getAbsolutePath());
+        }
+        progressDialog = new ProgressDialog(mContext);
+        progressDialog.setTitle(mContext.getString(titleId));
+        progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        progressDialog.setMax(files.size());
+        progressDialog.setCancelable(false);
+        progressDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                mContext.getString(R.string.dialog_button_cancel),
+                new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                operation.cancel();
             }
         });
+        progressDialog.show();
+        operationQueue.submit(operation, files, this);
     }
 
     @Override
-    public int getItemCount() {
-        return recordingFiles.length;
+    public void onProgress(FileOperation operation, int done, int total) {
+        if(progressDialog != null) {
+            progressDialog.setProgress(done);
+        }
+    }
+
+    @Override
+    public void onFinished(FileOperation operation, FileOperation.Result result) {
+        if(progressDialog != null) {
+            progressDialog.dismiss();
+            progressDialog = null;
+        }
+        for(File file : result.processed) {
+            busyPaths.remove(file.getAbsolutePath());
+        }
+        for(File file : result.failed) {
+            busyPaths.remove(file.getAbsolutePath());
+        }
+
+        // apply the whole batch to the list at once
+        boolean renamed = operation instanceof TransferOperation
+                && isInFolder(result.targets);
+        boolean removed = renamed || operation instanceof DeleteOperation
+                || (operation instanceof ExportOperation && ((ExportOperation) operation)
+                .isMove());
+        if(removed && !result.processed.isEmpty()) {
+            recordingItems.beginBatchedUpdates();
+            for(int i = 0; i < result.processed.size(); i++) {
+                File file = result.processed.get(i);
+                RecordingItem item = itemsByPath.get(file.getAbsolutePath());
+                removeItem(file);
+                selectedPaths.remove(file.getAbsolutePath());
+                if(renamed && searchResults != null
+                        && searchResults.remove(file.getAbsolutePath())) {
+                    // a renamed match stays in the result until the next search
+                    searchResults.add(result.targets.get(i).getAbsolutePath());
+                }
+                if(renamed && item != null) {
+                    addItem(item.renamedTo(result.targets.get(i)));
+                }
+            }
+            recordingItems.endBatchedUpdates();
+            waveformCache.onFilesRemoved(result.processed);
+            if(renamed) {
+                metadataScanner.onFilesRenamed(result.processed, result.targets);
+            } else {
+                metadataScanner.onFilesDeleted(result.processed);
+            }
+            notifySelectionChanged();
+        }
+        showResult(operation, result);
     }
 
-    public void renameFileDialog(final File file, final int position) {
+    /**
+     * Whether files are in the listed folder, i.e. a transfer was a rename
+     */
+    private boolean isInFolder(List<File> files) {
+        for(File file : files) {
+            if(!recordingsFolder.equals(file.getParentFile())) {
+                return false;
+            }
+        }
+        return !files.isEmpty();
+    }
+
+    private void showResult(FileOperation operation, FileOperation.Result result) {
+        String message;
+        if(result.cancelled) {
+            message = mContext.getString(R.string.toast_operation_cancelled);
+        } else if(!result.failed.isEmpty()) {
+            message = mContext.getString(R.string.toast_operation_failed,
+                    result.failed.size());
+        } else if(operation instanceof DeleteOperation) {
+            message = mContext.getString(R.string.toast_files_deleted,
+                    result.processed.size());
+        } else if(operation instanceof ArchiveOperation) {
+            shareFile(result.output, "application/zip");
+            return;
+        } else if(operation instanceof ExportOperation) {
+            ExportOperation export = (ExportOperation) operation;
+            message = mContext.getString(export.isMove()
+                    ? R.string.toast_files_moved : R.string.toast_files_exported,
+                    result.processed.size(), export.getBackend().getDescription());
+        } else {
+            return;
+        }
+        Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Rename the selected file, only offered when one row is selected
+     */
+    public void renameSelected() {
+        List<File> files = getSelectedFiles();
+        if(files.size() != 1) {
+            return;
+        }
+        final File file = files.get(0);
         View view = LayoutInflater.from(mContext).inflate(R.layout.rename_dialog, null);
         final EditText nameInput = view.findViewById(R.id.new_filename_input);
+        // keep the extension, it tells players the container format
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        final String extension = dot > 0 ? name.substring(dot) : "";
+        TextView extensionText = view.findViewById(R.id.filename_extension_text);
+        extensionText.setText(extension);
 
         AlertDialog.Builder renameBuilder = new AlertDialog.Builder(mContext);
         renameBuilder.setTitle(mContext.getString(R.string.rename_dialog_title));
@@ -160,18 +570,14 @@ public class FilesListAdapter extends RecyclerView.Adapter<FilesListAdapter.View
                 new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialogInterface, int i) {
-                String newFileName = nameInput.getText().toString().trim() + ".mp3";
-
-                String absFilePath = Environment.getExternalStorageDirectory().getAbsolutePath()
-                        + "/Recorder/" + newFileName;
-                File temp = new File(absFilePath);
-                if(temp.exists() && !temp.isDirectory()) {
+                String newFileName = nameInput.getText().toString().trim() + extension;
+                File temp = new File(file.getParentFile(), newFileName);
+                if(temp.exists()) {
                     Toast.makeText(mContext, mContext.getString(R.string.toast_filename_existed),
                             Toast.LENGTH_SHORT).show();
                 } else {
-                    file.renameTo(temp);
-                    recordingFiles = new File(filesFolder).listFiles();
-                    notifyItemChanged(position);
+                    submit(TransferOperation.rename(temp), Collections.singletonList(file),
+                            R.string.progress_title_rename);
                 }
 
                 dialogInterface.cancel();
@@ -190,21 +596,131 @@ public class FilesListAdapter extends RecyclerView.Adapter<FilesListAdapter.View
         renameBuilder.create().show();
     }
 
-    public void deleteFileDialog(final File file, final int position) {
+    /**
+     * Edit the tags and note of the selected file, only offered when one row is selected
+     */
+    public void annotateSelected() {
+        List<File> files = getSelectedFiles();
+        if(files.size() != 1) {
+            return;
+        }
+        final File file = files.get(0);
+        searchIndex.loadAnnotation(file.getAbsolutePath(), new SearchIndex.AnnotationCallback() {
+            @Override
+            public void onAnnotationLoaded(String tags, String note) {
+                showAnnotationDialog(file, tags, note);
+            }
+        });
+    }
+
+    /**
+     * Open the selected recording in the player, which trims, cuts and splits it
+     */
+    public void editSelected() {
+        List<File> files = getSelectedFiles();
+        if(files.size() != 1 || SessionManifest.isManifest(files.get(0))) {
+            return;
+        }
+        mContext.startActivity(PlayerActivity.newIntent(mContext, files.get(0)));
+    }
+
+    /**
+     * List the bookmarks of the selected recording, choosing one plays the recording from
+     * there. The bookmarks are read in background.
+     */
+    public void showBookmarksOfSelected() {
+        List<File> files = getSelectedFiles();
+        if(files.size() != 1) {
+            return;
+        }
+        final File file = files.get(0);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long[] markers = MarkerIndex.read(file);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showBookmarksDialog(file, markers);
+                    }
+                });
+            }
+        }, "BookmarkLoader").start();
+    }
+
+    private void showBookmarksDialog(final File file, final long[] markers) {
+        if(markers.length == 0) {
+            Toast.makeText(mContext, mContext.getString(R.string.toast_no_bookmarks),
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] times = new String[markers.length];
+        for(int i = 0; i < markers.length; i++) {
+            times[i] = DateUtils.formatElapsedTime(markers[i] / 1000);
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
+        builder.setTitle(mContext.getString(R.string.bookmarks_dialog_title));
+        builder.setItems(times, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int which) {
+                mContext.startActivity(PlayerActivity.newIntent(mContext, file,
+                        markers[which]));
+            }
+        });
+        builder.create().show();
+    }
+
+    private void showAnnotationDialog(final File file, String tags, String note) {
+        View view = LayoutInflater.from(mContext).inflate(R.layout.annotation_dialog, null);
+        final EditText tagsInput = view.findViewById(R.id.annotation_tags_input);
+        final EditText noteInput = view.findViewById(R.id.annotation_note_input);
+        tagsInput.setText(tags);
+        noteInput.setText(note);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
+        builder.setTitle(mContext.getString(R.string.annotation_dialog_title));
+        builder.setView(view);
+        builder.setPositiveButton(mContext.getString(R.string.dialog_button_save),
+                new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                searchIndex.saveAnnotation(file, tagsInput.getText().toString().trim(),
+                        noteInput.getText().toString().trim());
+                if(query != null) {
+                    // runs after the save, the index has a single worker
+                    searchIndex.search(query, FilesListAdapter.this);
+                }
+            }
+        });
+        builder.setNegativeButton(mContext.getString(R.string.dialog_button_cancel),
+                new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                dialogInterface.cancel();
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Ask for confirmation and delete the selected files
+     */
+    public void deleteSelected() {
+        final List<File> files = getSelectedFiles();
+        if(files.isEmpty()) {
+            return;
+        }
         AlertDialog.Builder confirmDelete = new AlertDialog.Builder(mContext);
         confirmDelete.setTitle(mContext.getString(R.string.delete_dialog_title));
-        confirmDelete.setMessage(mContext.getString(R.string.delete_dialog_message));
+        confirmDelete.setMessage(mContext.getString(R.string.delete_dialog_message,
+                files.size()));
         confirmDelete.setCancelable(true);
         confirmDelete.setPositiveButton(mContext.getString(R.string.dialog_button_ok),
                 new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialogInterface, int i) {
-                file.delete();
-                recordingFiles = new File(filesFolder).listFiles();
-                Toast.makeText(mContext, mContext.getString(R.string.toast_file_deleted),
-                        Toast.LENGTH_SHORT).show();
+                submit(new DeleteOperation(), files, R.string.progress_title_delete);
                 dialogInterface.cancel();
-                notifyItemRemoved(position);
             }
         });
 
@@ -219,11 +735,42 @@ public class FilesListAdapter extends RecyclerView.Adapter<FilesListAdapter.View
         confirmDelete.create().show();
     }
 
-    public void shareFileDialog(File file) {
+    /**
+     * Share the selected files, several files and sessions of segments are packed into
+     * one archive first
+     */
+    public void shareSelected() {
+        List<File> files = getSelectedFiles();
+        if(files.size() == 1 && !SessionManifest.isManifest(files.get(0))) {
+            File file = files.get(0);
+            shareFile(file, ContainerFormat.fromFileName(file.getName()).getMimeType());
+        } else if(!files.isEmpty()) {
+            File shareFolder = new File(mContext.getExternalCacheDir(), SHARE_FOLDER_NAME);
+            String name = "recordings_" + new SimpleDateFormat("yyyyMMdd_HHmmss")
+                    .format(new Date()) + ".zip";
+            submit(new ArchiveOperation(new File(shareFolder, name)), files,
+                    R.string.progress_title_archive);
+        }
+    }
+
+    /**
+     * Copy or move the selected files to the export target of the settings
+     * @param move whether the files are removed from the list
+     */
+    public void exportSelected(boolean move) {
+        submit(new ExportOperation(repository.getExportBackend(), move), getSelectedFiles(),
+                move ? R.string.progress_title_move : R.string.progress_title_export);
+    }
+
+    private void shareFile(File file, String type) {
+        Uri uri = repository.getShareUri(file);
         Intent intent = new Intent();
         intent.setAction(Intent.ACTION_SEND);
-        intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
-        intent.setType("audio/mp3");
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        intent.setType(type);
+        // the clip carries the read grant through the chooser to the receiving app
+        intent.setClipData(ClipData.newRawUri(null, uri));
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
         mContext.startActivity(Intent.createChooser(intent,
                 mContext.getString(R.string.share_dialog_title)));
     }
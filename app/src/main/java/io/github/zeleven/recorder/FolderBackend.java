@@ -0,0 +1,85 @@
+package io.github.zeleven.recorder;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Exports into a folder on the file system. Files in shared storage are handed to the
+ * media scanner, so they show up in music apps.
+ */
+public class FolderBackend implements StorageBackend {
+    private final Context context;
+    private final File folder;
+    private final boolean scan;
+
+    /**
+     * @param context the context for the media scanner
+     * @param folder the folder, created if missing
+     * @param scan whether finished files are added to MediaStore
+     */
+    public FolderBackend(Context context, File folder, boolean scan) {
+        this.context = context.getApplicationContext();
+        this.folder = folder;
+        this.scan = scan;
+    }
+
+    @Override
+    public String getDescription() {
+        return folder.getAbsolutePath();
+    }
+
+    @Override
+    public Output create(String name, String mimeType) throws IOException {
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        final File file = uniqueFile(folder, name);
+        final String type = mimeType;
+        final FileOutputStream out = new FileOutputStream(file);
+        final FileDescriptor fd = out.getFD();
+        return new Output() {
+            @Override
+            public FileDescriptor getFileDescriptor() {
+                return fd;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                out.close();
+                if(scan) {
+                    MediaScannerConnection.scanFile(context,
+                            new String[] {file.getAbsolutePath()}, new String[] {type}, null);
+                }
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // removed anyway
+                }
+                file.delete();
+            }
+        };
+    }
+
+    /**
+     * @return a file in the folder with the name, or a numbered name if taken
+     */
+    static File uniqueFile(File folder, String name) {
+        File file = new File(folder, name);
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for(int i = 1; file.exists(); i++) {
+            file = new File(folder, base + " (" + i + ")" + extension);
+        }
+        return file;
+    }
+}
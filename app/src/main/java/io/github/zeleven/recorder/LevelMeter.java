@@ -0,0 +1,131 @@
+package io.github.zeleven.recorder;
+
+/**
+ * The level meter stage, computes peak and RMS level of the captured audio. Levels are
+ * computed per window of {@link #WINDOW_MILLIS} and kept in a fixed size history, which
+ * the UI copies out at display refresh rate without locking or allocating.
+ */
+public class LevelMeter implements PcmConsumer {
+    public static final int WINDOW_MILLIS = 20;
+    // power of two, several seconds of windows
+    private static final int HISTORY_SIZE = 512;
+    private static final float MIN_DB = -60f;
+
+    private final float[] peakHistory = new float[HISTORY_SIZE];
+    private final float[] rmsHistory = new float[HISTORY_SIZE];
+    // number of windows published, written by the audio thread only
+    private volatile long windowCount;
+    private int windowSamples;
+    private int samplesInWindow;
+    private int windowMax;
+    private long windowSum;
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) {
+        windowSamples = Math.max(1, sampleRate * channelCount * WINDOW_MILLIS / 1000);
+        samplesInWindow = 0;
+        windowMax = 0;
+        windowSum = 0;
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) {
+        int end = offset + length;
+        int max = windowMax;
+        long sum = windowSum;
+        int count = samplesInWindow;
+        for(int i = offset; i < end; i++) {
+            int sample = buffer[i];
+            int abs = sample < 0 ? -sample : sample;
+            if(abs > max) {
+                max = abs;
+            }
+            sum += sample * sample;
+            if(++count == windowSamples) {
+                addWindow(max / 32768f, (float) Math.sqrt((double) sum / count) / 32768f);
+                max = 0;
+                sum = 0;
+                count = 0;
+            }
+        }
+        windowMax = max;
+        windowSum = sum;
+        samplesInWindow = count;
+    }
+
+    @Override
+    public void onStop() {
+        addWindow(0, 0);
+    }
+
+    /**
+     * Publish the levels of one window, called by the thread which produces the audio
+     * @param peak peak level between 0 and 1
+     * @param rms RMS level between 0 and 1
+     */
+    public void addWindow(float peak, float rms) {
+        long count = windowCount;
+        int index = (int) (count & (HISTORY_SIZE - 1));
+        peakHistory[index] = peak;
+        rmsHistory[index] = rms;
+        // the volatile write publishes the array entries to readers
+        windowCount = count + 1;
+    }
+
+    /**
+     * Copy the peak levels of the latest windows, oldest first. Missing windows at the
+     * start of a recording are filled with 0.
+     * @param levels destination, only the last half of the history is copied, the history
+     *               is overwritten while copying otherwise
+     * @return number of windows published so far, unchanged if nothing new was captured
+     */
+    public long copyPeaks(float[] levels) {
+        long count = windowCount;
+        int available = (int) Math.min(Math.min(levels.length, HISTORY_SIZE / 2), count);
+        int missing = levels.length - available;
+        for(int i = 0; i < missing; i++) {
+            levels[i] = 0;
+        }
+        for(int i = missing; i < levels.length; i++) {
+            long window = count - (levels.length - i);
+            levels[i] = peakHistory[(int) (window & (HISTORY_SIZE - 1))];
+        }
+        return count;
+    }
+
+    /**
+     * @return number of windows published so far
+     */
+    public long getWindowCount() {
+        return windowCount;
+    }
+
+    /**
+     * @return peak level of the last window, between 0 and 1
+     */
+    public float getPeak() {
+        long count = windowCount;
+        return count == 0 ? 0 : peakHistory[(int) ((count - 1) & (HISTORY_SIZE - 1))];
+    }
+
+    /**
+     * @return RMS level of the last window, between 0 and 1
+     */
+    public float getRms() {
+        long count = windowCount;
+        return count == 0 ? 0 : rmsHistory[(int) ((count - 1) & (HISTORY_SIZE - 1))];
+    }
+
+    /**
+     * Map a linear level to a logarithmic display scale covering 60 dB
+     * @param level linear level between 0 and 1
+     * @return display level between 0 and 1
+     */
+    public static float toDisplayLevel(float level) {
+        if(level <= 0) {
+            return 0;
+        }
+        float db = 20f * (float) Math.log10(level);
+        return db <= MIN_DB ? 0 : 1f - db / MIN_DB;
+    }
+}
@@ -1,25 +1,29 @@
 package io.github.zeleven.recorder;
 
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.graphics.Color;
-import android.os.Environment;
+import android.os.IBinder;
 import android.os.SystemClock;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.os.Bundle;
 import android.support.v7.view.menu.MenuBuilder;
 import android.support.v7.widget.Toolbar;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.Chronometer;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 
 /**
  * Main activity
@@ -29,19 +33,72 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private Button cancelButton;
     private Button recordButton;
     private Button stopButton;
+    private Button bookmarkButton;
     private TextView recordStatusText;
+    private TextView remainingTimeText;
+    private ProgressBar levelProgressBar;
+    private WaveformView waveformView;
+    private String[] recordingStatusTexts;
 
+    // the shown state of the recording, which the recording service owns
     private boolean isStart = false;
     private boolean isRecording = false;
     private int pointCount;
-    private long interruptTime;
-    private String fileName;
     private String filePath;
-    private long recordStartTime;
-    private File file;
+    private RecordingService recordingService;
+    private LevelMeter levelMeter;
+    private boolean showingLevels = false;
+    private boolean showing = false;
+
+    // reads the levels of the recording once per display frame
+    private Choreographer.FrameCallback levelFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if(levelMeter == null) {
+                return;
+            }
+            waveformView.update(levelMeter);
+            levelProgressBar.setProgress((int) (LevelMeter.toDisplayLevel(
+                    levelMeter.getPeak()) * 100));
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    private RecordingService.StateListener stateListener = new RecordingService.StateListener() {
+        @Override
+        public void onRecordingStateChanged() {
+            showRecordingState();
+        }
+    };
+
+    private ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            recordingService = ((RecordingService.LocalBinder) binder).getService();
+            recordingService.addStateListener(stateListener);
+            // the activity may have been recreated during a recording
+            showRecordingState();
+            recordingService.whenReady(new RecordingService.ReadyListener() {
+                @Override
+                public void onServiceReady() {
+                    recordButton.setEnabled(true);
+                }
+            });
+            if(showing) {
+                recordingService.prewarm();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            recordingService = null;
+            recordButton.setEnabled(false);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupMetrics.onActivityCreated(this);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -56,23 +113,66 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         cancelButton = (Button) findViewById(R.id.btn_cancel);
         recordButton = (Button) findViewById(R.id.btn_record);
         stopButton = (Button) findViewById(R.id.btn_stop);
+        bookmarkButton = (Button) findViewById(R.id.btn_bookmark);
         recordStatusText = (TextView) findViewById(R.id.record_status_text);
+        remainingTimeText = (TextView) findViewById(R.id.remaining_time_text);
+        levelProgressBar = (ProgressBar) findViewById(R.id.record_progressbar);
+        waveformView = (WaveformView) findViewById(R.id.waveform_view);
+        // the animated status texts are loaded once instead of built on every tick
+        recordingStatusTexts = getResources().getStringArray(
+                R.array.record_status_text_recording);
 
         // Setting click listener for cancel button and disable it before record
         cancelButton.setOnClickListener(this);
         cancelButton.setEnabled(false);
 
         recordButton.setOnClickListener(this);
+        // the record button is enabled once the recording service is ready
+        recordButton.setEnabled(false);
 
         // Setting click listener for stop button and disable it before record
         stopButton.setOnClickListener(this);
         stopButton.setEnabled(false);
 
-        // Creating folder to save the recording files
-        File folder = new File(Environment.getExternalStorageDirectory() + "/Recorder");
-        if(!folder.exists()) {
-            folder.mkdir();
+        bookmarkButton.setOnClickListener(this);
+
+        // the recording service creates the folder in background
+        bindService(new Intent(this, RecordingService.class), serviceConnection,
+                BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        showing = true;
+        if(levelMeter != null && isRecording) {
+            startLevels();
+        }
+        // the user may tap record any moment now
+        if(recordingService != null) {
+            recordingService.prewarm();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        // nothing is drawn while the activity is hidden
+        stopLevels();
+        showing = false;
+        if(recordingService != null) {
+            recordingService.releasePrewarmed();
+        }
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if(recordingService != null) {
+            recordingService.removeStateListener(stateListener);
         }
+        // the service keeps recording, it's started while a recording is active
+        unbindService(serviceConnection);
+        super.onDestroy();
     }
 
     /**
@@ -107,6 +207,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             case R.id.action_file_view:
                 intent = new Intent(this, FilesActivity.class);
                 startActivity(intent);
+                return true;
+            // start diagnostics activity
+            case R.id.action_diagnostics:
+                intent = new Intent(this, DiagnosticsActivity.class);
+                startActivity(intent);
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -118,19 +224,19 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
      */
     @Override
     public void onClick(View view) {
-        Intent intent = new Intent(this, RecordingService.class);
         switch (view.getId()) {
             case R.id.btn_record:
-                changeButtonStyle(true, R.drawable.round_button_small, "#000000");
-                onRecord(intent);
+                onRecord();
                 break;
             case R.id.btn_cancel:
-                changeButtonStyle(false, R.drawable.button_disable, "#dddddd");
-                cancelRecord(intent);
+                cancelRecord();
                 break;
             case R.id.btn_stop:
-                changeButtonStyle(false, R.drawable.button_disable, "#dddddd");
-                stopRecord(intent);
+                stopRecord();
+                break;
+            case R.id.btn_bookmark:
+                // the service shows the time of the bookmark
+                recordingService.addBookmark();
                 break;
             default:
                 break;
@@ -139,106 +245,166 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     /**
      * The record process
-     * @param intent
      */
-    private void onRecord(Intent intent) {
+    private void onRecord() {
         // If the record process is not start, start it.
         // If the record process has start, and if the user click the record button,
         // pause the record process, otherwise resume it.
+        // The UI follows the service through the state listener.
         if(!isStart) {
-            recordButton.setBackgroundResource(R.drawable.round_button_pause);
-
+            StartupMetrics.onRecordTapped();
+            if(!recordingService.hasSpaceToRecord()) {
+                Toast.makeText(this, getString(R.string.toast_storage_full),
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
+            // Creating file to save the record content
+            setFileNameAndPath();
+            if(!recordingService.startRecording(filePath)) {
+                Toast.makeText(this, getString(R.string.toast_record_failed),
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
             // The toast message to hint user record process has start
             Toast.makeText(this, getString(R.string.toast_started_record),
                     Toast.LENGTH_SHORT).show();
+        } else if(!recordingService.canPause()) {
+            Toast.makeText(this, getString(R.string.toast_pause_unsupported),
+                    Toast.LENGTH_SHORT).show();
+        } else if(isRecording) {
+            recordingService.pauseRecording();
+            Toast.makeText(this, getString(R.string.toast_paused_record),
+                    Toast.LENGTH_SHORT).show();
+        } else {
+            recordingService.resumeRecording();
+            Toast.makeText(this, getString(R.string.toast_resume_record),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
 
+    /**
+     * Show the state of the recording session, when the activity connects to the service
+     * and whenever the state changes, e.g. from the notification
+     */
+    private void showRecordingState() {
+        showRemainingTime();
+        if(!recordingService.isRecording()) {
+            if(isStart) {
+                interruptRecord();
+            }
+            return;
+        }
+        if(!isStart) {
             isStart = true;
-            isRecording = true;
-
-            // Setting chronometer
-            chronometer.setBase(SystemClock.elapsedRealtime());
-            chronometer.start();
+            changeButtonStyle(true, R.drawable.round_button_small, "#000000");
             chronometer.setOnChronometerTickListener(new Chronometer.OnChronometerTickListener() {
                 @Override
                 public void onChronometerTick(Chronometer chronometer) {
-                    if(pointCount == 0) {
-                        recordStatusText.setText(getString(R.string.record_status_text_recording)
-                                + ".");
-                    } else if(pointCount == 1) {
-                        recordStatusText.setText(getString(R.string.record_status_text_recording)
-                                + "..");
-                    } else {
-                        recordStatusText.setText(getString(R.string.record_status_text_recording)
-                                + "...");
-                        pointCount = -1;
+                    if(isRecording) {
+                        recordStatusText.setText(recordingStatusTexts[pointCount]);
+                        pointCount = (pointCount + 1) % recordingStatusTexts.length;
                     }
-                    pointCount++;
                 }
             });
-
-            // Creating file to save the record content
-            setFileNameAndPath();
-
-            intent.putExtra("filePath", filePath);
-            recordStartTime = System.currentTimeMillis();
-            startService(intent);
             getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
-
-            recordStatusText.setText(getString(R.string.record_status_text_recording) + ".");
-            pointCount++;
+            levelMeter = recordingService.getLevelMeter();
+        }
+        isRecording = !recordingService.isPaused();
+        int bookmarkCount = recordingService.getBookmarkCount();
+        bookmarkButton.setText(bookmarkCount > 0
+                ? getString(R.string.bookmark_button_count, bookmarkCount)
+                : getString(R.string.bookmark_button));
+        bookmarkButton.setVisibility(View.VISIBLE);
+        chronometer.setBase(SystemClock.elapsedRealtime() - recordingService.getRecordedMillis());
+        if(isRecording) {
+            recordButton.setBackgroundResource(R.drawable.round_button_pause);
+            recordStatusText.setText(recordingStatusTexts[0]);
+            pointCount = 1;
+            chronometer.start();
+            if(showing) {
+                startLevels();
+            }
         } else {
-            if(isRecording) {
-                Toast.makeText(this, getString(R.string.toast_paused_record),
-                        Toast.LENGTH_SHORT).show();
-                recordButton.setBackgroundResource(R.drawable.round_button);
-                recordStatusText.setText(getString(R.string.record_status_text_paused));
-                interruptTime = chronometer.getBase() - SystemClock.elapsedRealtime();
-                chronometer.stop();
-
-                isRecording = false;
-            } else {
-                Toast.makeText(this, getString(R.string.toast_resume_record),
-                        Toast.LENGTH_SHORT).show();
-                recordButton.setBackgroundResource(R.drawable.round_button_pause);
-                recordStatusText.setText(getString(R.string.record_status_text_recording) + ".");
-                chronometer.setBase(SystemClock.elapsedRealtime() + interruptTime);
-                chronometer.start();
+            recordButton.setBackgroundResource(R.drawable.round_button);
+            recordStatusText.setText(getString(R.string.record_status_text_paused));
+            chronometer.stop();
+            stopLevels();
+        }
+    }
 
-                isRecording = true;
-            }
+    /**
+     * Show the predicted recording time left, highlighted when the storage runs low
+     */
+    private void showRemainingTime() {
+        long remainingMillis = recordingService.getRemainingMillis();
+        if(remainingMillis == StorageMonitor.UNKNOWN) {
+            remainingTimeText.setVisibility(View.INVISIBLE);
+            return;
         }
+        remainingTimeText.setText(getString(R.string.remaining_time_text,
+                DateUtils.formatElapsedTime(remainingMillis / 1000)));
+        boolean low = StorageMonitor.levelOf(remainingMillis) != StorageMonitor.Level.OK;
+        remainingTimeText.setTextColor(low ? ContextCompat.getColor(this, R.color.primary)
+                : Color.parseColor("#dddddd"));
+        remainingTimeText.setVisibility(View.VISIBLE);
     }
 
     /**
      * To stop the record process and save file
-     * @param intent used to stop record service
      */
-    public void stopRecord(Intent intent) {
-        interruptRecord(intent);
+    public void stopRecord() {
+        recordingService.stopRecording();
+        long skippedMillis = recordingService.getLastSkippedMillis();
+        if(skippedMillis >= 1000) {
+            Toast.makeText(this, getString(R.string.toast_silence_skipped,
+                    DateUtils.formatElapsedTime(skippedMillis / 1000),
+                    Formatter.formatShortFileSize(this, recordingService.getLastSavedBytes())),
+                    Toast.LENGTH_LONG).show();
+        }
     }
 
     /**
      * To stop the record process and remove the file
-     * @param intent used to stop record service
      */
-    public void cancelRecord(Intent intent) {
-        interruptRecord(intent);
-        file.delete();
+    public void cancelRecord() {
+        recordingService.cancelRecording();
     }
 
     /**
-     * To interrupt the record process, if the user click stop or cancel button.
-     * @param intent used to stop record service
+     * To reset the record UI once the recording has been stopped or cancelled
      */
-    public void interruptRecord(Intent intent) {
+    private void interruptRecord() {
+        changeButtonStyle(false, R.drawable.button_disable, "#dddddd");
         recordButton.setBackgroundResource(R.drawable.round_button);
         chronometer.stop();
         chronometer.setBase(SystemClock.elapsedRealtime());
-        interruptTime = 0;
+        stopLevels();
+        levelMeter = null;
+        levelProgressBar.setProgress(0);
+        waveformView.clear();
+        bookmarkButton.setVisibility(View.INVISIBLE);
 
         recordStatusText.setText(getString(R.string.reocrd_status_text_click_to_record));
         isStart = false;
-        stopService(intent);
+        isRecording = false;
+        getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+    }
+
+    /**
+     * Start reading the levels at display refresh rate
+     */
+    private void startLevels() {
+        if(!showingLevels && levelMeter != null) {
+            showingLevels = true;
+            Choreographer.getInstance().postFrameCallback(levelFrameCallback);
+        }
+    }
+
+    private void stopLevels() {
+        if(showingLevels) {
+            showingLevels = false;
+            Choreographer.getInstance().removeFrameCallback(levelFrameCallback);
+        }
     }
 
     /**
@@ -260,12 +426,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
      * Creating file before record process
      */
     private void setFileNameAndPath() {
-        Calendar c = Calendar.getInstance();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd_HHmmss");
-        dateFormat.format(c.getTime());
-        fileName = dateFormat.format(c.getTime()) + ".mp3";
-        filePath = Environment.getExternalStorageDirectory().getAbsolutePath();
-        filePath += "/Recorder/" + fileName;
-        file = new File(filePath);
+        // the recording service appends the extension of the selected output format
+        filePath = RecordingsRepository.getInstance(this).newRecordingFile(
+                System.currentTimeMillis()).getAbsolutePath();
     }
 }
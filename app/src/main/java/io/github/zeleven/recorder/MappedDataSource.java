@@ -0,0 +1,38 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Feeds MediaExtractor from a {@link MappedFile} instead of read calls on a descriptor
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class MappedDataSource extends MediaDataSource {
+    private final MappedFile file;
+
+    public MappedDataSource(File recording) throws IOException {
+        file = new MappedFile(recording);
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if(size == 0) {
+            return 0;
+        }
+        return file.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() {
+        return file.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.zeleven.recorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only access to a file through memory-mapped windows. Reads are copies out of the
+ * page cache without a system call each, and a file of any size is mapped one window at
+ * a time, so seeking to any position costs at most one new mapping.
+ */
+public class MappedFile implements Closeable {
+    private static final int WINDOW_SIZE = 32 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    // reused view of the window, reads must not allocate
+    private ByteBuffer view;
+    private long windowStart;
+
+    /**
+     * @param file the file to read
+     * @throws IOException if the file can't be opened
+     */
+    public MappedFile(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        channel = this.file.getChannel();
+        size = channel.size();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Copy bytes into a buffer
+     * @param position position in the file
+     * @param buffer receives up to its remaining bytes
+     * @return number of bytes copied, or -1 at the end of the file
+     * @throws IOException if the file can't be mapped
+     */
+    public int read(long position, ByteBuffer buffer) throws IOException {
+        if(position >= size) {
+            return -1;
+        }
+        int total = 0;
+        while(buffer.hasRemaining() && position < size) {
+            ByteBuffer source = map(position);
+            int count = Math.min(buffer.remaining(), source.remaining());
+            source.limit(source.position() + count);
+            buffer.put(source);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Copy bytes into an array
+     * @param position position in the file
+     * @param bytes receives the bytes
+     * @param offset index of the first byte
+     * @param length maximum number of bytes
+     * @return number of bytes copied, or -1 at the end of the file
+     * @throws IOException if the file can't be mapped
+     */
+    public int read(long position, byte[] bytes, int offset, int length) throws IOException {
+        return read(position, ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * @return a view of the mapped window positioned at the file position
+     */
+    private ByteBuffer map(long position) throws IOException {
+        if(window == null || position < windowStart
+                || position >= windowStart + window.capacity()) {
+            // windows start at multiples of the window size, so they are page aligned
+            windowStart = position / WINDOW_SIZE * WINDOW_SIZE;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                    Math.min(WINDOW_SIZE, size - windowStart));
+            view = window.duplicate();
+        }
+        view.clear();
+        view.position((int) (position - windowStart));
+        return view;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the mapping itself is released when the buffer is collected
+        window = null;
+        view = null;
+        file.close();
+    }
+}
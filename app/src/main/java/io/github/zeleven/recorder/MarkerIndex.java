@@ -0,0 +1,199 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * The bookmarks of a recording, stored as a sidecar in the meta folder. The sidecar is
+ * append-only: a 4 byte header and one 4 byte record per bookmark, the time in the
+ * recording in milliseconds. Each bookmark is a single write, so a crash during recording
+ * loses at most the bookmark being added, a partial record at the end is ignored.
+ * <p>
+ * Players jump to a bookmark by seeking to its time, the audio is never scanned.
+ */
+public class MarkerIndex {
+    private static final String SUFFIX = ".mk";
+    private static final int MAGIC = 0x524d4b31; // "RMK1"
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_SIZE = 4;
+    private static final long[] EMPTY = new long[0];
+
+    private MarkerIndex() {}
+
+    /**
+     * @param recording the recording file
+     * @return the sidecar file of the recording's bookmarks
+     */
+    public static File sidecarFor(File recording) {
+        return new File(new File(recording.getParentFile(), WaveformSummary.META_FOLDER),
+                recording.getName() + SUFFIX);
+    }
+
+    /**
+     * Read the bookmarks of a recording
+     * @param recording the recording file
+     * @return the times of the bookmarks in milliseconds, sorted, empty if there are none
+     *         or the sidecar is corrupt
+     */
+    public static long[] read(File recording) {
+        File sidecar = sidecarFor(recording);
+        long length = sidecar.length();
+        if(length < HEADER_SIZE + RECORD_SIZE) {
+            return EMPTY;
+        }
+        byte[] data = new byte[(int) Math.min(length, Integer.MAX_VALUE)];
+        try {
+            InputStream in = new FileInputStream(sidecar);
+            try {
+                int read = 0;
+                while(read < data.length) {
+                    int count = in.read(data, read, data.length - read);
+                    if(count < 0) {
+                        break;
+                    }
+                    read += count;
+                }
+                length = read;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return EMPTY;
+        }
+        if(length < HEADER_SIZE || getInt(data, 0) != MAGIC) {
+            return EMPTY;
+        }
+        long[] markers = new long[(int) ((length - HEADER_SIZE) / RECORD_SIZE)];
+        for(int i = 0; i < markers.length; i++) {
+            markers[i] = getInt(data, HEADER_SIZE + i * RECORD_SIZE) & 0xffffffffL;
+        }
+        // in order unless the recording has been edited
+        Arrays.sort(markers);
+        return markers;
+    }
+
+    /**
+     * Append a bookmark, must not be called on the UI or the capture thread
+     * @param recording the recording file
+     * @param timeMillis the time in the recording
+     * @throws IOException if the sidecar can't be written
+     */
+    public static void append(File recording, long timeMillis) throws IOException {
+        File sidecar = sidecarFor(recording);
+        File folder = sidecar.getParentFile();
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        long length = sidecar.length();
+        // drop a partial record left by a crash, records stay aligned
+        long aligned = length < HEADER_SIZE ? 0
+                : length - (length - HEADER_SIZE) % RECORD_SIZE;
+        byte[] record = new byte[aligned == 0 ? HEADER_SIZE + RECORD_SIZE : RECORD_SIZE];
+        int offset = 0;
+        if(aligned == 0) {
+            putInt(record, 0, MAGIC);
+            offset = HEADER_SIZE;
+        }
+        putInt(record, offset, (int) Math.min(Math.max(timeMillis, 0), 0xffffffffL));
+        if(aligned != length) {
+            RandomAccessFile file = new RandomAccessFile(sidecar, "rw");
+            try {
+                file.setLength(aligned);
+            } finally {
+                file.close();
+            }
+        }
+        FileOutputStream out = new FileOutputStream(sidecar, true);
+        try {
+            out.write(record);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Keep the bookmarks with a recording which has been copied, moved or converted
+     * @param recording the original recording
+     * @param target the new recording
+     * @param move whether the original is gone
+     */
+    public static void transfer(File recording, File target, boolean move) {
+        File sidecar = sidecarFor(recording);
+        if(!sidecar.exists()) {
+            return;
+        }
+        File targetSidecar = sidecarFor(target);
+        targetSidecar.getParentFile().mkdirs();
+        if(move && sidecar.renameTo(targetSidecar)) {
+            return;
+        }
+        try {
+            for(long marker : read(recording)) {
+                append(target, marker);
+            }
+        } catch (IOException e) {
+            // the recording is kept without bookmarks
+        }
+        if(move) {
+            sidecar.delete();
+        }
+    }
+
+    /**
+     * Delete the bookmarks of a recording
+     * @param recording the recording file
+     */
+    public static void delete(File recording) {
+        sidecarFor(recording).delete();
+    }
+
+    /**
+     * @param markers the sorted bookmarks
+     * @param positionMillis the current position
+     * @param toleranceMillis bookmarks this close to the position count as reached
+     * @return the first bookmark after the position, or -1
+     */
+    public static long next(long[] markers, long positionMillis, long toleranceMillis) {
+        for(long marker : markers) {
+            if(marker > positionMillis + toleranceMillis) {
+                return marker;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param markers the sorted bookmarks
+     * @param positionMillis the current position
+     * @param toleranceMillis bookmarks this close to the position count as reached, so
+     *                        jumping back repeatedly doesn't stick to the same one
+     * @return the last bookmark before the position, or 0 for the start
+     */
+    public static long previous(long[] markers, long positionMillis, long toleranceMillis) {
+        long previous = 0;
+        for(long marker : markers) {
+            if(marker >= positionMillis - toleranceMillis) {
+                break;
+            }
+            previous = marker;
+        }
+        return previous;
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+                | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,183 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaRecorder;
+import android.os.Build;
+
+import java.io.IOException;
+
+/**
+ * The recorder backend using the platform MediaRecorder, which captures and encodes
+ * in the media server process. In crash-safe mode it writes an ADTS stream instead of
+ * MPEG-4, MediaRecorder decides itself when the data reaches the disk. Only AAC
+ * profiles are supported.
+ * <p>
+ * MediaRecorder doesn't hand out the audio, the level meter is fed by polling the peak
+ * amplitude once per level window.
+ */
+public class MediaRecorderEngine implements Recorder {
+    private final EncoderProfile profile;
+    private final boolean crashSafe;
+    private final LevelMeter levelMeter = new LevelMeter();
+    private MediaRecorder mRecorder;
+    private ErrorListener errorListener;
+    private Thread levelThread;
+    private volatile boolean polling = false;
+    private volatile boolean paused = false;
+
+    /**
+     * @param profile the AAC profile to record with
+     * @param crashSafe write ADTS, which stays playable if the process dies
+     */
+    public MediaRecorderEngine(EncoderProfile profile, boolean crashSafe) {
+        this.profile = profile;
+        this.crashSafe = crashSafe;
+    }
+
+    /**
+     * Create the MediaRecorder, which connects to the media server, and select the input
+     */
+    @Override
+    public void prewarm() {
+        mRecorder = new MediaRecorder();
+        mRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+    }
+
+    @Override
+    public void prepare(String filePath) throws IOException {
+        if(mRecorder == null) {
+            prewarm();
+        }
+        mRecorder.setOutputFormat(crashSafe ? MediaRecorder.OutputFormat.AAC_ADTS
+                : MediaRecorder.OutputFormat.MPEG_4);
+        mRecorder.setOutputFile(filePath);
+        mRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        mRecorder.setAudioSamplingRate(profile.getSampleRate());
+        mRecorder.setAudioChannels(profile.getChannelCount());
+        mRecorder.setAudioEncodingBitRate(profile.getBitRate());
+        mRecorder.setOnErrorListener(new MediaRecorder.OnErrorListener() {
+            @Override
+            public void onError(MediaRecorder recorder, int what, int extra) {
+                ErrorListener listener = errorListener;
+                if(listener != null) {
+                    listener.onRecordingError(
+                            new IOException("MediaRecorder error " + what + ", " + extra));
+                }
+            }
+        });
+        mRecorder.prepare();
+    }
+
+    @Override
+    public String getFileExtension() {
+        return profile.getFileExtension(crashSafe);
+    }
+
+    @Override
+    public void setErrorListener(ErrorListener listener) {
+        errorListener = listener;
+    }
+
+    @Override
+    public void start() {
+        mRecorder.start();
+        // MediaRecorder captures as soon as start returns
+        StartupMetrics.onFirstSample();
+        paused = false;
+        polling = true;
+        levelThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pollLevels();
+            }
+        }, "LevelPoll");
+        levelThread.start();
+    }
+
+    /**
+     * MediaRecorder writes all captured audio, nothing is skipped
+     */
+    @Override
+    public long getSkippedMillis() {
+        return 0;
+    }
+
+    /**
+     * MediaRecorder captures a single input
+     */
+    @Override
+    public String getSecondTrackPath() {
+        return null;
+    }
+
+    @Override
+    public LevelMeter getLevelMeter() {
+        return levelMeter;
+    }
+
+    /**
+     * MediaRecorder can only pause from API 24
+     */
+    @Override
+    public boolean canPause() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    @Override
+    public void pause() {
+        paused = true;
+        mRecorder.pause();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    @Override
+    public void resume() {
+        mRecorder.resume();
+        paused = false;
+    }
+
+    @Override
+    public void stop() {
+        stopPolling();
+        try {
+            mRecorder.stop();
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void release() {
+        stopPolling();
+        if(mRecorder != null) {
+            mRecorder.release();
+            mRecorder = null;
+        }
+    }
+
+    private void pollLevels() {
+        try {
+            while(polling) {
+                if(!paused) {
+                    // the peak since the last call, MediaRecorder reports no RMS
+                    float peak = mRecorder.getMaxAmplitude() / 32768f;
+                    levelMeter.addWindow(peak, peak);
+                }
+                Thread.sleep(LevelMeter.WINDOW_MILLIS);
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            // stopped, or the recorder is in an unexpected state
+        }
+    }
+
+    private void stopPolling() {
+        polling = false;
+        if(levelThread != null) {
+            levelThread.interrupt();
+            AudioRecordEngine.joinQuietly(levelThread);
+            levelThread = null;
+            levelMeter.onStop();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.zeleven.recorder;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Exports into the music collection of MediaStore. From Android 10 files are inserted
+ * through the content resolver and stay pending until they are complete, before that
+ * they're written into the public music folder and scanned.
+ */
+public class MediaStoreBackend implements StorageBackend {
+    private static final String FOLDER_NAME = "Recorder";
+    // Android 10 and MediaStore.MediaColumns.RELATIVE_PATH and IS_PENDING, newer than the SDK
+    private static final int SCOPED_STORAGE_API = 29;
+    private static final String COLUMN_RELATIVE_PATH = "relative_path";
+    private static final String COLUMN_IS_PENDING = "is_pending";
+
+    private final Context context;
+
+    public MediaStoreBackend(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public String getDescription() {
+        return Environment.DIRECTORY_MUSIC + "/" + FOLDER_NAME;
+    }
+
+    @Override
+    public Output create(String name, String mimeType) throws IOException {
+        if(Build.VERSION.SDK_INT < SCOPED_STORAGE_API) {
+            File folder = new File(Environment.getExternalStoragePublicDirectory(
+                    Environment.DIRECTORY_MUSIC), FOLDER_NAME);
+            return new FolderBackend(context, folder, true).create(name, mimeType);
+        }
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Audio.Media.DISPLAY_NAME, name);
+        values.put(MediaStore.Audio.Media.MIME_TYPE, mimeType);
+        values.put(COLUMN_RELATIVE_PATH, getDescription());
+        // hidden from other apps until it's complete
+        values.put(COLUMN_IS_PENDING, 1);
+        final ContentResolver resolver = context.getContentResolver();
+        final Uri uri = resolver.insert(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, values);
+        if(uri == null) {
+            throw new IOException("Cannot insert " + name);
+        }
+        ParcelFileDescriptor descriptor;
+        try {
+            descriptor = resolver.openFileDescriptor(uri, "w");
+        } catch (IOException | RuntimeException e) {
+            resolver.delete(uri, null, null);
+            throw e;
+        }
+        if(descriptor == null) {
+            resolver.delete(uri, null, null);
+            throw new IOException("Cannot open " + uri);
+        }
+        return new DescriptorOutput(descriptor) {
+            @Override
+            public void commit() throws IOException {
+                super.commit();
+                ContentValues published = new ContentValues();
+                published.put(COLUMN_IS_PENDING, 0);
+                resolver.update(uri, published, null, null);
+            }
+
+            @Override
+            public void abort() {
+                super.abort();
+                resolver.delete(uri, null, null);
+            }
+        };
+    }
+}
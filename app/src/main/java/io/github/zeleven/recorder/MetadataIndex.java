@@ -0,0 +1,174 @@
+package io.github.zeleven.recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The persistent metadata index of recording files. Entries are keyed by path and
+ * are only valid while the file's size and modification time are unchanged, so the
+ * file list can show duration and codec without opening the media file.
+ */
+public class MetadataIndex {
+    private static final int MAGIC = 0x524d4931; // "RMI1"
+    private static final int VERSION = 1;
+
+    private final File indexFile;
+    private final Map<String, RecordingMetadata> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    public MetadataIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Get the metadata of a file if the index holds an up-to-date entry for it
+     * @param file the recording file
+     * @return the entry, or null if it is missing or stale
+     */
+    public RecordingMetadata get(File file) {
+        return get(file.getAbsolutePath(), file.length(), file.lastModified());
+    }
+
+    /**
+     * Get the metadata by path if it matches the given size and modification time
+     * @param path absolute path of the recording file
+     * @param size current file length
+     * @param lastModified current file modification time
+     * @return the entry, or null if it is missing or stale
+     */
+    public RecordingMetadata get(String path, long size, long lastModified) {
+        RecordingMetadata metadata = entries.get(path);
+        if(metadata == null || !metadata.matches(size, lastModified)) {
+            return null;
+        }
+        return metadata;
+    }
+
+    public void put(RecordingMetadata metadata) {
+        entries.put(metadata.getPath(), metadata);
+        dirty = true;
+    }
+
+    public void remove(String path) {
+        if(entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drop every entry whose file is not in the given listing
+     * @param files the current content of the recordings folder
+     * @return the number of removed entries
+     */
+    public int retainAll(Collection<File> files) {
+        Set<String> paths = new HashSet<>();
+        for(File file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        int removed = 0;
+        Iterator<String> iterator = entries.keySet().iterator();
+        while(iterator.hasNext()) {
+            if(!paths.contains(iterator.next())) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        if(removed > 0) {
+            dirty = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Read the index from disk. A missing or corrupted index file leaves the index empty,
+     * the entries are extracted again on the next scan.
+     */
+    public void load() {
+        entries.clear();
+        dirty = false;
+        if(!indexFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                RecordingMetadata metadata = new RecordingMetadata(in.readUTF(), in.readLong(),
+                        in.readLong(), in.readLong(), in.readUTF(), in.readInt(), in.readLong());
+                entries.put(metadata.getPath(), metadata);
+            }
+        } catch (IOException e) {
+            entries.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the index to disk if it has changed since it was loaded. The index is written
+     * to a temporary file first, so a crash while saving never leaves a truncated index.
+     * @throws IOException if the index could not be written
+     */
+    public void save() throws IOException {
+        if(!dirty) {
+            return;
+        }
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Collection<RecordingMetadata> values = new ArrayList<>(entries.values());
+            out.writeInt(values.size());
+            for(RecordingMetadata metadata : values) {
+                out.writeUTF(metadata.getPath());
+                out.writeLong(metadata.getSize());
+                out.writeLong(metadata.getLastModified());
+                out.writeLong(metadata.getDuration());
+                out.writeUTF(metadata.getMimeType());
+                out.writeInt(metadata.getSampleRate());
+                out.writeLong(metadata.getCreateTime());
+            }
+            out.close();
+            out = null;
+        } finally {
+            closeQuietly(out);
+        }
+        if(!tempFile.renameTo(indexFile)) {
+            throw new IOException("Cannot replace " + indexFile);
+        }
+        dirty = false;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
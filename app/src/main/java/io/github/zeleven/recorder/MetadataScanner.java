@@ -0,0 +1,341 @@
+package io.github.zeleven.recorder;
+
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the {@link MetadataIndex} and the {@link SearchIndex} in sync with the recordings
+ * folder. Loading the index, checking it against the folder and extracting metadata of
+ * new files all happen on a background thread, results are delivered to the listener on
+ * the main thread.
+ */
+public class MetadataScanner {
+    private static final String TAG = "MetadataScanner";
+    private static final String INDEX_FILE_NAME = "metadata.idx";
+
+    private static MetadataIndex sIndex;
+    private static SearchIndex sSearchIndex;
+    private static boolean sIndexLoaded = false;
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Listener listener;
+
+    /**
+     * The callbacks of scanner, all called on the main thread
+     */
+    public interface Listener {
+        /**
+         * Called once the index has been read from disk
+         */
+        void onIndexLoaded();
+
+        /**
+         * Called when metadata of a file which was missing from the index is extracted
+         * @param item the recording file
+         * @param metadata the extracted metadata
+         */
+        void onMetadataReady(RecordingItem item, RecordingMetadata metadata);
+    }
+
+    public MetadataScanner(Context context, Listener listener) {
+        this.listener = listener;
+        synchronized (MetadataScanner.class) {
+            if(sIndex == null) {
+                sIndex = new MetadataIndex(new File(context.getApplicationContext().getFilesDir(),
+                        INDEX_FILE_NAME));
+                sSearchIndex = SearchIndex.getInstance(context);
+            }
+        }
+    }
+
+    /**
+     * Index a finished recording in background, called by the recording service so the
+     * recording can be found even if the file list isn't open
+     * @param context the calling context
+     * @param file the recording file
+     */
+    public static void indexRecording(Context context, File file) {
+        new MetadataScanner(context, null).update(
+                new RecordingItem(file, file.length(), file.lastModified()));
+    }
+
+    /**
+     * Get the indexed metadata of a file, never touches the file system
+     * @param item the recording file
+     * @return the metadata, or null if the file has not been indexed yet
+     */
+    public RecordingMetadata get(RecordingItem item) {
+        return sIndex.get(item.getPath(), item.getSize(), item.getLastModified());
+    }
+
+    /**
+     * Check the index against the files in the recordings folder: drop the entries of
+     * files which no longer exist and extract metadata for files which are not indexed.
+     * @param items the current content of the recordings folder
+     */
+    public void sync(List<RecordingItem> items) {
+        final List<RecordingItem> itemList = new ArrayList<>(items);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(ensureLoaded()) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(listener != null) {
+                                listener.onIndexLoaded();
+                            }
+                        }
+                    });
+                }
+                List<File> files = new ArrayList<>(itemList.size());
+                for(RecordingItem item : itemList) {
+                    files.add(item.getFile());
+                }
+                sIndex.retainAll(files);
+                List<RecordingMetadata> recordings = new ArrayList<>(itemList.size());
+                for(RecordingItem item : itemList) {
+                    indexItem(item);
+                    RecordingMetadata metadata = get(item);
+                    // null if the file has changed since it was listed
+                    if(metadata != null) {
+                        recordings.add(metadata);
+                    }
+                }
+                saveIndex();
+                // only the changed entries are written
+                sSearchIndex.sync(files, recordings);
+            }
+        });
+    }
+
+    /**
+     * Extract metadata of a single new or changed file if it's not indexed and add it to
+     * the search index
+     * @param item the recording file
+     */
+    public void update(final RecordingItem item) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureLoaded();
+                if(indexItem(item)) {
+                    saveIndex();
+                } else {
+                    // indexed by the recording service while the list was showing it
+                    publish(item, get(item));
+                }
+                RecordingMetadata metadata = get(item);
+                if(metadata != null) {
+                    sSearchIndex.put(metadata);
+                }
+            }
+        });
+    }
+
+    /**
+     * Extract and publish metadata of an item which is missing from the index,
+     * must be called on the background thread
+     * @param item the recording file
+     * @return true if the index has changed
+     */
+    private boolean indexItem(final RecordingItem item) {
+        if(sIndex.get(item.getPath(), item.getSize(), item.getLastModified()) != null) {
+            return false;
+        }
+        RecordingMetadata metadata = extract(item.getFile());
+        sIndex.put(metadata);
+        publish(item, metadata);
+        return true;
+    }
+
+    private void publish(final RecordingItem item, final RecordingMetadata metadata) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(listener != null) {
+                    listener.onMetadataReady(item, metadata);
+                }
+            }
+        });
+    }
+
+    /**
+     * Move the entries of renamed files, the content is unchanged so nothing is extracted
+     * @param from the files before rename
+     * @param to the files after rename, in the same order
+     */
+    public void onFilesRenamed(List<File> from, List<File> to) {
+        final List<File> fromList = new ArrayList<>(from);
+        final List<File> toList = new ArrayList<>(to);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureLoaded();
+                for(int i = 0; i < fromList.size(); i++) {
+                    File target = toList.get(i);
+                    String fromPath = fromList.get(i).getAbsolutePath();
+                    RecordingMetadata metadata = sIndex.get(fromPath, target.length(),
+                            target.lastModified());
+                    sIndex.remove(fromPath);
+                    if(metadata != null) {
+                        sIndex.put(new RecordingMetadata(target.getAbsolutePath(),
+                                metadata.getSize(), metadata.getLastModified(),
+                                metadata.getDuration(), metadata.getMimeType(),
+                                metadata.getSampleRate(), metadata.getCreateTime()));
+                    }
+                }
+                // one write for the whole batch
+                saveIndex();
+                sSearchIndex.rename(fromList, toList);
+            }
+        });
+    }
+
+    /**
+     * Remove the entries of deleted files, or of files moved out of the folder
+     * @param files the removed files
+     */
+    public void onFilesDeleted(List<File> files) {
+        final List<File> fileList = new ArrayList<>(files);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureLoaded();
+                List<String> paths = new ArrayList<>(fileList.size());
+                for(File file : fileList) {
+                    paths.add(file.getAbsolutePath());
+                    sIndex.remove(file.getAbsolutePath());
+                }
+                saveIndex();
+                sSearchIndex.remove(paths);
+            }
+        });
+    }
+
+    /**
+     * Stop delivering callbacks, called when the owner is destroyed
+     */
+    public void release() {
+        listener = null;
+    }
+
+    /**
+     * Read the index from disk the first time it's used in this process
+     * @return true if the index was loaded by this call
+     */
+    private static boolean ensureLoaded() {
+        if(sIndexLoaded) {
+            return false;
+        }
+        sIndex.load();
+        sIndexLoaded = true;
+        return true;
+    }
+
+    private static void saveIndex() {
+        try {
+            sIndex.save();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save metadata index", e);
+        }
+    }
+
+    /**
+     * Extract the metadata of a recording file, this opens and parses the file so it
+     * must only be called on the background thread
+     * @param file the recording file
+     * @return the metadata, duration and codec are empty if the file can't be parsed
+     */
+    static RecordingMetadata extract(File file) {
+        if(SessionManifest.isManifest(file)) {
+            return extractSession(file);
+        }
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        long duration = 0;
+        String mimeType = null;
+        int sampleRate = 0;
+
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(path);
+            if(extractor.getTrackCount() > 0) {
+                MediaFormat format = extractor.getTrackFormat(0);
+                mimeType = format.getString(MediaFormat.KEY_MIME);
+                if(format.containsKey(MediaFormat.KEY_SAMPLE_RATE)) {
+                    sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                }
+                if(format.containsKey(MediaFormat.KEY_DURATION)) {
+                    duration = format.getLong(MediaFormat.KEY_DURATION) / 1000;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read track format of " + path, e);
+        } finally {
+            extractor.release();
+        }
+
+        // some containers don't carry the duration in track format
+        if(duration == 0) {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(path);
+                String value = retriever.extractMetadata(
+                        MediaMetadataRetriever.METADATA_KEY_DURATION);
+                if(value != null) {
+                    duration = Long.parseLong(value);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Cannot read duration of " + path, e);
+            } finally {
+                retriever.release();
+            }
+        }
+
+        return new RecordingMetadata(path, size, lastModified, duration, mimeType, sampleRate,
+                RecordingItem.parseCreateTime(file.getName(), lastModified));
+    }
+
+    /**
+     * Sum the durations of a session's segments, segments with an unknown duration, e.g.
+     * after a crash, are parsed
+     */
+    private static RecordingMetadata extractSession(File manifest) {
+        String path = manifest.getAbsolutePath();
+        long size = manifest.length();
+        long lastModified = manifest.lastModified();
+        long duration = 0;
+        int sampleRate = 0;
+        try {
+            for(SessionManifest.Segment segment : SessionManifest.read(manifest)) {
+                if(segment.durationMillis != SessionManifest.UNKNOWN_DURATION) {
+                    duration += segment.durationMillis;
+                } else if(segment.file.exists()) {
+                    RecordingMetadata metadata = extract(segment.file);
+                    duration += metadata.getDuration();
+                    sampleRate = metadata.getSampleRate();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read session " + path, e);
+        }
+        return new RecordingMetadata(path, size, lastModified, duration,
+                SessionManifest.MIME_TYPE, sampleRate,
+                RecordingItem.parseCreateTime(manifest.getName(), lastModified));
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.zeleven.recorder;
+
+/**
+ * Counts an amount, e.g. bytes written, and keeps the distribution of the amount per
+ * second. Marks are cheap enough for the audio threads, they take an uncontended lock and
+ * read the monotonic clock.
+ */
+public class Meter {
+    private static final long SECOND_NANOS = 1000000000L;
+
+    private final Histogram perSecond = new Histogram();
+    private long total;
+    private long secondStartNanos = -1;
+    private long secondAmount;
+
+    /**
+     * @param amount the amount to add
+     */
+    public void mark(long amount) {
+        mark(amount, System.nanoTime());
+    }
+
+    synchronized void mark(long amount, long nowNanos) {
+        total += amount;
+        if(secondStartNanos < 0) {
+            secondStartNanos = nowNanos;
+        } else if(nowNanos - secondStartNanos >= SECOND_NANOS) {
+            perSecond.record(secondAmount);
+            // seconds without any mark, e.g. while paused, aren't recorded
+            secondStartNanos = nowNanos;
+            secondAmount = 0;
+        }
+        secondAmount += amount;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the distribution of the amount in completed seconds
+     */
+    public Histogram getPerSecond() {
+        return perSecond;
+    }
+
+    public synchronized void reset() {
+        total = 0;
+        secondStartNanos = -1;
+        secondAmount = 0;
+        perSecond.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "total=" + getTotal() + " per second: " + perSecond;
+    }
+}
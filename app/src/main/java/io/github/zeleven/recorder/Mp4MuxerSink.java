@@ -0,0 +1,53 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes encoded frames into an MPEG-4 file with MediaMuxer
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class Mp4MuxerSink implements EncodedAudioSink {
+    private final MediaMuxer muxer;
+    private final Meter bytesWritten = RecorderMetrics.meter(RecorderMetrics.BYTES_WRITTEN);
+    private int trackIndex = -1;
+    private boolean started = false;
+
+    public Mp4MuxerSink(String filePath) throws IOException {
+        muxer = new MediaMuxer(filePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public void onFormat(MediaFormat format) {
+        trackIndex = muxer.addTrack(format);
+        muxer.start();
+        started = true;
+    }
+
+    @Override
+    public void onFrame(ByteBuffer data, MediaCodec.BufferInfo info) {
+        if(started) {
+            muxer.writeSampleData(trackIndex, data, info);
+            bytesWritten.mark(info.size);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if(started) {
+                muxer.stop();
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("Cannot finish MPEG-4 file", e);
+        } finally {
+            muxer.release();
+        }
+    }
+}
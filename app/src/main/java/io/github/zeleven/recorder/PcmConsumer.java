@@ -0,0 +1,33 @@
+package io.github.zeleven.recorder;
+
+import java.io.IOException;
+
+/**
+ * A stage reading captured PCM from the ring buffer of {@link AudioRecordEngine}.
+ * All methods are called on the consumer thread, in order, and must not keep a
+ * reference to the buffer passed to {@link #onPcm(short[], int, int)}.
+ */
+public interface PcmConsumer {
+    /**
+     * Called once before the first buffer
+     * @param sampleRate sample rate in Hz
+     * @param channelCount number of interleaved channels
+     * @throws IOException if the stage can't open its output
+     */
+    void onStart(int sampleRate, int channelCount) throws IOException;
+
+    /**
+     * Called for every chunk of captured audio
+     * @param buffer interleaved 16 bit samples
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @throws IOException if the stage can't write its output
+     */
+    void onPcm(short[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Called once after the last buffer, the stage finishes and closes its output
+     * @throws IOException if the output can't be finished
+     */
+    void onStop() throws IOException;
+}
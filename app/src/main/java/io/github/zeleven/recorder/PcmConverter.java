@@ -0,0 +1,107 @@
+package io.github.zeleven.recorder;
+
+import java.io.IOException;
+
+/**
+ * Converts PCM to mono at another sample rate and passes it to the next stage, used to
+ * transcode recordings to the voice profile. Channels are averaged and samples linearly
+ * interpolated; when the rate goes down a two pole low-pass in front keeps most of the
+ * content above the new Nyquist frequency from folding back, enough for speech.
+ */
+public class PcmConverter implements PcmConsumer {
+    // cutoff of the low-pass relative to the target rate
+    private static final double CUTOFF = 0.4;
+
+    private final PcmConsumer next;
+    private final int targetRate;
+    private int channelCount;
+    private double step;
+    private float filterCoefficient;
+    private float lowPass1;
+    private float lowPass2;
+    // mono[0] is the last frame of the previous buffer, so interpolation spans buffers
+    private float[] mono = new float[0];
+    private short[] output = new short[0];
+    private double position;
+    private boolean hasPrevious;
+
+    /**
+     * @param next the stage receiving the converted mono PCM
+     * @param targetRate the sample rate passed on, in Hz
+     */
+    public PcmConverter(PcmConsumer next, int targetRate) {
+        this.next = next;
+        this.targetRate = targetRate;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.channelCount = channelCount;
+        step = (double) sampleRate / targetRate;
+        filterCoefficient = sampleRate > targetRate
+                ? (float) (1 - Math.exp(-2 * Math.PI * CUTOFF * targetRate / sampleRate)) : 1f;
+        lowPass1 = 0;
+        lowPass2 = 0;
+        position = 1;
+        hasPrevious = false;
+        next.onStart(targetRate, 1);
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) throws IOException {
+        int frames = length / channelCount;
+        if(frames == 0) {
+            return;
+        }
+        if(mono.length < frames + 1) {
+            mono = new float[frames + 1];
+        }
+        float a = filterCoefficient;
+        for(int frame = 0; frame < frames; frame++) {
+            int sum = 0;
+            int start = offset + frame * channelCount;
+            for(int channel = 0; channel < channelCount; channel++) {
+                sum += buffer[start + channel];
+            }
+            float sample = (float) sum / channelCount;
+            if(!hasPrevious && frame == 0) {
+                // the filter starts settled instead of rising from 0
+                lowPass1 = sample;
+                lowPass2 = sample;
+            }
+            lowPass1 += a * (sample - lowPass1);
+            lowPass2 += a * (lowPass1 - lowPass2);
+            mono[frame + 1] = lowPass2;
+        }
+        if(!hasPrevious) {
+            mono[0] = mono[1];
+            hasPrevious = true;
+        }
+
+        int capacity = (int) (frames / step) + 2;
+        if(output.length < capacity) {
+            output = new short[capacity];
+        }
+        int count = 0;
+        while(position <= frames) {
+            int index = (int) position;
+            float value = mono[index];
+            if(index < frames) {
+                value += (mono[index + 1] - value) * (float) (position - index);
+            }
+            output[count++] = (short) Math.max(Short.MIN_VALUE,
+                    Math.min(Short.MAX_VALUE, Math.round(value)));
+            position += step;
+        }
+        position -= frames;
+        mono[0] = mono[frames];
+        if(count > 0) {
+            next.onPcm(output, 0, count);
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        next.onStop();
+    }
+}
@@ -0,0 +1,171 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes the audio track of a recording to 16 bit PCM with MediaExtractor and MediaCodec
+ * and feeds it to a {@link PcmConsumer}. Decoding is synchronous, so it must run on a
+ * background thread, and can be cancelled from any thread.
+ */
+public class PcmDecoder {
+    private static final long TIMEOUT_US = 10000;
+
+    private volatile boolean cancelled = false;
+    private short[] samples = new short[8192];
+
+    /**
+     * Stop a running {@link #decode(File, PcmConsumer)} as soon as possible
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Decode a whole file
+     * @param file the recording
+     * @param consumer receives the PCM, {@link PcmConsumer#onStop()} is only called if the
+     *                 file has been decoded to the end
+     * @return false if decoding has been cancelled
+     * @throws IOException if the file can't be read or decoded
+     */
+    public boolean decode(File file, PcmConsumer consumer) throws IOException {
+        return decode(file, 0, consumer);
+    }
+
+    /**
+     * Decode a file from a position on, e.g. to resume an interrupted transcode
+     * @param file the recording
+     * @param startUs media time of the first sample passed to the consumer
+     * @param consumer receives the PCM, {@link PcmConsumer#onStop()} is only called if the
+     *                 file has been decoded to the end
+     * @return false if decoding has been cancelled
+     * @throws IOException if the file can't be read or decoded
+     */
+    public boolean decode(File file, long startUs, PcmConsumer consumer) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            MediaFormat format = selectAudioTrack(extractor);
+            if(startUs > 0) {
+                extractor.seekTo(startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            }
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+            ByteBuffer[] inputBuffers = codec.getInputBuffers();
+            ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean started = false;
+            boolean inputDone = false;
+            while(!cancelled) {
+                if(!inputDone) {
+                    int index = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if(index >= 0) {
+                        int size = extractor.readSampleData(inputBuffers[index], 0);
+                        if(size < 0) {
+                            codec.queueInputBuffer(index, 0, 0, 0,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if(index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputBuffers = codec.getOutputBuffers();
+                } else if(index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    // the decoder knows the real format, e.g. of HE-AAC
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    if(!started) {
+                        start(consumer, outputFormat);
+                        started = true;
+                    }
+                } else if(index >= 0) {
+                    if(!started) {
+                        start(consumer, format);
+                        started = true;
+                    }
+                    int count = copySamples(outputBuffers[index], info);
+                    codec.releaseOutputBuffer(index, false);
+                    // the seek lands on the frame before the start, skip up to the start
+                    int skip = 0;
+                    if(info.presentationTimeUs < startUs) {
+                        skip = (int) Math.min(count, (startUs - info.presentationTimeUs)
+                                * sampleRate / 1000000 * channelCount);
+                    }
+                    if(count > skip) {
+                        consumer.onPcm(samples, skip, count - skip);
+                    }
+                    if((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        if(started) {
+                            consumer.onStop();
+                        }
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } catch (IllegalStateException e) {
+            throw new IOException("Cannot decode " + file, e);
+        } finally {
+            if(codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    // not started
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private int copySamples(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        buffer.position(info.offset);
+        buffer.limit(info.offset + info.size);
+        ShortBuffer shorts = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+        int count = shorts.remaining();
+        if(count > samples.length) {
+            samples = new short[count];
+        }
+        shorts.get(samples, 0, count);
+        return count;
+    }
+
+    private static void start(PcmConsumer consumer, MediaFormat format) throws IOException {
+        consumer.onStart(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+    }
+
+    /**
+     * Select the first audio track
+     * @return the format of the track
+     * @throws IOException if the file has no audio track
+     */
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) throws IOException {
+        for(int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if(mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        throw new IOException("No audio track");
+    }
+}
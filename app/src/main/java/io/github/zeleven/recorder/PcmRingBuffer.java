@@ -0,0 +1,99 @@
+package io.github.zeleven.recorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free single-producer/single-consumer ring buffer of 16 bit samples. The storage
+ * is allocated once, reads and writes only copy samples and publish the new position,
+ * so the capture thread never blocks on the consumer and never allocates.
+ */
+public class PcmRingBuffer {
+    private final short[] buffer;
+    private final int capacity;
+    private final int mask;
+
+    // each position is written by one thread only and read by the other
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    // the last seen position of the other side, to avoid a volatile read per call
+    private long cachedReadPosition;
+    private long cachedWritePosition;
+
+    /**
+     * @param minCapacity the minimum number of samples the buffer can hold, it's
+     *                    rounded up to a power of two
+     */
+    public PcmRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        this.buffer = new short[capacity];
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of samples which can be read, may be called from either thread
+     * @return the readable sample count
+     */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * Copy samples into the buffer, producer thread only
+     * @param source the samples to write
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @return number of samples written, less than length if the buffer is full
+     */
+    public int write(short[] source, int offset, int length) {
+        long write = writePosition.get();
+        if(capacity - (write - cachedReadPosition) < length) {
+            cachedReadPosition = readPosition.get();
+        }
+        int count = (int) Math.min(length, capacity - (write - cachedReadPosition));
+        if(count <= 0) {
+            return 0;
+        }
+        int index = (int) (write & mask);
+        int first = Math.min(count, capacity - index);
+        System.arraycopy(source, offset, buffer, index, first);
+        if(count > first) {
+            System.arraycopy(source, offset + first, buffer, 0, count - first);
+        }
+        // publish the samples, ordered after the copies above
+        writePosition.lazySet(write + count);
+        return count;
+    }
+
+    /**
+     * Copy samples out of the buffer, consumer thread only
+     * @param target the array to fill
+     * @param offset index of the first sample in target
+     * @param length maximum number of samples to read
+     * @return number of samples read, 0 if the buffer is empty
+     */
+    public int read(short[] target, int offset, int length) {
+        long read = readPosition.get();
+        if(cachedWritePosition - read < length) {
+            cachedWritePosition = writePosition.get();
+        }
+        int count = (int) Math.min(length, cachedWritePosition - read);
+        if(count <= 0) {
+            return 0;
+        }
+        int index = (int) (read & mask);
+        int first = Math.min(count, capacity - index);
+        System.arraycopy(buffer, index, target, offset, first);
+        if(count > first) {
+            System.arraycopy(buffer, 0, target, offset + first, count - first);
+        }
+        // release the space, ordered after the copies above
+        readPosition.lazySet(read + count);
+        return count;
+    }
+}
@@ -0,0 +1,518 @@
+package io.github.zeleven.recorder;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The in-app player. A playback thread reads samples from a {@link PlaybackSource},
+ * decodes them with MediaCodec, changes their speed with a {@link TimeStretcher} and writes
+ * them to an AudioTrack. Session manifests are played as their segments back-to-back on
+ * one timeline.
+ * <p>
+ * Seeks are handed to the playback thread and only the latest one is done, so dragging a
+ * seek bar never queues work. A seek starts at the sync point before the time, which the
+ * sources find through their index, and drops decoded audio up to the exact time.
+ * <p>
+ * All callbacks of the {@link Listener} run on the main thread.
+ */
+public class PlaybackEngine implements Runnable {
+    private static final String TAG = "PlaybackEngine";
+    private static final long TIMEOUT_US = 10000;
+    private static final long NO_SEEK = -1;
+    // largest chunk written to the track at once, pause and seek wait at most this long
+    private static final int WRITE_MILLIS = 20;
+
+    /**
+     * The callbacks of the player, called on the main thread
+     */
+    public interface Listener {
+        /**
+         * Called when the durations of all segments are known
+         * @param durationUs the duration of the recording in microseconds
+         */
+        void onPrepared(long durationUs);
+
+        void onCompletion();
+
+        void onError(IOException e);
+    }
+
+    private final File file;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Thread thread;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    private volatile boolean released = false;
+    private volatile boolean playing = false;
+    private final AtomicLong pendingSeekUs = new AtomicLong(NO_SEEK);
+    private volatile float speed = 1f;
+
+    private List<SessionManifest.Segment> segments = new ArrayList<>();
+    private long[] segmentStartsUs;
+    private volatile long durationUs;
+    private int segmentIndex;
+    private PlaybackSource source;
+    private MediaCodec codec;
+    private ByteBuffer[] inputBuffers;
+    private ByteBuffer[] outputBuffers;
+    private boolean inputDone;
+    private ByteBuffer pcmBuffer;
+    private short[] samples = new short[8192];
+    private short[] stretched = new short[8192];
+    // decoded audio before this time of the segment is dropped after a seek
+    private long skipUntilUs;
+
+    private volatile AudioTrack track;
+    private TimeStretcher stretcher;
+    private int outputRate;
+    private int outputChannels;
+    private boolean trackPlaying;
+    // the last segment has been decoded, what is left is played out by finishPlayback
+    private boolean endReached;
+    // the position of the audio written to the track since the last flush
+    private volatile long writtenMediaUs;
+    private volatile long writtenFrames;
+
+    /**
+     * Create the player and its thread, the recording is opened on that thread
+     * @param file a recording or a session manifest
+     * @param listener receives the state on the main thread
+     */
+    public PlaybackEngine(File file, Listener listener) {
+        this.file = file;
+        this.listener = listener;
+        thread = new Thread(this, "Playback");
+        thread.start();
+    }
+
+    public void play() {
+        playing = true;
+        LockSupport.unpark(thread);
+    }
+
+    public void pause() {
+        playing = false;
+        LockSupport.unpark(thread);
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * Move to a time, replaces a seek which has not been done yet
+     * @param timeUs the time on the timeline of the recording
+     */
+    public void seekTo(long timeUs) {
+        pendingSeekUs.set(Math.max(0, timeUs));
+        // shown right away, before the playback thread got to the seek
+        writtenMediaUs = Math.max(0, timeUs);
+        writtenFrames = 0;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @param speed playback speed, see {@link TimeStretcher#MIN_SPEED} and
+     *              {@link TimeStretcher#MAX_SPEED}
+     */
+    public void setSpeed(float speed) {
+        this.speed = Math.max(TimeStretcher.MIN_SPEED, Math.min(TimeStretcher.MAX_SPEED, speed));
+    }
+
+    /**
+     * @return the time which is being heard, on the timeline of the recording
+     */
+    public long getPositionUs() {
+        long position = writtenMediaUs;
+        AudioTrack audioTrack = track;
+        if(audioTrack != null && pendingSeekUs.get() == NO_SEEK && outputRate > 0) {
+            // the frames which have been written but not played yet
+            long pendingFrames = writtenFrames
+                    - (audioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL);
+            if(pendingFrames > 0) {
+                position -= (long) (pendingFrames * speed * 1000000 / outputRate);
+            }
+        }
+        return Math.max(0, Math.min(position, durationUs));
+    }
+
+    /**
+     * Stop playing and release the decoder and the track, the engine can't be used after
+     */
+    public void release() {
+        released = true;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        try {
+            prepareSegments();
+            final long duration = durationUs;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(!released) {
+                        listener.onPrepared(duration);
+                    }
+                }
+            });
+            openSegment(0, 0);
+            while(!released) {
+                long seekUs = pendingSeekUs.get();
+                if(seekUs != NO_SEEK) {
+                    doSeek(seekUs);
+                    continue;
+                }
+                if(!playing) {
+                    pauseTrack();
+                    LockSupport.park(this);
+                    continue;
+                }
+                if(endReached) {
+                    // paused while the end was played out
+                    finishPlayback();
+                } else if(!decodeStep()) {
+                    if(segmentIndex + 1 < segments.size()) {
+                        openSegment(segmentIndex + 1, 0);
+                    } else {
+                        finishPlayback();
+                    }
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            Log.e(TAG, "Cannot play " + file, e);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(!released) {
+                        listener.onError(e instanceof IOException ? (IOException) e
+                                : new IOException(e));
+                    }
+                }
+            });
+        } finally {
+            closeSegment();
+            if(track != null) {
+                track.release();
+                track = null;
+            }
+        }
+    }
+
+    /**
+     * Read the segments and measure the ones whose duration the manifest doesn't know
+     */
+    private void prepareSegments() throws IOException {
+        if(SessionManifest.isManifest(file)) {
+            segments = SessionManifest.read(file);
+        } else {
+            segments.add(new SessionManifest.Segment(file, SessionManifest.UNKNOWN_DURATION));
+        }
+        if(segments.isEmpty()) {
+            throw new IOException("No segments in " + file);
+        }
+        segmentStartsUs = new long[segments.size()];
+        long start = 0;
+        for(int i = 0; i < segments.size(); i++) {
+            SessionManifest.Segment segment = segments.get(i);
+            segmentStartsUs[i] = start;
+            long segmentUs = segment.durationMillis * 1000;
+            if(segment.durationMillis == SessionManifest.UNKNOWN_DURATION) {
+                PlaybackSource measured = openSource(segment.file);
+                segmentUs = measured.getDurationUs();
+                measured.close();
+            }
+            start += segmentUs;
+        }
+        durationUs = start;
+    }
+
+    /**
+     * Open the source for a file, recordings of this app are read without extractor
+     */
+    static PlaybackSource openSource(File file) throws IOException {
+        String name = file.getName();
+        if(name.endsWith(".wav")) {
+            return new WavPlaybackSource(file);
+        }
+        if(name.endsWith(".aac")) {
+            try {
+                return new AdtsPlaybackSource(file);
+            } catch (IOException e) {
+                Log.w(TAG, file + " is no ADTS stream, using MediaExtractor", e);
+            }
+        }
+        return new ExtractorPlaybackSource(file);
+    }
+
+    /**
+     * Open a segment and its decoder and move to a time in it
+     */
+    private void openSegment(int index, long timeUs) throws IOException {
+        closeSegment();
+        segmentIndex = index;
+        source = openSource(segments.get(index).file);
+        MediaFormat format = source.getFormat();
+        if(format != null) {
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+            inputBuffers = codec.getInputBuffers();
+            outputBuffers = codec.getOutputBuffers();
+        } else if(pcmBuffer == null) {
+            pcmBuffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        inputDone = false;
+        source.seekTo(timeUs);
+        skipUntilUs = timeUs;
+    }
+
+    private void closeSegment() {
+        if(codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                // not started
+            }
+            codec.release();
+            codec = null;
+        }
+        if(source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close " + segments.get(segmentIndex).file, e);
+            }
+            source = null;
+        }
+    }
+
+    /**
+     * Move to a time on the timeline, drops everything which has been decoded or written
+     */
+    private void doSeek(long requestedUs) throws IOException {
+        long timeUs = Math.min(requestedUs, durationUs);
+        int index = segments.size() - 1;
+        while(index > 0 && segmentStartsUs[index] > timeUs) {
+            index--;
+        }
+        long segmentTimeUs = timeUs - segmentStartsUs[index];
+        if(index != segmentIndex || source == null) {
+            openSegment(index, segmentTimeUs);
+        } else {
+            if(codec != null) {
+                codec.flush();
+            }
+            inputDone = false;
+            source.seekTo(segmentTimeUs);
+            skipUntilUs = segmentTimeUs;
+        }
+        if(stretcher != null) {
+            stretcher.clear();
+        }
+        if(track != null) {
+            track.pause();
+            track.flush();
+            trackPlaying = false;
+        }
+        writtenFrames = 0;
+        writtenMediaUs = timeUs;
+        endReached = false;
+        // only cleared if no newer seek has come in meanwhile
+        pendingSeekUs.compareAndSet(requestedUs, NO_SEEK);
+    }
+
+    /**
+     * Move one sample through the decoder
+     * @return false at the end of the segment
+     */
+    private boolean decodeStep() throws IOException {
+        if(codec == null) {
+            pcmBuffer.clear();
+            long timeUs = source.getSampleTimeUs();
+            int size = source.readSample(pcmBuffer);
+            if(size < 0) {
+                return false;
+            }
+            pcmBuffer.flip();
+            deliver(pcmBuffer, timeUs, source.getSampleRate(), source.getChannelCount());
+            return true;
+        }
+        if(!inputDone) {
+            int index = codec.dequeueInputBuffer(TIMEOUT_US);
+            if(index >= 0) {
+                ByteBuffer buffer = inputBuffers[index];
+                buffer.clear();
+                long timeUs = source.getSampleTimeUs();
+                int size = source.readSample(buffer);
+                if(size < 0) {
+                    codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                    inputDone = true;
+                } else {
+                    codec.queueInputBuffer(index, 0, size, timeUs, 0);
+                }
+            }
+        }
+        int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+        if(index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            outputBuffers = codec.getOutputBuffers();
+        } else if(index >= 0) {
+            boolean end = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            ByteBuffer buffer = outputBuffers[index];
+            buffer.position(info.offset);
+            buffer.limit(info.offset + info.size);
+            MediaFormat format = codec.getOutputFormat();
+            deliver(buffer.order(ByteOrder.nativeOrder()), info.presentationTimeUs,
+                    format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+            codec.releaseOutputBuffer(index, false);
+            return !end;
+        }
+        return true;
+    }
+
+    /**
+     * Drop audio before the seek time, stretch the rest and write it to the track
+     */
+    private void deliver(ByteBuffer pcm, long timeUs, int sampleRate, int channelCount) {
+        ShortBuffer shorts = pcm.asShortBuffer();
+        int count = shorts.remaining();
+        if(count > samples.length) {
+            samples = new short[count];
+        }
+        shorts.get(samples, 0, count);
+        int offset = 0;
+        if(timeUs < skipUntilUs) {
+            long skipFrames = (skipUntilUs - timeUs) * sampleRate / 1000000;
+            offset = (int) Math.min(count, skipFrames * channelCount);
+        }
+        if(offset == count) {
+            return;
+        }
+        skipUntilUs = 0;
+        ensureOutput(sampleRate, channelCount);
+        stretcher.setSpeed(speed);
+        stretcher.write(samples, offset, count - offset);
+        writeStretched();
+    }
+
+    /**
+     * Write what the stretcher has produced in small chunks, stops early if the playback
+     * has been paused or moved
+     */
+    private void writeStretched() {
+        int chunk = Math.min(stretched.length,
+                outputRate * WRITE_MILLIS / 1000 * outputChannels);
+        while(stretcher.available() > 0 && playing && pendingSeekUs.get() == NO_SEEK
+                && !released) {
+            if(!trackPlaying) {
+                track.play();
+                trackPlaying = true;
+            }
+            int count = stretcher.read(stretched, 0, chunk);
+            int written = track.write(stretched, 0, count);
+            if(written < 0) {
+                Log.w(TAG, "AudioTrack write failed: " + written);
+                return;
+            }
+            long frames = written / outputChannels;
+            writtenFrames += frames;
+            writtenMediaUs += (long) (frames * stretcher.getSpeed() * 1000000 / outputRate);
+        }
+    }
+
+    /**
+     * Create the track and stretcher for the decoded format, or keep the current ones if
+     * the format is the same
+     */
+    private void ensureOutput(int sampleRate, int channelCount) {
+        if(track != null && sampleRate == outputRate && channelCount == outputChannels) {
+            return;
+        }
+        if(track != null) {
+            track.release();
+        }
+        int channelConfig = channelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO
+                : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 2, AudioTrack.MODE_STREAM);
+        trackPlaying = false;
+        writtenFrames = 0;
+        outputRate = sampleRate;
+        outputChannels = channelCount;
+        stretcher = new TimeStretcher(sampleRate, channelCount);
+    }
+
+    private void pauseTrack() {
+        if(track != null && trackPlaying) {
+            track.pause();
+            trackPlaying = false;
+        }
+    }
+
+    /**
+     * Play out the end of the last segment and go back to the start. A pause meanwhile keeps
+     * the position, the end is played out on resume.
+     */
+    private void finishPlayback() throws IOException {
+        if(!endReached) {
+            endReached = true;
+            if(stretcher != null) {
+                stretcher.flush();
+            }
+        }
+        if(stretcher != null) {
+            writeStretched();
+        }
+        if(track != null && playing) {
+            if(!trackPlaying) {
+                // resumed after everything had been written
+                track.play();
+                trackPlaying = true;
+            }
+            // let the track play what has been written
+            while(playing && pendingSeekUs.get() == NO_SEEK && !released
+                    && (track.getPlaybackHeadPosition() & 0xFFFFFFFFL) < writtenFrames) {
+                LockSupport.parkNanos(this, WRITE_MILLIS * 1000000L);
+            }
+        }
+        if(!playing || pendingSeekUs.get() != NO_SEEK || released) {
+            // paused or moved, the position is kept
+            return;
+        }
+        endReached = false;
+        playing = false;
+        pauseTrack();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(!released) {
+                    listener.onCompletion();
+                }
+            }
+        });
+        seekTo(0);
+    }
+}
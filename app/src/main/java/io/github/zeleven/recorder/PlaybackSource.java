@@ -0,0 +1,49 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The compressed or raw samples of one file for {@link PlaybackEngine}, read in order
+ * like from MediaExtractor. All methods are called on the playback thread.
+ */
+public interface PlaybackSource extends Closeable {
+    /**
+     * @return the format to configure the decoder with, or null if the samples are
+     *         16 bit little-endian PCM which is played without decoder
+     */
+    MediaFormat getFormat();
+
+    int getSampleRate();
+
+    int getChannelCount();
+
+    /**
+     * @return the duration in microseconds
+     */
+    long getDurationUs();
+
+    /**
+     * Move to the last sync point at or before a time
+     * @param timeUs the time in microseconds
+     * @return the time of the sync point, decoding from there reaches the time exactly
+     * @throws IOException if the source can't be read
+     */
+    long seekTo(long timeUs) throws IOException;
+
+    /**
+     * @return the time of the sample which {@link #readSample(ByteBuffer)} reads next
+     */
+    long getSampleTimeUs();
+
+    /**
+     * Read the next sample and move past it
+     * @param buffer receives the sample at its position
+     * @return size of the sample, or -1 at the end of the file
+     * @throws IOException if the source can't be read
+     */
+    int readSample(ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,361 @@
+package io.github.zeleven.recorder;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import android.text.format.DateUtils;
+import android.view.View;
+import android.widget.Button;
+import android.widget.SeekBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The in-app player for a recording or a session of segments. Dragging the seek bar
+ * seeks while dragging, the speed button steps through the playback speeds. Bookmarks are
+ * shown on the waveform, the bookmark buttons seek straight to their time. A selection set
+ * at the playing position can be kept or removed, or the recording split, which writes
+ * new recordings with {@link EditOperation} and leaves the recording as it is.
+ */
+public class PlayerActivity extends BaseActivity implements PlaybackEngine.Listener,
+        View.OnClickListener, SeekBar.OnSeekBarChangeListener, FileOperationQueue.Listener {
+    private static final String EXTRA_FILE = "file";
+    private static final String EXTRA_POSITION = "position";
+    private static final float[] SPEEDS = {0.5f, 0.75f, 1f, 1.25f, 1.5f, 2f, 3f};
+    private static final int NORMAL_SPEED_INDEX = 2;
+    private static final long POSITION_INTERVAL_MILLIS = 100;
+    // a bookmark this close to the position counts as the current one
+    private static final long MARKER_TOLERANCE_MILLIS = 1000;
+
+    private PlaybackEngine engine;
+    private Button playButton;
+    private Button speedButton;
+    private SeekBar seekBar;
+    private TextView positionText;
+    private TextView durationText;
+    private WaveformView waveformView;
+    private View markerButtons;
+    private Button editButton;
+    private File file;
+    private long selectionStartMillis = -1;
+    private long selectionEndMillis = -1;
+    private FileOperationQueue operationQueue = new FileOperationQueue();
+    private long[] markers = new long[0];
+    private long durationMillis;
+    private String[] speedNames;
+    private int speedIndex = NORMAL_SPEED_INDEX;
+    private boolean tracking = false;
+    private Handler handler = new Handler();
+
+    private Runnable positionUpdate = new Runnable() {
+        @Override
+        public void run() {
+            if(!tracking) {
+                showPosition(engine.getPositionUs() / 1000);
+            }
+            if(engine.isPlaying()) {
+                handler.postDelayed(this, POSITION_INTERVAL_MILLIS);
+            }
+        }
+    };
+
+    /**
+     * @param context the calling context
+     * @param file a recording or a session manifest
+     * @return the intent which starts the player for the file
+     */
+    public static Intent newIntent(Context context, File file) {
+        return new Intent(context, PlayerActivity.class)
+                .putExtra(EXTRA_FILE, file.getAbsolutePath());
+    }
+
+    /**
+     * @param context the calling context
+     * @param file a recording or a session manifest
+     * @param positionMillis where to start playing, e.g. a bookmark
+     * @return the intent which starts the player for the file at the position
+     */
+    public static Intent newIntent(Context context, File file, long positionMillis) {
+        return newIntent(context, file).putExtra(EXTRA_POSITION, positionMillis);
+    }
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.layoutId = R.layout.activity_player;
+        super.onCreate(savedInstanceState);
+
+        file = new File(getIntent().getStringExtra(EXTRA_FILE));
+        ((TextView) findViewById(R.id.player_name_text)).setText(file.getName());
+        playButton = (Button) findViewById(R.id.btn_play);
+        speedButton = (Button) findViewById(R.id.btn_speed);
+        seekBar = (SeekBar) findViewById(R.id.player_seek_bar);
+        positionText = (TextView) findViewById(R.id.player_position_text);
+        durationText = (TextView) findViewById(R.id.player_duration_text);
+        waveformView = (WaveformView) findViewById(R.id.player_waveform_view);
+        markerButtons = findViewById(R.id.player_marker_buttons);
+        editButton = (Button) findViewById(R.id.btn_edit);
+        speedNames = getResources().getStringArray(R.array.player_speed_names);
+
+        playButton.setOnClickListener(this);
+        speedButton.setOnClickListener(this);
+        findViewById(R.id.btn_previous_marker).setOnClickListener(this);
+        findViewById(R.id.btn_next_marker).setOnClickListener(this);
+        findViewById(R.id.btn_selection_start).setOnClickListener(this);
+        findViewById(R.id.btn_selection_end).setOnClickListener(this);
+        editButton.setOnClickListener(this);
+        // a session is played from several files, only single recordings are edited
+        findViewById(R.id.player_edit_buttons).setVisibility(
+                SessionManifest.isManifest(file) ? View.GONE : View.VISIBLE);
+        speedButton.setText(speedNames[speedIndex]);
+        seekBar.setOnSeekBarChangeListener(this);
+        seekBar.setEnabled(false);
+
+        engine = new PlaybackEngine(file, this);
+        loadSidecars(file);
+    }
+
+    /**
+     * Show the waveform and the bookmarks of the file, read from their sidecars in
+     * background
+     */
+    private void loadSidecars(final File file) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WaveformSummary summary = WaveformSummary.read(
+                        WaveformSummary.sidecarFor(file));
+                if(summary != null && !summary.matches(file.length(), file.lastModified())) {
+                    summary = null;
+                }
+                final WaveformSummary matchingSummary = summary;
+                final long[] fileMarkers = MarkerIndex.read(file);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(matchingSummary != null) {
+                            waveformView.setSummary(matchingSummary);
+                        }
+                        showMarkers(fileMarkers);
+                    }
+                });
+            }
+        }, "PlayerSidecars").start();
+    }
+
+    private void showMarkers(long[] fileMarkers) {
+        markers = fileMarkers;
+        markerButtons.setVisibility(markers.length > 0 ? View.VISIBLE : View.GONE);
+        if(durationMillis > 0) {
+            waveformView.setMarkers(markers, durationMillis);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        // playback doesn't continue in background
+        if(engine.isPlaying()) {
+            engine.pause();
+            showPlaying(false);
+        }
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        handler.removeCallbacks(positionUpdate);
+        operationQueue.release();
+        engine.release();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onClick(View view) {
+        switch (view.getId()) {
+            case R.id.btn_play:
+                if(engine.isPlaying()) {
+                    engine.pause();
+                    showPlaying(false);
+                } else {
+                    engine.play();
+                    showPlaying(true);
+                }
+                break;
+            case R.id.btn_speed:
+                speedIndex = (speedIndex + 1) % SPEEDS.length;
+                engine.setSpeed(SPEEDS[speedIndex]);
+                speedButton.setText(speedNames[speedIndex]);
+                break;
+            case R.id.btn_previous_marker:
+                seekToMarker(MarkerIndex.previous(markers, engine.getPositionUs() / 1000,
+                        MARKER_TOLERANCE_MILLIS));
+                break;
+            case R.id.btn_next_marker:
+                seekToMarker(MarkerIndex.next(markers, engine.getPositionUs() / 1000,
+                        MARKER_TOLERANCE_MILLIS));
+                break;
+            case R.id.btn_selection_start:
+                selectionStartMillis = engine.getPositionUs() / 1000;
+                showSelection();
+                break;
+            case R.id.btn_selection_end:
+                selectionEndMillis = engine.getPositionUs() / 1000;
+                showSelection();
+                break;
+            case R.id.btn_edit:
+                showEditDialog();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void seekToMarker(long markerMillis) {
+        if(markerMillis < 0 || durationMillis <= 0) {
+            return;
+        }
+        engine.seekTo(markerMillis * 1000);
+        showPosition(markerMillis);
+    }
+
+    private void showSelection() {
+        waveformView.setSelection(selectionStartMillis, selectionEndMillis, durationMillis);
+    }
+
+    private boolean hasSelection() {
+        return selectionStartMillis >= 0 && selectionStartMillis < selectionEndMillis;
+    }
+
+    private void showEditDialog() {
+        if(durationMillis <= 0) {
+            return;
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getString(R.string.edit_dialog_title));
+        builder.setItems(getResources().getStringArray(R.array.edit_dialog_items),
+                new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int which) {
+                long positionMillis = engine.getPositionUs() / 1000;
+                if(which == 2) {
+                    if(positionMillis <= 0 || positionMillis >= durationMillis) {
+                        showToast(R.string.toast_edit_no_position);
+                        return;
+                    }
+                    startEdit(EditOperation.split(positionMillis * 1000));
+                } else if(!hasSelection()) {
+                    showToast(R.string.toast_edit_no_selection);
+                } else if(which == 0) {
+                    startEdit(EditOperation.trim(selectionStartMillis * 1000,
+                            selectionEndMillis * 1000));
+                } else {
+                    startEdit(EditOperation.cut(selectionStartMillis * 1000,
+                            selectionEndMillis * 1000));
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    private void startEdit(EditOperation operation) {
+        editButton.setEnabled(false);
+        operationQueue.submit(operation, Collections.singletonList(file), this);
+    }
+
+    @Override
+    public void onProgress(FileOperation operation, int done, int total) {}
+
+    @Override
+    public void onFinished(FileOperation operation, FileOperation.Result result) {
+        editButton.setEnabled(true);
+        List<File> outputs = ((EditOperation) operation).getOutputs();
+        if(outputs.isEmpty()) {
+            showToast(R.string.toast_edit_failed);
+            return;
+        }
+        StringBuilder names = new StringBuilder();
+        for(File output : outputs) {
+            MetadataScanner.indexRecording(this, output);
+            if(names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(output.getName());
+        }
+        Toast.makeText(this, getString(R.string.toast_edit_saved, names), Toast.LENGTH_SHORT)
+                .show();
+    }
+
+    private void showToast(int resId) {
+        Toast.makeText(this, getString(resId), Toast.LENGTH_SHORT).show();
+    }
+
+    private void showPlaying(boolean playing) {
+        playButton.setText(getString(playing ? R.string.player_pause : R.string.player_play));
+        handler.removeCallbacks(positionUpdate);
+        if(playing) {
+            handler.post(positionUpdate);
+        }
+    }
+
+    private void showPosition(long positionMillis) {
+        seekBar.setProgress((int) positionMillis);
+        positionText.setText(DateUtils.formatElapsedTime(positionMillis / 1000));
+    }
+
+    @Override
+    public void onPrepared(long durationUs) {
+        durationMillis = durationUs / 1000;
+        seekBar.setMax((int) durationMillis);
+        seekBar.setEnabled(true);
+        durationText.setText(DateUtils.formatElapsedTime(durationMillis / 1000));
+        waveformView.setMarkers(markers, durationMillis);
+        playButton.setEnabled(true);
+        editButton.setEnabled(true);
+        long startMillis = getIntent().getLongExtra(EXTRA_POSITION, 0);
+        if(startMillis > 0 && startMillis < durationMillis) {
+            engine.seekTo(startMillis * 1000);
+            showPosition(startMillis);
+        }
+        engine.play();
+        showPlaying(true);
+    }
+
+    @Override
+    public void onCompletion() {
+        showPlaying(false);
+        showPosition(0);
+    }
+
+    @Override
+    public void onError(IOException e) {
+        Toast.makeText(this, getString(R.string.toast_play_failed), Toast.LENGTH_SHORT).show();
+        finish();
+    }
+
+    @Override
+    public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+        if(fromUser) {
+            // seeks while dragging, the engine only does the latest one
+            engine.seekTo(progress * 1000L);
+            positionText.setText(DateUtils.formatElapsedTime(progress / 1000));
+        }
+    }
+
+    @Override
+    public void onStartTrackingTouch(SeekBar seekBar) {
+        tracking = true;
+    }
+
+    @Override
+    public void onStopTrackingTouch(SeekBar seekBar) {
+        tracking = false;
+    }
+}
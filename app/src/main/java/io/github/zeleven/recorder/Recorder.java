@@ -0,0 +1,95 @@
+package io.github.zeleven.recorder;
+
+import java.io.IOException;
+
+/**
+ * The common interface of capture backends used by {@link RecordingService}
+ */
+public interface Recorder {
+    /**
+     * Receives a failure while recording, e.g. of the encoder or the storage. It's called
+     * on a background thread, nothing more is written and the recording must be stopped.
+     */
+    interface ErrorListener {
+        void onRecordingError(IOException e);
+    }
+
+    /**
+     * Acquire the resources which don't depend on the output file ahead of the recording,
+     * called in background while the main screen is idle. Whatever isn't prewarmed is
+     * acquired by {@link #prepare(String)}, {@link #release()} frees it if no recording
+     * follows.
+     * @throws IOException if the audio input can't be opened
+     */
+    void prewarm() throws IOException;
+
+    /**
+     * Create the capture and encoding resources for a recording. All expensive setup
+     * happens here, so {@link #start()} returns as soon as capture has begun.
+     * @param filePath the output file
+     * @throws IOException if the output or the audio input can't be opened
+     */
+    void prepare(String filePath) throws IOException;
+
+    /**
+     * The extension of the files written by this backend, without the dot
+     * @return the file extension
+     */
+    String getFileExtension();
+
+    /**
+     * The file of a second input recorded alongside, sample-aligned with the output file
+     * @return the file, or null if only one input is recorded. Known after
+     *         {@link #start()}.
+     */
+    String getSecondTrackPath();
+
+    /**
+     * The levels of the audio being recorded, updated while capturing
+     * @return the level meter
+     */
+    LevelMeter getLevelMeter();
+
+    /**
+     * Recorded time which silence skipping has left out of the file
+     * @return skipped time in milliseconds
+     */
+    long getSkippedMillis();
+
+    /**
+     * @param listener receives failures while recording, set before {@link #start()}
+     */
+    void setErrorListener(ErrorListener listener);
+
+    /**
+     * Start capturing, must be called after {@link #prepare(String)}
+     */
+    void start();
+
+    /**
+     * Whether the backend can suspend capture and continue in the same file
+     * @return true if {@link #pause()} and {@link #resume()} are supported
+     */
+    boolean canPause();
+
+    /**
+     * Suspend capture and encoding, nothing is written until {@link #resume()}
+     */
+    void pause();
+
+    /**
+     * Continue capturing into the same file, timestamps continue from where they were
+     * paused so the output plays as one seamless recording
+     */
+    void resume();
+
+    /**
+     * Stop capturing, finish the output file and release all resources
+     */
+    void stop();
+
+    /**
+     * Release all resources without finishing the output, used when prepare or start failed
+     */
+    void release();
+}
@@ -0,0 +1,117 @@
+package io.github.zeleven.recorder;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters, histograms and meters of the recording pipeline, shown in
+ * {@link DiagnosticsActivity} and dumped by {@link RecordingService}. Stages look their
+ * metrics up once when they are created, updating them is lock-free or takes an
+ * uncontended lock, so the audio path isn't slowed down.
+ */
+public final class RecorderMetrics {
+    public static final String RECORDINGS_STARTED = "recording.started";
+    public static final String RECORDINGS_FAILED = "recording.start_failed";
+    public static final String OUTPUT_ERRORS = "recording.output_errors";
+    public static final String PREPARE_MILLIS = "start.prepare_ms";
+    public static final String OVERRUN_SAMPLES = "capture.overrun_samples";
+    public static final String READ_ERRORS = "capture.read_errors";
+    public static final String DRIFT_CORRECTED_FRAMES = "capture.drift_corrected_frames";
+    public static final String SECOND_INPUT_FAILED = "capture.second_input_failed";
+    public static final String BACKLOG_MILLIS = "consumer.backlog_ms";
+    public static final String ENCODER_FULL = "encoder.input_full";
+    public static final String BYTES_WRITTEN = "output.bytes";
+    public static final String FSYNC_MICROS = "output.fsync_us";
+
+    private static final Map<String, AtomicLong> sCounters = new LinkedHashMap<>();
+    private static final Map<String, Histogram> sHistograms = new LinkedHashMap<>();
+    private static final Map<String, Meter> sMeters = new LinkedHashMap<>();
+
+    private RecorderMetrics() {}
+
+    /**
+     * @param name the name of the counter
+     * @return the counter, created on first use
+     */
+    public static synchronized AtomicLong counter(String name) {
+        AtomicLong counter = sCounters.get(name);
+        if(counter == null) {
+            counter = new AtomicLong();
+            sCounters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * @param name the name of the histogram, with the unit as suffix
+     * @return the histogram, created on first use
+     */
+    public static synchronized Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if(histogram == null) {
+            histogram = new Histogram();
+            sHistograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param name the name of the meter
+     * @return the meter, created on first use
+     */
+    public static synchronized Meter meter(String name) {
+        Meter meter = sMeters.get(name);
+        if(meter == null) {
+            meter = new Meter();
+            sMeters.put(name, meter);
+        }
+        return meter;
+    }
+
+    /**
+     * Clear every metric, e.g. before measuring a recording
+     */
+    public static synchronized void reset() {
+        for(AtomicLong counter : sCounters.values()) {
+            counter.set(0);
+        }
+        for(Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+        for(Meter meter : sMeters.values()) {
+            meter.reset();
+        }
+    }
+
+    /**
+     * Write every metric, one per line
+     * @param out the destination
+     */
+    public static synchronized void dump(PrintWriter out) {
+        out.println("Counters:");
+        for(Map.Entry<String, AtomicLong> entry : sCounters.entrySet()) {
+            out.println("  " + entry.getKey() + " " + entry.getValue().get());
+        }
+        out.println("Histograms:");
+        for(Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+            out.println("  " + entry.getKey() + " " + entry.getValue());
+        }
+        out.println("Meters:");
+        for(Map.Entry<String, Meter> entry : sMeters.entrySet()) {
+            out.println("  " + entry.getKey() + " " + entry.getValue());
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the text report of every metric
+     */
+    public static String report() {
+        StringWriter writer = new StringWriter();
+        dump(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,292 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Trims, cuts and splits recordings by copying their encoded frames, nothing is decoded
+ * or encoded again. An edit is a list of time ranges which are joined into a new file,
+ * the recording itself is never changed.
+ * <p>
+ * ADTS and WAV are copied as byte ranges through file channels. The cut points are found
+ * with the {@link SeekIndex} of {@link AdtsPlaybackSource} and by arithmetic for WAV, so
+ * an edit of a long recording costs little more than copying its bytes. MPEG-4 is
+ * remuxed with MediaExtractor, which seeks with the sample table of the file, and
+ * MediaMuxer, which needs API 18. Cuts fall on frame boundaries, about 23 ms for AAC at
+ * 44.1 kHz.
+ */
+public class RecordingEditor {
+    private static final int SAMPLE_BUFFER_SIZE = 64 * 1024;
+
+    private RecordingEditor() {}
+
+    /**
+     * A part of a recording, in microseconds
+     */
+    public static class Range {
+        public final long startUs;
+        /** exclusive, {@link Long#MAX_VALUE} for the end of the recording */
+        public final long endUs;
+
+        public Range(long startUs, long endUs) {
+            this.startUs = startUs;
+            this.endUs = endUs;
+        }
+    }
+
+    /**
+     * @return the ranges which keep only the part between start and end
+     */
+    public static List<Range> trim(long startUs, long endUs) {
+        return Collections.singletonList(new Range(startUs, endUs));
+    }
+
+    /**
+     * @return the ranges which remove the part between start and end
+     */
+    public static List<Range> cut(long startUs, long endUs) {
+        List<Range> ranges = new ArrayList<>();
+        if(startUs > 0) {
+            ranges.add(new Range(0, startUs));
+        }
+        ranges.add(new Range(endUs, Long.MAX_VALUE));
+        return ranges;
+    }
+
+    /**
+     * Move bookmarks into the timeline of an edit, bookmarks in removed parts are dropped
+     * @param markerMillis the bookmarks of the recording in ascending order
+     * @param ranges the ranges of the edit
+     * @return the bookmarks of the edited recording
+     */
+    public static long[] mapMarkers(long[] markerMillis, List<Range> ranges) {
+        long[] mapped = new long[markerMillis.length];
+        int count = 0;
+        long offsetMillis = 0;
+        for(Range range : ranges) {
+            long startMillis = range.startUs / 1000;
+            long endMillis = range.endUs == Long.MAX_VALUE ? Long.MAX_VALUE : range.endUs / 1000;
+            for(long marker : markerMillis) {
+                if(marker >= startMillis && marker < endMillis) {
+                    mapped[count++] = offsetMillis + marker - startMillis;
+                }
+            }
+            if(endMillis == Long.MAX_VALUE) {
+                break;
+            }
+            offsetMillis += endMillis - startMillis;
+        }
+        long[] result = new long[count];
+        System.arraycopy(mapped, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Write the ranges of a recording into a new file, must be called on a background
+     * thread
+     * @param source the recording, ADTS, WAV or MPEG-4
+     * @param ranges the ranges in output order
+     * @param target the new file, in the container of the recording
+     * @throws IOException if the recording can't be read, the target can't be written or
+     *                     the container isn't supported
+     */
+    public static void write(File source, List<Range> ranges, File target) throws IOException {
+        switch (ContainerFormat.detect(source)) {
+            case ADTS:
+                writeAdts(source, ranges, target);
+                break;
+            case WAV:
+                writeWav(source, ranges, target);
+                break;
+            case MPEG4:
+                if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                    throw new IOException("MediaMuxer needs API 18");
+                }
+                writeMpeg4(source, ranges, target);
+                break;
+            default:
+                throw new IOException("Cannot edit " + source);
+        }
+    }
+
+    private static void writeAdts(File source, List<Range> ranges, File target)
+            throws IOException {
+        AdtsPlaybackSource adts = new AdtsPlaybackSource(source);
+        try {
+            long[] positions = new long[ranges.size() * 2];
+            for(int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                adts.seekTo(range.startUs);
+                positions[i * 2] = adts.getPosition();
+                if(range.endUs >= adts.getDurationUs()) {
+                    positions[i * 2 + 1] = adts.getEndPosition();
+                } else {
+                    adts.seekTo(range.endUs);
+                    positions[i * 2 + 1] = adts.getPosition();
+                }
+            }
+            // every frame has its own header, the frames are simply joined
+            copyRanges(source, null, positions, target);
+        } finally {
+            adts.close();
+        }
+    }
+
+    private static void writeWav(File source, List<Range> ranges, File target)
+            throws IOException {
+        WavPlaybackSource wav = new WavPlaybackSource(source);
+        try {
+            long[] positions = new long[ranges.size() * 2];
+            long dataSize = 0;
+            for(int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                wav.seekTo(range.startUs);
+                positions[i * 2] = wav.getPosition();
+                wav.seekTo(Math.min(range.endUs, wav.getDurationUs()));
+                positions[i * 2 + 1] = Math.max(positions[i * 2], wav.getPosition());
+                dataSize += positions[i * 2 + 1] - positions[i * 2];
+            }
+            ByteBuffer header = ByteBuffer.allocate(WavWriter.HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            WavWriter.fillHeader(header, wav.getSampleRate(), wav.getChannelCount(), dataSize);
+            copyRanges(source, header, positions, target);
+        } finally {
+            wav.close();
+        }
+    }
+
+    /**
+     * Write a header and the byte ranges of a file, the kernel moves the data directly
+     * @param positions pairs of start and end position
+     */
+    static void copyRanges(File source, ByteBuffer header, long[] positions, File target)
+            throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            boolean done = false;
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                if(header != null) {
+                    while(header.hasRemaining()) {
+                        outChannel.write(header);
+                    }
+                }
+                for(int i = 0; i < positions.length; i += 2) {
+                    long position = positions[i];
+                    while(position < positions[i + 1]) {
+                        long count = inChannel.transferTo(position, positions[i + 1] - position,
+                                outChannel);
+                        if(count <= 0) {
+                            throw new IOException("Cannot read " + source);
+                        }
+                        position += count;
+                    }
+                }
+                out.getFD().sync();
+                done = true;
+            } finally {
+                out.close();
+                if(!done) {
+                    target.delete();
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void writeMpeg4(File source, List<Range> ranges, File target)
+            throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        boolean done = false;
+        try {
+            extractor.setDataSource(source.getAbsolutePath());
+            int track = -1;
+            MediaFormat format = null;
+            for(int i = 0; i < extractor.getTrackCount() && track < 0; i++) {
+                format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if(mime != null && mime.startsWith("audio/")) {
+                    track = i;
+                }
+            }
+            if(track < 0) {
+                throw new IOException("No audio track in " + source);
+            }
+            extractor.selectTrack(track);
+            muxer = new MediaMuxer(target.getAbsolutePath(),
+                    MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int outputTrack = muxer.addTrack(format);
+            muxer.start();
+
+            ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_BUFFER_SIZE);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            // output time of the next range and the duration of the last sample
+            long outputUs = 0;
+            long sampleDurationUs = 0;
+            for(Range range : ranges) {
+                extractor.seekTo(range.startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                long firstUs = -1;
+                long lastUs = -1;
+                while(true) {
+                    long timeUs = extractor.getSampleTime();
+                    if(timeUs < 0 || timeUs >= range.endUs) {
+                        break;
+                    }
+                    int size = extractor.readSampleData(buffer, 0);
+                    if(size < 0) {
+                        break;
+                    }
+                    if(firstUs < 0) {
+                        firstUs = timeUs;
+                    } else {
+                        sampleDurationUs = timeUs - lastUs;
+                    }
+                    lastUs = timeUs;
+                    info.set(0, size, outputUs + timeUs - firstUs,
+                            extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC);
+                    muxer.writeSampleData(outputTrack, buffer, info);
+                    extractor.advance();
+                }
+                if(firstUs >= 0) {
+                    outputUs += lastUs - firstUs + sampleDurationUs;
+                }
+            }
+            muxer.stop();
+            done = true;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Cannot remux " + source, e);
+        } finally {
+            if(muxer != null) {
+                try {
+                    muxer.release();
+                } catch (IllegalStateException e) {
+                    // not started
+                }
+            }
+            extractor.release();
+            if(!done) {
+                target.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A recording file in the file list. Size and modification time are captured when the
+ * item is created, so the list can be sorted and checked against the metadata index
+ * without touching the file system on the UI thread.
+ */
+public class RecordingItem {
+    private static final String FILE_NAME_PATTERN = "yyyyMMdd_HHmmss";
+
+    /**
+     * Orders the items newest first
+     */
+    public static final Comparator<RecordingItem> NEWEST_FIRST = new Comparator<RecordingItem>() {
+        @Override
+        public int compare(RecordingItem a, RecordingItem b) {
+            if(a.createTime != b.createTime) {
+                return a.createTime > b.createTime ? -1 : 1;
+            }
+            return a.getPath().compareTo(b.getPath());
+        }
+    };
+
+    private final File file;
+    private final long size;
+    private final long lastModified;
+    private final long createTime;
+
+    public RecordingItem(File file, long size, long lastModified) {
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.createTime = parseCreateTime(file.getName(), lastModified);
+    }
+
+    /**
+     * Create an item by reading the file's attributes, must not be called on the UI thread
+     * @param file the recording file
+     * @return the item
+     */
+    public static RecordingItem of(File file) {
+        return new RecordingItem(file, file.length(), file.lastModified());
+    }
+
+    /**
+     * List the recording files of a folder sorted newest first
+     * @param folder the recordings folder
+     * @return the items, empty if the folder can't be read
+     */
+    static List<RecordingItem> listFolder(File folder) {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return new ArrayList<>();
+        }
+        List<RecordingItem> items = new ArrayList<>(files.length);
+        for(File file : files) {
+            if(file.isFile() && !file.isHidden()) {
+                items.add(of(file));
+            }
+        }
+        Collections.sort(items, NEWEST_FIRST);
+        return items;
+    }
+
+    /**
+     * @param time the start time of the recording in milliseconds since epoch
+     * @return the file name of the new recording, without extension
+     */
+    public static String newFileName(long time) {
+        return new SimpleDateFormat(FILE_NAME_PATTERN).format(new Date(time));
+    }
+
+    /**
+     * Create the item of this recording after it has been renamed, the content and so
+     * size and modification time are unchanged
+     * @param renamed the file after rename
+     * @return the new item
+     */
+    public RecordingItem renamedTo(File renamed) {
+        return new RecordingItem(renamed, size, lastModified);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getPath() {
+        return file.getAbsolutePath();
+    }
+
+    public String getName() {
+        return file.getName();
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * Whether both items describe the same file content
+     * @param other the other item
+     * @return true if path, size and modification time are equal
+     */
+    public boolean sameContentAs(RecordingItem other) {
+        return getPath().equals(other.getPath()) && size == other.size
+                && lastModified == other.lastModified;
+    }
+
+    /**
+     * Recordings are named by their start time, fall back to the modification time
+     * for files which have been renamed
+     * @param fileName name of the recording file
+     * @param lastModified modification time of the recording file
+     * @return the create time in milliseconds since epoch
+     */
+    static long parseCreateTime(String fileName, long lastModified) {
+        String name = fileName;
+        int dot = name.lastIndexOf('.');
+        if(dot > 0) {
+            name = name.substring(0, dot);
+        }
+        if(name.length() != FILE_NAME_PATTERN.length()) {
+            return lastModified;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat(FILE_NAME_PATTERN);
+        dateFormat.setLenient(false);
+        try {
+            Date date = dateFormat.parse(name);
+            if(date != null) {
+                return date.getTime();
+            }
+        } catch (ParseException ignored) {
+        }
+        return lastModified;
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.zeleven.recorder;
+
+/**
+ * The cached metadata of a recording file, kept in {@link MetadataIndex}
+ */
+public class RecordingMetadata {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final long duration;
+    private final String mimeType;
+    private final int sampleRate;
+    private final long createTime;
+
+    /**
+     * @param path absolute path of the recording file
+     * @param size file length in bytes when the metadata was extracted
+     * @param lastModified file modification time when the metadata was extracted
+     * @param duration duration of the audio in milliseconds
+     * @param mimeType mime type of the audio track, e.g. "audio/mp4a-latm"
+     * @param sampleRate sample rate of the audio track in Hz, 0 if unknown
+     * @param createTime time the recording was created, in milliseconds since epoch
+     */
+    public RecordingMetadata(String path, long size, long lastModified, long duration,
+                             String mimeType, int sampleRate, long createTime) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.duration = duration;
+        this.mimeType = mimeType == null ? "" : mimeType;
+        this.sampleRate = sampleRate;
+        this.createTime = createTime;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * Whether this entry still describes the file, i.e. the file has not been
+     * rewritten since the metadata was extracted.
+     * @param size current file length
+     * @param lastModified current file modification time
+     * @return true if the entry can be used without touching the file
+     */
+    public boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+}
@@ -0,0 +1,225 @@
+package io.github.zeleven.recorder;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Repairs recordings which were not finished because the process died. While a recording
+ * is written a hidden marker file sits next to it, the marker is removed when the file has
+ * been finished cleanly. A marker found on the next launch means the file is partial.
+ */
+public class RecordingRecovery {
+    private static final String TAG = "RecordingRecovery";
+    private static final String MARKER_PREFIX = ".";
+    private static final String MARKER_SUFFIX = ".rec";
+    // recordings of this process, their markers are not left over from a crash
+    private static final Set<String> activeRecordings =
+            Collections.synchronizedSet(new HashSet<String>());
+
+    private RecordingRecovery() {}
+
+    /**
+     * @param recording the recording file
+     * @return the marker file of the recording
+     */
+    public static File markerFor(File recording) {
+        return new File(recording.getParentFile(),
+                MARKER_PREFIX + recording.getName() + MARKER_SUFFIX);
+    }
+
+    /**
+     * Create the marker of a recording before it's written
+     * @param recording the recording file
+     * @throws IOException if the marker can't be created
+     */
+    public static void markInProgress(File recording) throws IOException {
+        activeRecordings.add(recording.getAbsolutePath());
+        File marker = markerFor(recording);
+        if(!marker.exists() && !marker.createNewFile()) {
+            throw new IOException("Cannot create " + marker);
+        }
+    }
+
+    /**
+     * Remove the marker of a recording which has been finished or deleted
+     * @param recording the recording file
+     */
+    public static void markFinished(File recording) {
+        markerFor(recording).delete();
+        activeRecordings.remove(recording.getAbsolutePath());
+    }
+
+    /**
+     * Repair every recording in the folder which has a marker and is not being recorded
+     * @param folder the recordings folder
+     * @return the repaired files
+     */
+    public static List<File> recover(File folder) {
+        List<File> repaired = new ArrayList<>();
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return repaired;
+        }
+        for(File marker : files) {
+            String name = marker.getName();
+            if(!name.startsWith(MARKER_PREFIX) || !name.endsWith(MARKER_SUFFIX)) {
+                continue;
+            }
+            File recording = new File(folder, name.substring(MARKER_PREFIX.length(),
+                    name.length() - MARKER_SUFFIX.length()));
+            if(activeRecordings.contains(recording.getAbsolutePath())) {
+                continue;
+            }
+            try {
+                if(recording.exists() && repair(recording)) {
+                    repaired.add(recording);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot repair " + recording, e);
+            }
+            marker.delete();
+        }
+        return repaired;
+    }
+
+    /**
+     * Repair a partial recording according to its format
+     * @param recording the recording file
+     * @return true if the file has been repaired
+     * @throws IOException if the file can't be read or truncated
+     */
+    static boolean repair(File recording) throws IOException {
+        String name = recording.getName();
+        if(name.endsWith(".aac")) {
+            long length = recording.length();
+            return truncateAdts(recording) != length;
+        }
+        if(name.endsWith(".wav")) {
+            return finishWav(recording);
+        }
+        if(SessionManifest.isManifest(recording)) {
+            return repairSession(recording);
+        }
+        // an MPEG-4 file without its index can't be rebuilt, crash-safe mode avoids it
+        Log.w(TAG, "Cannot repair " + recording + ", unsupported format");
+        return false;
+    }
+
+    /**
+     * Repair the segments of a session and drop the ones which have not been created. The
+     * manifest already lists the segment which was being recorded, its duration stays
+     * unknown.
+     * @param manifest the session manifest
+     * @return true if a segment or the manifest has been changed
+     * @throws IOException if the manifest can't be read or written
+     */
+    static boolean repairSession(File manifest) throws IOException {
+        List<SessionManifest.Segment> segments = SessionManifest.read(manifest);
+        List<SessionManifest.Segment> remaining = new ArrayList<>();
+        boolean repaired = false;
+        for(SessionManifest.Segment segment : segments) {
+            if(!segment.file.exists()) {
+                continue;
+            }
+            try {
+                repaired |= repair(segment.file);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot repair " + segment.file, e);
+            }
+            remaining.add(segment);
+        }
+        if(remaining.size() != segments.size()) {
+            SessionManifest.write(manifest, remaining);
+            repaired = true;
+        }
+        return repaired;
+    }
+
+    /**
+     * Cut a WAV file after its last complete sample frame and write the sizes of the
+     * remaining data into the header
+     * @param file the WAV file
+     * @return true if the file has been changed
+     * @throws IOException if the file can't be read or written
+     */
+    static boolean finishWav(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(WavWriter.HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining()) {
+                if(channel.read(header, header.position()) < 0) {
+                    // not even the header has been written
+                    return false;
+                }
+            }
+            int channelCount = header.getShort(22);
+            int sampleRate = header.getInt(24);
+            long storedSize = header.getInt(40) & 0xFFFFFFFFL;
+            if(channelCount <= 0) {
+                return false;
+            }
+            int blockAlign = channelCount * 2;
+            long dataSize = (length - WavWriter.HEADER_SIZE) / blockAlign * blockAlign;
+            if(dataSize == storedSize && length == WavWriter.HEADER_SIZE + dataSize) {
+                return false;
+            }
+            channel.truncate(WavWriter.HEADER_SIZE + dataSize);
+            WavWriter.fillHeader(header, sampleRate, channelCount, dataSize);
+            while(header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            return true;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Cut an ADTS stream after its last complete frame
+     * @param file the ADTS file
+     * @return the new length of the file
+     * @throws IOException if the file can't be read or truncated
+     */
+    static long truncateAdts(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(AdtsFormat.HEADER_SIZE);
+            long position = 0;
+            while(position + AdtsFormat.HEADER_SIZE <= length) {
+                header.clear();
+                while(header.hasRemaining()) {
+                    if(channel.read(header, position + header.position()) < 0) {
+                        break;
+                    }
+                }
+                int frameLength = AdtsFormat.frameLength(header.array(), 0);
+                if(frameLength < 0 || position + frameLength > length) {
+                    break;
+                }
+                position += frameLength;
+            }
+            if(position < length) {
+                channel.truncate(position);
+            }
+            return position;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
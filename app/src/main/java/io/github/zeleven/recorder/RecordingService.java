@@ -1,37 +1,275 @@
 package io.github.zeleven.recorder;
 
+import android.annotation.TargetApi;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.media.AudioDeviceInfo;
+import android.media.AudioManager;
 import android.media.MediaRecorder;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.media.session.MediaButtonReceiver;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * The record service to record sound
+ * The record service to record sound. Activities bind to it and control the recording
+ * through {@link LocalBinder}. While recording the service runs in foreground with a
+ * notification to pause and stop, and holds a partial wake lock, so the recording
+ * continues when the app is in background or the device dozes. The service owns the
+ * recording session, activities show its state and are told about changes through
+ * {@link StateListener}.
+ * <p>
+ * Settings are read and the recordings folder is created in background when the service
+ * is created, it's ready to record once {@link ReadyListener} has been called. While the
+ * main screen is shown a recorder is kept prewarmed, so a recording starts without
+ * waiting for the audio input and the encoder.
+ * <p>
+ * The recording time left on the storage is predicted with {@link StorageMonitor}, checked
+ * while the main screen is shown and every few seconds while recording. When it runs low
+ * the notification warns, when it runs out the oldest recordings are deleted to make room
+ * if the settings allow it, otherwise the recording is stopped and saved. The
+ * {@link RetentionPolicy} of the settings is applied in background after every recording.
+ * <p>
+ * Bookmarks are added from the main screen, the notification or the headset button, which
+ * reaches the service through a media session while recording. They are appended to the
+ * {@link MarkerIndex} of the recording in background.
  */
-public class RecordingService extends Service {
+public class RecordingService extends Service
+        implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String TAG = "RecordingService";
+    private static final String ACTION_PAUSE = "io.github.zeleven.recorder.action.PAUSE";
+    private static final String ACTION_RESUME = "io.github.zeleven.recorder.action.RESUME";
+    private static final String ACTION_STOP = "io.github.zeleven.recorder.action.STOP";
+    private static final String ACTION_BOOKMARK = "io.github.zeleven.recorder.action.BOOKMARK";
+    private static final String NOTIFICATION_CHANNEL = "recording";
+    private static final int NOTIFICATION_ID = 1;
+    // tells why a recording has been stopped without the user
+    private static final int STOPPED_NOTIFICATION_ID = 2;
+    private static final long STORAGE_CHECK_INTERVAL_MILLIS = 5000;
+
+    // read by background work which must not compete with capture
+    private static volatile boolean sRecordingActive = false;
+
+    private final IBinder mBinder = new LocalBinder();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // startup and prewarming, off the main thread and in order
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final List<ReadyListener> mReadyListeners = new ArrayList<>();
+    private final List<StateListener> mStateListeners = new ArrayList<>();
+    private boolean mReady = false;
+    private volatile boolean mFolderReady = false;
+
+    private SharedPreferences mPreferences;
+    private EncoderProfile mProfile;
+    private String mEngine;
+    private boolean mCrashSafe;
+    private long mFlushIntervalMs;
+    private boolean mSkipSilence;
+    private boolean mAutoTranscribe;
+    private String mAudioProcessing;
+    private String mSecondInput;
+    // limits of one segment of long recordings, 0 if unlimited
+    private long mSegmentMinutes;
+    private long mSegmentMegabytes;
+    private RetentionPolicy mRetention;
+    // whether old recordings are deleted when storage runs out, instead of stopping
+    private boolean mEvictWhenFull;
+    // estimated size of one file of the active recording per minute
+    private long mBytesPerMinute;
+    private long mLastSkippedMillis;
+    // recording time left on the storage, measured in background
+    private long mRemainingMillis = StorageMonitor.UNKNOWN;
+    private boolean mFreeingSpace = false;
+
     private String mFilePath;
+    // the file of the second input of the active or last recording, or null
+    private String mSecondTrackPath;
+
+    private Recorder mRecorder = null;
+    private boolean mPaused = false;
+    // recorded time before the last start or resume, and when that was
+    private long mRecordedMillis;
+    // segment length of the active session, 0 for a single file
+    private long mSessionSegmentMillis;
+    private long mFinishedSegments;
+    private long mResumedAt;
+    private PowerManager.WakeLock mWakeLock;
+    // receives the headset button while recording
+    private MediaSessionCompat mMediaSession;
+    private int mBookmarkCount;
+    private Recorder mPrewarmed = null;
+    private boolean mPrewarmWanted = false;
+    private boolean mPrewarming = false;
+    // incremented when the settings change, prewarmed recorders of older settings are dropped
+    private int mSettingsGeneration = 0;
 
-    private MediaRecorder mRecorder = null;
+    private final Runnable mStorageCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkStorage();
+            checkFinishedSegments();
+            mMainHandler.postDelayed(this, STORAGE_CHECK_INTERVAL_MILLIS);
+        }
+    };
 
     public RecordingService() {}
 
+    /**
+     * Called on the main thread once the service can record
+     */
+    public interface ReadyListener {
+        void onServiceReady();
+    }
+
+    /**
+     * Called on the main thread when a recording starts, pauses, resumes or stops, also
+     * when it's controlled from the notification, and when the remaining recording time
+     * has been measured
+     */
+    public interface StateListener {
+        void onRecordingStateChanged();
+    }
+
+    /**
+     * The binder returned to bound activities, gives direct access to the service
+     */
+    public class LocalBinder extends Binder {
+        public RecordingService getService() {
+            return RecordingService.this;
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mBinder;
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
+        // preferences and storage are read from disk, which must not delay the first frame
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPreferences = PreferenceManager.getDefaultSharedPreferences(
+                        RecordingService.this);
+                readSettings();
+                createNotificationChannel();
+                final File folder = getRecordingsFolder();
+                if(!folder.exists()) {
+                    folder.mkdir();
+                }
+                mFolderReady = true;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReady();
+                    }
+                });
+
+                // repair recordings left partial by a killed process, not needed to record
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<File> repaired = RecordingRecovery.recover(folder);
+                        if(!repaired.isEmpty()) {
+                            Log.i(TAG, "Recovered " + repaired);
+                        }
+                    }
+                }, "RecordingRecovery").start();
+            }
+        });
+    }
+
+    private void onReady() {
+        mReady = true;
+        mPreferences.registerOnSharedPreferenceChangeListener(this);
+        for(ReadyListener listener : mReadyListeners) {
+            listener.onServiceReady();
+        }
+        mReadyListeners.clear();
+        if(mPrewarmWanted) {
+            prewarm();
+        }
+        applyRetention();
+    }
+
+    /**
+     * Call a listener once the service can record, right away if it already can
+     * @param listener the listener
+     */
+    public void whenReady(ReadyListener listener) {
+        if(mReady) {
+            listener.onServiceReady();
+        } else {
+            mReadyListeners.add(listener);
+        }
+    }
+
+    /**
+     * @param listener called whenever the state of the recording changes
+     */
+    public void addStateListener(StateListener listener) {
+        mStateListeners.add(listener);
+    }
+
+    public void removeStateListener(StateListener listener) {
+        mStateListeners.remove(listener);
+    }
+
+    private File getRecordingsFolder() {
+        return RecordingsRepository.getInstance(this).getRecordingsFolder();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        this.mFilePath = intent.getStringExtra("filePath");
-        startRecording();
-        return super.onStartCommand(intent, flags, startId);
+        // activities control the recording through the binder, the notification through
+        // these actions; starting also keeps the service alive while recording
+        String action = intent != null ? intent.getAction() : null;
+        if(ACTION_PAUSE.equals(action)) {
+            pauseRecording();
+        } else if(ACTION_RESUME.equals(action)) {
+            resumeRecording();
+        } else if(ACTION_STOP.equals(action)) {
+            stopRecording();
+        } else if(ACTION_BOOKMARK.equals(action)) {
+            addBookmark();
+        } else if(Intent.ACTION_MEDIA_BUTTON.equals(action) && mMediaSession != null) {
+            // before Android 5 buttons come through the media button receiver
+            MediaButtonReceiver.handleIntent(mMediaSession, intent);
+        }
+        if(mRecorder == null) {
+            // e.g. an action of a notification left by a killed process
+            stopSelf(startId);
+        }
+        return START_NOT_STICKY;
     }
 
     @Override
@@ -39,28 +277,888 @@ public class RecordingService extends Service {
         if(mRecorder != null) {
             stopRecording();
         }
+        releasePrewarmed();
+        mReadyListeners.clear();
+        mStateListeners.clear();
+        mMainHandler.removeCallbacks(mStorageCheck);
+        if(mReady) {
+            mPreferences.unregisterOnSharedPreferenceChangeListener(this);
+        }
+        mExecutor.shutdown();
         super.onDestroy();
     }
 
-    public void startRecording() {
-        mRecorder = new MediaRecorder();
-        mRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mRecorder.setOutputFile(mFilePath);
-        mRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-        mRecorder.setAudioChannels(1);
+    /**
+     * Keep a recorder for the current settings prewarmed until
+     * {@link #releasePrewarmed()}, called while the main screen is shown. The recorder is
+     * prewarmed in background, again after every recording.
+     */
+    public void prewarm() {
+        mPrewarmWanted = true;
+        if(mReady && mRecorder == null) {
+            // the remaining time is shown before recording
+            checkStorage();
+        }
+        if(!mReady || mRecorder != null || mPrewarmed != null || mPrewarming) {
+            return;
+        }
+        mPrewarming = true;
+        final Recorder recorder = createRecorder();
+        final int generation = mSettingsGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean prewarmed;
+                try {
+                    recorder.prewarm();
+                    prewarmed = true;
+                } catch (IOException | RuntimeException e) {
+                    // e.g. the input is in use, prepare tries again when recording starts
+                    Log.w(TAG, "Cannot prewarm recorder", e);
+                    recorder.release();
+                    prewarmed = false;
+                }
+                final boolean success = prewarmed;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPrewarming = false;
+                        if(!success) {
+                            return;
+                        }
+                        if(mPrewarmWanted && mRecorder == null
+                                && generation == mSettingsGeneration) {
+                            mPrewarmed = recorder;
+                        } else {
+                            recorder.release();
+                            if(mPrewarmWanted && mRecorder == null) {
+                                // the settings have changed meanwhile
+                                prewarm();
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Free the prewarmed recorder, called when the main screen is hidden
+     */
+    public void releasePrewarmed() {
+        mPrewarmWanted = false;
+        if(mPrewarmed != null) {
+            mPrewarmed.release();
+            mPrewarmed = null;
+        }
+    }
 
+    /**
+     * Start recording into a file
+     * @param basePath the output file without extension, the extension depends on the
+     *                 selected output format
+     * @return true if capture has started
+     */
+    public boolean startRecording(String basePath) {
+        if(mRecorder != null || !mReady) {
+            return false;
+        }
+        if(mPrewarmed != null) {
+            mRecorder = mPrewarmed;
+            mPrewarmed = null;
+        } else {
+            mRecorder = createRecorder();
+        }
+        mFilePath = basePath + "." + mRecorder.getFileExtension();
+        if(!mFolderReady) {
+            new File(mFilePath).getParentFile().mkdirs();
+        }
+        mBytesPerMinute = mProfile.getBytesPerMinute(mCrashSafe);
+        mSecondTrackPath = null;
+        mPaused = false;
+        final Recorder recorder = mRecorder;
+        mRecorder.setErrorListener(new Recorder.ErrorListener() {
+            @Override
+            public void onRecordingError(final IOException e) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // ignored if the recording has been stopped meanwhile
+                        if(mRecorder == recorder) {
+                            stopForError(e);
+                        }
+                    }
+                });
+            }
+        });
+
+        long prepareStart = SystemClock.elapsedRealtime();
         try {
-            mRecorder.prepare();
+            RecordingRecovery.markInProgress(new File(mFilePath));
+            mRecorder.prepare(mFilePath);
             mRecorder.start();
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException | RuntimeException e) {
+            RecorderMetrics.counter(RecorderMetrics.RECORDINGS_FAILED).incrementAndGet();
+            Log.e(TAG, "Cannot start recording " + mFilePath, e);
+            mRecorder.release();
+            mRecorder = null;
+            RecordingRecovery.markFinished(new File(mFilePath));
+            if(mPrewarmWanted) {
+                prewarm();
+            }
+            return false;
+        }
+        RecorderMetrics.histogram(RecorderMetrics.PREPARE_MILLIS).record(
+                SystemClock.elapsedRealtime() - prepareStart);
+        mSecondTrackPath = mRecorder.getSecondTrackPath();
+        if(mSecondTrackPath != null) {
+            try {
+                RecordingRecovery.markInProgress(new File(mSecondTrackPath));
+            } catch (IOException e) {
+                // only this track can't be recovered after a crash
+                Log.w(TAG, "Cannot mark " + mSecondTrackPath, e);
+            }
         }
+        RecorderMetrics.counter(RecorderMetrics.RECORDINGS_STARTED).incrementAndGet();
+        mRecordedMillis = 0;
+        mResumedAt = SystemClock.elapsedRealtime();
+        mBookmarkCount = 0;
+        mSessionSegmentMillis = SessionManifest.isManifest(new File(mFilePath))
+                ? getSegmentMillis() : 0;
+        mFinishedSegments = 0;
+        sRecordingActive = true;
+        acquireWakeLock();
+        startMediaSession();
+        startService(new Intent(this, RecordingService.class));
+        startForeground(NOTIFICATION_ID, buildNotification());
+        getNotificationManager().cancel(STOPPED_NOTIFICATION_ID);
+        mMainHandler.post(mStorageCheck);
+        onStateChanged();
+        return true;
+    }
+
+    /**
+     * Whether the active backend can pause, pause and resume are ignored otherwise
+     * @return true if the recording can be paused
+     */
+    public boolean canPause() {
+        return mRecorder != null && mRecorder.canPause();
     }
 
+    public void pauseRecording() {
+        if(canPause() && !mPaused) {
+            mRecorder.pause();
+            mPaused = true;
+            mRecordedMillis += SystemClock.elapsedRealtime() - mResumedAt;
+            // nothing is captured, the foreground service alone keeps the session alive
+            releaseWakeLock();
+            onStateChanged();
+        }
+    }
+
+    public void resumeRecording() {
+        if(mRecorder != null && mPaused) {
+            mRecorder.resume();
+            mPaused = false;
+            mResumedAt = SystemClock.elapsedRealtime();
+            acquireWakeLock();
+            onStateChanged();
+        }
+    }
+
+    /**
+     * Stop recording and keep the file
+     */
     public void stopRecording() {
-        mRecorder.stop();
-        mRecorder.release();
+        if(finishRecording()) {
+            // searchable right away, even if the file list isn't open
+            MetadataScanner.indexRecording(this, new File(mFilePath));
+            if(mSecondTrackPath != null) {
+                MetadataScanner.indexRecording(this, new File(mSecondTrackPath));
+            }
+            TranscriptionJobService.schedule(this, mAutoTranscribe);
+        }
+    }
+
+    /**
+     * Stop capture and close the file
+     * @return true if a recording was active
+     */
+    private boolean finishRecording() {
+        if(mRecorder == null) {
+            return false;
+        }
+        try {
+            mRecorder.stop();
+        } catch (RuntimeException e) {
+            RecorderMetrics.counter(RecorderMetrics.OUTPUT_ERRORS).incrementAndGet();
+            Log.e(TAG, "Cannot finish recording " + mFilePath, e);
+        }
+        mLastSkippedMillis = mRecorder.getSkippedMillis();
+        RecordingRecovery.markFinished(new File(mFilePath));
+        if(mSecondTrackPath != null) {
+            RecordingRecovery.markFinished(new File(mSecondTrackPath));
+        }
         mRecorder = null;
+        mPaused = false;
+        sRecordingActive = false;
+        mMainHandler.removeCallbacks(mStorageCheck);
+        releaseWakeLock();
+        releaseMediaSession();
+        stopForeground(true);
+        stopSelf();
+        if(mPrewarmWanted) {
+            // ready for the next recording
+            prewarm();
+        }
+        applyRetention();
+        onStateChanged();
+        return true;
+    }
+
+    /**
+     * Bookmark the current time of the recording. The bookmark is written in background,
+     * neither the caller nor capture waits for the storage.
+     * @return the time of the bookmark in the recording in milliseconds, or -1 if not
+     *         recording
+     */
+    public long addBookmark() {
+        if(mRecorder == null) {
+            return -1;
+        }
+        // the time in the file, which doesn't contain the skipped silence
+        final long timeMillis = Math.max(0, getRecordedMillis() - mRecorder.getSkippedMillis());
+        final File recording = new File(mFilePath);
+        final String secondTrackPath = mSecondTrackPath;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MarkerIndex.append(recording, timeMillis);
+                    if(secondTrackPath != null) {
+                        MarkerIndex.append(new File(secondTrackPath), timeMillis);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot add bookmark to " + recording, e);
+                }
+            }
+        });
+        mBookmarkCount++;
+        Toast.makeText(this, getString(R.string.toast_bookmark_added,
+                DateUtils.formatElapsedTime(timeMillis / 1000)), Toast.LENGTH_SHORT).show();
+        onStateChanged();
+        return timeMillis;
+    }
+
+    /**
+     * @return the bookmarks added to the active recording
+     */
+    public int getBookmarkCount() {
+        return mRecorder != null ? mBookmarkCount : 0;
+    }
+
+    /**
+     * Receive the headset button while recording, a press adds a bookmark
+     */
+    private void startMediaSession() {
+        mMediaSession = new MediaSessionCompat(this, TAG);
+        mMediaSession.setFlags(MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS);
+        mMediaSession.setCallback(new MediaSessionCompat.Callback() {
+            @Override
+            public boolean onMediaButtonEvent(Intent mediaButtonEvent) {
+                KeyEvent event = mediaButtonEvent.getParcelableExtra(Intent.EXTRA_KEY_EVENT);
+                if(event == null || (event.getKeyCode() != KeyEvent.KEYCODE_HEADSETHOOK
+                        && event.getKeyCode() != KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE)) {
+                    return super.onMediaButtonEvent(mediaButtonEvent);
+                }
+                if(event.getAction() == KeyEvent.ACTION_DOWN && event.getRepeatCount() == 0) {
+                    addBookmark();
+                }
+                return true;
+            }
+        });
+        // only a playing session gets the buttons
+        mMediaSession.setPlaybackState(new PlaybackStateCompat.Builder()
+                .setState(PlaybackStateCompat.STATE_PLAYING, 0, 1)
+                .setActions(PlaybackStateCompat.ACTION_PLAY_PAUSE)
+                .build());
+        mMediaSession.setActive(true);
+    }
+
+    private void releaseMediaSession() {
+        if(mMediaSession != null) {
+            mMediaSession.setActive(false);
+            mMediaSession.release();
+            mMediaSession = null;
+        }
+    }
+
+    /**
+     * Stop recording and remove the file, nothing is removed if the recording has already
+     * been finished, e.g. because the storage is full
+     */
+    public void cancelRecording() {
+        if(!finishRecording()) {
+            // the paths still point at the last saved recording
+            return;
+        }
+        if(mFilePath != null) {
+            DeleteOperation.delete(new File(mFilePath));
+        }
+        if(mSecondTrackPath != null) {
+            DeleteOperation.delete(new File(mSecondTrackPath));
+        }
+    }
+
+    /**
+     * The levels of the active recording, read by the UI at display refresh rate
+     * @return the level meter, or null if not recording
+     */
+    public LevelMeter getLevelMeter() {
+        return mRecorder != null ? mRecorder.getLevelMeter() : null;
+    }
+
+    /**
+     * @return recorded time which silence skipping left out of the last recording
+     */
+    public long getLastSkippedMillis() {
+        return mLastSkippedMillis;
+    }
+
+    /**
+     * @return estimated storage which silence skipping saved in the last recording
+     */
+    public long getLastSavedBytes() {
+        return mLastSkippedMillis * mBytesPerMinute / 60000;
+    }
+
+    public boolean isRecording() {
+        return mRecorder != null;
+    }
+
+    /**
+     * @return true while a recording is active in this process, paused or not
+     */
+    public static boolean isRecordingActive() {
+        return sRecordingActive;
+    }
+
+    /**
+     * @return the predicted recording time left on the storage with the current quality,
+     * or {@link StorageMonitor#UNKNOWN} before it has been measured
+     */
+    public long getRemainingMillis() {
+        return mRemainingMillis;
+    }
+
+    /**
+     * @return false if the storage is full and the settings don't allow deleting old
+     * recordings to make room
+     */
+    public boolean hasSpaceToRecord() {
+        return mEvictWhenFull
+                || StorageMonitor.levelOf(mRemainingMillis) != StorageMonitor.Level.FULL;
+    }
+
+    /**
+     * @return the file of the active or last recording, null before the first one
+     */
+    public String getFilePath() {
+        return mFilePath;
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * @return the recorded time of the active recording without pauses, 0 if not recording
+     */
+    public long getRecordedMillis() {
+        if(mRecorder == null) {
+            return 0;
+        }
+        return mPaused ? mRecordedMillis
+                : mRecordedMillis + SystemClock.elapsedRealtime() - mResumedAt;
+    }
+
+    private void onStateChanged() {
+        if(mRecorder != null) {
+            getNotificationManager().notify(NOTIFICATION_ID, buildNotification());
+        }
+        notifyStateListeners();
+    }
+
+    private void notifyStateListeners() {
+        // a listener may remove itself
+        for(StateListener listener : new ArrayList<>(mStateListeners)) {
+            listener.onRecordingStateChanged();
+        }
+    }
+
+    /**
+     * Transcribe the segments of the active session which have been finished since the
+     * last check, the recorded time tells when the session has rolled over
+     */
+    private void checkFinishedSegments() {
+        if(mRecorder == null || mSessionSegmentMillis <= 0) {
+            return;
+        }
+        long finished = getRecordedMillis() / mSessionSegmentMillis;
+        if(finished > mFinishedSegments) {
+            mFinishedSegments = finished;
+            TranscriptionJobService.schedule(this, mAutoTranscribe);
+        }
+    }
+
+    /**
+     * @return how fast the active recording fills the storage, both files grow at the same
+     *         rate if the second input is captured. The recorder drops the second input
+     *         when it can't be started, so it's asked instead of the settings.
+     */
+    private long getStorageBytesPerMinute() {
+        return mRecorder != null && mRecorder.getSecondTrackPath() != null
+                ? mBytesPerMinute * 2 : mBytesPerMinute;
+    }
+
+    /**
+     * Measure the recording time left in background, with the rate of the active
+     * recording or of the selected quality
+     */
+    private void checkStorage() {
+        if(!mReady || mExecutor.isShutdown()) {
+            return;
+        }
+        final long bytesPerMinute = mRecorder != null ? getStorageBytesPerMinute()
+                : mProfile.getBytesPerMinute(mCrashSafe);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long remaining = StorageMonitor.remainingMillis(
+                        getRecordingsFolder().getUsableSpace(), bytesPerMinute);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onStorageChecked(remaining);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onStorageChecked(long remainingMillis) {
+        StorageMonitor.Level previous = StorageMonitor.levelOf(mRemainingMillis);
+        mRemainingMillis = remainingMillis;
+        StorageMonitor.Level level = StorageMonitor.levelOf(remainingMillis);
+        if(mRecorder != null) {
+            if(level == StorageMonitor.Level.FULL) {
+                if(mEvictWhenFull) {
+                    freeSpace();
+                } else {
+                    stopForStorage();
+                    // the listeners have been called by stopping
+                    return;
+                }
+            }
+            if(level != previous) {
+                // shows or hides the warning
+                getNotificationManager().notify(NOTIFICATION_ID, buildNotification());
+            }
+        }
+        notifyStateListeners();
+    }
+
+    /**
+     * Delete the oldest recordings until the active one has room for a while, stop it if
+     * there's nothing left to delete
+     */
+    private void freeSpace() {
+        if(mFreeingSpace) {
+            return;
+        }
+        mFreeingSpace = true;
+        final RetentionPolicy policy = mRetention;
+        final long bytesPerMinute = getStorageBytesPerMinute();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long bytesToFree = StorageMonitor.bytesToFree(
+                        getRecordingsFolder().getUsableSpace(), bytesPerMinute);
+                final boolean freed = evict(policy, bytesToFree) >= bytesToFree;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mFreeingSpace = false;
+                        if(mRecorder == null) {
+                            return;
+                        }
+                        if(freed) {
+                            checkStorage();
+                        } else {
+                            stopForStorage();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop and save the recording before the storage is full, and tell the user why
+     */
+    private void stopForStorage() {
+        Log.w(TAG, "Storage full, stopping " + mFilePath);
+        stopRecording();
+        notifyStopped(R.string.notification_storage_full);
+    }
+
+    /**
+     * Save what has been written when the encoder or the storage fails while recording,
+     * and tell the user
+     */
+    private void stopForError(IOException e) {
+        RecorderMetrics.counter(RecorderMetrics.OUTPUT_ERRORS).incrementAndGet();
+        Log.e(TAG, "Recording failed, stopping " + mFilePath, e);
+        stopRecording();
+        notifyStopped(R.string.notification_recording_failed);
+    }
+
+    /**
+     * Show why the last recording has been stopped and where it has been saved
+     * @param titleId the reason
+     */
+    private void notifyStopped(int titleId) {
+        String name = new File(mFilePath).getName();
+        Intent activityIntent = new Intent(this, MainActivity.class)
+                .setAction(Intent.ACTION_MAIN)
+                .addCategory(Intent.CATEGORY_LAUNCHER)
+                .setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
+                        | Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+        Notification notification = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL)
+                .setSmallIcon(R.drawable.ic_mic_none_black_48dp)
+                .setContentTitle(getString(titleId))
+                .setContentText(getString(R.string.notification_stopped_saved, name))
+                .setContentIntent(PendingIntent.getActivity(this, 0, activityIntent,
+                        PendingIntent.FLAG_UPDATE_CURRENT))
+                .setAutoCancel(true)
+                .build();
+        getNotificationManager().notify(STOPPED_NOTIFICATION_ID, notification);
+    }
+
+    /**
+     * Apply the retention policy of the settings in background
+     */
+    private void applyRetention() {
+        final RetentionPolicy policy = mRetention;
+        if(!mReady || !policy.isLimited() || mExecutor.isShutdown()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                evict(policy, 0);
+            }
+        });
+    }
+
+    /**
+     * Delete the recordings a retention policy selects, runs on the executor. Recordings
+     * with a marker, the active one and those left for recovery, are kept.
+     * @param policy the policy
+     * @param bytesToFree space to free in addition to the limits of the policy
+     * @return the bytes freed
+     */
+    private long evict(RetentionPolicy policy, long bytesToFree) {
+        List<RecordingItem> items = new ArrayList<>();
+        for(RecordingItem item : RecordingItem.listFolder(getRecordingsFolder())) {
+            File file = item.getFile();
+            if(RecordingRecovery.markerFor(file).exists()) {
+                continue;
+            }
+            if(SessionManifest.isManifest(file)) {
+                item = new RecordingItem(file, SessionManifest.getSize(file),
+                        item.getLastModified());
+            }
+            items.add(item);
+        }
+        List<File> deleted = new ArrayList<>();
+        long freed = 0;
+        for(RecordingItem item : policy.select(items, System.currentTimeMillis(),
+                bytesToFree)) {
+            if(DeleteOperation.delete(item.getFile())) {
+                deleted.add(item.getFile());
+                freed += item.getSize();
+            }
+        }
+        if(!deleted.isEmpty()) {
+            Log.i(TAG, "Deleted old recordings " + deleted);
+            new MetadataScanner(this, null).onFilesDeleted(deleted);
+        }
+        return freed;
+    }
+
+    private void acquireWakeLock() {
+        if(mWakeLock == null) {
+            PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+            mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                    "Recorder:recording");
+            mWakeLock.setReferenceCounted(false);
+        }
+        mWakeLock.acquire();
+    }
+
+    private void releaseWakeLock() {
+        if(mWakeLock != null && mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+    }
+
+    private NotificationManager getNotificationManager() {
+        return (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+    }
+
+    private void createNotificationChannel() {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL,
+                    getString(R.string.notification_channel_recording),
+                    NotificationManager.IMPORTANCE_LOW);
+            channel.setShowBadge(false);
+            getNotificationManager().createNotificationChannel(channel);
+        }
+    }
+
+    /**
+     * @return the notification of the active recording, with the recorded time and the
+     * actions to pause or resume and to stop
+     */
+    private Notification buildNotification() {
+        // brings the task to front like the launcher, showing the activity on top
+        Intent activityIntent = new Intent(this, MainActivity.class)
+                .setAction(Intent.ACTION_MAIN)
+                .addCategory(Intent.CATEGORY_LAUNCHER)
+                .setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
+                        | Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this,
+                NOTIFICATION_CHANNEL)
+                .setSmallIcon(R.drawable.ic_mic_none_black_48dp)
+                .setContentTitle(getString(mPaused ? R.string.notification_paused
+                        : R.string.notification_recording))
+                .setContentText(getNotificationText())
+                .setContentIntent(PendingIntent.getActivity(this, 0, activityIntent,
+                        PendingIntent.FLAG_UPDATE_CURRENT))
+                .setCategory(NotificationCompat.CATEGORY_SERVICE)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true);
+        if(mPaused) {
+            builder.setShowWhen(false);
+        } else {
+            // the chronometer counts from the start of the recording, pauses excluded
+            builder.setUsesChronometer(true)
+                    .setWhen(System.currentTimeMillis() - getRecordedMillis());
+        }
+        if(canPause()) {
+            if(mPaused) {
+                builder.addAction(R.drawable.ic_mic_none_black_48dp,
+                        getString(R.string.notification_action_resume),
+                        getActionIntent(ACTION_RESUME));
+            } else {
+                builder.addAction(R.drawable.ic_pause_black_48dp,
+                        getString(R.string.notification_action_pause),
+                        getActionIntent(ACTION_PAUSE));
+            }
+        }
+        builder.addAction(0, getString(R.string.notification_action_bookmark),
+                getActionIntent(ACTION_BOOKMARK));
+        builder.addAction(0, getString(R.string.notification_action_stop),
+                getActionIntent(ACTION_STOP));
+        return builder.build();
+    }
+
+    /**
+     * @return the warning if the storage runs low, the file name otherwise
+     */
+    private String getNotificationText() {
+        if(StorageMonitor.levelOf(mRemainingMillis) != StorageMonitor.Level.OK) {
+            return getString(R.string.notification_storage_low,
+                    DateUtils.formatElapsedTime(mRemainingMillis / 1000));
+        }
+        return new File(mFilePath).getName();
+    }
+
+    private PendingIntent getActionIntent(String action) {
+        Intent intent = new Intent(this, RecordingService.class).setAction(action);
+        return PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Create the capture backend selected in settings
+     * @return the recorder
+     */
+    private Recorder createRecorder() {
+        // AudioRecordEngine writes MPEG-4 through MediaMuxer, which needs API 18
+        boolean audioRecordSupported = mCrashSafe
+                || mProfile.getCodec() == EncoderProfile.Codec.PCM
+                || Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        if(!audioRecordSupported) {
+            return new MediaRecorderEngine(mProfile, mCrashSafe);
+        }
+        long segmentMillis = getSegmentMillis();
+        // a second input is left out with silence skipping, which would break alignment
+        boolean secondInput = !mSkipSilence
+                && !SettingsFragment.SECOND_INPUT_OFF.equals(mSecondInput);
+        int dspStages = DspChain.fromPreference(mAudioProcessing);
+        // MediaRecorder can't write PCM, capture two inputs or hand out the audio to skip
+        // silence, process it or split it into segments
+        boolean needsAudioRecord = mProfile.getCodec() == EncoderProfile.Codec.PCM
+                || mSkipSilence || segmentMillis > 0 || secondInput
+                || dspStages != DspChain.NONE;
+        boolean useMediaRecorder;
+        if(needsAudioRecord || SettingsFragment.ENGINE_AUDIO_RECORD.equals(mEngine)) {
+            useMediaRecorder = false;
+        } else if(SettingsFragment.ENGINE_MEDIA_RECORDER.equals(mEngine)) {
+            useMediaRecorder = true;
+        } else {
+            // MediaRecorder can only pause from API 24, use AudioRecordEngine before that
+            useMediaRecorder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+        }
+        if(useMediaRecorder) {
+            return new MediaRecorderEngine(mProfile, mCrashSafe);
+        }
+        AudioRecordEngine.Input input = new AudioRecordEngine.Input(
+                MediaRecorder.AudioSource.MIC, null);
+        AudioRecordEngine.Input second = null;
+        if(SettingsFragment.SECOND_INPUT_VOICE.equals(mSecondInput)) {
+            // the same microphone with echo cancellation and noise suppression
+            second = new AudioRecordEngine.Input(
+                    MediaRecorder.AudioSource.VOICE_COMMUNICATION, null);
+        } else if(SettingsFragment.SECOND_INPUT_EXTERNAL.equals(mSecondInput)
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            AudioDeviceInfo external = findInputDevice(false);
+            if(external != null) {
+                input = new AudioRecordEngine.Input(MediaRecorder.AudioSource.MIC,
+                        findInputDevice(true));
+                second = new AudioRecordEngine.Input(MediaRecorder.AudioSource.MIC, external);
+            } else {
+                Log.w(TAG, "No external microphone, recording one input");
+            }
+        }
+        return new AudioRecordEngine(mProfile, mCrashSafe, mFlushIntervalMs, mSkipSilence,
+                segmentMillis, input, secondInput ? second : null, dspStages);
+    }
+
+    /**
+     * @param builtIn whether to find the built-in microphone or an external one
+     * @return the first matching input device, or null
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private AudioDeviceInfo findInputDevice(boolean builtIn) {
+        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        for(AudioDeviceInfo device : audioManager.getDevices(AudioManager.GET_DEVICES_INPUTS)) {
+            int type = device.getType();
+            boolean external = type == AudioDeviceInfo.TYPE_WIRED_HEADSET
+                    || type == AudioDeviceInfo.TYPE_USB_DEVICE
+                    || type == AudioDeviceInfo.TYPE_BLUETOOTH_SCO;
+            if(builtIn ? type == AudioDeviceInfo.TYPE_BUILTIN_MIC : external) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The recorded time of one segment, the size limit is converted with the estimated
+     * size per minute of the selected quality
+     * @return the segment length in milliseconds, or 0 to record a single file
+     */
+    private long getSegmentMillis() {
+        long segmentMillis = mSegmentMinutes * 60000;
+        if(mSegmentMegabytes > 0) {
+            long sizeMillis = mSegmentMegabytes * 1024 * 1024 * 60000
+                    / mProfile.getBytesPerMinute(mCrashSafe);
+            if(segmentMillis == 0 || sizeMillis < segmentMillis) {
+                segmentMillis = Math.max(sizeMillis, 1000);
+            }
+        }
+        return segmentMillis;
+    }
+
+    /**
+     * Print the recording state and the pipeline metrics for dumpsys
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Recording: " + (mRecorder != null ? mFilePath : "none")
+                + (mPaused ? " (paused)" : ""));
+        writer.println("Recorded: " + getRecordedMillis() + " ms");
+        writer.println("Wake lock held: " + (mWakeLock != null && mWakeLock.isHeld()));
+        writer.println("Remaining: " + mRemainingMillis + " ms");
+        writer.println("Prewarmed: " + (mPrewarmed != null));
+        RecorderMetrics.dump(writer);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        readSettings();
+        mSettingsGeneration++;
+        // the prewarmed recorder may use the old settings
+        if(mPrewarmed != null) {
+            mPrewarmed.release();
+            mPrewarmed = null;
+            prewarm();
+        }
+        if(SettingsFragment.KEY_STORAGE_LOCATION.equals(key)) {
+            // recordings started meanwhile create the folder themselves
+            mFolderReady = false;
+            final File folder = getRecordingsFolder();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    folder.mkdirs();
+                    mFolderReady = true;
+                }
+            });
+        }
+        if(SettingsFragment.KEY_RETENTION_SIZE.equals(key)
+                || SettingsFragment.KEY_RETENTION_AGE.equals(key)) {
+            applyRetention();
+        }
+        // the quality changes the remaining time
+        if(mRecorder == null) {
+            checkStorage();
+        }
+    }
+
+    /**
+     * Read the recording settings, done in background when the service is created and
+     * when they change instead of before every recording
+     */
+    private void readSettings() {
+        mProfile = EncoderProfile.fromPreference(mPreferences.getString(
+                SettingsFragment.KEY_RECORDING_QUALITY, SettingsFragment.DEFAULT_QUALITY));
+        mEngine = mPreferences.getString(SettingsFragment.KEY_RECORDING_ENGINE,
+                SettingsFragment.ENGINE_AUTO);
+        mCrashSafe = mPreferences.getBoolean(SettingsFragment.KEY_CRASH_SAFE, true);
+        mFlushIntervalMs = Long.parseLong(mPreferences.getString(
+                SettingsFragment.KEY_FLUSH_INTERVAL, SettingsFragment.DEFAULT_FLUSH_INTERVAL));
+        mSkipSilence = mPreferences.getBoolean(SettingsFragment.KEY_SKIP_SILENCE, false);
+        mAutoTranscribe = mPreferences.getBoolean(SettingsFragment.KEY_AUTO_TRANSCRIBE, false);
+        mAudioProcessing = mPreferences.getString(SettingsFragment.KEY_AUDIO_PROCESSING,
+                DspChain.PRESET_OFF);
+        mSecondInput = mPreferences.getString(SettingsFragment.KEY_SECOND_INPUT,
+                SettingsFragment.SECOND_INPUT_OFF);
+        mSegmentMinutes = Long.parseLong(mPreferences.getString(
+                SettingsFragment.KEY_SEGMENT_DURATION, SettingsFragment.SEGMENT_OFF));
+        mSegmentMegabytes = Long.parseLong(mPreferences.getString(
+                SettingsFragment.KEY_SEGMENT_SIZE, SettingsFragment.SEGMENT_OFF));
+        long retentionMegabytes = Long.parseLong(mPreferences.getString(
+                SettingsFragment.KEY_RETENTION_SIZE, SettingsFragment.RETENTION_OFF));
+        long retentionDays = Long.parseLong(mPreferences.getString(
+                SettingsFragment.KEY_RETENTION_AGE, SettingsFragment.RETENTION_OFF));
+        mRetention = new RetentionPolicy(retentionMegabytes * 1024 * 1024,
+                retentionDays * DateUtils.DAY_IN_MILLIS);
+        mEvictWhenFull = SettingsFragment.FULL_ACTION_DELETE_OLDEST.equals(
+                mPreferences.getString(SettingsFragment.KEY_STORAGE_FULL_ACTION,
+                        SettingsFragment.FULL_ACTION_STOP));
     }
 }
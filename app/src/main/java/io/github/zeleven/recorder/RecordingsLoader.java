@@ -0,0 +1,85 @@
+package io.github.zeleven.recorder;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lists the recordings folder on a background thread. The items are sorted newest first
+ * and delivered to the listener on the main thread in pages, so the first rows show up
+ * without waiting for the whole list to be bound.
+ */
+public class RecordingsLoader {
+    public static final int PAGE_SIZE = 50;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final File folder;
+    private volatile Listener listener;
+
+    /**
+     * The callbacks of loader, all called on the main thread
+     */
+    public interface Listener {
+        /**
+         * Called for every page of items, in order
+         * @param page the items of this page
+         */
+        void onPageLoaded(List<RecordingItem> page);
+
+        /**
+         * Called after the last page
+         * @param items all loaded items
+         */
+        void onLoadFinished(List<RecordingItem> items);
+    }
+
+    public RecordingsLoader(File folder, Listener listener) {
+        this.folder = folder;
+        this.listener = listener;
+    }
+
+    /**
+     * List the folder in background
+     */
+    public void load() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<RecordingItem> items = RecordingItem.listFolder(folder);
+                for(int start = 0; start < items.size(); start += PAGE_SIZE) {
+                    final List<RecordingItem> page = items.subList(start,
+                            Math.min(start + PAGE_SIZE, items.size()));
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(listener != null) {
+                                listener.onPageLoaded(page);
+                            }
+                        }
+                    });
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(listener != null) {
+                            listener.onLoadFinished(items);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop delivering results and release the background thread
+     */
+    public void release() {
+        listener = null;
+        executor.shutdownNow();
+    }
+}
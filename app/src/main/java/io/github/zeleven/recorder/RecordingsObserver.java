@@ -0,0 +1,89 @@
+package io.github.zeleven.recorder;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+
+/**
+ * Watches the recordings folder and pushes added and removed files to the listener on
+ * the main thread, so the file list follows new recordings without rescanning the folder.
+ */
+public class RecordingsObserver extends FileObserver {
+    private static final int EVENTS = CLOSE_WRITE | MOVED_TO | DELETE | MOVED_FROM;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final File folder;
+    private volatile Listener listener;
+
+    /**
+     * The callbacks of observer, all called on the main thread
+     */
+    public interface Listener {
+        /**
+         * Called when a file has been written or moved into the folder
+         * @param item the new or changed file
+         */
+        void onRecordingAdded(RecordingItem item);
+
+        /**
+         * Called when a file has been deleted or moved out of the folder
+         * @param file the removed file
+         */
+        void onRecordingRemoved(File file);
+    }
+
+    public RecordingsObserver(File folder, Listener listener) {
+        super(folder.getAbsolutePath(), EVENTS);
+        this.folder = folder;
+        this.listener = listener;
+    }
+
+    /**
+     * Stop watching and delivering events
+     */
+    public void release() {
+        listener = null;
+        stopWatching();
+    }
+
+    @Override
+    public void onEvent(int event, String path) {
+        if(path == null || path.startsWith(".")) {
+            return;
+        }
+        final File file = new File(folder, path);
+        switch (event & ALL_EVENTS) {
+            case CLOSE_WRITE:
+            case MOVED_TO:
+                // stat the file here, on the observer thread
+                if(!file.isFile()) {
+                    return;
+                }
+                final RecordingItem item = RecordingItem.of(file);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(listener != null) {
+                            listener.onRecordingAdded(item);
+                        }
+                    }
+                });
+                break;
+            case DELETE:
+            case MOVED_FROM:
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(listener != null) {
+                            listener.onRecordingRemoved(file);
+                        }
+                    }
+                });
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.zeleven.recorder;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.preference.PreferenceManager;
+import android.support.v4.content.FileProvider;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The single place which knows where recordings are kept, every class asks it instead of
+ * building paths. Recordings are files in the folder of the selected location, shared
+ * storage or the app's own storage, since recording, recovery, sessions and sidecars need
+ * random access files. Exports go to a {@link StorageBackend}, MediaStore or a folder
+ * the user picked, and shares are content URIs of a FileProvider, which other apps can
+ * read without the storage permission.
+ */
+public class RecordingsRepository {
+    private static final String FOLDER_NAME = "Recorder";
+    private static final String FILE_PROVIDER_AUTHORITY =
+            BuildConfig.APPLICATION_ID + ".fileprovider";
+
+    private static RecordingsRepository sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+
+    public static synchronized RecordingsRepository getInstance(Context context) {
+        if(sInstance == null) {
+            sInstance = new RecordingsRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private RecordingsRepository(Context context) {
+        mContext = context;
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * @return the folder of the selected location, which may not exist yet
+     */
+    public File getRecordingsFolder() {
+        return getFolder(mPreferences.getString(SettingsFragment.KEY_STORAGE_LOCATION,
+                SettingsFragment.LOCATION_SHARED));
+    }
+
+    /**
+     * @param location a value of {@link SettingsFragment#KEY_STORAGE_LOCATION}
+     * @return the recordings folder of the location
+     */
+    public File getFolder(String location) {
+        if(SettingsFragment.LOCATION_APP.equals(location)) {
+            File folder = mContext.getExternalFilesDir(Environment.DIRECTORY_MUSIC);
+            // null while the external storage is unavailable
+            return folder != null ? folder
+                    : new File(mContext.getFilesDir(), Environment.DIRECTORY_MUSIC);
+        }
+        return new File(Environment.getExternalStorageDirectory(), FOLDER_NAME);
+    }
+
+    /**
+     * @param time the start time of the recording in milliseconds since epoch
+     * @return the file of a new recording without extension
+     */
+    public File newRecordingFile(long time) {
+        return new File(getRecordingsFolder(), RecordingItem.newFileName(time));
+    }
+
+    /**
+     * @return the backend of the selected export target
+     */
+    public StorageBackend getExportBackend() {
+        String tree = mPreferences.getString(SettingsFragment.KEY_EXPORT_TREE, null);
+        if(SettingsFragment.EXPORT_FOLDER.equals(mPreferences.getString(
+                SettingsFragment.KEY_EXPORT_TARGET, SettingsFragment.EXPORT_MUSIC))
+                && tree != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new DocumentTreeBackend(mContext, Uri.parse(tree));
+        }
+        return new MediaStoreBackend(mContext);
+    }
+
+    /**
+     * @param file a recording or an archive of recordings to share
+     * @return the content URI which the receiving app is granted to read
+     */
+    public Uri getShareUri(File file) {
+        return FileProvider.getUriForFile(mContext, FILE_PROVIDER_AUTHORITY, file);
+    }
+
+    /**
+     * Move every recording into another folder when the location changes, recordings
+     * which are being recorded or wait for recovery stay. Must not be called on the UI
+     * thread.
+     * @param from the folder of the old location
+     * @param to the folder of the new location
+     * @return the result
+     */
+    public FileOperation.Result moveRecordings(File from, File to) {
+        List<File> files = new ArrayList<>();
+        for(RecordingItem item : RecordingItem.listFolder(from)) {
+            if(!RecordingRecovery.markerFor(item.getFile()).exists()) {
+                files.add(item.getFile());
+            }
+        }
+        FileOperation.Result result = new TransferOperation(to, true).run(files,
+                new FileOperation.ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+            }
+        });
+        if(!result.processed.isEmpty()) {
+            new MetadataScanner(mContext, null).onFilesRenamed(result.processed,
+                    result.targets);
+        }
+        return result;
+    }
+}
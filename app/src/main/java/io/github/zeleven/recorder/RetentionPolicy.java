@@ -0,0 +1,59 @@
+package io.github.zeleven.recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Chooses the recordings to delete, oldest first, to keep the recordings within a
+ * maximum total size and age, and to make room when storage runs out during a recording.
+ */
+public class RetentionPolicy {
+    private final long maxTotalBytes;
+    private final long maxAgeMillis;
+
+    /**
+     * @param maxTotalBytes maximum size of all recordings, 0 for no limit
+     * @param maxAgeMillis maximum age of a recording, 0 for no limit
+     */
+    public RetentionPolicy(long maxTotalBytes, long maxAgeMillis) {
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return true if the policy limits size or age
+     */
+    public boolean isLimited() {
+        return maxTotalBytes > 0 || maxAgeMillis > 0;
+    }
+
+    /**
+     * @param items the recordings which may be deleted, in any order; the size of a
+     *              session has to be the size of its segments
+     * @param now the current time in milliseconds since epoch
+     * @param bytesToFree space to free in addition to the limits, 0 for none
+     * @return the recordings to delete, oldest first
+     */
+    public List<RecordingItem> select(List<RecordingItem> items, long now, long bytesToFree) {
+        List<RecordingItem> oldestFirst = new ArrayList<>(items);
+        Collections.sort(oldestFirst, Collections.reverseOrder(RecordingItem.NEWEST_FIRST));
+        long total = 0;
+        for(RecordingItem item : oldestFirst) {
+            total += item.getSize();
+        }
+        List<RecordingItem> selected = new ArrayList<>();
+        long freed = 0;
+        for(RecordingItem item : oldestFirst) {
+            boolean tooOld = maxAgeMillis > 0 && now - item.getCreateTime() > maxAgeMillis;
+            boolean tooBig = maxTotalBytes > 0 && total - freed > maxTotalBytes;
+            if(!tooOld && !tooBig && freed >= bytesToFree) {
+                // the remaining recordings are newer and within the limits
+                break;
+            }
+            selected.add(item);
+            freed += item.getSize();
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,422 @@
+package io.github.zeleven.recorder;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The on-device search index of the recordings. Metadata and the user's tags and notes
+ * are kept in a table, file names, tags, notes and transcripts are also kept in an FTS4
+ * table whose docid is the row id, so a search is one query however many recordings
+ * there are.
+ * <p>
+ * The index is updated incrementally by {@link MetadataScanner}, only rows whose file
+ * has changed are written. Searches and annotation reads run on a background thread and
+ * are delivered on the main thread.
+ */
+public class SearchIndex extends SQLiteOpenHelper {
+    private static final String TAG = "SearchIndex";
+    private static final String DATABASE_NAME = "search.db";
+    private static final int DATABASE_VERSION = 2;
+
+    static final String TABLE = "recordings";
+    static final String TABLE_FTS = "recordings_fts";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_PATH = "path";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_CREATE_TIME = "create_time";
+    static final String COLUMN_DURATION = "duration";
+    static final String COLUMN_SIZE = "size";
+    static final String COLUMN_LAST_MODIFIED = "last_modified";
+    static final String COLUMN_TAGS = "tags";
+    static final String COLUMN_NOTE = "note";
+    static final String COLUMN_TRANSCRIPT = "transcript";
+
+    private static SearchIndex sInstance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Receives the result of a search on the main thread
+     */
+    public interface SearchCallback {
+        /**
+         * @param query the query
+         * @param paths paths of the matching recordings
+         */
+        void onSearchFinished(SearchQuery query, Set<String> paths);
+    }
+
+    /**
+     * Receives the tags and note of a recording on the main thread
+     */
+    public interface AnnotationCallback {
+        /**
+         * @param tags the tags separated by spaces, empty if there are none
+         * @param note the note, empty if there is none
+         */
+        void onAnnotationLoaded(String tags, String note);
+    }
+
+    public static synchronized SearchIndex getInstance(Context context) {
+        if(sInstance == null) {
+            sInstance = new SearchIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SearchIndex(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // the scanner writes while the list searches
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_PATH + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_NAME + " TEXT NOT NULL, "
+                + COLUMN_CREATE_TIME + " INTEGER NOT NULL, "
+                + COLUMN_DURATION + " INTEGER NOT NULL, "
+                + COLUMN_SIZE + " INTEGER NOT NULL, "
+                + COLUMN_LAST_MODIFIED + " INTEGER NOT NULL, "
+                + COLUMN_TAGS + " TEXT NOT NULL DEFAULT '', "
+                + COLUMN_NOTE + " TEXT NOT NULL DEFAULT '')");
+        db.execSQL("CREATE INDEX recordings_create_time ON " + TABLE
+                + " (" + COLUMN_CREATE_TIME + ")");
+        createFtsTable(db);
+    }
+
+    private static void createFtsTable(SQLiteDatabase db) {
+        // holds the tokenized text only, see SearchQuery.tokenize
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4("
+                + COLUMN_NAME + ", " + COLUMN_TAGS + ", " + COLUMN_NOTE + ", "
+                + COLUMN_TRANSCRIPT + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if(oldVersion < 2) {
+            // FTS tables can't get new columns, the text is copied to a new one
+            db.execSQL("ALTER TABLE " + TABLE_FTS + " RENAME TO " + TABLE_FTS + "_v1");
+            createFtsTable(db);
+            db.execSQL("INSERT INTO " + TABLE_FTS + " (docid, " + COLUMN_NAME + ", "
+                    + COLUMN_TAGS + ", " + COLUMN_NOTE + ", " + COLUMN_TRANSCRIPT + ") SELECT "
+                    + "docid, " + COLUMN_NAME + ", " + COLUMN_TAGS + ", " + COLUMN_NOTE
+                    + ", '' FROM " + TABLE_FTS + "_v1");
+            db.execSQL("DROP TABLE " + TABLE_FTS + "_v1");
+        }
+    }
+
+    /**
+     * Drop the entries of files which no longer exist and add or update the entries of
+     * recordings. Entries whose size and modification time are unchanged aren't written,
+     * tags and notes are kept. Must be called on a background thread.
+     * @param files every recording in the folder
+     * @param recordings the metadata of the recordings
+     */
+    public void sync(List<File> files, List<RecordingMetadata> recordings) {
+        SQLiteDatabase db = getWritableDatabase();
+        Map<String, long[]> stored = new HashMap<>();
+        Cursor cursor = db.query(TABLE, new String[] {COLUMN_PATH, COLUMN_SIZE,
+                COLUMN_LAST_MODIFIED}, null, null, null, null, null);
+        try {
+            while(cursor.moveToNext()) {
+                stored.put(cursor.getString(0),
+                        new long[] {cursor.getLong(1), cursor.getLong(2)});
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Set<String> paths = new HashSet<>();
+        for(File file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        db.beginTransaction();
+        try {
+            for(RecordingMetadata metadata : recordings) {
+                long[] entry = stored.get(metadata.getPath());
+                if(entry == null || entry[0] != metadata.getSize()
+                        || entry[1] != metadata.getLastModified()) {
+                    put(db, metadata);
+                }
+            }
+            for(String path : stored.keySet()) {
+                if(!paths.contains(path)) {
+                    remove(db, path);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Add or update the entry of a recording, must be called on a background thread
+     * @param metadata the metadata of the recording
+     */
+    public void put(RecordingMetadata metadata) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            put(db, metadata);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void put(SQLiteDatabase db, RecordingMetadata metadata) {
+        String name = new File(metadata.getPath()).getName();
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE + " SET "
+                + COLUMN_NAME + " = ?, " + COLUMN_CREATE_TIME + " = ?, "
+                + COLUMN_DURATION + " = ?, " + COLUMN_SIZE + " = ?, "
+                + COLUMN_LAST_MODIFIED + " = ? WHERE " + COLUMN_PATH + " = ?");
+        try {
+            update.bindString(1, name);
+            update.bindLong(2, metadata.getCreateTime());
+            update.bindLong(3, metadata.getDuration());
+            update.bindLong(4, metadata.getSize());
+            update.bindLong(5, metadata.getLastModified());
+            update.bindString(6, metadata.getPath());
+            if(update.executeUpdateDelete() > 0) {
+                // the name can't change without a rename, the text is still valid
+                return;
+            }
+        } finally {
+            update.close();
+        }
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE + " ("
+                + COLUMN_PATH + ", " + COLUMN_NAME + ", " + COLUMN_CREATE_TIME + ", "
+                + COLUMN_DURATION + ", " + COLUMN_SIZE + ", " + COLUMN_LAST_MODIFIED
+                + ") VALUES (?, ?, ?, ?, ?, ?)");
+        long id;
+        try {
+            insert.bindString(1, metadata.getPath());
+            insert.bindString(2, name);
+            insert.bindLong(3, metadata.getCreateTime());
+            insert.bindLong(4, metadata.getDuration());
+            insert.bindLong(5, metadata.getSize());
+            insert.bindLong(6, metadata.getLastModified());
+            id = insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+        db.execSQL("INSERT INTO " + TABLE_FTS + " (docid, " + COLUMN_NAME + ", "
+                + COLUMN_TAGS + ", " + COLUMN_NOTE + ", " + COLUMN_TRANSCRIPT
+                + ") VALUES (?, ?, '', '', ?)",
+                new Object[] {id, SearchQuery.tokenize(name), SearchQuery.tokenize(
+                        Transcript.read(new File(metadata.getPath())).getText())});
+    }
+
+    /**
+     * Move the entries of renamed files, tags and notes move with them. Must be called
+     * on a background thread.
+     * @param from the files before rename
+     * @param to the files after rename, in the same order
+     */
+    public void rename(List<File> from, List<File> to) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for(int i = 0; i < from.size(); i++) {
+                long id = findId(db, from.get(i).getAbsolutePath());
+                if(id < 0) {
+                    continue;
+                }
+                File target = to.get(i);
+                db.execSQL("UPDATE " + TABLE + " SET " + COLUMN_PATH + " = ?, "
+                        + COLUMN_NAME + " = ? WHERE " + COLUMN_ID + " = ?",
+                        new Object[] {target.getAbsolutePath(), target.getName(), id});
+                db.execSQL("UPDATE " + TABLE_FTS + " SET " + COLUMN_NAME
+                        + " = ? WHERE docid = ?",
+                        new Object[] {SearchQuery.tokenize(target.getName()), id});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Remove the entries of deleted files, must be called on a background thread
+     * @param paths paths of the removed files
+     */
+    public void remove(Collection<String> paths) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for(String path : paths) {
+                remove(db, path);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void remove(SQLiteDatabase db, String path) {
+        long id = findId(db, path);
+        if(id >= 0) {
+            db.delete(TABLE_FTS, "docid = ?", new String[] {String.valueOf(id)});
+            db.delete(TABLE, COLUMN_ID + " = ?", new String[] {String.valueOf(id)});
+        }
+    }
+
+    /**
+     * @return the row id of a path, or -1 if it's not indexed
+     */
+    private static long findId(SQLiteDatabase db, String path) {
+        Cursor cursor = db.query(TABLE, new String[] {COLUMN_ID}, COLUMN_PATH + " = ?",
+                new String[] {path}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Find the recordings matching a query in background
+     * @param query the query
+     * @param callback receives the paths on the main thread
+     */
+    public void search(final SearchQuery query, final SearchCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Set<String> paths = new HashSet<>();
+                try {
+                    List<String> args = new ArrayList<>();
+                    String selection = query.buildSelection(args);
+                    Cursor cursor = getReadableDatabase().query(TABLE,
+                            new String[] {COLUMN_PATH},
+                            selection.isEmpty() ? null : selection,
+                            args.toArray(new String[args.size()]), null, null, null);
+                    try {
+                        while(cursor.moveToNext()) {
+                            paths.add(cursor.getString(0));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (RuntimeException e) {
+                    // e.g. a match expression which FTS can't parse, nothing matches
+                    Log.w(TAG, "Search failed", e);
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSearchFinished(query, paths);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the tags and note of a recording in background
+     * @param path path of the recording
+     * @param callback receives the annotation on the main thread
+     */
+    public void loadAnnotation(final String path, final AnnotationCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String tags = "";
+                String note = "";
+                Cursor cursor = getReadableDatabase().query(TABLE,
+                        new String[] {COLUMN_TAGS, COLUMN_NOTE}, COLUMN_PATH + " = ?",
+                        new String[] {path}, null, null, null);
+                try {
+                    if(cursor.moveToFirst()) {
+                        tags = cursor.getString(0);
+                        note = cursor.getString(1);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                final String loadedTags = tags;
+                final String loadedNote = note;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onAnnotationLoaded(loadedTags, loadedNote);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Save the tags and note of a recording in background. Recordings which aren't
+     * indexed yet are indexed first, so the annotation isn't lost.
+     * @param file the recording
+     * @param tags the tags separated by spaces
+     * @param note the note
+     */
+    public void saveAnnotation(final File file, final String tags, final String note) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = getWritableDatabase();
+                long id = findId(db, file.getAbsolutePath());
+                if(id < 0) {
+                    put(MetadataScanner.extract(file));
+                    id = findId(db, file.getAbsolutePath());
+                }
+                db.beginTransaction();
+                try {
+                    db.execSQL("UPDATE " + TABLE + " SET " + COLUMN_TAGS + " = ?, "
+                            + COLUMN_NOTE + " = ? WHERE " + COLUMN_ID + " = ?",
+                            new Object[] {tags, note, id});
+                    db.execSQL("UPDATE " + TABLE_FTS + " SET " + COLUMN_TAGS + " = ?, "
+                            + COLUMN_NOTE + " = ? WHERE docid = ?",
+                            new Object[] {SearchQuery.tokenize(tags),
+                                    SearchQuery.tokenize(note), id});
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+    }
+
+    /**
+     * Save the transcript of a recording so searches find its words. Recordings which
+     * aren't indexed yet are indexed first. Must be called on a background thread.
+     * @param file the recording
+     * @param text the text of the transcript
+     */
+    public void putTranscript(File file, String text) {
+        SQLiteDatabase db = getWritableDatabase();
+        long id = findId(db, file.getAbsolutePath());
+        if(id < 0) {
+            put(MetadataScanner.extract(file));
+            id = findId(db, file.getAbsolutePath());
+        }
+        db.execSQL("UPDATE " + TABLE_FTS + " SET " + COLUMN_TRANSCRIPT + " = ? WHERE docid = ?",
+                new Object[] {SearchQuery.tokenize(text), id});
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.zeleven.recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A search over the recordings, free text matched against name, tags, notes and
+ * transcripts plus optional ranges of creation time, duration and size. Builds the SQL
+ * which {@link SearchIndex} runs.
+ */
+public class SearchQuery {
+    public static final long UNBOUNDED = -1;
+
+    private String text = "";
+    private long fromTime = UNBOUNDED;
+    private long toTime = UNBOUNDED;
+    private long minDuration = UNBOUNDED;
+    private long maxDuration = UNBOUNDED;
+    private long minSize = UNBOUNDED;
+    private long maxSize = UNBOUNDED;
+
+    public SearchQuery setText(String text) {
+        this.text = text == null ? "" : text.trim();
+        return this;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @param from earliest creation time in milliseconds since epoch, or UNBOUNDED
+     * @param to latest creation time, exclusive, or UNBOUNDED
+     * @return this query
+     */
+    public SearchQuery setTimeRange(long from, long to) {
+        fromTime = from;
+        toTime = to;
+        return this;
+    }
+
+    /**
+     * @param min shortest duration in milliseconds, or UNBOUNDED
+     * @param max longest duration, exclusive, or UNBOUNDED
+     * @return this query
+     */
+    public SearchQuery setDurationRange(long min, long max) {
+        minDuration = min;
+        maxDuration = max;
+        return this;
+    }
+
+    /**
+     * @param min smallest size in bytes, or UNBOUNDED
+     * @param max largest size, exclusive, or UNBOUNDED
+     * @return this query
+     */
+    public SearchQuery setSizeRange(long min, long max) {
+        minSize = min;
+        maxSize = max;
+        return this;
+    }
+
+    /**
+     * @return true if the query matches every recording
+     */
+    public boolean isEmpty() {
+        return toMatchExpression(text).isEmpty() && !hasFilters();
+    }
+
+    /**
+     * @return true if any range is set
+     */
+    public boolean hasFilters() {
+        return fromTime != UNBOUNDED || toTime != UNBOUNDED
+                || minDuration != UNBOUNDED || maxDuration != UNBOUNDED
+                || minSize != UNBOUNDED || maxSize != UNBOUNDED;
+    }
+
+    /**
+     * Build the WHERE clause over the recordings table
+     * @param args receives the arguments of the clause
+     * @return the clause, empty if nothing is filtered
+     */
+    public String buildSelection(List<String> args) {
+        List<String> conditions = new ArrayList<>();
+        String match = toMatchExpression(text);
+        if(!match.isEmpty()) {
+            conditions.add(SearchIndex.COLUMN_ID + " IN (SELECT docid FROM "
+                    + SearchIndex.TABLE_FTS + " WHERE " + SearchIndex.TABLE_FTS + " MATCH ?)");
+            args.add(match);
+        }
+        addRange(conditions, args, SearchIndex.COLUMN_CREATE_TIME, fromTime, toTime);
+        addRange(conditions, args, SearchIndex.COLUMN_DURATION, minDuration, maxDuration);
+        addRange(conditions, args, SearchIndex.COLUMN_SIZE, minSize, maxSize);
+        StringBuilder selection = new StringBuilder();
+        for(String condition : conditions) {
+            if(selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append(condition);
+        }
+        return selection.toString();
+    }
+
+    private static void addRange(List<String> conditions, List<String> args, String column,
+                                 long min, long max) {
+        if(min != UNBOUNDED) {
+            conditions.add(column + " >= ?");
+            args.add(String.valueOf(min));
+        }
+        if(max != UNBOUNDED) {
+            conditions.add(column + " < ?");
+            args.add(String.valueOf(max));
+        }
+    }
+
+    /**
+     * Turn typed text into an FTS match expression. Every word must match as a prefix,
+     * CJK text is matched character by character as a phrase, see
+     * {@link #tokenize(String)}. FTS operators typed by the user are treated as text.
+     * @param text the typed text
+     * @return the expression, empty if there is nothing to match
+     */
+    static String toMatchExpression(String text) {
+        StringBuilder expression = new StringBuilder();
+        for(String word : text.split("\\s+")) {
+            String tokens = tokenize(word).trim();
+            if(tokens.isEmpty()) {
+                continue;
+            }
+            if(expression.length() > 0) {
+                expression.append(' ');
+            }
+            if(tokens.indexOf(' ') >= 0) {
+                // the pieces of one word must follow each other, the last one is a prefix
+                expression.append('"').append(tokens).append("*\"");
+            } else {
+                expression.append(tokens).append('*');
+            }
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Split text into the tokens which are stored in the full-text index. The FTS
+     * tokenizer only splits at ASCII punctuation and spaces, so CJK characters are
+     * separated by spaces to make every character a token, and everything else which
+     * isn't a letter or digit becomes a separator.
+     * @param text the text
+     * @return the tokens separated by single spaces, lower case
+     */
+    static String tokenize(String text) {
+        StringBuilder tokens = new StringBuilder(text.length() * 2);
+        boolean separator = true;
+        for(int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if(isCjk(codePoint)) {
+                if(!separator) {
+                    tokens.append(' ');
+                }
+                tokens.appendCodePoint(codePoint).append(' ');
+                separator = true;
+            } else if(Character.isLetterOrDigit(codePoint)) {
+                tokens.appendCodePoint(Character.toLowerCase(codePoint));
+                separator = false;
+            } else if(!separator) {
+                tokens.append(' ');
+                separator = true;
+            }
+        }
+        int length = tokens.length();
+        while(length > 0 && tokens.charAt(length - 1) == ' ') {
+            length--;
+        }
+        tokens.setLength(length);
+        return tokens.toString();
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(codePoint);
+        return block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || block == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+                || block == Character.UnicodeBlock.HIRAGANA
+                || block == Character.UnicodeBlock.KATAKANA
+                || block == Character.UnicodeBlock.HANGUL_SYLLABLES;
+    }
+}
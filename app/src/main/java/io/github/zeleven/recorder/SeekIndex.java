@@ -0,0 +1,65 @@
+package io.github.zeleven.recorder;
+
+import java.util.Arrays;
+
+/**
+ * Sync points of a stream, pairs of presentation time and byte position in ascending
+ * order. Finding the sync point before any time is a binary search, so seeking anywhere
+ * in a long recording doesn't depend on its length.
+ */
+public class SeekIndex {
+    private long[] times = new long[256];
+    private long[] positions = new long[256];
+    private int size = 0;
+
+    /**
+     * Append a sync point, must not be earlier than the last one
+     * @param timeUs presentation time in microseconds
+     * @param position byte position of the sync point in the stream
+     */
+    public void add(long timeUs, long position) {
+        if(size > 0 && timeUs < times[size - 1]) {
+            throw new IllegalArgumentException("Sync points must be added in order");
+        }
+        if(size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        times[size] = timeUs;
+        positions[size] = position;
+        size++;
+    }
+
+    /**
+     * @param timeUs presentation time in microseconds
+     * @return the index of the last sync point at or before the time, the first one if the
+     *         time is before all, or -1 if the index is empty
+     */
+    public int find(long timeUs) {
+        if(size == 0) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(times, 0, size, timeUs);
+        if(index < 0) {
+            index = -index - 2;
+        } else {
+            // several sync points may share a time, take the first
+            while(index > 0 && times[index - 1] == timeUs) {
+                index--;
+            }
+        }
+        return Math.max(index, 0);
+    }
+
+    public long getTimeUs(int index) {
+        return times[index];
+    }
+
+    public long getPosition(int index) {
+        return positions[index];
+    }
+
+    public int size() {
+        return size;
+    }
+}
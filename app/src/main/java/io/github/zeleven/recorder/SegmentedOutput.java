@@ -0,0 +1,141 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rollover stage of long recordings, writes the audio into a new segment every time
+ * the segment length has been reached. The split falls exactly on a sample frame and the
+ * capture keeps filling the ring buffer while the old segment is finished and the next
+ * one opened, so no audio is lost between segments.
+ * <p>
+ * The {@link SessionManifest} is rewritten whenever a segment starts or ends, so after a
+ * crash it lists every segment which has been written.
+ */
+public class SegmentedOutput implements PcmConsumer {
+    /**
+     * Creates the stages which encode and write one segment
+     */
+    public interface StageFactory {
+        /**
+         * @param segment the segment file
+         * @return the stages in order, they are started and stopped by the segmented output
+         * @throws IOException if the stages can't be created
+         */
+        List<PcmConsumer> createStages(File segment) throws IOException;
+    }
+
+    private final File manifest;
+    private final String extension;
+    private final long segmentMillis;
+    private final StageFactory factory;
+    private final List<SessionManifest.Segment> segments = new ArrayList<>();
+    private List<PcmConsumer> stages = new ArrayList<>();
+    private int startedStages;
+    private int sampleRate;
+    private int channelCount;
+    private long segmentSamples;
+    private long writtenSamples;
+
+    /**
+     * @param manifest the manifest of the session, segments go into the folder next to it
+     * @param extension extension of the segment files, without the dot
+     * @param segmentMillis recorded time per segment
+     * @param factory creates the stages of each segment
+     */
+    public SegmentedOutput(File manifest, String extension, long segmentMillis,
+                           StageFactory factory) {
+        this.manifest = manifest;
+        this.extension = extension;
+        this.segmentMillis = segmentMillis;
+        this.factory = factory;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        segmentSamples = Math.max(1, segmentMillis * sampleRate / 1000) * channelCount;
+        segments.clear();
+        File folder = SessionManifest.segmentFolderFor(manifest);
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        startSegment();
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) throws IOException {
+        while(length > 0) {
+            if(writtenSamples == segmentSamples) {
+                // only rolled over when there is more audio, so no segment is empty
+                stopSegment();
+                startSegment();
+            }
+            int count = (int) Math.min(length, segmentSamples - writtenSamples);
+            for(int i = 0; i < startedStages; i++) {
+                stages.get(i).onPcm(buffer, offset, count);
+            }
+            writtenSamples += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if(startedStages > 0) {
+            stopSegment();
+        }
+    }
+
+    /**
+     * @return number of segments which have been started
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void startSegment() throws IOException {
+        File segment = SessionManifest.segmentFile(manifest, segments.size(), extension);
+        segments.add(new SessionManifest.Segment(segment, SessionManifest.UNKNOWN_DURATION));
+        SessionManifest.write(manifest, segments);
+        writtenSamples = 0;
+        stages = factory.createStages(segment);
+        startedStages = 0;
+        try {
+            for(PcmConsumer stage : stages) {
+                stage.onStart(sampleRate, channelCount);
+                startedStages++;
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                stopSegment();
+            } catch (IOException stopError) {
+                // the start error is the one reported
+            }
+            throw e;
+        }
+    }
+
+    private void stopSegment() throws IOException {
+        IOException error = null;
+        for(int i = 0; i < startedStages; i++) {
+            try {
+                stages.get(i).onStop();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        startedStages = 0;
+        int last = segments.size() - 1;
+        segments.set(last, new SessionManifest.Segment(segments.get(last).file,
+                writtenSamples / channelCount * 1000 / sampleRate));
+        SessionManifest.write(manifest, segments);
+        if(error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package io.github.zeleven.recorder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The manifest of a segmented recording session, an extended M3U playlist next to the
+ * folder holding the segments. The file list shows the manifest as one recording and
+ * players which open it play the segments back-to-back.
+ * <pre>
+ * #EXTM3U
+ * #EXTINF:1800.000,part001
+ * 20260101_120000/part001.aac
+ * </pre>
+ * A segment which is still being recorded has the unknown duration -1.
+ */
+public class SessionManifest {
+    public static final String EXTENSION = "m3u";
+    public static final String MIME_TYPE = "audio/x-mpegurl";
+    public static final long UNKNOWN_DURATION = -1;
+    private static final String HEADER = "#EXTM3U";
+    private static final String INFO_PREFIX = "#EXTINF:";
+    private static final String CHARSET = "UTF-8";
+
+    private SessionManifest() {}
+
+    /**
+     * One segment of a session
+     */
+    public static class Segment {
+        public final File file;
+        /** duration in milliseconds, or {@link #UNKNOWN_DURATION} */
+        public final long durationMillis;
+
+        public Segment(File file, long durationMillis) {
+            this.file = file;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    /**
+     * @param file a file in the recordings folder
+     * @return true if the file is a session manifest
+     */
+    public static boolean isManifest(File file) {
+        return file.getName().endsWith("." + EXTENSION);
+    }
+
+    /**
+     * @param manifest the manifest file
+     * @return the folder holding the segments, named like the manifest without extension
+     */
+    public static File segmentFolderFor(File manifest) {
+        String name = manifest.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(manifest.getParentFile(), dot > 0 ? name.substring(0, dot) : name);
+    }
+
+    /**
+     * @param manifest the manifest file
+     * @param index index of the segment, starting at 0
+     * @param extension extension of the segment files, without the dot
+     * @return the file of the segment
+     */
+    public static File segmentFile(File manifest, int index, String extension) {
+        return new File(segmentFolderFor(manifest),
+                String.format(Locale.US, "part%03d.%s", index + 1, extension));
+    }
+
+    /**
+     * Read the segments of a session
+     * @param manifest the manifest file
+     * @return the segments in playing order, relative paths are resolved against the
+     *         folder of the manifest
+     * @throws IOException if the manifest can't be read
+     */
+    public static List<Segment> read(File manifest) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifest), CHARSET));
+        try {
+            long duration = UNKNOWN_DURATION;
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.startsWith(INFO_PREFIX)) {
+                    duration = parseDuration(line.substring(INFO_PREFIX.length()));
+                } else if(!line.isEmpty() && !line.startsWith("#")) {
+                    File file = new File(line);
+                    if(!file.isAbsolute()) {
+                        file = new File(manifest.getParentFile(), line);
+                    }
+                    segments.add(new Segment(file, duration));
+                    duration = UNKNOWN_DURATION;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return segments;
+    }
+
+    private static long parseDuration(String info) {
+        int comma = info.indexOf(',');
+        try {
+            double seconds = Double.parseDouble(comma >= 0 ? info.substring(0, comma) : info);
+            return seconds < 0 ? UNKNOWN_DURATION : Math.round(seconds * 1000);
+        } catch (NumberFormatException e) {
+            return UNKNOWN_DURATION;
+        }
+    }
+
+    /**
+     * Write the manifest of a session. It's written to a hidden temporary file which
+     * replaces the manifest, so a crash never leaves a partial manifest.
+     * @param manifest the manifest file
+     * @param segments the segments in playing order, they are stored relative to the
+     *                 folder of the manifest if they are inside it
+     * @throws IOException if the manifest can't be written
+     */
+    public static void write(File manifest, List<Segment> segments) throws IOException {
+        File folder = manifest.getParentFile();
+        File temp = new File(folder, "." + manifest.getName() + ".tmp");
+        String folderPrefix = folder.getAbsolutePath() + File.separator;
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), CHARSET);
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            for(Segment segment : segments) {
+                String path = segment.file.getAbsolutePath();
+                if(path.startsWith(folderPrefix)) {
+                    path = path.substring(folderPrefix.length());
+                }
+                String name = segment.file.getName();
+                int dot = name.lastIndexOf('.');
+                writer.write(String.format(Locale.US, "%s%.3f,%s\n", INFO_PREFIX,
+                        segment.durationMillis < 0 ? -1.0 : segment.durationMillis / 1000.0,
+                        dot > 0 ? name.substring(0, dot) : name));
+                writer.write(path);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if(!temp.renameTo(manifest)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + manifest);
+        }
+    }
+
+    /**
+     * @param segments the segments of a session
+     * @return the sum of the known segment durations in milliseconds
+     */
+    public static long getDuration(List<Segment> segments) {
+        long duration = 0;
+        for(Segment segment : segments) {
+            if(segment.durationMillis > 0) {
+                duration += segment.durationMillis;
+            }
+        }
+        return duration;
+    }
+
+    /**
+     * Must not be called on the UI thread
+     * @param manifest the manifest file
+     * @return the size of the manifest and its segments in bytes
+     */
+    public static long getSize(File manifest) {
+        long size = manifest.length();
+        try {
+            for(Segment segment : read(manifest)) {
+                size += segment.file.length();
+            }
+        } catch (IOException e) {
+            // only the manifest is known
+        }
+        return size;
+    }
+
+    /**
+     * Delete a manifest together with its segments and their waveform and transcript
+     * sidecars
+     * @param manifest the manifest file
+     * @return true if the manifest is gone
+     */
+    public static boolean delete(File manifest) {
+        List<Segment> segments;
+        try {
+            segments = read(manifest);
+        } catch (IOException e) {
+            segments = Collections.emptyList();
+        }
+        for(Segment segment : segments) {
+            segment.file.delete();
+            WaveformSummary.sidecarFor(segment.file).delete();
+            Transcript.delete(segment.file);
+        }
+        File folder = segmentFolderFor(manifest);
+        new File(folder, WaveformSummary.META_FOLDER).delete();
+        // only removed if nothing else has been put into it
+        folder.delete();
+        return manifest.delete() || !manifest.exists();
+    }
+}
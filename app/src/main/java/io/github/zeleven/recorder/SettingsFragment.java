@@ -1,17 +1,198 @@
 package io.github.zeleven.recorder;
 
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.ListPreference;
+import android.preference.Preference;
 import android.preference.PreferenceFragment;
+import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
+import android.text.format.Formatter;
+import android.widget.Toast;
+
+import java.io.File;
 
 /**
  * The settings fragment
  */
 public class SettingsFragment extends PreferenceFragment {
+    public static final String KEY_RECORDING_QUALITY = "recording_quality";
+    public static final String DEFAULT_QUALITY = "standard";
+    public static final String KEY_RECORDING_ENGINE = "recording_engine";
+    public static final String ENGINE_AUTO = "auto";
+    public static final String ENGINE_MEDIA_RECORDER = "media_recorder";
+    public static final String ENGINE_AUDIO_RECORD = "audio_record";
+    public static final String KEY_CRASH_SAFE = "crash_safe";
+    public static final String KEY_FLUSH_INTERVAL = "flush_interval";
+    public static final String DEFAULT_FLUSH_INTERVAL = "2000";
+    public static final String KEY_SKIP_SILENCE = "skip_silence";
+    public static final String KEY_AUDIO_PROCESSING = "audio_processing";
+    public static final String KEY_SECOND_INPUT = "second_input";
+    public static final String SECOND_INPUT_OFF = "off";
+    public static final String SECOND_INPUT_VOICE = "voice_communication";
+    public static final String SECOND_INPUT_EXTERNAL = "external_mic";
+    public static final String KEY_SEGMENT_DURATION = "segment_duration";
+    public static final String KEY_SEGMENT_SIZE = "segment_size";
+    public static final String SEGMENT_OFF = "0";
+    public static final String KEY_ARCHIVE_AGE = "archive_age";
+    public static final String ARCHIVE_OFF = "0";
+    public static final String KEY_AUTO_TRANSCRIBE = "auto_transcribe";
+    public static final String KEY_RETENTION_SIZE = "retention_max_size";
+    public static final String KEY_RETENTION_AGE = "retention_max_age";
+    public static final String RETENTION_OFF = "0";
+    public static final String KEY_STORAGE_FULL_ACTION = "storage_full_action";
+    public static final String FULL_ACTION_STOP = "stop";
+    public static final String FULL_ACTION_DELETE_OLDEST = "delete_oldest";
+    public static final String KEY_STORAGE_LOCATION = "storage_location";
+    public static final String LOCATION_SHARED = "shared";
+    public static final String LOCATION_APP = "app";
+    public static final String KEY_EXPORT_TARGET = "export_target";
+    public static final String EXPORT_MUSIC = "music";
+    public static final String EXPORT_FOLDER = "folder";
+    public static final String KEY_EXPORT_TREE = "export_tree";
+
+    private static final int REQUEST_EXPORT_TREE = 1;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(
+                getActivity());
+        // older versions stored the quality as "1" or "2"
+        String quality = preferences.getString(KEY_RECORDING_QUALITY, DEFAULT_QUALITY);
+        String profileName = EncoderProfile.fromPreference(quality).getName();
+        if(!profileName.equals(quality)) {
+            preferences.edit().putString(KEY_RECORDING_QUALITY, profileName).apply();
+        }
+
         addPreferencesFromResource(R.xml.preferences);
+        showQualitySizes(preferences.getBoolean(KEY_CRASH_SAFE, true));
+        findPreference(KEY_ARCHIVE_AGE).setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                TranscodeJobService.schedule(getActivity(),
+                        Integer.parseInt((String) newValue));
+                return true;
+            }
+        });
+        findPreference(KEY_STORAGE_LOCATION).setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                String location = ((ListPreference) preference).getValue();
+                if(!newValue.equals(location)) {
+                    moveRecordings(location, (String) newValue);
+                }
+                return true;
+            }
+        });
+        Preference autoTranscribe = findPreference(KEY_AUTO_TRANSCRIBE);
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP
+                || !Transcriber.isEngineAvailable(getActivity())) {
+            autoTranscribe.setEnabled(false);
+            autoTranscribe.setSummary(R.string.summary_no_speech_engine);
+        }
+        autoTranscribe.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                // recordings made before the setting was turned on are transcribed too
+                TranscriptionJobService.schedule(getActivity(), (Boolean) newValue);
+                return true;
+            }
+        });
+        Preference exportTarget = findPreference(KEY_EXPORT_TARGET);
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            // picking a folder needs the storage access framework of API 21
+            exportTarget.setEnabled(false);
+        }
+        exportTarget.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                if(EXPORT_FOLDER.equals(newValue)) {
+                    // selected once the user has picked the folder
+                    pickExportFolder();
+                    return false;
+                }
+                return true;
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void pickExportFolder() {
+        startActivityForResult(new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE),
+                REQUEST_EXPORT_TREE);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if(requestCode != REQUEST_EXPORT_TREE || resultCode != Activity.RESULT_OK
+                || data == null || data.getData() == null) {
+            return;
+        }
+        Uri tree = data.getData();
+        // keeps the access after a restart
+        getActivity().getContentResolver().takePersistableUriPermission(tree,
+                Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
+                .putString(KEY_EXPORT_TREE, tree.toString()).apply();
+        ((ListPreference) findPreference(KEY_EXPORT_TARGET)).setValue(EXPORT_FOLDER);
+    }
+
+    /**
+     * Move the recordings into the folder of the new location in background, new
+     * recordings go there right away
+     */
+    private void moveRecordings(String from, String to) {
+        final Context context = getActivity().getApplicationContext();
+        final RecordingsRepository repository = RecordingsRepository.getInstance(context);
+        final File fromFolder = repository.getFolder(from);
+        final File toFolder = repository.getFolder(to);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final FileOperation.Result result = repository.moveRecordings(fromFolder,
+                        toFolder);
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        String message = result.failed.isEmpty()
+                                ? context.getString(R.string.toast_files_moved,
+                                        result.processed.size(), toFolder.getAbsolutePath())
+                                : context.getString(R.string.toast_operation_failed,
+                                        result.failed.size());
+                        Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "MoveRecordings").start();
+    }
+
+    /**
+     * Add the estimated storage per minute to the names of the quality options
+     * @param crashSafe whether AAC is written as ADTS
+     */
+    private void showQualitySizes(boolean crashSafe) {
+        ListPreference qualityPreference = (ListPreference) findPreference(KEY_RECORDING_QUALITY);
+        CharSequence[] names = getResources().getStringArray(R.array.quality_options_name);
+        CharSequence[] values = qualityPreference.getEntryValues();
+        CharSequence[] entries = new CharSequence[names.length];
+        for(int i = 0; i < names.length; i++) {
+            EncoderProfile profile = EncoderProfile.fromPreference(values[i].toString());
+            entries[i] = getString(R.string.quality_option_format, names[i],
+                    Formatter.formatShortFileSize(getActivity(),
+                            profile.getBytesPerMinute(crashSafe)));
+        }
+        qualityPreference.setEntries(entries);
     }
 }
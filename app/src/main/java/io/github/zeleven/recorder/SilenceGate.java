@@ -0,0 +1,193 @@
+package io.github.zeleven.recorder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The voice activity stage, passes audio on to the following stages only around speech.
+ * Each 10 ms frame is compared with an adaptive noise floor. Frames are passed on while
+ * speech is detected and for a post-roll after it, silent frames are kept in a pre-roll
+ * ring which is passed on when speech starts again. Everything older is dropped, so a
+ * silent stretch of any length shrinks to at most post-roll plus pre-roll.
+ * <p>
+ * The detector only sums absolute sample values, and all buffers are allocated in
+ * {@link #onStart(int, int)}.
+ */
+public class SilenceGate implements PcmConsumer {
+    private static final int FRAME_MILLIS = 10;
+    private static final int PRE_ROLL_MILLIS = 300;
+    private static final int POST_ROLL_MILLIS = 700;
+    // speech is this far above the noise floor, about 10 dB
+    private static final float THRESHOLD_RATIO = 3.2f;
+    // mean absolute level which always counts as silence, about -60 dBFS
+    private static final int MIN_SPEECH_LEVEL = 33;
+    // the floor falls immediately and rises with a time constant of 20 seconds, so it
+    // follows a changing background but not seconds of continuous speech
+    private static final float FLOOR_RISE = 0.0005f;
+
+    private final List<PcmConsumer> outputs;
+    private int startedOutputs;
+    private int channelCount;
+    private int sampleRate;
+    private int frameSamples;
+    private short[] frame;
+    private int frameFill;
+    private short[] preRoll;
+    private int preRollFrames;
+    private int preRollHead;
+    private int preRollCount;
+    private int postRollFrames;
+    private int hangover;
+    private float noiseFloor;
+    private volatile long inputSamples;
+    private volatile long skippedSamples;
+
+    /**
+     * @param outputs the stages which receive the gated audio, started and stopped by the
+     *                gate in order
+     */
+    public SilenceGate(List<PcmConsumer> outputs) {
+        this.outputs = outputs;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        frameSamples = sampleRate * FRAME_MILLIS / 1000 * channelCount;
+        frame = new short[frameSamples];
+        frameFill = 0;
+        preRollFrames = PRE_ROLL_MILLIS / FRAME_MILLIS;
+        preRoll = new short[preRollFrames * frameSamples];
+        preRollHead = 0;
+        preRollCount = 0;
+        postRollFrames = POST_ROLL_MILLIS / FRAME_MILLIS;
+        // start open, so the first words are never cut
+        hangover = postRollFrames;
+        noiseFloor = -1;
+        inputSamples = 0;
+        skippedSamples = 0;
+
+        startedOutputs = 0;
+        try {
+            for(PcmConsumer output : outputs) {
+                output.onStart(sampleRate, channelCount);
+                startedOutputs++;
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                onStop();
+            } catch (IOException stopError) {
+                // the start error is reported
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) throws IOException {
+        int end = offset + length;
+        while(offset < end) {
+            int count = Math.min(frameSamples - frameFill, end - offset);
+            System.arraycopy(buffer, offset, frame, frameFill, count);
+            frameFill += count;
+            offset += count;
+            if(frameFill == frameSamples) {
+                processFrame();
+                frameFill = 0;
+            }
+        }
+        inputSamples += length;
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        // a partial frame and the pre-roll at the end are silence or too short to matter
+        skippedSamples += frameFill + preRollCount * frameSamples;
+        frameFill = 0;
+        preRollCount = 0;
+        IOException error = null;
+        for(int i = 0; i < startedOutputs; i++) {
+            try {
+                outputs.get(i).onStop();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        startedOutputs = 0;
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return recorded time which has been dropped so far, in milliseconds
+     */
+    public long getSkippedMillis() {
+        return sampleRate == 0 ? 0 : skippedSamples / channelCount * 1000 / sampleRate;
+    }
+
+    /**
+     * @return recorded time which has been captured so far, in milliseconds
+     */
+    public long getInputMillis() {
+        return sampleRate == 0 ? 0 : inputSamples / channelCount * 1000 / sampleRate;
+    }
+
+    private void processFrame() throws IOException {
+        long sum = 0;
+        for(int i = 0; i < frameSamples; i++) {
+            int sample = frame[i];
+            sum += sample < 0 ? -sample : sample;
+        }
+        int level = (int) (sum / frameSamples);
+        if(noiseFloor < 0 || level < noiseFloor) {
+            noiseFloor = level;
+        } else {
+            noiseFloor += (level - noiseFloor) * FLOOR_RISE;
+        }
+
+        boolean speech = level >= MIN_SPEECH_LEVEL && level > noiseFloor * THRESHOLD_RATIO;
+        if(speech) {
+            hangover = postRollFrames;
+        }
+        if(speech || hangover > 0) {
+            if(!speech) {
+                hangover--;
+            }
+            flushPreRoll();
+            write(frame, 0, frameSamples);
+        } else {
+            keepInPreRoll();
+        }
+    }
+
+    /**
+     * Keep a silent frame in the pre-roll ring, dropping the oldest if it's full
+     */
+    private void keepInPreRoll() {
+        int slot = (preRollHead + preRollCount) % preRollFrames;
+        if(preRollCount == preRollFrames) {
+            preRollHead = (preRollHead + 1) % preRollFrames;
+            skippedSamples += frameSamples;
+        } else {
+            preRollCount++;
+        }
+        System.arraycopy(frame, 0, preRoll, slot * frameSamples, frameSamples);
+    }
+
+    private void flushPreRoll() throws IOException {
+        while(preRollCount > 0) {
+            write(preRoll, preRollHead * frameSamples, frameSamples);
+            preRollHead = (preRollHead + 1) % preRollFrames;
+            preRollCount--;
+        }
+        preRollHead = 0;
+    }
+
+    private void write(short[] buffer, int offset, int length) throws IOException {
+        for(int i = 0; i < outputs.size(); i++) {
+            outputs.get(i).onPcm(buffer, offset, length);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.zeleven.recorder;
+
+import android.content.Context;
+
+import java.io.IOException;
+
+/**
+ * An offline speech recognizer used by {@link Transcriber}. Audio is passed in chunks of
+ * a few seconds which are transcribed independently, so transcription can stop after any
+ * chunk and resume with the next one.
+ * <p>
+ * Engines are plugged in through the {@link Factory} named by the string resource
+ * {@code speech_engine_factory}, e.g. by a module which bundles a speech model. Without
+ * one, transcription isn't offered.
+ */
+public interface SpeechEngine {
+    /**
+     * @return the sample rate of the audio passed to {@link #transcribe(short[], int)}
+     */
+    int getSampleRate();
+
+    /**
+     * Transcribe one chunk, called on a background thread
+     * @param samples mono 16 bit PCM at {@link #getSampleRate()}
+     * @param length the number of samples
+     * @return the text, empty if nothing has been said
+     * @throws IOException if the chunk can't be transcribed
+     */
+    String transcribe(short[] samples, int length) throws IOException;
+
+    /**
+     * Free the model
+     */
+    void release();
+
+    /**
+     * Creates the engine, must have a public constructor without arguments
+     */
+    interface Factory {
+        /**
+         * Load the model, called on a background thread
+         * @param context the application context
+         * @return the engine
+         * @throws IOException if the model can't be loaded
+         */
+        SpeechEngine create(Context context) throws IOException;
+    }
+}
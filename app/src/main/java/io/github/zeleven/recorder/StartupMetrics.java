@@ -0,0 +1,156 @@
+package io.github.zeleven.recorder;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the startup times the user waits for: process start (cold) or activity
+ * creation (warm) to the first drawn frame of the main screen, and the record tap to the
+ * first captured sample. Every measurement is logged and appended to a history file with
+ * the app version, so it can be compared across releases.
+ */
+public final class StartupMetrics {
+    private static final String TAG = "StartupMetrics";
+    private static final String HISTORY_FILE_NAME = "startup_metrics.csv";
+    private static final long MAX_HISTORY_BYTES = 64 * 1024;
+
+    public static final String COLD_START = "cold_start";
+    public static final String WARM_START = "warm_start";
+    public static final String TAP_TO_FIRST_SAMPLE = "tap_to_first_sample";
+
+    // before API 24 the process start isn't known, loading this class is the closest point
+    private static final long CLASS_LOAD_UPTIME = SystemClock.uptimeMillis();
+    private static final ExecutorService sWriter = Executors.newSingleThreadExecutor();
+    private static Context sContext;
+    private static boolean sProcessStarted = false;
+    private static volatile long sTapUptime = -1;
+
+    private StartupMetrics() {}
+
+    /**
+     * Start measuring the time to the first frame, called at the beginning of
+     * {@code onCreate} of the main activity
+     * @param activity the main activity
+     */
+    public static void onActivityCreated(Activity activity) {
+        final String name;
+        final long startUptime;
+        if(!sProcessStarted) {
+            name = COLD_START;
+            startUptime = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                    ? Process.getStartUptimeMillis() : CLASS_LOAD_UPTIME;
+            sProcessStarted = true;
+        } else {
+            name = WARM_START;
+            startUptime = SystemClock.uptimeMillis();
+        }
+        synchronized (StartupMetrics.class) {
+            sContext = activity.getApplicationContext();
+        }
+
+        final View decorView = activity.getWindow().getDecorView();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean drawn = false;
+
+            @Override
+            public void onDraw() {
+                if(drawn) {
+                    return;
+                }
+                drawn = true;
+                final ViewTreeObserver.OnDrawListener listener = this;
+                // runs once the frame has been drawn, listeners can't be removed in onDraw
+                handler.postAtFrontOfQueue(new Runnable() {
+                    @Override
+                    public void run() {
+                        record(name, SystemClock.uptimeMillis() - startUptime);
+                        decorView.getViewTreeObserver().removeOnDrawListener(listener);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Start measuring the time to the first captured sample, called when record is tapped
+     */
+    public static void onRecordTapped() {
+        sTapUptime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Called by the recorder backends when capture has delivered the first audio, may be
+     * called on any thread
+     */
+    public static void onFirstSample() {
+        long tapUptime = sTapUptime;
+        if(tapUptime >= 0) {
+            sTapUptime = -1;
+            record(TAP_TO_FIRST_SAMPLE, SystemClock.uptimeMillis() - tapUptime);
+        }
+    }
+
+    /**
+     * @param context any context of the app
+     * @return the file with one line per measurement: time, version, name, milliseconds
+     */
+    public static File getHistoryFile(Context context) {
+        return new File(context.getFilesDir(), HISTORY_FILE_NAME);
+    }
+
+    private static void record(final String name, final long millis) {
+        Log.i(TAG, name + ": " + millis + " ms");
+        RecorderMetrics.histogram(name + "_ms").record(millis);
+        final Context context;
+        synchronized (StartupMetrics.class) {
+            context = sContext;
+        }
+        if(context == null) {
+            return;
+        }
+        final long time = System.currentTimeMillis();
+        // the files folder is resolved in background too, it may have to be created
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(getHistoryFile(context), time + "," + BuildConfig.VERSION_NAME + "," + name + ","
+                        + millis + "\n");
+            }
+        });
+    }
+
+    private static void append(File file, String line) {
+        // keeps the recent history only
+        boolean truncate = file.length() > MAX_HISTORY_BYTES;
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file, !truncate);
+            writer.write(line);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + file, e);
+        } finally {
+            if(writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
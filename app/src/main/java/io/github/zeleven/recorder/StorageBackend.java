@@ -0,0 +1,46 @@
+package io.github.zeleven.recorder;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * A place recordings are exported to: a folder, MediaStore or a folder picked through the
+ * storage access framework. Every backend hands out a file descriptor, so the data is
+ * written through the same buffered channel copy as a plain file and costs the same.
+ */
+public interface StorageBackend {
+    /**
+     * A file being written, which has to be committed or aborted
+     */
+    interface Output {
+        /**
+         * @return the descriptor to write to, owned by the output
+         */
+        FileDescriptor getFileDescriptor();
+
+        /**
+         * Close the file and make it visible to other apps
+         * @throws IOException if the file can't be finished
+         */
+        void commit() throws IOException;
+
+        /**
+         * Close and remove the partial file
+         */
+        void abort();
+    }
+
+    /**
+     * @return where the files go, shown to the user
+     */
+    String getDescription();
+
+    /**
+     * Create a file, never overwrites an existing one
+     * @param name the display name with extension, the backend may number it
+     * @param mimeType the MIME type of the content
+     * @return the output
+     * @throws IOException if the file can't be created
+     */
+    Output create(String name, String mimeType) throws IOException;
+}
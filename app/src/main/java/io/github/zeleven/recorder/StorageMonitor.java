@@ -0,0 +1,62 @@
+package io.github.zeleven.recorder;
+
+/**
+ * Predicts how much can still be recorded from the usable space of the recordings folder
+ * and the byte rate of the encoder profile. The prediction is conservative: the profile
+ * rate is an upper bound when silence is skipped, and a reserve is kept for the file
+ * system and for finishing the container.
+ */
+public class StorageMonitor {
+    /**
+     * How urgent the lack of space is
+     */
+    public enum Level {
+        /** enough space */
+        OK,
+        /** less than {@link #LOW_MILLIS} left, the user is warned */
+        LOW,
+        /** less than {@link #FULL_MILLIS} left, the recording has to make room or stop */
+        FULL
+    }
+
+    public static final long UNKNOWN = -1;
+    public static final long LOW_MILLIS = 10 * 60 * 1000;
+    public static final long FULL_MILLIS = 30 * 1000;
+    public static final long RESERVE_BYTES = 16 * 1024 * 1024;
+
+    private StorageMonitor() {}
+
+    /**
+     * @param usableBytes space usable by the app on the volume of the recordings folder
+     * @param bytesPerMinute bytes one minute of recording takes
+     * @return the recording time left in milliseconds
+     */
+    public static long remainingMillis(long usableBytes, long bytesPerMinute) {
+        long bytes = usableBytes - RESERVE_BYTES;
+        if(bytes <= 0 || bytesPerMinute <= 0) {
+            return 0;
+        }
+        return bytes / bytesPerMinute * 60000 + bytes % bytesPerMinute * 60000 / bytesPerMinute;
+    }
+
+    /**
+     * @param remainingMillis recording time left, or {@link #UNKNOWN}
+     * @return the level, {@link Level#OK} if unknown
+     */
+    public static Level levelOf(long remainingMillis) {
+        if(remainingMillis == UNKNOWN || remainingMillis >= LOW_MILLIS) {
+            return Level.OK;
+        }
+        return remainingMillis >= FULL_MILLIS ? Level.LOW : Level.FULL;
+    }
+
+    /**
+     * @param usableBytes space usable by the app
+     * @param bytesPerMinute bytes one minute of recording takes
+     * @return bytes to free to get back above the low level, 0 if there are enough
+     */
+    public static long bytesToFree(long usableBytes, long bytesPerMinute) {
+        long needed = RESERVE_BYTES + LOW_MILLIS / 60000 * bytesPerMinute;
+        return Math.max(0, needed - usableBytes);
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.zeleven.recorder;
+
+/**
+ * Relates the frames of a capture stream to the monotonic clock. The capture thread adds
+ * a timestamp after every read, a least squares line through them gives the capture time
+ * of any frame and the actual sample rate, which differs from the nominal one by the
+ * drift of the input's clock. Every start or resume begins a new epoch, since the stream
+ * has a gap there.
+ * <p>
+ * The fit is updated incrementally in O(1) and stays accurate over many hours of frames.
+ */
+public class StreamClock {
+    private final double nominalNanosPerFrame;
+    private int epoch;
+    private long base;
+    private long count;
+    private double meanFrame;
+    private double meanNanos;
+    // sums of squared and crossed deviations from the means
+    private double frameVariance;
+    private double covariance;
+
+    /**
+     * @param sampleRate the nominal sample rate, used until two timestamps are known
+     */
+    public StreamClock(int sampleRate) {
+        nominalNanosPerFrame = 1e9 / sampleRate;
+    }
+
+    /**
+     * Start a new epoch, called when capture starts or resumes
+     * @param baseFrame the frames delivered before the epoch
+     */
+    public synchronized void reset(long baseFrame) {
+        epoch++;
+        base = baseFrame;
+        count = 0;
+        meanFrame = 0;
+        meanNanos = 0;
+        frameVariance = 0;
+        covariance = 0;
+    }
+
+    /**
+     * @param frame the index of a frame since the start of the stream
+     * @param nanos when it was captured, on the monotonic clock
+     */
+    public synchronized void add(long frame, long nanos) {
+        double x = frame - base;
+        count++;
+        double dx = x - meanFrame;
+        meanFrame += dx / count;
+        meanNanos += (nanos - meanNanos) / count;
+        frameVariance += dx * (x - meanFrame);
+        covariance += dx * (nanos - meanNanos);
+    }
+
+    public synchronized int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the frames delivered before the current epoch
+     */
+    public synchronized long getBase() {
+        return base;
+    }
+
+    /**
+     * @return true once a timestamp of the current epoch is known
+     */
+    public synchronized boolean isReady() {
+        return count > 0;
+    }
+
+    /**
+     * @return the measured duration of a frame in nanoseconds
+     */
+    public synchronized double getNanosPerFrame() {
+        // the fit is meaningless until the timestamps span some frames
+        return frameVariance > 0 && count >= 2 ? covariance / frameVariance
+                : nominalNanosPerFrame;
+    }
+
+    /**
+     * @param frame the index of a frame of the current epoch
+     * @return when it was captured, in nanoseconds on the monotonic clock
+     */
+    public synchronized double timeOf(long frame) {
+        return meanNanos + (frame - base - meanFrame) * getNanosPerFrame();
+    }
+
+    /**
+     * @param nanos a time on the monotonic clock
+     * @return the index of the frame captured at that time, fractional
+     */
+    public synchronized double frameAt(double nanos) {
+        return base + meanFrame + (nanos - meanNanos) / getNanosPerFrame();
+    }
+}
@@ -0,0 +1,274 @@
+package io.github.zeleven.recorder;
+
+import java.util.Arrays;
+
+/**
+ * Changes the playback speed of 16 bit PCM without changing its pitch (WSOLA). The input
+ * is cut into overlapping segments which are taken at the speed-scaled position, each
+ * segment is moved by up to a few milliseconds to where it best continues the previous
+ * one and the overlaps are cross-faded, so voices stay clear at 0.5x to 3x.
+ * <p>
+ * At 1x every segment continues exactly where the previous one ended, so the output is
+ * the input. Buffers grow to their working size on the first writes and are reused.
+ */
+public class TimeStretcher {
+    public static final float MIN_SPEED = 0.5f;
+    public static final float MAX_SPEED = 3f;
+    private static final int SEGMENT_MILLIS = 30;
+    private static final int OVERLAP_MILLIS = 10;
+    private static final int SEARCH_MILLIS = 8;
+    // the similarity search compares every second frame of the overlap
+    private static final int SEARCH_STEP = 2;
+
+    private final int channelCount;
+    private final int segmentFrames;
+    private final int overlapFrames;
+    private final int hopFrames;
+    private final int searchFrames;
+    private float speed = 1f;
+
+    private short[] input = new short[0];
+    private int inputFrames;
+    // where the next segment should start at the current speed, in input frames
+    private double position;
+    // start of the previous segment in input frames, -1 before the first
+    private int lastStart;
+    // the end of the previous segment, cross-faded into the next one
+    private final short[] tail;
+    private boolean hasTail;
+    private short[] output = new short[0];
+    private int outputStart;
+    private int outputEnd;
+
+    /**
+     * @param sampleRate sample rate in Hz
+     * @param channelCount number of interleaved channels
+     */
+    public TimeStretcher(int sampleRate, int channelCount) {
+        this.channelCount = channelCount;
+        segmentFrames = sampleRate * SEGMENT_MILLIS / 1000;
+        overlapFrames = sampleRate * OVERLAP_MILLIS / 1000;
+        hopFrames = segmentFrames - overlapFrames;
+        searchFrames = sampleRate * SEARCH_MILLIS / 1000;
+        tail = new short[overlapFrames * channelCount];
+        clear();
+    }
+
+    /**
+     * @param speed playback speed, clamped to {@link #MIN_SPEED} and {@link #MAX_SPEED}
+     */
+    public void setSpeed(float speed) {
+        this.speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Drop all buffered audio, e.g. after a seek
+     */
+    public void clear() {
+        inputFrames = 0;
+        position = 0;
+        lastStart = -1;
+        hasTail = false;
+        outputStart = 0;
+        outputEnd = 0;
+    }
+
+    /**
+     * Add input and stretch as much of it as possible
+     * @param buffer interleaved samples
+     * @param offset index of the first sample
+     * @param length number of samples, a multiple of the channel count
+     */
+    public void write(short[] buffer, int offset, int length) {
+        int frames = length / channelCount;
+        ensureInputCapacity(inputFrames + frames);
+        System.arraycopy(buffer, offset, input, inputFrames * channelCount,
+                frames * channelCount);
+        inputFrames += frames;
+        while(canStep()) {
+            step();
+        }
+        compactInput();
+    }
+
+    /**
+     * Stretch the remaining input at the end of the stream, the input is padded with
+     * silence to complete the last segment
+     */
+    public void flush() {
+        int end = inputFrames;
+        int padding = searchFrames + segmentFrames + (int) Math.ceil(hopFrames * speed);
+        ensureInputCapacity(inputFrames + padding);
+        Arrays.fill(input, inputFrames * channelCount,
+                (inputFrames + padding) * channelCount, (short) 0);
+        inputFrames += padding;
+        while(position < end && canStep()) {
+            step();
+        }
+        if(hasTail) {
+            ensureOutputCapacity(overlapFrames);
+            System.arraycopy(tail, 0, output, outputEnd, tail.length);
+            outputEnd += tail.length;
+        }
+        inputFrames = 0;
+        position = 0;
+        lastStart = -1;
+        hasTail = false;
+    }
+
+    /**
+     * @return number of stretched samples which can be read
+     */
+    public int available() {
+        return outputEnd - outputStart;
+    }
+
+    /**
+     * Take stretched samples
+     * @param buffer receives interleaved samples
+     * @param offset index of the first sample
+     * @param length maximum number of samples
+     * @return number of samples copied
+     */
+    public int read(short[] buffer, int offset, int length) {
+        int count = Math.min(length, available());
+        System.arraycopy(output, outputStart, buffer, offset, count);
+        outputStart += count;
+        if(outputStart == outputEnd) {
+            outputStart = 0;
+            outputEnd = 0;
+        }
+        return count;
+    }
+
+    private boolean canStep() {
+        int start = hasTail && speed == 1f ? lastStart + hopFrames
+                : (int) Math.round(position) + searchFrames;
+        return start + segmentFrames <= inputFrames;
+    }
+
+    /**
+     * Take the next segment, cross-fade it with the tail of the previous one and keep its
+     * own tail
+     */
+    private void step() {
+        int start;
+        if(!hasTail) {
+            start = (int) Math.round(position);
+        } else if(speed == 1f) {
+            // the natural continuation, nothing to search
+            start = lastStart + hopFrames;
+        } else {
+            start = findBestStart((int) Math.round(position));
+        }
+
+        ensureOutputCapacity(hopFrames);
+        int in = start * channelCount;
+        int overlapSamples = overlapFrames * channelCount;
+        for(int i = 0; i < overlapSamples; i++) {
+            int sample = input[in + i];
+            if(hasTail) {
+                int frame = i / channelCount;
+                sample = (tail[i] * (overlapFrames - frame) + sample * frame) / overlapFrames;
+            }
+            output[outputEnd++] = (short) sample;
+        }
+        int directSamples = (hopFrames - overlapFrames) * channelCount;
+        System.arraycopy(input, in + overlapSamples, output, outputEnd, directSamples);
+        outputEnd += directSamples;
+        System.arraycopy(input, (start + hopFrames) * channelCount, tail, 0, tail.length);
+        hasTail = true;
+
+        lastStart = start;
+        position = (speed == 1f ? start : position) + hopFrames * speed;
+    }
+
+    /**
+     * Find the segment start near the nominal position whose beginning is most similar to
+     * the tail, candidates closer to the nominal position win ties
+     */
+    private int findBestStart(int nominal) {
+        int best = nominal;
+        double bestScore = -Double.MAX_VALUE;
+        for(int distance = 0; distance <= searchFrames; distance++) {
+            for(int sign = -1; sign <= 1; sign += 2) {
+                int candidate = nominal + sign * distance;
+                if(candidate < 0 || (distance == 0 && sign > 0)) {
+                    continue;
+                }
+                double score = similarity(candidate);
+                if(score > bestScore) {
+                    bestScore = score;
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Normalized cross-correlation of the tail and the input at a position, of the
+     * channel sums
+     */
+    private double similarity(int start) {
+        long dot = 0;
+        long energy = 0;
+        for(int frame = 0; frame < overlapFrames; frame += SEARCH_STEP) {
+            int a = 0;
+            int b = 0;
+            int tailIndex = frame * channelCount;
+            int inputIndex = (start + frame) * channelCount;
+            for(int c = 0; c < channelCount; c++) {
+                a += tail[tailIndex + c];
+                b += input[inputIndex + c];
+            }
+            dot += (long) a * b;
+            energy += (long) b * b;
+        }
+        return energy == 0 ? 0 : dot / Math.sqrt(energy);
+    }
+
+    /**
+     * Drop input which no later segment can start in
+     */
+    private void compactInput() {
+        int keep = (int) Math.round(position) - searchFrames;
+        if(hasTail) {
+            keep = Math.min(keep, lastStart + hopFrames);
+        }
+        if(keep <= 0) {
+            return;
+        }
+        keep = Math.min(keep, inputFrames);
+        System.arraycopy(input, keep * channelCount, input, 0,
+                (inputFrames - keep) * channelCount);
+        inputFrames -= keep;
+        position -= keep;
+        lastStart -= keep;
+    }
+
+    private void ensureInputCapacity(int frames) {
+        if(input.length < frames * channelCount) {
+            input = Arrays.copyOf(input, frames * channelCount * 2);
+        }
+    }
+
+    private void ensureOutputCapacity(int frames) {
+        int needed = outputEnd + frames * channelCount;
+        if(output.length < needed) {
+            if(outputStart > 0) {
+                System.arraycopy(output, outputStart, output, 0, outputEnd - outputStart);
+                outputEnd -= outputStart;
+                outputStart = 0;
+                needed = outputEnd + frames * channelCount;
+            }
+            if(output.length < needed) {
+                output = Arrays.copyOf(output, needed * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.zeleven.recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The progress of a {@link Transcoder}, stored as a sidecar in the meta folder so an
+ * interrupted transcode resumes instead of starting over. It holds the size and
+ * modification time of the recording it belongs to, how far into the recording the
+ * output goes and how many bytes of output hold that audio.
+ */
+public class TranscodeCheckpoint {
+    private static final String SUFFIX = ".ckpt";
+    private static final int MAGIC = 0x52544331; // "RTC1"
+
+    private final long sourceSize;
+    private final long sourceLastModified;
+    private final long sourceTimeUs;
+    private final long outputBytes;
+    private final boolean complete;
+
+    /**
+     * @param sourceSize size of the recording
+     * @param sourceLastModified modification time of the recording
+     * @param sourceTimeUs media time of the recording up to which output has been written
+     * @param outputBytes length of the output holding that audio
+     * @param complete whether the output is finished and about to replace the recording
+     */
+    public TranscodeCheckpoint(long sourceSize, long sourceLastModified, long sourceTimeUs,
+                               long outputBytes, boolean complete) {
+        this.sourceSize = sourceSize;
+        this.sourceLastModified = sourceLastModified;
+        this.sourceTimeUs = sourceTimeUs;
+        this.outputBytes = outputBytes;
+        this.complete = complete;
+    }
+
+    /**
+     * @param recording the recording file
+     * @return the sidecar file of the recording's checkpoint
+     */
+    public static File sidecarFor(File recording) {
+        return new File(new File(recording.getParentFile(), WaveformSummary.META_FOLDER),
+                recording.getName() + SUFFIX);
+    }
+
+    /**
+     * Whether the checkpoint was taken for the current content of the recording
+     */
+    public boolean matches(long size, long lastModified) {
+        return sourceSize == size && sourceLastModified == lastModified;
+    }
+
+    public long getSourceTimeUs() {
+        return sourceTimeUs;
+    }
+
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Read a checkpoint from its sidecar
+     * @param file the sidecar file
+     * @return the checkpoint, or null if the file is missing or corrupt
+     */
+    public static TranscodeCheckpoint read(File file) {
+        if(!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if(in.readInt() != MAGIC) {
+                return null;
+            }
+            return new TranscodeCheckpoint(in.readLong(), in.readLong(), in.readLong(),
+                    in.readLong(), in.readBoolean());
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the checkpoint to its sidecar, through a temporary file so a crash leaves
+     * either the old or the new checkpoint
+     * @param file the sidecar file
+     * @throws IOException if the file can't be written
+     */
+    public void write(File file) throws IOException {
+        File folder = file.getParentFile();
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        File temp = new File(folder, file.getName() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceLastModified);
+            out.writeLong(sourceTimeUs);
+            out.writeLong(outputBytes);
+            out.writeBoolean(complete);
+            out.flush();
+            // the checkpoint must not get ahead of the output it describes
+            stream.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if(!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shrinks recordings older than the archive age set in settings by transcoding them to
+ * the voice profile with {@link Transcoder}, and gives files of older versions, which
+ * named MPEG-4 recordings ".mp3", the extension of their content. The job runs daily
+ * while the device is charging and idle; recordings are transcoded in parallel, one per
+ * core up to the number of encoders a device can usually run at once. When the system
+ * stops the job the transcoders stop at their last checkpoint and the job is rescheduled.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class TranscodeJobService extends JobService {
+    private static final String TAG = "TranscodeJobService";
+    private static final int JOB_ID = 1;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_PARALLEL = 4;
+    // recordings within this factor of the voice bit rate aren't worth transcoding
+    private static final double MIN_SAVING = 1.25;
+
+    private final List<Transcoder> mTranscoders =
+            Collections.synchronizedList(new ArrayList<Transcoder>());
+    private volatile ExecutorService mExecutor;
+    private volatile boolean mStopped;
+
+    /**
+     * Schedule or cancel the job, called when the archive age setting changes. The job is
+     * persisted, so it survives reboots without being scheduled again.
+     * @param context the calling context
+     * @param ageDays age in days from which recordings are transcoded, 0 to stop
+     */
+    public static void schedule(Context context, int ageDays) {
+        // JobScheduler needs API 21, older devices keep their recordings as they are
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+        if(ageDays <= 0) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, TranscodeJobService.class))
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(DAY_MILLIS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runJob(params);
+            }
+        }, "TranscodeJob").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        ExecutorService executor = mExecutor;
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+        synchronized (mTranscoders) {
+            for(Transcoder transcoder : mTranscoders) {
+                transcoder.cancel();
+            }
+        }
+        // resume from the checkpoints next time
+        return true;
+    }
+
+    private void runJob(JobParameters params) {
+        int ageDays = Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(this)
+                .getString(SettingsFragment.KEY_ARCHIVE_AGE, SettingsFragment.ARCHIVE_OFF));
+        File folder = RecordingsRepository.getInstance(this).getRecordingsFolder();
+        if(fixExtensions(RecordingItem.listFolder(folder))) {
+            Log.i(TAG, "Fixed extensions of recordings in " + folder);
+        }
+        List<File> files = new ArrayList<>();
+        if(ageDays > 0) {
+            long cutoff = System.currentTimeMillis() - ageDays * DAY_MILLIS;
+            for(RecordingItem item : RecordingItem.listFolder(folder)) {
+                if(!mStopped && shouldTranscode(item, cutoff)) {
+                    files.add(item.getFile());
+                }
+            }
+        }
+
+        int threads = Math.min(MAX_PARALLEL, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        mExecutor = executor;
+        for(final File file : files) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    transcode(file);
+                }
+            });
+        }
+        executor.shutdown();
+        if(mStopped) {
+            executor.shutdownNow();
+            return;
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return;
+        }
+        if(!mStopped) {
+            jobFinished(params, false);
+        }
+    }
+
+    private void transcode(File file) {
+        Transcoder transcoder = new Transcoder(file);
+        mTranscoders.add(transcoder);
+        try {
+            // the job may have been stopped while this waited for a thread
+            if(mStopped) {
+                return;
+            }
+            File target = transcoder.run();
+            if(target != null) {
+                if(!target.equals(file)) {
+                    new MetadataScanner(this, null).onFilesRenamed(
+                            Collections.singletonList(file), Collections.singletonList(target));
+                }
+                MetadataScanner.indexRecording(this, target);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot transcode " + file, e);
+        } finally {
+            mTranscoders.remove(transcoder);
+        }
+    }
+
+    /**
+     * Whether a recording is old enough and big enough to be transcoded, this reads the
+     * file so it must only be called on a background thread
+     * @param item the recording
+     * @param cutoff recordings created before this time are transcoded
+     */
+    private static boolean shouldTranscode(RecordingItem item, long cutoff) {
+        File file = item.getFile();
+        if(item.getCreateTime() >= cutoff || SessionManifest.isManifest(file)
+                || RecordingRecovery.markerFor(file).exists()) {
+            return false;
+        }
+        ContainerFormat format = ContainerFormat.detect(file);
+        if(format == ContainerFormat.WAV) {
+            return true;
+        }
+        // files of other apps are left alone
+        if(format != ContainerFormat.MPEG4 && format != ContainerFormat.ADTS) {
+            return false;
+        }
+        RecordingMetadata metadata = MetadataScanner.extract(file);
+        if(metadata.getDuration() <= 0) {
+            return false;
+        }
+        long bitRate = item.getSize() * 8 * 1000 / metadata.getDuration();
+        return metadata.getSampleRate() > Transcoder.PROFILE.getSampleRate()
+                || bitRate > Transcoder.PROFILE.getBitRate() * MIN_SAVING;
+    }
+
+    /**
+     * Rename recordings whose extension doesn't match their content
+     * @param items the recordings
+     * @return true if a recording has been renamed
+     */
+    private boolean fixExtensions(List<RecordingItem> items) {
+        List<File> from = new ArrayList<>();
+        List<File> to = new ArrayList<>();
+        for(RecordingItem item : items) {
+            File file = item.getFile();
+            if(SessionManifest.isManifest(file) || RecordingRecovery.markerFor(file).exists()) {
+                continue;
+            }
+            ContainerFormat format = ContainerFormat.detect(file);
+            if(format == ContainerFormat.UNKNOWN
+                    || format == ContainerFormat.fromFileName(file.getName())) {
+                continue;
+            }
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            File target = new File(file.getParentFile(), (dot > 0 ? name.substring(0, dot)
+                    : name) + "." + format.getExtension());
+            if(target.exists() || !file.renameTo(target)) {
+                Log.w(TAG, "Cannot rename " + file + " to " + target);
+                continue;
+            }
+            // keep the waveform with the recording
+            File sidecar = WaveformSummary.sidecarFor(file);
+            if(sidecar.exists()) {
+                sidecar.renameTo(WaveformSummary.sidecarFor(target));
+            }
+            MarkerIndex.transfer(file, target, true);
+            Transcript.transfer(file, target, true);
+            from.add(file);
+            to.add(target);
+        }
+        if(from.isEmpty()) {
+            return false;
+        }
+        new MetadataScanner(this, null).onFilesRenamed(from, to);
+        return true;
+    }
+}
@@ -0,0 +1,220 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Re-encodes a recording to the voice profile, used to shrink archived recordings. The
+ * output is written as ADTS to a partial file in the meta folder with a
+ * {@link TranscodeCheckpoint} every few seconds of audio, so a transcode which is
+ * cancelled or killed resumes from the last checkpoint. The finished output replaces the
+ * recording by a rename on the same file system, readers see either the old or the new
+ * file.
+ */
+public class Transcoder {
+    public static final EncoderProfile PROFILE = EncoderProfile.VOICE;
+    private static final String PART_SUFFIX = ".part";
+    private static final long CHECKPOINT_INTERVAL_US = 10 * 1000000L;
+    private static final int AAC_FRAME_SAMPLES = 1024;
+
+    private final File source;
+    private final PcmDecoder decoder = new PcmDecoder();
+
+    /**
+     * @param source the recording to transcode
+     */
+    public Transcoder(File source) {
+        this.source = source;
+    }
+
+    /**
+     * @param source a recording
+     * @return the file the recording is replaced with, named like it with the extension
+     *         of ADTS
+     */
+    public static File targetFor(File source) {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(source.getParentFile(), (dot > 0 ? name.substring(0, dot) : name)
+                + "." + ContainerFormat.ADTS.getExtension());
+    }
+
+    private static File partFor(File source) {
+        return new File(new File(source.getParentFile(), WaveformSummary.META_FOLDER),
+                source.getName() + PART_SUFFIX);
+    }
+
+    /**
+     * Stop a running {@link #run()} as soon as possible, it keeps its last checkpoint
+     */
+    public void cancel() {
+        decoder.cancel();
+    }
+
+    /**
+     * Transcode the recording, resuming from its checkpoint if there is one. Must be
+     * called on a background thread.
+     * @return the transcoded recording, or null if cancelled
+     * @throws IOException if the recording can't be decoded or the output can't be written
+     */
+    public File run() throws IOException {
+        File target = targetFor(source);
+        File part = partFor(source);
+        File checkpointFile = TranscodeCheckpoint.sidecarFor(source);
+        long size = source.length();
+        long lastModified = source.lastModified();
+        TranscodeCheckpoint checkpoint = TranscodeCheckpoint.read(checkpointFile);
+        if(checkpoint != null && !checkpoint.matches(size, lastModified)) {
+            checkpoint = null;
+        }
+        if(checkpoint != null && checkpoint.isComplete()) {
+            // the process died while the output replaced the recording
+            if(part.exists() && part.length() == checkpoint.getOutputBytes()) {
+                return replace(part, target, lastModified, checkpointFile);
+            }
+            if(!part.exists() && target.exists()) {
+                finish(target, checkpointFile);
+                return target;
+            }
+            checkpoint = null;
+        }
+        if(!target.equals(source) && target.exists()) {
+            throw new IOException(target + " exists");
+        }
+
+        long startUs = 0;
+        long outputBytes = 0;
+        if(checkpoint != null && !checkpoint.isComplete() && part.exists()) {
+            startUs = checkpoint.getSourceTimeUs();
+            outputBytes = checkpoint.getOutputBytes();
+        }
+        File folder = part.getParentFile();
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        CheckpointSink sink = new CheckpointSink(new ChunkedFileWriter(part, outputBytes, 0),
+                checkpointFile, size, lastModified, startUs);
+        AacEncoder encoder = new AacEncoder(sink, PROFILE.getBitRate());
+        boolean finished = false;
+        try {
+            finished = decoder.decode(source, startUs,
+                    new PcmConverter(encoder, PROFILE.getSampleRate()));
+        } finally {
+            if(!finished) {
+                encoder.release();
+            }
+            sink.close();
+        }
+        if(!finished) {
+            return null;
+        }
+        if(part.length() == 0) {
+            part.delete();
+            throw new IOException("No audio in " + source);
+        }
+
+        new TranscodeCheckpoint(size, lastModified, 0, part.length(), true)
+                .write(checkpointFile);
+        return replace(part, target, lastModified, checkpointFile);
+    }
+
+    private File replace(File part, File target, long lastModified, File checkpointFile)
+            throws IOException {
+        if(!target.equals(source) && target.exists()) {
+            throw new IOException(target + " exists");
+        }
+        if(!part.renameTo(target)) {
+            throw new IOException("Cannot replace " + target);
+        }
+        // renamed recordings are sorted by modification time
+        target.setLastModified(lastModified);
+        finish(target, checkpointFile);
+        return target;
+    }
+
+    /**
+     * Remove what's left of the recording once the output has replaced it
+     */
+    private void finish(File target, File checkpointFile) {
+        File sidecar = WaveformSummary.sidecarFor(source);
+        // the audio is the same, the summary only has to be tagged for the new file
+        WaveformSummary summary = WaveformSummary.read(sidecar);
+        if(!target.equals(source)) {
+            source.delete();
+            sidecar.delete();
+            // the timeline is the same, the bookmarks still point to the same audio
+            MarkerIndex.transfer(source, target, true);
+            Transcript.transfer(source, target, true);
+        }
+        if(summary != null) {
+            try {
+                summary.forSource(target.length(), target.lastModified())
+                        .write(WaveformSummary.sidecarFor(target));
+            } catch (IOException e) {
+                // computed again when the list shows the recording
+            }
+        }
+        checkpointFile.delete();
+    }
+
+    /**
+     * Writes ADTS and saves a checkpoint after every interval of audio, once the frames
+     * up to it have been synced to storage
+     */
+    private static class CheckpointSink implements EncodedAudioSink {
+        private final ChunkedFileWriter writer;
+        private final AdtsSink adtsSink;
+        private final File checkpointFile;
+        private final long sourceSize;
+        private final long sourceLastModified;
+        private final long startUs;
+        private final long frameDurationUs;
+        private long lastCheckpointUs = 0;
+        private boolean closed = false;
+
+        CheckpointSink(ChunkedFileWriter writer, File checkpointFile, long sourceSize,
+                       long sourceLastModified, long startUs) {
+            this.writer = writer;
+            this.adtsSink = new AdtsSink(writer);
+            this.checkpointFile = checkpointFile;
+            this.sourceSize = sourceSize;
+            this.sourceLastModified = sourceLastModified;
+            this.startUs = startUs;
+            this.frameDurationUs = AAC_FRAME_SAMPLES * 1000000L / PROFILE.getSampleRate();
+        }
+
+        @Override
+        public void onFormat(MediaFormat format) throws IOException {
+            adtsSink.onFormat(format);
+        }
+
+        @Override
+        public void onFrame(ByteBuffer data, MediaCodec.BufferInfo info) throws IOException {
+            adtsSink.onFrame(data, info);
+            // presentation times start at 0 for the audio after the start position
+            long endUs = info.presentationTimeUs + frameDurationUs;
+            if(endUs - lastCheckpointUs >= CHECKPOINT_INTERVAL_US) {
+                writer.flush();
+                new TranscodeCheckpoint(sourceSize, sourceLastModified, startUs + endUs,
+                        writer.getFlushedBytes(), false).write(checkpointFile);
+                lastCheckpointUs = endUs;
+            }
+        }
+
+        /**
+         * Close the output, called by the encoder when it finishes and again by the
+         * transcoder in case it never started
+         */
+        @Override
+        public void close() throws IOException {
+            if(!closed) {
+                closed = true;
+                adtsSink.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.zeleven.recorder;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Transcribes a recording with a {@link SpeechEngine}. The audio is decoded, converted to
+ * the rate of the engine and transcribed in chunks; the text of every chunk is appended
+ * to the {@link Transcript} of the recording as soon as it's ready, so a transcription
+ * which is cancelled or killed resumes after the last transcribed chunk.
+ */
+public class Transcriber {
+    static final long CHUNK_MILLIS = 15000;
+
+    private final File source;
+    private final SpeechEngine engine;
+    private final PcmDecoder decoder = new PcmDecoder();
+
+    /**
+     * @param source the recording, a single file
+     * @param engine the engine, shared by every transcriber of a job
+     */
+    public Transcriber(File source, SpeechEngine engine) {
+        this.source = source;
+        this.engine = engine;
+    }
+
+    /**
+     * @param context the calling context
+     * @return true if a speech engine is installed
+     */
+    public static boolean isEngineAvailable(Context context) {
+        return !context.getString(R.string.speech_engine_factory).isEmpty();
+    }
+
+    /**
+     * Load the installed speech engine, must be called on a background thread. The factory
+     * named by {@code speech_engine_factory} is created with its no-argument constructor.
+     * @param context the calling context
+     * @return the engine, or null if none is installed
+     * @throws IOException if the engine can't be loaded
+     */
+    public static SpeechEngine createEngine(Context context) throws IOException {
+        String factoryName = context.getString(R.string.speech_engine_factory);
+        if(factoryName.isEmpty()) {
+            return null;
+        }
+        SpeechEngine.Factory factory;
+        try {
+            factory = Class.forName(factoryName).asSubclass(SpeechEngine.Factory.class)
+                    .getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException e) {
+            throw new IOException("Cannot create speech engine " + factoryName, e.getCause());
+        } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException
+                | IllegalAccessException | ClassCastException e) {
+            // ReflectiveOperationException needs API 19
+            throw new IOException("Cannot create speech engine " + factoryName, e);
+        }
+        return factory.create(context.getApplicationContext());
+    }
+
+    /**
+     * Stop a running {@link #run()} after the chunk being transcribed
+     */
+    public void cancel() {
+        decoder.cancel();
+    }
+
+    /**
+     * Transcribe the recording, resuming from its transcript if there is one. Must be
+     * called on a background thread.
+     * @return the complete transcript, or null if cancelled
+     * @throws IOException if the recording can't be decoded or transcribed
+     */
+    public Transcript run() throws IOException {
+        Transcript transcript = Transcript.read(source);
+        if(transcript.isComplete()) {
+            return transcript;
+        }
+        long startMillis = transcript.getEndMillis();
+        Transcript.Writer writer = Transcript.openWriter(source);
+        try {
+            ChunkWriter chunks = new ChunkWriter(engine, writer, startMillis);
+            if(!decoder.decode(source, startMillis * 1000,
+                    new PcmConverter(chunks, engine.getSampleRate()))) {
+                return null;
+            }
+            if(!chunks.isFinished()) {
+                // nothing left after the resume position
+                writer.finish();
+            }
+        } finally {
+            writer.close();
+        }
+        return Transcript.read(source);
+    }
+
+    /**
+     * Collects mono PCM into chunks, transcribes every full chunk and appends its text
+     */
+    static class ChunkWriter implements PcmConsumer {
+        private final SpeechEngine engine;
+        private final Transcript.Writer writer;
+        private short[] chunk = new short[0];
+        private int count;
+        private int sampleRate;
+        private long chunkStartMillis;
+        private boolean finished;
+
+        /**
+         * @param engine the engine
+         * @param writer the transcript the text is appended to
+         * @param startMillis the position of the first sample in the recording
+         */
+        ChunkWriter(SpeechEngine engine, Transcript.Writer writer, long startMillis) {
+            this.engine = engine;
+            this.writer = writer;
+            this.chunkStartMillis = startMillis;
+        }
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) throws IOException {
+            if(channelCount != 1) {
+                throw new IOException("Speech engines take mono PCM");
+            }
+            this.sampleRate = sampleRate;
+            chunk = new short[(int) (sampleRate * CHUNK_MILLIS / 1000)];
+            count = 0;
+        }
+
+        @Override
+        public void onPcm(short[] buffer, int offset, int length) throws IOException {
+            while(length > 0) {
+                int copied = Math.min(length, chunk.length - count);
+                System.arraycopy(buffer, offset, chunk, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+                if(count == chunk.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void onStop() throws IOException {
+            if(count > 0) {
+                flush();
+            }
+            writer.finish();
+            finished = true;
+        }
+
+        boolean isFinished() {
+            return finished;
+        }
+
+        private void flush() throws IOException {
+            long endMillis = chunkStartMillis + count * 1000L / sampleRate;
+            writer.add(chunkStartMillis, endMillis, engine.transcribe(chunk, count));
+            chunkStartMillis = endMillis;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package io.github.zeleven.recorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The text of a recording written by {@link Transcriber}, stored as a sidecar in the meta
+ * folder. The sidecar is an append-only UTF-8 text with one line per chunk:
+ * <pre>
+ * #transcript 1
+ * 0	15000	good morning everyone
+ * 15000	30000	let's start with the budget
+ * #end
+ * </pre>
+ * Every line is appended and synced when its chunk has been transcribed, so the sidecar
+ * is also the checkpoint: an interrupted transcription resumes at the end of the last
+ * line. A partial line at the end is ignored.
+ */
+public class Transcript {
+    private static final String SUFFIX = ".tr";
+    private static final String HEADER = "#transcript 1";
+    private static final String END = "#end";
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * The text of one chunk
+     */
+    public static class Entry {
+        public final long startMillis;
+        public final long endMillis;
+        public final String text;
+
+        public Entry(long startMillis, long endMillis, String text) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.text = text;
+        }
+    }
+
+    private final List<Entry> entries;
+    private final boolean complete;
+
+    private Transcript(List<Entry> entries, boolean complete) {
+        this.entries = entries;
+        this.complete = complete;
+    }
+
+    /**
+     * @param recording the recording file
+     * @return the sidecar file of the recording's transcript
+     */
+    public static File sidecarFor(File recording) {
+        return new File(new File(recording.getParentFile(), WaveformSummary.META_FOLDER),
+                recording.getName() + SUFFIX);
+    }
+
+    /**
+     * Read the transcript of a recording, must not be called on the UI thread
+     * @param recording the recording file
+     * @return the transcript, empty if there is none or it's corrupt
+     */
+    public static Transcript read(File recording) {
+        String content;
+        try {
+            content = readComplete(sidecarFor(recording));
+        } catch (IOException e) {
+            content = "";
+        }
+        List<Entry> entries = new ArrayList<>();
+        boolean complete = false;
+        String[] lines = content.split("\n");
+        if(lines.length == 0 || !lines[0].equals(HEADER)) {
+            return new Transcript(entries, false);
+        }
+        for(int i = 1; i < lines.length; i++) {
+            if(lines[i].equals(END)) {
+                complete = true;
+                break;
+            }
+            String[] fields = lines[i].split("\t", 3);
+            if(fields.length < 3) {
+                continue;
+            }
+            try {
+                entries.add(new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        fields[2]));
+            } catch (NumberFormatException e) {
+                // a damaged line, the others are still valid
+            }
+        }
+        return new Transcript(entries, complete);
+    }
+
+    /**
+     * @return the content up to the last line break
+     */
+    private static String readComplete(File file) throws IOException {
+        if(!file.exists()) {
+            return "";
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) file.length());
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while((count = in.read(buffer)) > 0) {
+                content.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        byte[] bytes = content.toByteArray();
+        int end = bytes.length;
+        while(end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        return new String(bytes, 0, end, CHARSET);
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return true if the whole recording has been transcribed
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the time up to which the recording has been transcribed, in milliseconds
+     */
+    public long getEndMillis() {
+        return entries.isEmpty() ? 0 : entries.get(entries.size() - 1).endMillis;
+    }
+
+    /**
+     * @return the text of every chunk, separated by spaces
+     */
+    public String getText() {
+        return join(entries);
+    }
+
+    /**
+     * @param entries the text of chunks
+     * @return the text of every chunk, separated by spaces
+     */
+    public static String join(List<Entry> entries) {
+        StringBuilder text = new StringBuilder();
+        for(Entry entry : entries) {
+            if(entry.text.isEmpty()) {
+                continue;
+            }
+            if(text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(entry.text);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Open the transcript of a recording for appending, a partial line left by a crash is
+     * removed first
+     * @param recording the recording file
+     * @return the writer
+     * @throws IOException if the sidecar can't be opened
+     */
+    public static Writer openWriter(File recording) throws IOException {
+        File sidecar = sidecarFor(recording);
+        File folder = sidecar.getParentFile();
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        String content = readComplete(sidecar);
+        int length = content.startsWith(HEADER + "\n") ? content.getBytes(CHARSET).length : 0;
+        if(sidecar.length() != length) {
+            RandomAccessFile file = new RandomAccessFile(sidecar, "rw");
+            try {
+                file.setLength(length);
+            } finally {
+                file.close();
+            }
+        }
+        Writer writer = new Writer(new FileOutputStream(sidecar, true));
+        if(length == 0) {
+            writer.writeLine(HEADER);
+        }
+        return writer;
+    }
+
+    /**
+     * Replace the transcript of a recording with a complete one, e.g. the joined
+     * transcripts of the segments of a session. It's written to a temporary file first.
+     * @param recording the recording file
+     * @param entries the text of every chunk in order
+     * @throws IOException if the sidecar can't be written
+     */
+    public static void write(File recording, List<Entry> entries) throws IOException {
+        File sidecar = sidecarFor(recording);
+        File temp = new File(sidecar.getParentFile(), sidecar.getName() + ".tmp");
+        temp.getParentFile().mkdirs();
+        Writer writer = new Writer(new FileOutputStream(temp));
+        try {
+            writer.writeLine(HEADER);
+            for(Entry entry : entries) {
+                writer.add(entry.startMillis, entry.endMillis, entry.text);
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+        if(!temp.renameTo(sidecar)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + sidecar);
+        }
+    }
+
+    /**
+     * Keep the transcript with a recording which has been copied, moved or converted
+     * @param recording the original recording
+     * @param target the new recording
+     * @param move whether the original is gone
+     */
+    public static void transfer(File recording, File target, boolean move) {
+        File sidecar = sidecarFor(recording);
+        if(!sidecar.exists()) {
+            return;
+        }
+        File targetSidecar = sidecarFor(target);
+        targetSidecar.getParentFile().mkdirs();
+        if(move && sidecar.renameTo(targetSidecar)) {
+            return;
+        }
+        Transcript transcript = read(recording);
+        try {
+            if(transcript.isComplete()) {
+                write(target, transcript.entries);
+            } else {
+                // continued by the next transcription
+                Writer writer = openWriter(target);
+                try {
+                    for(Entry entry : transcript.entries) {
+                        writer.add(entry.startMillis, entry.endMillis, entry.text);
+                    }
+                } finally {
+                    writer.close();
+                }
+            }
+        } catch (IOException e) {
+            // transcribed again
+        }
+        if(move) {
+            sidecar.delete();
+        }
+    }
+
+    /**
+     * Delete the transcript of a recording
+     * @param recording the recording file
+     */
+    public static void delete(File recording) {
+        sidecarFor(recording).delete();
+    }
+
+    /**
+     * Appends the lines of a transcript, each one synced to storage
+     */
+    public static class Writer implements Closeable {
+        private final FileOutputStream out;
+
+        private Writer(FileOutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Append the text of a chunk
+         * @param startMillis where the chunk starts in the recording
+         * @param endMillis where it ends
+         * @param text the text, line breaks and tabs are replaced by spaces
+         * @throws IOException if the line can't be written
+         */
+        public void add(long startMillis, long endMillis, String text) throws IOException {
+            writeLine(String.format(Locale.US, "%d\t%d\t%s", startMillis, endMillis,
+                    text.replace('\n', ' ').replace('\r', ' ').replace('\t', ' ').trim()));
+        }
+
+        /**
+         * Mark the transcript complete
+         * @throws IOException if the mark can't be written
+         */
+        public void finish() throws IOException {
+            writeLine(END);
+        }
+
+        private void writeLine(String line) throws IOException {
+            // one write per line, a crash leaves at most one partial line
+            out.write((line + "\n").getBytes(CHARSET));
+            out.getFD().sync();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package io.github.zeleven.recorder;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transcribes recordings with the installed {@link SpeechEngine} when automatic
+ * transcription is on in settings. The job is scheduled when a recording stops and, in
+ * segmented sessions, whenever a segment has been finished, so the session becomes
+ * searchable while it's still being recorded. Recordings are transcribed one at a time on
+ * a background priority thread, which drops to the lowest priority while a recording is
+ * active so the capture and encoder threads always come first. When the system stops the
+ * job the transcription stops after the current chunk and resumes from the transcript
+ * next time.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class TranscriptionJobService extends JobService {
+    private static final String TAG = "TranscriptionJob";
+    private static final int JOB_ID = 2;
+    // lets a stopped recording be indexed and a burst of triggers collapse into one run
+    private static final long START_DELAY_MILLIS = 5000;
+
+    private static final Object sLock = new Object();
+    private static boolean sRunning;
+    private static boolean sPending;
+
+    private volatile Transcriber mTranscriber;
+    private volatile boolean mStopped;
+
+    /**
+     * Run the job soon, or cancel it when automatic transcription is turned off. A running
+     * job scans the recordings again when it's done instead of being replaced.
+     * @param context the calling context
+     * @param enabled whether automatic transcription is on in settings
+     */
+    public static void schedule(Context context, boolean enabled) {
+        // JobScheduler needs API 21, older devices don't transcribe
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP
+                || !Transcriber.isEngineAvailable(context)) {
+            return;
+        }
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+        if(!enabled) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        synchronized (sLock) {
+            sPending = true;
+            if(sRunning) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, TranscriptionJobService.class))
+                .setMinimumLatency(START_DELAY_MILLIS)
+                // a transcription interrupted by a reboot resumes after it
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        synchronized (sLock) {
+            sRunning = true;
+            sPending = true;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runJob(params);
+            }
+        }, "TranscriptionJob").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        synchronized (sLock) {
+            sRunning = false;
+        }
+        Transcriber transcriber = mTranscriber;
+        if(transcriber != null) {
+            transcriber.cancel();
+        }
+        // resume from the transcripts next time
+        return true;
+    }
+
+    private void runJob(JobParameters params) {
+        SpeechEngine engine;
+        try {
+            engine = Transcriber.createEngine(this);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Cannot load speech engine", e);
+            engine = null;
+        }
+        if(engine == null) {
+            finish(params);
+            return;
+        }
+        try {
+            SpeechEngine throttled = new ThrottledEngine(engine);
+            while(!mStopped && takePending()) {
+                File folder = RecordingsRepository.getInstance(this).getRecordingsFolder();
+                for(RecordingItem item : RecordingItem.listFolder(folder)) {
+                    if(mStopped) {
+                        return;
+                    }
+                    File file = item.getFile();
+                    try {
+                        if(SessionManifest.isManifest(file)) {
+                            transcribeSession(file, throttled);
+                        } else if(!RecordingRecovery.markerFor(file).exists()) {
+                            transcribe(file, throttled);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        Log.w(TAG, "Cannot transcribe " + file, e);
+                    }
+                }
+            }
+        } finally {
+            engine.release();
+        }
+        finish(params);
+    }
+
+    /**
+     * @return true if the recordings must be scanned again, false if the job is done
+     */
+    private static boolean takePending() {
+        synchronized (sLock) {
+            if(!sPending) {
+                // triggers from now on schedule a new job
+                sRunning = false;
+                return false;
+            }
+            sPending = false;
+            return true;
+        }
+    }
+
+    private void finish(JobParameters params) {
+        if(!mStopped) {
+            synchronized (sLock) {
+                sRunning = false;
+            }
+            jobFinished(params, false);
+        }
+    }
+
+    /**
+     * Transcribe a recording unless it has a complete transcript
+     * @return the complete transcript, or null if cancelled
+     */
+    private Transcript transcribe(File file, SpeechEngine engine) throws IOException {
+        Transcript transcript = Transcript.read(file);
+        if(transcript.isComplete()) {
+            return transcript;
+        }
+        Transcriber transcriber = new Transcriber(file, engine);
+        mTranscriber = transcriber;
+        try {
+            // the job may have been stopped while the transcriber was created
+            if(mStopped) {
+                return null;
+            }
+            transcript = transcriber.run();
+        } finally {
+            mTranscriber = null;
+        }
+        if(transcript != null) {
+            SearchIndex.getInstance(this).putTranscript(file, transcript.getText());
+        }
+        return transcript;
+    }
+
+    /**
+     * Transcribe the finished segments of a session. The session is indexed with the
+     * text of its segments so far, once it's over its transcript is joined from them.
+     */
+    private void transcribeSession(File manifest, SpeechEngine engine) throws IOException {
+        if(Transcript.read(manifest).isComplete()) {
+            return;
+        }
+        boolean complete = !RecordingRecovery.markerFor(manifest).exists();
+        boolean changed = false;
+        List<Transcript.Entry> entries = new ArrayList<>();
+        long offsetMillis = 0;
+        for(SessionManifest.Segment segment : SessionManifest.read(manifest)) {
+            if(segment.durationMillis == SessionManifest.UNKNOWN_DURATION) {
+                // still being recorded
+                complete = false;
+                break;
+            }
+            Transcript transcript = Transcript.read(segment.file);
+            if(!transcript.isComplete()) {
+                transcript = transcribe(segment.file, engine);
+                if(transcript == null) {
+                    return;
+                }
+                changed = true;
+            }
+            for(Transcript.Entry entry : transcript.getEntries()) {
+                entries.add(new Transcript.Entry(offsetMillis + entry.startMillis,
+                        offsetMillis + entry.endMillis, entry.text));
+            }
+            offsetMillis += segment.durationMillis;
+        }
+        if(complete) {
+            Transcript.write(manifest, entries);
+        }
+        if(changed || complete) {
+            SearchIndex.getInstance(this).putTranscript(manifest, Transcript.join(entries));
+        }
+    }
+
+    /**
+     * Lowers the priority of the job thread before each chunk while a recording is active
+     */
+    private static class ThrottledEngine implements SpeechEngine {
+        private final SpeechEngine engine;
+
+        ThrottledEngine(SpeechEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return engine.getSampleRate();
+        }
+
+        @Override
+        public String transcribe(short[] samples, int length) throws IOException {
+            Process.setThreadPriority(RecordingService.isRecordingActive()
+                    ? Process.THREAD_PRIORITY_LOWEST : Process.THREAD_PRIORITY_BACKGROUND);
+            return engine.transcribe(samples, length);
+        }
+
+        @Override
+        public void release() {
+            engine.release();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies or moves recordings into another folder, or renames a single recording, together
+ * with their waveforms and bookmarks. Files which already exist in the target folder are
+ * never overwritten, the copy gets a numbered name instead. Moves fall back to copy and
+ * delete across file systems.
+ */
+public class TransferOperation extends FileOperation {
+    private final File targetFolder;
+    private final String targetName;
+    private final boolean move;
+
+    /**
+     * @param targetFolder the folder to copy or move to, created if missing
+     * @param move whether the source files are removed
+     */
+    public TransferOperation(File targetFolder, boolean move) {
+        this(targetFolder, null, move);
+    }
+
+    private TransferOperation(File targetFolder, String targetName, boolean move) {
+        this.targetFolder = targetFolder;
+        this.targetName = targetName;
+        this.move = move;
+    }
+
+    /**
+     * @param target the new file of a single recording
+     * @return an operation which moves one recording to the target
+     */
+    public static TransferOperation rename(File target) {
+        return new TransferOperation(target.getParentFile(), target.getName(), true);
+    }
+
+    public boolean isMove() {
+        return move;
+    }
+
+    @Override
+    protected void begin(Result result) throws IOException {
+        if(!targetFolder.isDirectory() && !targetFolder.mkdirs()) {
+            throw new IOException("Cannot create " + targetFolder);
+        }
+    }
+
+    @Override
+    protected File apply(File file) throws IOException {
+        File target;
+        if(targetName != null) {
+            target = new File(targetFolder, targetName);
+            if(target.exists()) {
+                return null;
+            }
+        } else {
+            target = uniqueTarget(file.getName());
+        }
+        if(SessionManifest.isManifest(file)) {
+            transferSession(file, target);
+        } else {
+            transfer(file, target);
+        }
+        MarkerIndex.transfer(file, target, move);
+        return target;
+    }
+
+    /**
+     * Copy or move a single file together with its waveform and transcript sidecars
+     */
+    private void transfer(File file, File target) throws IOException {
+        if(move && file.renameTo(target)) {
+            // keep the waveform with the recording
+            File sidecar = WaveformSummary.sidecarFor(file);
+            if(sidecar.exists()) {
+                File targetSidecar = WaveformSummary.sidecarFor(target);
+                targetSidecar.getParentFile().mkdirs();
+                sidecar.renameTo(targetSidecar);
+            }
+            Transcript.transfer(file, target, true);
+            return;
+        }
+        copy(file, target);
+        Transcript.transfer(file, target, move);
+        if(move) {
+            file.delete();
+            WaveformSummary.sidecarFor(file).delete();
+        }
+    }
+
+    /**
+     * Copy or move the segments of a session into the segment folder of the target, and
+     * write a manifest which points to them
+     */
+    private void transferSession(File manifest, File target) throws IOException {
+        File targetFolder = SessionManifest.segmentFolderFor(target);
+        if(targetFolder.exists()) {
+            throw new IOException(targetFolder + " exists");
+        }
+        if(!targetFolder.mkdirs()) {
+            throw new IOException("Cannot create " + targetFolder);
+        }
+        List<SessionManifest.Segment> segments = SessionManifest.read(manifest);
+        List<SessionManifest.Segment> transferred = new ArrayList<>();
+        for(SessionManifest.Segment segment : segments) {
+            File segmentTarget = new File(targetFolder, segment.file.getName());
+            transfer(segment.file, segmentTarget);
+            transferred.add(new SessionManifest.Segment(segmentTarget,
+                    segment.durationMillis));
+        }
+        SessionManifest.write(target, transferred);
+        // the offsets of the segments are the same
+        Transcript.transfer(manifest, target, move);
+        // the manifest content changed, keep its waveform by tagging it for the new one
+        WaveformSummary summary = WaveformSummary.read(WaveformSummary.sidecarFor(manifest));
+        if(summary != null && summary.matches(manifest.length(), manifest.lastModified())) {
+            File targetSidecar = WaveformSummary.sidecarFor(target);
+            targetSidecar.getParentFile().mkdirs();
+            summary.forSource(target.length(), target.lastModified()).write(targetSidecar);
+        }
+        if(move) {
+            SessionManifest.delete(manifest);
+            WaveformSummary.sidecarFor(manifest).delete();
+        }
+    }
+
+    /**
+     * @return a file in the target folder with the name, or a numbered name if taken
+     */
+    private File uniqueTarget(String name) {
+        return FolderBackend.uniqueFile(targetFolder, name);
+    }
+
+    /**
+     * Copy a file through file channels, so the kernel can move the data directly
+     */
+    static void copy(File source, File target) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            boolean done = false;
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long position = 0;
+                while(position < size) {
+                    position += inChannel.transferTo(position, size - position, outChannel);
+                }
+                done = true;
+            } finally {
+                out.close();
+                if(!done) {
+                    target.delete();
+                }
+            }
+        } finally {
+            in.close();
+        }
+        target.setLastModified(source.lastModified());
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.zeleven.recorder;
+
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Plays WAV files straight from a {@link MappedFile}. Every sample frame is a sync point,
+ * so the seek position is computed from the time.
+ */
+public class WavPlaybackSource implements PlaybackSource {
+    // samples are handed out in chunks of about 20 ms
+    private static final int CHUNK_MILLIS = 20;
+
+    private final MappedFile file;
+    private int sampleRate;
+    private int channelCount;
+    private int blockAlign;
+    private long dataStart;
+    private long dataEnd;
+    private long position;
+    private int chunkSize;
+
+    /**
+     * @param recording the WAV file, 16 bit PCM
+     * @throws IOException if the file can't be read or is no 16 bit PCM WAV
+     */
+    public WavPlaybackSource(File recording) throws IOException {
+        file = new MappedFile(recording);
+        try {
+            parseHeader();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        chunkSize = Math.max(1, sampleRate * CHUNK_MILLIS / 1000) * blockAlign;
+        position = dataStart;
+    }
+
+    /**
+     * Find the fmt and data chunks, other chunks are skipped
+     */
+    private void parseHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        if(file.read(0, header) != 12 || header.getInt(0) != 0x46464952
+                || header.getInt(8) != 0x45564157) {
+            throw new IOException("No WAV file");
+        }
+        long chunkPosition = 12;
+        ByteBuffer chunk = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        while(chunkPosition + 8 <= file.size()) {
+            chunk.clear();
+            file.read(chunkPosition, chunk);
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if(id == 0x20746D66) { // "fmt "
+                if(chunk.getShort(8) != 1 || chunk.getShort(22) != 16) {
+                    throw new IOException("Unsupported WAV encoding");
+                }
+                channelCount = chunk.getShort(10);
+                sampleRate = chunk.getInt(12);
+                blockAlign = channelCount * 2;
+            } else if(id == 0x61746164) { // "data"
+                if(blockAlign == 0) {
+                    throw new IOException("WAV data before format");
+                }
+                dataStart = chunkPosition + 8;
+                // a size of 0 is left by an unfinished recording, the maximum by one
+                // beyond 4 GB, play what is there
+                long end = size == 0 || size == WavWriter.MAX_CHUNK_SIZE
+                        ? file.size() : dataStart + size;
+                end = Math.min(end, file.size());
+                dataEnd = dataStart + (end - dataStart) / blockAlign * blockAlign;
+                return;
+            }
+            chunkPosition += 8 + size + (size & 1);
+        }
+        throw new IOException("No WAV data");
+    }
+
+    @Override
+    public MediaFormat getFormat() {
+        return null;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public long getDurationUs() {
+        return timeAt(dataEnd);
+    }
+
+    @Override
+    public long seekTo(long timeUs) {
+        long frame = timeUs * sampleRate / 1000000;
+        position = Math.max(dataStart, Math.min(dataEnd, dataStart + frame * blockAlign));
+        return timeAt(position);
+    }
+
+    @Override
+    public long getSampleTimeUs() {
+        return timeAt(position);
+    }
+
+    @Override
+    public int readSample(ByteBuffer buffer) throws IOException {
+        if(position >= dataEnd) {
+            return -1;
+        }
+        int size = (int) Math.min(Math.min(chunkSize, buffer.remaining()), dataEnd - position);
+        size = size / blockAlign * blockAlign;
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + size);
+        int read = file.read(position, buffer);
+        buffer.limit(limit);
+        position += read;
+        return read;
+    }
+
+    /**
+     * @return the byte position of the sample frame {@link #seekTo(long)} went to, which
+     *         {@link RecordingEditor} copies from
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the byte position after the last complete sample frame
+     */
+    long getEndPosition() {
+        return dataEnd;
+    }
+
+    private long timeAt(long bytePosition) {
+        return (bytePosition - dataStart) / blockAlign * 1000000 / sampleRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
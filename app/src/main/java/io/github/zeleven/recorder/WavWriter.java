@@ -0,0 +1,115 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Writes 16 bit PCM into a WAV file through {@link ChunkedFileWriter}. The sizes in the
+ * header are updated after every flush, so the file is valid up to the last flush.
+ * Beyond 4 GB the sizes can't be stored, they are left at their maximum and readers
+ * which know the convention play to the end of the file.
+ */
+public class WavWriter implements PcmConsumer {
+    public static final int HEADER_SIZE = 44;
+    // the largest size of a RIFF chunk, an unsigned 32 bit value
+    static final long MAX_CHUNK_SIZE = 0xFFFFFFFFL;
+    private static final int CHUNK_SAMPLES = 8192;
+
+    private final File file;
+    private final long flushIntervalMs;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer samples = ByteBuffer.allocateDirect(CHUNK_SAMPLES * 2)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ShortBuffer sampleShorts = samples.asShortBuffer();
+    private ChunkedFileWriter writer;
+    private int sampleRate;
+    private int channelCount;
+    private long writtenSamples;
+
+    /**
+     * @param filePath the output file
+     * @param flushIntervalMs recorded time between two flushes to disk, 0 to flush only
+     *                        when the recording stops
+     */
+    public WavWriter(String filePath, long flushIntervalMs) {
+        this.file = new File(filePath);
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        writtenSamples = 0;
+        writer = new ChunkedFileWriter(file, flushIntervalMs);
+        fillHeader(header, sampleRate, channelCount, 0);
+        writer.write(header);
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) throws IOException {
+        int end = offset + length;
+        while(offset < end) {
+            int count = Math.min(CHUNK_SAMPLES, end - offset);
+            sampleShorts.clear();
+            sampleShorts.put(buffer, offset, count);
+            samples.clear();
+            samples.limit(count * 2);
+            writer.write(samples);
+            offset += count;
+        }
+        writtenSamples += length;
+        long timeUs = writtenSamples / channelCount * 1000000L / sampleRate;
+        if(writer.flushIfDue(timeUs)) {
+            updateHeader();
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        try {
+            writer.flush();
+            updateHeader();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void updateHeader() throws IOException {
+        fillHeader(header, sampleRate, channelCount, writer.getFlushedBytes() - HEADER_SIZE);
+        writer.writeAt(0, header);
+    }
+
+    /**
+     * Fill a canonical 44 byte WAV header for 16 bit PCM
+     * @param header little endian buffer of {@link #HEADER_SIZE} bytes, rewound when done
+     * @param sampleRate sample rate in Hz
+     * @param channelCount number of channels
+     * @param dataSize size of the sample data following the header, stored as
+     *                 {@link #MAX_CHUNK_SIZE} if it's larger
+     */
+    public static void fillHeader(ByteBuffer header, int sampleRate, int channelCount,
+                                  long dataSize) {
+        int blockAlign = channelCount * 2;
+        header.clear();
+        header.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        header.putInt((int) Math.min(dataSize + HEADER_SIZE - 8, MAX_CHUNK_SIZE));
+        header.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        header.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        header.putInt(16);
+        // PCM
+        header.putShort((short) 1);
+        header.putShort((short) channelCount);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) 16);
+        header.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        header.putInt((int) Math.min(dataSize, MAX_CHUNK_SIZE));
+        header.flip();
+    }
+}
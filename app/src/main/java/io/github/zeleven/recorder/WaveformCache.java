@@ -0,0 +1,164 @@
+package io.github.zeleven.recorder;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves waveform thumbnails of the file list. Summaries of recently shown rows are kept
+ * in memory, others are read from their sidecar or, if there is none yet, computed by
+ * decoding the recording on a background thread. The latest requests are served first and
+ * old ones are dropped, so a fling through a long list only decodes rows which stay
+ * visible.
+ */
+public class WaveformCache {
+    private static final String TAG = "WaveformCache";
+    private static final int MEMORY_CACHE_SIZE = 200;
+    private static final int MAX_PENDING = 24;
+
+    private final LruCache<String, WaveformSummary> memoryCache =
+            new LruCache<>(MEMORY_CACHE_SIZE);
+    // paths with a queued or running load, only touched on the main thread
+    private final Set<String> pending = new HashSet<>();
+    private final LifoQueue queue = new LifoQueue();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0,
+            TimeUnit.MILLISECONDS, queue);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile PcmDecoder activeDecoder;
+    private Listener listener;
+
+    /**
+     * The callback of the cache, called on the main thread
+     */
+    public interface Listener {
+        /**
+         * Called when the summary of a recording which was missing has been loaded
+         * @param item the recording
+         */
+        void onWaveformReady(RecordingItem item);
+    }
+
+    public WaveformCache(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the summary of a recording, loads it in background if it's not in memory
+     * @param item the recording
+     * @return the summary, or null if it's being loaded
+     */
+    public WaveformSummary get(RecordingItem item) {
+        WaveformSummary summary = memoryCache.get(item.getPath());
+        if(summary != null && summary.matches(item.getSize(), item.getLastModified())) {
+            return summary;
+        }
+        if(pending.add(item.getPath())) {
+            executor.execute(new LoadTask(item));
+            // drop the oldest request, its row is most likely scrolled away
+            LoadTask dropped = queue.size() > MAX_PENDING ? (LoadTask) queue.pollLast() : null;
+            if(dropped != null) {
+                pending.remove(dropped.item.getPath());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget the summaries of recordings which have been renamed, moved or deleted, their
+     * sidecars are handled by the {@link FileOperation}
+     * @param files the files which are gone
+     */
+    public void onFilesRemoved(List<File> files) {
+        for(File file : files) {
+            memoryCache.remove(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Drop queued loads and cancel the running one, called when the list goes away
+     */
+    public void release() {
+        listener = null;
+        executor.shutdownNow();
+        PcmDecoder decoder = activeDecoder;
+        if(decoder != null) {
+            decoder.cancel();
+        }
+    }
+
+    private WaveformSummary load(RecordingItem item) {
+        File file = item.getFile();
+        File sidecar = WaveformSummary.sidecarFor(file);
+        WaveformSummary summary = WaveformSummary.read(sidecar);
+        if(summary != null && summary.matches(item.getSize(), item.getLastModified())) {
+            return summary;
+        }
+        WaveformSummary.Builder builder = new WaveformSummary.Builder();
+        PcmDecoder decoder = new PcmDecoder();
+        activeDecoder = decoder;
+        try {
+            if(!decoder.decode(file, builder)) {
+                return null;
+            }
+            summary = builder.build(item.getSize(), item.getLastModified());
+            summary.write(sidecar);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot compute waveform of " + file, e);
+            // an empty summary, so the file isn't decoded again until it changes
+            summary = new WaveformSummary(item.getSize(), item.getLastModified(),
+                    new byte[0]);
+        } finally {
+            activeDecoder = null;
+        }
+        return summary;
+    }
+
+    private class LoadTask implements Runnable {
+        private final RecordingItem item;
+
+        LoadTask(RecordingItem item) {
+            this.item = item;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            final WaveformSummary summary = load(item);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    pending.remove(item.getPath());
+                    if(summary != null) {
+                        memoryCache.put(item.getPath(), summary);
+                        if(listener != null) {
+                            listener.onWaveformReady(item);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Work queue which hands out the newest task first
+     */
+    private static class LifoQueue extends LinkedBlockingDeque<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            return offerFirst(runnable);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package io.github.zeleven.recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The peak summary of a recording, a fixed number of display levels shown as the waveform
+ * thumbnail of its row. Summaries are stored as small sidecar files in the hidden
+ * {@link #META_FOLDER} of the recordings folder, together with the size and modification
+ * time of the recording they were computed from.
+ */
+public class WaveformSummary {
+    public static final String META_FOLDER = ".meta";
+    public static final int BUCKET_COUNT = 100;
+    private static final String SUFFIX = ".wf";
+    private static final int MAGIC = 0x52574631; // "RWF1"
+
+    private final long sourceSize;
+    private final long sourceLastModified;
+    private final byte[] levels;
+
+    /**
+     * @param sourceSize size of the recording
+     * @param sourceLastModified modification time of the recording
+     * @param levels display levels between 0 and 255, see {@link LevelMeter#toDisplayLevel}
+     */
+    public WaveformSummary(long sourceSize, long sourceLastModified, byte[] levels) {
+        this.sourceSize = sourceSize;
+        this.sourceLastModified = sourceLastModified;
+        this.levels = levels;
+    }
+
+    /**
+     * @param recording the recording file
+     * @return the sidecar file of the recording's summary
+     */
+    public static File sidecarFor(File recording) {
+        return new File(new File(recording.getParentFile(), META_FOLDER),
+                recording.getName() + SUFFIX);
+    }
+
+    /**
+     * Whether the summary was computed from the current content of the recording
+     */
+    public boolean matches(long size, long lastModified) {
+        return sourceSize == size && sourceLastModified == lastModified;
+    }
+
+    /**
+     * @param size size of the new source
+     * @param lastModified modification time of the new source
+     * @return the same levels tagged for another file with the same audio, e.g. a
+     *         rewritten session manifest
+     */
+    public WaveformSummary forSource(long size, long lastModified) {
+        return new WaveformSummary(size, lastModified, levels);
+    }
+
+    public int size() {
+        return levels.length;
+    }
+
+    /**
+     * @param index bucket index
+     * @return the display level of the bucket, between 0 and 1
+     */
+    public float getLevel(int index) {
+        return (levels[index] & 0xFF) / 255f;
+    }
+
+    /**
+     * Read a summary from its sidecar
+     * @param file the sidecar file
+     * @return the summary, or null if the file is missing or corrupt
+     */
+    public static WaveformSummary read(File file) {
+        if(!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if(in.readInt() != MAGIC) {
+                return null;
+            }
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            byte[] levels = new byte[in.readUnsignedShort()];
+            in.readFully(levels);
+            return new WaveformSummary(size, lastModified, levels);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the summary to its sidecar, through a temporary file so readers never see a
+     * partial summary
+     * @param file the sidecar file
+     * @throws IOException if the file can't be written
+     */
+    public void write(File file) throws IOException {
+        File folder = file.getParentFile();
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        File temp = new File(folder, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceLastModified);
+            out.writeShort(levels.length);
+            out.write(levels);
+        } finally {
+            out.close();
+        }
+        if(!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Computes a summary from PCM of unknown length in constant memory. Peaks are collected
+     * per block of samples, when the blocks fill up neighbours are merged and the block
+     * size doubles.
+     */
+    public static class Builder implements PcmConsumer {
+        private static final int INITIAL_BLOCK_SAMPLES = 256;
+
+        private final int[] blockPeaks = new int[BUCKET_COUNT * 2];
+        private int blockCount;
+        private int blockSamples;
+        private int samplesInBlock;
+        private int blockPeak;
+
+        public Builder() {
+            reset();
+        }
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+            reset();
+        }
+
+        @Override
+        public void onPcm(short[] buffer, int offset, int length) {
+            int end = offset + length;
+            for(int i = offset; i < end; i++) {
+                int sample = buffer[i];
+                int abs = sample < 0 ? -sample : sample;
+                if(abs > blockPeak) {
+                    blockPeak = abs;
+                }
+                if(++samplesInBlock == blockSamples) {
+                    addBlock();
+                }
+            }
+        }
+
+        @Override
+        public void onStop() {
+            if(samplesInBlock > 0) {
+                addBlock();
+            }
+        }
+
+        /**
+         * Spread the collected blocks over the buckets, must be called after
+         * {@link #onStop()}
+         * @param sourceSize size of the recording
+         * @param sourceLastModified modification time of the recording
+         * @return the summary
+         */
+        public WaveformSummary build(long sourceSize, long sourceLastModified) {
+            byte[] levels = new byte[BUCKET_COUNT];
+            if(blockCount > 0) {
+                for(int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    int from = bucket * blockCount / BUCKET_COUNT;
+                    int to = Math.max(from + 1, (bucket + 1) * blockCount / BUCKET_COUNT);
+                    int peak = 0;
+                    for(int i = from; i < to; i++) {
+                        peak = Math.max(peak, blockPeaks[i]);
+                    }
+                    levels[bucket] = (byte) Math.round(
+                            LevelMeter.toDisplayLevel(peak / 32768f) * 255);
+                }
+            }
+            return new WaveformSummary(sourceSize, sourceLastModified, levels);
+        }
+
+        private void addBlock() {
+            blockPeaks[blockCount++] = blockPeak;
+            blockPeak = 0;
+            samplesInBlock = 0;
+            if(blockCount == blockPeaks.length) {
+                // merge pairs, every following block covers twice as many samples
+                for(int i = 0; i < blockCount / 2; i++) {
+                    blockPeaks[i] = Math.max(blockPeaks[i * 2], blockPeaks[i * 2 + 1]);
+                }
+                blockCount /= 2;
+                blockSamples *= 2;
+            }
+        }
+
+        private void reset() {
+            blockCount = 0;
+            blockSamples = INITIAL_BLOCK_SAMPLES;
+            samplesInBlock = 0;
+            blockPeak = 0;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.zeleven.recorder;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws levels as a row of vertical bars. While recording it shows a scrolling waveform,
+ * one bar per level window with the newest on the right: {@link #update(LevelMeter)} is
+ * called every frame and only invalidates when new levels have arrived. In the file list
+ * it shows the thumbnail of a {@link WaveformSummary}, in the player also the bookmarks of
+ * the recording and the selection which is edited. Drawing buffers are only allocated
+ * when the number of bars or bookmarks changes.
+ */
+public class WaveformView extends View {
+    private static final int BAR_COUNT = 120;
+
+    // display levels between 0 and 1
+    private float[] levels = new float[BAR_COUNT];
+    private float[] lines = new float[BAR_COUNT * 4];
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint markerPaint = new Paint();
+    private final Paint selectionPaint = new Paint();
+    // bookmark positions between 0 and 1
+    private float[] markers = new float[0];
+    private float[] markerLines = new float[0];
+    private long windowCount = -1;
+    // selection between 0 and 1, empty if the start isn't before the end
+    private float selectionStart = 0;
+    private float selectionEnd = 0;
+
+    public WaveformView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        paint.setColor(ContextCompat.getColor(context, R.color.primary));
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        markerPaint.setColor(ContextCompat.getColor(context, R.color.accent));
+        markerPaint.setStrokeWidth(2 * context.getResources().getDisplayMetrics().density);
+        selectionPaint.setColor(ContextCompat.getColor(context, R.color.accent));
+        selectionPaint.setAlpha(64);
+    }
+
+    /**
+     * Copy the latest levels, called at display refresh rate
+     * @param levelMeter the level meter of the recording
+     */
+    public void update(LevelMeter levelMeter) {
+        if(levelMeter.getWindowCount() == windowCount) {
+            return;
+        }
+        windowCount = levelMeter.copyPeaks(levels);
+        for(int i = 0; i < levels.length; i++) {
+            levels[i] = LevelMeter.toDisplayLevel(levels[i]);
+        }
+        invalidate();
+    }
+
+    /**
+     * Show a precomputed summary
+     * @param summary the summary, or null to show an empty waveform
+     */
+    public void setSummary(WaveformSummary summary) {
+        if(summary == null || summary.size() == 0) {
+            clear();
+            return;
+        }
+        if(levels.length != summary.size()) {
+            levels = new float[summary.size()];
+            lines = new float[summary.size() * 4];
+        }
+        for(int i = 0; i < levels.length; i++) {
+            levels[i] = summary.getLevel(i);
+        }
+        invalidate();
+    }
+
+    /**
+     * Show bookmarks as lines across the waveform
+     * @param markerMillis the times of the bookmarks
+     * @param durationMillis the duration of the recording
+     */
+    public void setMarkers(long[] markerMillis, long durationMillis) {
+        if(markers.length != markerMillis.length) {
+            markers = new float[markerMillis.length];
+            markerLines = new float[markerMillis.length * 4];
+        }
+        for(int i = 0; i < markers.length; i++) {
+            markers[i] = durationMillis > 0
+                    ? Math.min(1f, (float) markerMillis[i] / durationMillis) : 0;
+        }
+        invalidate();
+    }
+
+    /**
+     * Highlight a part of the recording, e.g. the part to trim
+     * @param startMillis the start of the selection
+     * @param endMillis the end of the selection, not after the start to remove it
+     * @param durationMillis the duration of the recording
+     */
+    public void setSelection(long startMillis, long endMillis, long durationMillis) {
+        if(durationMillis > 0 && startMillis < endMillis) {
+            selectionStart = Math.max(0f, (float) startMillis / durationMillis);
+            selectionEnd = Math.min(1f, (float) endMillis / durationMillis);
+        } else {
+            selectionStart = 0;
+            selectionEnd = 0;
+        }
+        invalidate();
+    }
+
+    /**
+     * Remove the waveform, called when the recording has stopped
+     */
+    public void clear() {
+        for(int i = 0; i < levels.length; i++) {
+            levels[i] = 0;
+        }
+        windowCount = -1;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if(width <= 0 || height <= 0) {
+            return;
+        }
+        if(selectionStart < selectionEnd) {
+            canvas.drawRect(getPaddingLeft() + selectionStart * width, getPaddingTop(),
+                    getPaddingLeft() + selectionEnd * width, getPaddingTop() + height,
+                    selectionPaint);
+        }
+        int barCount = levels.length;
+        float step = (float) width / barCount;
+        float centerY = getPaddingTop() + height / 2f;
+        paint.setStrokeWidth(Math.max(1f, step * 0.6f));
+        for(int i = 0; i < barCount; i++) {
+            float x = getPaddingLeft() + step * (i + 0.5f);
+            // keep a dot for silence so the timeline stays visible
+            float halfHeight = Math.max(0.5f, levels[i] * height / 2f);
+            lines[i * 4] = x;
+            lines[i * 4 + 1] = centerY - halfHeight;
+            lines[i * 4 + 2] = x;
+            lines[i * 4 + 3] = centerY + halfHeight;
+        }
+        canvas.drawLines(lines, paint);
+        if(markers.length > 0) {
+            for(int i = 0; i < markers.length; i++) {
+                float x = getPaddingLeft() + markers[i] * width;
+                markerLines[i * 4] = x;
+                markerLines[i * 4 + 1] = getPaddingTop();
+                markerLines[i * 4 + 2] = x;
+                markerLines[i * 4 + 3] = getPaddingTop() + height;
+            }
+            canvas.drawLines(markerLines, markerPaint);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.zeleven.recorder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The waveform stage, builds the peak summary of a recording while it's captured and
+ * writes its sidecar when the recording stops. Must come after the stage which writes the
+ * recording, so the summary is tagged with the final size of the file.
+ */
+public class WaveformWriter implements PcmConsumer {
+    private final File recording;
+    private final WaveformSummary.Builder builder = new WaveformSummary.Builder();
+
+    public WaveformWriter(String filePath) {
+        recording = new File(filePath);
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) {
+        builder.onStart(sampleRate, channelCount);
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int offset, int length) {
+        builder.onPcm(buffer, offset, length);
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        builder.onStop();
+        builder.build(recording.length(), recording.lastModified())
+                .write(WaveformSummary.sidecarFor(recording));
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link ContainerFormat}
+ */
+public class ContainerFormatTest {
+
+    @Test
+    public void formatIsDetectedFromContent() {
+        assertEquals(ContainerFormat.MPEG4, detect(0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'M', '4',
+                'A', ' '));
+        assertEquals(ContainerFormat.WAV, detect('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'A',
+                'V', 'E'));
+        assertEquals(ContainerFormat.ADTS, detect(0xFF, 0xF1, 0x50, 0x80));
+        assertEquals(ContainerFormat.MP3, detect(0xFF, 0xFB, 0x90, 0x64));
+        assertEquals(ContainerFormat.MP3, detect('I', 'D', '3', 4));
+        assertEquals(ContainerFormat.UNKNOWN, detect('#', 'E', 'X', 'T'));
+        assertEquals(ContainerFormat.UNKNOWN, detect());
+    }
+
+    @Test
+    public void formatIsFoundByExtension() {
+        // older versions named MPEG-4 recordings .mp3
+        assertEquals(ContainerFormat.MP3, ContainerFormat.fromFileName("20170903_123010.mp3"));
+        assertEquals(ContainerFormat.MPEG4, ContainerFormat.fromFileName("meeting.M4A"));
+        assertEquals(ContainerFormat.ADTS, ContainerFormat.fromFileName("a.b.aac"));
+        assertEquals(ContainerFormat.UNKNOWN, ContainerFormat.fromFileName("session.m3u"));
+        assertEquals(ContainerFormat.UNKNOWN, ContainerFormat.fromFileName("noextension"));
+        assertEquals("audio/mp4", ContainerFormat.MPEG4.getMimeType());
+    }
+
+    private static ContainerFormat detect(int... values) {
+        byte[] header = new byte[ContainerFormat.HEADER_SIZE];
+        for(int i = 0; i < values.length; i++) {
+            header[i] = (byte) values[i];
+        }
+        return ContainerFormat.detect(header, values.length);
+    }
+}
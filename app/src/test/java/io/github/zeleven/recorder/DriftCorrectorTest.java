@@ -0,0 +1,137 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link DriftCorrector}
+ */
+public class DriftCorrectorTest {
+    private static final int RATE = 48000;
+    private static final double NOMINAL = 1e9 / RATE;
+    private static final int BUFFER_FRAMES = 480;
+    // 2 ms, the tolerance of the corrector
+    private static final int TOLERANCE = RATE / 500;
+
+    /**
+     * Counts the samples the corrector passes on and the leading silence
+     */
+    private static class Collector implements PcmConsumer {
+        long samples;
+        long leadingSilence = -1;
+        boolean stopped;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {}
+
+        @Override
+        public void onPcm(short[] buffer, int offset, int length) {
+            for(int i = offset; i < offset + length; i++) {
+                if(leadingSilence < 0 && buffer[i] != 0) {
+                    leadingSilence = samples + i - offset;
+                }
+            }
+            samples += length;
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Capture seconds of a second stream which starts later than the reference and whose
+     * clock runs at another rate, the timestamps are added like the capture thread does
+     * @return the reference frame captured at the end of the second stream
+     */
+    private static double capture(DriftCorrector corrector, StreamClock reference,
+                                  StreamClock clock, long startNanos, double rateFactor,
+                                  int seconds) throws Exception {
+        reference.add(0, 0);
+        reference.add(RATE * 3600L, Math.round(RATE * 3600L * NOMINAL));
+        double nanosPerFrame = NOMINAL / rateFactor;
+        short[] buffer = new short[BUFFER_FRAMES];
+        Arrays.fill(buffer, (short) 1000);
+        long frame = 0;
+        int buffers = seconds * RATE / BUFFER_FRAMES;
+        for(int i = 0; i < buffers; i++) {
+            frame += BUFFER_FRAMES;
+            clock.add(frame, startNanos + Math.round(frame * nanosPerFrame));
+            corrector.onPcm(buffer, 0, BUFFER_FRAMES);
+        }
+        return (startNanos + frame * nanosPerFrame) / NOMINAL;
+    }
+
+    private static StreamClock startedClock() {
+        StreamClock clock = new StreamClock(RATE);
+        clock.reset(0);
+        return clock;
+    }
+
+    @Test
+    public void padsALateStartWithSilence() throws Exception {
+        StreamClock reference = startedClock();
+        StreamClock clock = startedClock();
+        Collector collector = new Collector();
+        DriftCorrector corrector = new DriftCorrector(reference, clock,
+                Collections.<PcmConsumer>singletonList(collector));
+        corrector.onStart(RATE, 1);
+
+        double expected = capture(corrector, reference, clock, 10000000L, 1, 1);
+        // 10 ms late
+        assertEquals(480, collector.leadingSilence, TOLERANCE);
+        assertEquals(expected, collector.samples, TOLERANCE);
+        corrector.onStop();
+        assertTrue(collector.stopped);
+    }
+
+    @Test
+    public void dropsFramesOfAFastClock() throws Exception {
+        StreamClock reference = startedClock();
+        StreamClock clock = startedClock();
+        Collector collector = new Collector();
+        DriftCorrector corrector = new DriftCorrector(reference, clock,
+                Collections.<PcmConsumer>singletonList(collector));
+        corrector.onStart(RATE, 1);
+
+        // 500 ppm fast, 480 frames too many after 20 seconds
+        double expected = capture(corrector, reference, clock, 0, 1.0005, 20);
+        assertEquals(expected, collector.samples, TOLERANCE + 1);
+        assertEquals(expected, corrector.getOutputFrames(), TOLERANCE + 1);
+        assertTrue(collector.samples < RATE * 20);
+    }
+
+    @Test
+    public void repeatsFramesOfASlowClock() throws Exception {
+        StreamClock reference = startedClock();
+        StreamClock clock = startedClock();
+        Collector collector = new Collector();
+        DriftCorrector corrector = new DriftCorrector(reference, clock,
+                Collections.<PcmConsumer>singletonList(collector));
+        corrector.onStart(RATE, 1);
+
+        double expected = capture(corrector, reference, clock, 0, 0.9995, 20);
+        assertEquals(expected, collector.samples, TOLERANCE + 1);
+        assertTrue(collector.samples > RATE * 20);
+    }
+
+    @Test
+    public void passesThroughUntilBothClocksAreReady() throws Exception {
+        StreamClock reference = new StreamClock(RATE);
+        StreamClock clock = startedClock();
+        Collector collector = new Collector();
+        DriftCorrector corrector = new DriftCorrector(reference, clock,
+                Collections.<PcmConsumer>singletonList(collector));
+        corrector.onStart(RATE, 2);
+
+        clock.add(BUFFER_FRAMES, 50000000L);
+        corrector.onPcm(new short[BUFFER_FRAMES * 2], 0, BUFFER_FRAMES * 2);
+        assertEquals(BUFFER_FRAMES * 2, collector.samples);
+        assertEquals(BUFFER_FRAMES, corrector.getOutputFrames());
+    }
+}
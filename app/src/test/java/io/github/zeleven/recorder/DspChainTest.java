@@ -0,0 +1,121 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link DspChain}
+ */
+public class DspChainTest {
+    private static final int RATE = 16000;
+    private static final int BUFFER = 640;
+
+    private final Random random = new Random(7);
+
+    /**
+     * Process a signal buffer by buffer like the consumer thread
+     */
+    private static short[] process(DspChain chain, short[] signal) {
+        short[] output = signal.clone();
+        for(int offset = 0; offset < output.length; offset += BUFFER) {
+            chain.onPcm(output, offset, Math.min(BUFFER, output.length - offset));
+        }
+        return output;
+    }
+
+    private short[] noise(int samples, double level) {
+        short[] signal = new short[samples];
+        for(int i = 0; i < samples; i++) {
+            signal[i] = (short) (random.nextGaussian() * level);
+        }
+        return signal;
+    }
+
+    private static void addTone(short[] signal, int from, int to, double amplitude) {
+        for(int i = from; i < to; i++) {
+            signal[i] += (short) (Math.sin(2 * Math.PI * 300 * i / RATE) * amplitude);
+        }
+    }
+
+    private static double rms(short[] signal, int from, int to) {
+        double sum = 0;
+        for(int i = from; i < to; i++) {
+            sum += (double) signal[i] * signal[i];
+        }
+        return Math.sqrt(sum / (to - from));
+    }
+
+    @Test
+    public void presetsMapToStages() {
+        assertEquals(DspChain.NONE, DspChain.fromPreference(DspChain.PRESET_OFF));
+        assertEquals(DspChain.NONE, DspChain.fromPreference("unknown"));
+        assertEquals(DspChain.HIGH_PASS | DspChain.LIMITER,
+                DspChain.fromPreference(DspChain.PRESET_BASIC));
+        int full = DspChain.fromPreference(DspChain.PRESET_FULL);
+        assertTrue((full & DspChain.GAIN_CONTROL) != 0);
+        assertTrue((full & DspChain.NOISE_SUPPRESSION) != 0);
+    }
+
+    @Test
+    public void highPassRemovesOffset() {
+        DspChain chain = new DspChain(DspChain.HIGH_PASS);
+        chain.onStart(RATE, 2);
+        short[] signal = new short[RATE * 2];
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = 8000;
+        }
+        short[] output = process(chain, signal);
+        assertEquals(0, rms(output, output.length - RATE / 2, output.length), 5);
+    }
+
+    @Test
+    public void limiterKeepsPeaksBelowFullScale() {
+        DspChain chain = new DspChain(DspChain.LIMITER);
+        chain.onStart(RATE, 1);
+        short[] signal = new short[RATE];
+        addTone(signal, 0, signal.length, 32000);
+        short[] output = process(chain, signal);
+        int peak = 0;
+        for(short sample : output) {
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        assertTrue(peak < 30000);
+        assertTrue(peak > 20000);
+    }
+
+    @Test
+    public void steadyNoiseIsAttenuated() {
+        DspChain chain = new DspChain(DspChain.NOISE_SUPPRESSION);
+        chain.onStart(RATE, 1);
+        short[] signal = noise(RATE * 2, 200);
+        short[] output = process(chain, signal);
+        assertTrue(rms(output, RATE, RATE * 2) < rms(signal, RATE, RATE * 2) * 0.5);
+    }
+
+    @Test
+    public void speechAboveTheNoiseIsKept() {
+        DspChain chain = new DspChain(DspChain.NOISE_SUPPRESSION);
+        chain.onStart(RATE, 1);
+        short[] signal = noise(RATE * 3, 50);
+        addTone(signal, RATE, RATE * 3, 4000);
+        short[] output = process(chain, signal);
+        assertEquals(rms(signal, RATE * 2, RATE * 3), rms(output, RATE * 2, RATE * 3), 100);
+    }
+
+    @Test
+    public void quietSpeechIsRaisedTowardsTheTarget() {
+        DspChain chain = new DspChain(DspChain.NOISE_SUPPRESSION | DspChain.GAIN_CONTROL);
+        chain.onStart(RATE, 1);
+        short[] signal = noise(RATE * 6, 20);
+        addTone(signal, RATE, RATE * 6, 500);
+        short[] output = process(chain, signal);
+        double before = rms(signal, RATE * 5, RATE * 6);
+        double after = rms(output, RATE * 5, RATE * 6);
+        assertTrue(after > before * 4);
+        // at most the target of about -20 dBFS
+        assertTrue(after < 3600);
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link EncoderProfile}
+ */
+public class EncoderProfileTest {
+    @Test
+    public void preferenceValuesMapToProfiles() {
+        assertSame(EncoderProfile.VOICE, EncoderProfile.fromPreference("voice"));
+        assertSame(EncoderProfile.LOSSLESS, EncoderProfile.fromPreference("lossless"));
+        // values stored by older versions
+        assertSame(EncoderProfile.STANDARD, EncoderProfile.fromPreference("1"));
+        assertSame(EncoderProfile.HIGH, EncoderProfile.fromPreference("2"));
+        assertSame(EncoderProfile.STANDARD, EncoderProfile.fromPreference(null));
+    }
+
+    @Test
+    public void bytesPerMinuteFollowsBitRate() {
+        assertEquals(96000 / 8 * 60, EncoderProfile.STANDARD.getBytesPerMinute(false));
+        // ADTS adds a 7 byte header to every 1024 samples
+        assertEquals(96000 / 8 * 60 + 44100 * 60 / 1024 * 7,
+                EncoderProfile.STANDARD.getBytesPerMinute(true));
+        assertEquals(44100 * 2 * 60 + 44, EncoderProfile.LOSSLESS.getBytesPerMinute(true));
+        assertTrue(EncoderProfile.VOICE.getBytesPerMinute(true)
+                < EncoderProfile.HIGH.getBytesPerMinute(true));
+    }
+
+    @Test
+    public void extensionFollowsContainer() {
+        assertEquals("aac", EncoderProfile.HIGH.getFileExtension(true));
+        assertEquals("m4a", EncoderProfile.HIGH.getFileExtension(false));
+        assertEquals("wav", EncoderProfile.LOSSLESS.getFileExtension(true));
+    }
+}
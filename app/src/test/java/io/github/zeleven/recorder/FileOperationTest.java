@@ -0,0 +1,210 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the file operations run by {@link FileOperationQueue}
+ */
+public class FileOperationTest {
+    private static final FileOperation.ProgressListener NO_PROGRESS =
+            new FileOperation.ProgressListener() {
+        @Override
+        public void onProgress(int done, int total) {}
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        target = new File(folder.getRoot(), "target");
+    }
+
+    private File createFile(String name, int size) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[size]);
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void deleteRemovesSidecar() throws Exception {
+        File file = createFile("a.aac", 10);
+        File sidecar = WaveformSummary.sidecarFor(file);
+        sidecar.getParentFile().mkdirs();
+        sidecar.createNewFile();
+
+        // a file which is already gone counts as deleted
+        File missing = new File(folder.getRoot(), "missing.aac");
+        FileOperation.Result result = new DeleteOperation().run(
+                Arrays.asList(file, missing), NO_PROGRESS);
+        assertEquals(Arrays.asList(file, missing), result.processed);
+        assertTrue(result.failed.isEmpty());
+        assertFalse(file.exists());
+        assertFalse(sidecar.exists());
+    }
+
+    @Test
+    public void copyKeepsSourceAndNumbersTakenNames() throws Exception {
+        File file = createFile("a.aac", 100);
+        target.mkdir();
+        new File(target, "a.aac").createNewFile();
+
+        FileOperation.Result result = new TransferOperation(target, false).run(
+                Arrays.asList(file), NO_PROGRESS);
+        File copy = new File(target, "a (1).aac");
+        assertEquals(Arrays.asList(copy), result.targets);
+        assertTrue(file.exists());
+        assertEquals(100, copy.length());
+    }
+
+    @Test
+    public void renameFailsIfTargetExists() throws Exception {
+        File file = createFile("a.aac", 10);
+        File taken = createFile("b.aac", 10);
+
+        FileOperation.Result result = TransferOperation.rename(taken).run(
+                Arrays.asList(file), NO_PROGRESS);
+        assertTrue(result.processed.isEmpty());
+        assertEquals(Arrays.asList(file), result.failed);
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void archiveStoresEveryFile() throws Exception {
+        File other = new File(folder.getRoot(), "other");
+        other.mkdir();
+        List<File> files = new ArrayList<>();
+        files.add(createFile("a.aac", 100));
+        files.add(createFile("b.wav", 200));
+        File duplicate = new File(other, "a.aac");
+        duplicate.createNewFile();
+        files.add(duplicate);
+        File archive = new File(target, "share.zip");
+
+        FileOperation.Result result = new ArchiveOperation(archive).run(files, NO_PROGRESS);
+        assertEquals(archive, result.output);
+        assertEquals(3, result.processed.size());
+        ZipFile zip = new ZipFile(archive);
+        try {
+            assertEquals(3, zip.size());
+            ZipEntry entry = zip.getEntry("b.wav");
+            assertEquals(200, entry.getSize());
+            // stored without compression, even though zeros would compress well
+            assertTrue(entry.getCompressedSize() >= 200);
+            assertNotNull(zip.getEntry("1_a.aac"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void cancelledArchiveIsDeleted() throws Exception {
+        final File archive = new File(target, "share.zip");
+        final ArchiveOperation operation = new ArchiveOperation(archive);
+        FileOperation.Result result = operation.run(Arrays.asList(createFile("a.aac", 10),
+                createFile("b.aac", 10)), new FileOperation.ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                operation.cancel();
+            }
+        });
+        assertTrue(result.cancelled);
+        assertEquals(1, result.processed.size());
+        assertNull(result.output);
+        assertFalse(archive.exists());
+    }
+
+    /**
+     * @return a backend writing into the target folder, like a provider handing out
+     *         descriptors
+     */
+    private StorageBackend folderBackend() {
+        return new StorageBackend() {
+            @Override
+            public String getDescription() {
+                return target.getPath();
+            }
+
+            @Override
+            public Output create(String name, String mimeType) throws IOException {
+                target.mkdirs();
+                final File file = new File(target, name);
+                final FileOutputStream out = new FileOutputStream(file);
+                final FileDescriptor fd = out.getFD();
+                return new Output() {
+                    @Override
+                    public FileDescriptor getFileDescriptor() {
+                        return fd;
+                    }
+
+                    @Override
+                    public void commit() throws IOException {
+                        out.close();
+                    }
+
+                    @Override
+                    public void abort() {
+                        file.delete();
+                    }
+                };
+            }
+        };
+    }
+
+    @Test
+    public void exportCopiesContentAndMoveDeletesSource() throws Exception {
+        File file = createFile("a.aac", 300 * 1024);
+        FileOperation.Result result = new ExportOperation(folderBackend(), false).run(
+                Collections.singletonList(file), NO_PROGRESS);
+        assertEquals(Collections.singletonList(file), result.processed);
+        assertEquals(300 * 1024, new File(target, "a.aac").length());
+        assertTrue(file.exists());
+
+        File moved = createFile("b.wav", 10);
+        new ExportOperation(folderBackend(), true).run(Collections.singletonList(moved),
+                NO_PROGRESS);
+        assertEquals(10, new File(target, "b.wav").length());
+        assertFalse(moved.exists());
+    }
+
+    @Test
+    public void exportWritesSegmentsOfSession() throws Exception {
+        File manifest = new File(folder.getRoot(), "s.m3u");
+        File segmentFolder = SessionManifest.segmentFolderFor(manifest);
+        segmentFolder.mkdirs();
+        List<SessionManifest.Segment> segments = new ArrayList<>();
+        for(int i = 0; i < 2; i++) {
+            File segment = SessionManifest.segmentFile(manifest, i, "aac");
+            new FileOutputStream(segment).close();
+            segments.add(new SessionManifest.Segment(segment, 1000));
+        }
+        SessionManifest.write(manifest, segments);
+
+        FileOperation.Result result = new ExportOperation(folderBackend(), true).run(
+                Collections.singletonList(manifest), NO_PROGRESS);
+        assertEquals(1, result.processed.size());
+        assertTrue(new File(target, "s part001.aac").exists());
+        assertTrue(new File(target, "s part002.aac").exists());
+        assertFalse(manifest.exists());
+        assertFalse(segmentFolder.exists());
+    }
+}
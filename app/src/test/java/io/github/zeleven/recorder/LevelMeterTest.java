@@ -0,0 +1,53 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link LevelMeter}
+ */
+public class LevelMeterTest {
+    // 20 ms windows of 8 kHz mono are 160 samples
+    private static final int WINDOW = 160;
+
+    @Test
+    public void levelsArePublishedPerWindow() {
+        LevelMeter meter = new LevelMeter();
+        meter.onStart(8000, 1);
+        short[] buffer = new short[WINDOW * 3 / 2];
+        buffer[0] = 16384;
+        buffer[WINDOW] = -8192;
+        meter.onPcm(buffer, 0, buffer.length);
+        // only the first window is complete
+        assertEquals(0.5f, meter.getPeak(), 1e-6);
+
+        float[] levels = new float[4];
+        assertEquals(1, meter.copyPeaks(levels));
+        assertArrayEquals(new float[] {0, 0, 0, 0.5f}, levels, 1e-6f);
+
+        meter.onPcm(new short[WINDOW / 2], 0, WINDOW / 2);
+        assertEquals(2, meter.copyPeaks(levels));
+        assertArrayEquals(new float[] {0, 0, 0.5f, 0.25f}, levels, 1e-6f);
+        assertEquals(0.25f / (float) Math.sqrt(WINDOW), meter.getRms(), 1e-6);
+    }
+
+    @Test
+    public void historyWrapsAround() {
+        LevelMeter meter = new LevelMeter();
+        for(int i = 0; i < 1000; i++) {
+            meter.addWindow(i / 1000f, 0);
+        }
+        float[] levels = new float[3];
+        assertEquals(1000, meter.copyPeaks(levels));
+        assertArrayEquals(new float[] {0.997f, 0.998f, 0.999f}, levels, 1e-6f);
+    }
+
+    @Test
+    public void displayLevelCoversSixtyDecibels() {
+        assertEquals(1f, LevelMeter.toDisplayLevel(1f), 1e-6);
+        assertEquals(0.5f, LevelMeter.toDisplayLevel(0.001f * 31.6227766f), 1e-4);
+        assertEquals(0f, LevelMeter.toDisplayLevel(0.0001f), 1e-6);
+        assertEquals(0f, LevelMeter.toDisplayLevel(0f), 1e-6);
+    }
+}
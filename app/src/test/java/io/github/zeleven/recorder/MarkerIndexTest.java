@@ -0,0 +1,85 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MarkerIndex}
+ */
+public class MarkerIndexTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendedBookmarksAreReadSorted() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        assertEquals(0, MarkerIndex.read(recording).length);
+
+        MarkerIndex.append(recording, 5000);
+        MarkerIndex.append(recording, 90000);
+        MarkerIndex.append(recording, 1000);
+        assertArrayEquals(new long[] {1000, 5000, 90000}, MarkerIndex.read(recording));
+        // 4 byte header and 4 bytes per bookmark
+        assertEquals(16, MarkerIndex.sidecarFor(recording).length());
+    }
+
+    @Test
+    public void partialRecordOfACrashIsDropped() throws Exception {
+        File recording = new File(folder.getRoot(), "a.aac");
+        MarkerIndex.append(recording, 2000);
+        FileOutputStream out = new FileOutputStream(MarkerIndex.sidecarFor(recording), true);
+        out.write(new byte[] {0, 1});
+        out.close();
+        assertArrayEquals(new long[] {2000}, MarkerIndex.read(recording));
+
+        MarkerIndex.append(recording, 3000);
+        assertArrayEquals(new long[] {2000, 3000}, MarkerIndex.read(recording));
+    }
+
+    @Test
+    public void corruptSidecarHasNoBookmarks() throws Exception {
+        File recording = new File(folder.getRoot(), "a.wav");
+        File sidecar = MarkerIndex.sidecarFor(recording);
+        sidecar.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(sidecar);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+        assertEquals(0, MarkerIndex.read(recording).length);
+    }
+
+    @Test
+    public void bookmarksFollowCopiesAndMoves() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        MarkerIndex.append(recording, 1000);
+        File copy = new File(folder.getRoot(), "b.m4a");
+        MarkerIndex.transfer(recording, copy, false);
+        assertArrayEquals(new long[] {1000}, MarkerIndex.read(copy));
+        assertArrayEquals(new long[] {1000}, MarkerIndex.read(recording));
+
+        File moved = new File(folder.getRoot(), "c.m4a");
+        MarkerIndex.transfer(recording, moved, true);
+        assertArrayEquals(new long[] {1000}, MarkerIndex.read(moved));
+        assertFalse(MarkerIndex.sidecarFor(recording).exists());
+
+        MarkerIndex.delete(moved);
+        assertEquals(0, MarkerIndex.read(moved).length);
+    }
+
+    @Test
+    public void nextAndPreviousSkipTheCurrentBookmark() {
+        long[] markers = {10000, 20000, 30000};
+        assertEquals(10000, MarkerIndex.next(markers, 0, 1000));
+        assertEquals(20000, MarkerIndex.next(markers, 10200, 1000));
+        assertEquals(-1, MarkerIndex.next(markers, 29500, 1000));
+
+        assertEquals(20000, MarkerIndex.previous(markers, 25000, 1000));
+        assertEquals(10000, MarkerIndex.previous(markers, 20500, 1000));
+        assertEquals(0, MarkerIndex.previous(markers, 10000, 1000));
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MetadataIndex}
+ */
+public class MetadataIndexTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        indexFile = new File(folder.getRoot(), "metadata.idx");
+    }
+
+    @Test
+    public void entriesSurviveSaveAndLoad() throws Exception {
+        File recording = createFile("20170903_123010.m4a", 100);
+        MetadataIndex index = new MetadataIndex(indexFile);
+        index.put(metadataOf(recording, 61000));
+        index.save();
+
+        MetadataIndex reloaded = new MetadataIndex(indexFile);
+        reloaded.load();
+        RecordingMetadata metadata = reloaded.get(recording);
+        assertNotNull(metadata);
+        assertEquals(61000, metadata.getDuration());
+        assertEquals("audio/mp4a-latm", metadata.getMimeType());
+        assertEquals(44100, metadata.getSampleRate());
+    }
+
+    @Test
+    public void changedFileIsStale() throws Exception {
+        File recording = createFile("a.m4a", 100);
+        MetadataIndex index = new MetadataIndex(indexFile);
+        index.put(metadataOf(recording, 1000));
+
+        appendBytes(recording, 10);
+        assertNull(index.get(recording));
+    }
+
+    @Test
+    public void retainAllDropsMissingFiles() throws Exception {
+        File kept = createFile("a.m4a", 10);
+        File removed = createFile("b.m4a", 10);
+        MetadataIndex index = new MetadataIndex(indexFile);
+        index.put(metadataOf(kept, 1000));
+        index.put(metadataOf(removed, 1000));
+
+        assertEquals(1, index.retainAll(Arrays.asList(kept)));
+        assertNotNull(index.get(kept));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void corruptedIndexLoadsEmpty() throws Exception {
+        appendBytes(indexFile, 7);
+        MetadataIndex index = new MetadataIndex(indexFile);
+        index.load();
+        assertEquals(0, index.size());
+    }
+
+    private RecordingMetadata metadataOf(File file, long duration) {
+        return new RecordingMetadata(file.getAbsolutePath(), file.length(), file.lastModified(),
+                duration, "audio/mp4a-latm", 44100, file.lastModified());
+    }
+
+    private File createFile(String name, int length) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        appendBytes(file, length);
+        return file;
+    }
+
+    private void appendBytes(File file, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+}
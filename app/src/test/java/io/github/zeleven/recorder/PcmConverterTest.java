@@ -0,0 +1,85 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link PcmConverter}
+ */
+public class PcmConverterTest {
+    /**
+     * Collects the converted PCM
+     */
+    private static class Collector implements PcmConsumer {
+        int sampleRate;
+        int channelCount;
+        short[] samples = new short[0];
+        int count;
+        boolean stopped;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+        }
+
+        @Override
+        public void onPcm(short[] buffer, int offset, int length) {
+            samples = Arrays.copyOf(samples, count + length);
+            System.arraycopy(buffer, offset, samples, count, length);
+            count += length;
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+
+    @Test
+    public void stereoIsMixedToMono() throws Exception {
+        Collector collector = new Collector();
+        PcmConverter converter = new PcmConverter(collector, 16000);
+        converter.onStart(16000, 2);
+        converter.onPcm(new short[] {1000, 3000, -2000, 0, 500, 500}, 0, 6);
+        converter.onStop();
+
+        assertEquals(16000, collector.sampleRate);
+        assertEquals(1, collector.channelCount);
+        assertArrayEquals(new short[] {2000, -1000, 500}, collector.samples);
+        assertTrue(collector.stopped);
+    }
+
+    @Test
+    public void rateIsConvertedAcrossBuffers() throws Exception {
+        Collector collector = new Collector();
+        PcmConverter converter = new PcmConverter(collector, 16000);
+        converter.onStart(48000, 1);
+        // one second of a constant level in buffers which don't divide by three
+        short[] buffer = new short[1000];
+        Arrays.fill(buffer, (short) 1000);
+        for(int i = 0; i < 48; i++) {
+            converter.onPcm(buffer, 0, buffer.length);
+        }
+
+        assertEquals(16000, collector.count);
+        for(int i = 0; i < collector.count; i++) {
+            assertEquals(1000, collector.samples[i]);
+        }
+    }
+
+    @Test
+    public void upsamplingInterpolates() throws Exception {
+        Collector collector = new Collector();
+        PcmConverter converter = new PcmConverter(collector, 16000);
+        converter.onStart(8000, 1);
+        converter.onPcm(new short[] {0, 1000}, 0, 1);
+        converter.onPcm(new short[] {0, 1000}, 1, 1);
+
+        assertEquals(3, collector.count);
+        assertArrayEquals(new short[] {0, 500, 1000}, collector.samples);
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link PcmRingBuffer}
+ */
+public class PcmRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1024, new PcmRingBuffer(1000).capacity());
+        assertEquals(1024, new PcmRingBuffer(1024).capacity());
+    }
+
+    @Test
+    public void writeStopsWhenFull() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(8);
+        short[] samples = new short[12];
+        assertEquals(8, ringBuffer.write(samples, 0, samples.length));
+        assertEquals(0, ringBuffer.write(samples, 0, 1));
+        assertEquals(8, ringBuffer.available());
+    }
+
+    @Test
+    public void samplesWrapAroundTheEnd() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(8);
+        short[] target = new short[8];
+        ringBuffer.write(new short[]{1, 2, 3, 4, 5, 6}, 0, 6);
+        assertEquals(6, ringBuffer.read(target, 0, 6));
+
+        ringBuffer.write(new short[]{7, 8, 9, 10, 11}, 0, 5);
+        assertEquals(5, ringBuffer.read(target, 0, 8));
+        assertArrayEquals(new short[]{7, 8, 9, 10, 11}, Arrays.copyOf(target, 5));
+        assertEquals(0, ringBuffer.read(target, 0, 8));
+    }
+
+    @Test
+    public void producerAndConsumerThreadsSeeEverySampleInOrder() throws Exception {
+        final PcmRingBuffer ringBuffer = new PcmRingBuffer(256);
+        final int total = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                short[] chunk = new short[100];
+                int next = 0;
+                while(next < total) {
+                    int length = Math.min(chunk.length, total - next);
+                    for(int i = 0; i < length; i++) {
+                        chunk[i] = (short) (next + i);
+                    }
+                    int offset = 0;
+                    while(offset < length) {
+                        int written = ringBuffer.write(chunk, offset, length - offset);
+                        if(written == 0) {
+                            Thread.yield();
+                        }
+                        offset += written;
+                    }
+                    next += length;
+                }
+            }
+        });
+        producer.start();
+
+        short[] target = new short[70];
+        int expected = 0;
+        while(expected < total) {
+            int read = ringBuffer.read(target, 0, target.length);
+            if(read == 0) {
+                Thread.yield();
+            }
+            for(int i = 0; i < read; i++) {
+                assertEquals((short) expected, target[i]);
+                expected++;
+            }
+        }
+        producer.join();
+        assertEquals(0, ringBuffer.available());
+    }
+}
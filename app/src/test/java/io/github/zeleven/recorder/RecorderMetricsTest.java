@@ -0,0 +1,64 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RecorderMetrics}, {@link Histogram} and {@link Meter}
+ */
+public class RecorderMetricsTest {
+    @Test
+    public void histogramPercentilesAreBucketBounds() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        for(int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        assertEquals(101, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(5050 / 101.0, histogram.getMean(), 1e-9);
+        // 50 falls in the bucket of 32 to 63
+        assertEquals(63, histogram.getPercentile(0.5));
+        // the last bucket is capped at the maximum
+        assertEquals(100, histogram.getPercentile(0.99));
+        assertEquals(0, histogram.getPercentile(0));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void meterRecordsCompletedSeconds() {
+        Meter meter = new Meter();
+        long second = 1000000000L;
+        meter.mark(100, 0);
+        meter.mark(100, second / 2);
+        assertEquals(0, meter.getPerSecond().getCount());
+        meter.mark(50, second);
+        meter.mark(50, 5 * second);
+        assertEquals(300, meter.getTotal());
+        assertEquals(2, meter.getPerSecond().getCount());
+        assertEquals(200, meter.getPerSecond().getMax());
+    }
+
+    @Test
+    public void reportListsEveryMetric() {
+        RecorderMetrics.counter("test.counter").addAndGet(7);
+        RecorderMetrics.histogram("test.histogram_ms").record(3);
+        RecorderMetrics.meter("test.meter").mark(10);
+        assertSame(RecorderMetrics.counter("test.counter"),
+                RecorderMetrics.counter("test.counter"));
+
+        String report = RecorderMetrics.report();
+        assertTrue(report.contains("test.counter 7"));
+        assertTrue(report.contains("test.histogram_ms count=1"));
+        assertTrue(report.contains("test.meter total=10"));
+
+        RecorderMetrics.reset();
+        assertEquals(0, RecorderMetrics.counter("test.counter").get());
+        assertTrue(RecorderMetrics.report().contains("test.histogram_ms count=0"));
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RecordingEditor} and {@link EditOperation}
+ */
+public class RecordingEditorTest {
+    private static final int FRAME_COUNT = 100;
+    private static final int PAYLOAD_SIZE = 10;
+    private static final int FRAME_SIZE = AdtsFormat.HEADER_SIZE + PAYLOAD_SIZE;
+    private static final FileOperation.ProgressListener NO_PROGRESS =
+            new FileOperation.ProgressListener() {
+        @Override
+        public void onProgress(int done, int total) {}
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 44.1 kHz mono frames of 1024 samples, each payload filled with its frame number
+     */
+    private File createAdts(String name) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        byte[] frame = new byte[FRAME_SIZE];
+        AdtsFormat.fillHeader(frame, AdtsFormat.PROFILE_AAC_LC,
+                AdtsFormat.frequencyIndex(44100), 1, PAYLOAD_SIZE);
+        for(int i = 0; i < FRAME_COUNT; i++) {
+            for(int j = AdtsFormat.HEADER_SIZE; j < FRAME_SIZE; j++) {
+                frame[j] = (byte) i;
+            }
+            out.write(frame);
+        }
+        out.close();
+        return file;
+    }
+
+    private static byte[] readAll(File file) throws Exception {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        int read = 0;
+        while(read < data.length) {
+            read += in.read(data, read, data.length - read);
+        }
+        in.close();
+        return data;
+    }
+
+    @Test
+    public void cutKeepsBothSides() {
+        List<RecordingEditor.Range> ranges = RecordingEditor.cut(1000000, 2000000);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).startUs);
+        assertEquals(1000000, ranges.get(0).endUs);
+        assertEquals(2000000, ranges.get(1).startUs);
+        assertEquals(Long.MAX_VALUE, ranges.get(1).endUs);
+        // nothing before a cut from the start
+        assertEquals(1, RecordingEditor.cut(0, 2000000).size());
+    }
+
+    @Test
+    public void markersMoveWithTheirRange() {
+        long[] markers = {500, 1500, 2500, 3500};
+        assertArrayEquals(new long[] {500},
+                RecordingEditor.mapMarkers(markers, RecordingEditor.trim(1000000, 2000000)));
+        assertArrayEquals(new long[] {500, 1500, 2500},
+                RecordingEditor.mapMarkers(markers, RecordingEditor.cut(1000000, 2000000)));
+        assertArrayEquals(new long[0],
+                RecordingEditor.mapMarkers(new long[0], RecordingEditor.trim(0, 1000)));
+    }
+
+    @Test
+    public void trimCopiesWholeAdtsFrames() throws Exception {
+        File source = createAdts("a.aac");
+        File target = new File(folder.getRoot(), "b.aac");
+        RecordingEditor.write(source, RecordingEditor.trim(1000000, 2000000), target);
+
+        // 1 s and 2 s fall into frames 43 and 86
+        byte[] data = readAll(target);
+        assertEquals(43 * FRAME_SIZE, data.length);
+        assertEquals(43, data[AdtsFormat.HEADER_SIZE]);
+        assertEquals(85, data[data.length - 1]);
+        assertEquals(FRAME_SIZE, AdtsFormat.frameLength(data, data.length - FRAME_SIZE));
+    }
+
+    @Test
+    public void cutRewritesWavHeader() throws Exception {
+        File source = new File(folder.getRoot(), "a.wav");
+        ByteBuffer wav = ByteBuffer.allocate(WavWriter.HEADER_SIZE + 16000)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        WavWriter.fillHeader(wav, 8000, 1, 16000);
+        wav.limit(wav.capacity()).position(WavWriter.HEADER_SIZE);
+        for(int i = 0; i < 8000; i++) {
+            wav.putShort((short) i);
+        }
+        FileOutputStream out = new FileOutputStream(source);
+        out.write(wav.array());
+        out.close();
+
+        File target = new File(folder.getRoot(), "b.wav");
+        RecordingEditor.write(source, RecordingEditor.cut(250000, 750000), target);
+
+        WavPlaybackSource edited = new WavPlaybackSource(target);
+        try {
+            assertEquals(500000, edited.getDurationUs());
+            assertEquals(8000, edited.getSampleRate());
+        } finally {
+            edited.close();
+        }
+        ByteBuffer data = ByteBuffer.wrap(readAll(target)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(WavWriter.HEADER_SIZE + 8000, data.limit());
+        assertEquals(1999, data.getShort(WavWriter.HEADER_SIZE + 2 * 1999));
+        assertEquals(6000, data.getShort(WavWriter.HEADER_SIZE + 2 * 2000));
+    }
+
+    @Test
+    public void splitWritesTwoRecordingsWithBookmarks() throws Exception {
+        File source = createAdts("a.aac");
+        MarkerIndex.append(source, 500);
+        MarkerIndex.append(source, 1500);
+        long sourceLength = source.length();
+
+        EditOperation operation = EditOperation.split(1000000);
+        FileOperation.Result result = operation.run(Collections.singletonList(source),
+                NO_PROGRESS);
+        List<File> outputs = operation.getOutputs();
+        assertEquals(2, outputs.size());
+        assertEquals(new File(folder.getRoot(), "a_1.aac"), outputs.get(0));
+        assertEquals(new File(folder.getRoot(), "a_2.aac"), outputs.get(1));
+        assertEquals(outputs.get(0), result.targets.get(0));
+        assertEquals(sourceLength, outputs.get(0).length() + outputs.get(1).length());
+        assertArrayEquals(new long[] {500}, MarkerIndex.read(outputs.get(0)));
+        assertArrayEquals(new long[] {500}, MarkerIndex.read(outputs.get(1)));
+        // the original stays as it is and no temporary file is left behind
+        assertEquals(sourceLength, source.length());
+        assertArrayEquals(new long[] {500, 1500}, MarkerIndex.read(source));
+        for(String name : folder.getRoot().list()) {
+            assertFalse(name, name.endsWith(".tmp"));
+        }
+    }
+}
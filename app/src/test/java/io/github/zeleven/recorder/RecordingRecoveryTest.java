@@ -0,0 +1,143 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RecordingRecovery} and the ADTS stream it repairs
+ */
+public class RecordingRecoveryTest {
+    private static final int PAYLOAD_SIZE = 200;
+    private static final int FRAME_SIZE = PAYLOAD_SIZE + AdtsFormat.HEADER_SIZE;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void headerRoundTripsFrameLength() {
+        byte[] header = new byte[AdtsFormat.HEADER_SIZE];
+        AdtsFormat.fillHeader(header, AdtsFormat.PROFILE_AAC_LC,
+                AdtsFormat.frequencyIndex(44100), 1, 5000);
+        assertEquals(5000 + AdtsFormat.HEADER_SIZE, AdtsFormat.frameLength(header, 0));
+        header[1] = 0;
+        assertEquals(-1, AdtsFormat.frameLength(header, 0));
+    }
+
+    @Test
+    public void partialTrailingFrameIsCut() throws Exception {
+        File file = new File(folder.getRoot(), "20170903_123010.aac");
+        ChunkedFileWriter writer = new ChunkedFileWriter(file, 1000);
+        writeFrames(writer, 3);
+        // half of a frame, as left by a kill in the middle of a write
+        writer.write(ByteBuffer.wrap(frame(), 0, FRAME_SIZE / 2));
+        writer.close();
+
+        assertEquals(3 * FRAME_SIZE, RecordingRecovery.truncateAdts(file));
+        assertEquals(3 * FRAME_SIZE, file.length());
+    }
+
+    @Test
+    public void completeStreamIsUnchanged() throws Exception {
+        File file = new File(folder.getRoot(), "20170903_123010.aac");
+        ChunkedFileWriter writer = new ChunkedFileWriter(file, 1000);
+        writeFrames(writer, 5);
+        writer.close();
+
+        assertEquals(5 * FRAME_SIZE, RecordingRecovery.truncateAdts(file));
+    }
+
+    @Test
+    public void writerFlushesAtInterval() throws Exception {
+        File file = new File(folder.getRoot(), "20170903_123010.aac");
+        ChunkedFileWriter writer = new ChunkedFileWriter(file, 1000);
+        writeFrames(writer, 2);
+        assertFalse(writer.flushIfDue(500000));
+        assertEquals(0, file.length());
+        assertTrue(writer.flushIfDue(1000000));
+        assertEquals(2 * FRAME_SIZE, file.length());
+        assertEquals(2 * FRAME_SIZE, writer.getFlushedBytes());
+        writer.close();
+    }
+
+    @Test
+    public void onlyMarkedRecordingsAreRecovered() throws Exception {
+        File crashed = new File(folder.getRoot(), "20170903_123010.aac");
+        ChunkedFileWriter writer = new ChunkedFileWriter(crashed, 1000);
+        writeFrames(writer, 2);
+        writer.write(ByteBuffer.wrap(frame(), 0, 10));
+        writer.close();
+        RecordingRecovery.markerFor(crashed).createNewFile();
+
+        File active = new File(folder.getRoot(), "20170903_133010.aac");
+        RecordingRecovery.markInProgress(active);
+        writer = new ChunkedFileWriter(active, 1000);
+        writer.write(ByteBuffer.wrap(frame(), 0, 10));
+        writer.close();
+
+        List<File> repaired = RecordingRecovery.recover(folder.getRoot());
+        assertEquals(1, repaired.size());
+        assertEquals(crashed, repaired.get(0));
+        assertEquals(2 * FRAME_SIZE, crashed.length());
+        assertFalse(RecordingRecovery.markerFor(crashed).exists());
+        // the recording in progress is left alone
+        assertEquals(10, active.length());
+        assertTrue(RecordingRecovery.markerFor(active).exists());
+
+        RecordingRecovery.markFinished(active);
+        assertFalse(RecordingRecovery.markerFor(active).exists());
+    }
+
+    @Test
+    public void wavHeaderIsFinishedFromFileLength() throws Exception {
+        File file = new File(folder.getRoot(), "20170903_123010.wav");
+        WavWriter writer = new WavWriter(file.getPath(), 1000);
+        writer.onStart(8000, 2);
+        short[] samples = new short[8000 * 2];
+        // 1.5 seconds, the first second is flushed with its header sizes
+        writer.onPcm(samples, 0, samples.length);
+        writer.onPcm(samples, 0, samples.length / 2);
+        assertEquals(8000 * 4, readDataSize(file));
+        // a kill leaves the rest of the data unflushed or half written, simulate both
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(WavWriter.HEADER_SIZE + 8000 * 4 + 4001);
+        randomAccessFile.close();
+
+        assertTrue(RecordingRecovery.finishWav(file));
+        assertEquals(WavWriter.HEADER_SIZE + 8000 * 4 + 4000, file.length());
+        assertEquals(8000 * 4 + 4000, readDataSize(file));
+        assertFalse(RecordingRecovery.finishWav(file));
+    }
+
+    private static int readDataSize(File file) throws Exception {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] header = new byte[WavWriter.HEADER_SIZE];
+            randomAccessFile.readFully(header);
+            return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(40);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void writeFrames(ChunkedFileWriter writer, int count) throws Exception {
+        for(int i = 0; i < count; i++) {
+            writer.write(ByteBuffer.wrap(frame()));
+        }
+    }
+
+    private static byte[] frame() {
+        byte[] frame = new byte[FRAME_SIZE];
+        AdtsFormat.fillHeader(frame, AdtsFormat.PROFILE_AAC_LC, AdtsFormat.frequencyIndex(44100),
+                1, PAYLOAD_SIZE);
+        return frame;
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for listing and sorting the recordings folder, see {@link RecordingItem}
+ */
+public class RecordingsLoaderTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void itemsAreSortedNewestFirst() throws Exception {
+        createFile("20170903_123010.m4a", 0);
+        createFile("20170905_080000.m4a", 0);
+        createFile("20170901_235959.m4a", 0);
+
+        List<RecordingItem> items = RecordingItem.listFolder(folder.getRoot());
+        assertEquals(3, items.size());
+        assertEquals("20170905_080000.m4a", items.get(0).getName());
+        assertEquals("20170903_123010.m4a", items.get(1).getName());
+        assertEquals("20170901_235959.m4a", items.get(2).getName());
+    }
+
+    @Test
+    public void renamedFilesAreSortedByModificationTime() throws Exception {
+        createFile("meeting.m4a", 2000000000000L);
+        createFile("20170903_123010.m4a", 0);
+
+        List<RecordingItem> items = RecordingItem.listFolder(folder.getRoot());
+        assertEquals("meeting.m4a", items.get(0).getName());
+        assertEquals(2000000000000L, items.get(0).getCreateTime());
+    }
+
+    @Test
+    public void hiddenFilesAndFoldersAreSkipped() throws Exception {
+        createFile(".index", 0);
+        new File(folder.getRoot(), "sub").mkdir();
+        createFile("20170903_123010.m4a", 0);
+
+        assertEquals(1, RecordingItem.listFolder(folder.getRoot()).size());
+    }
+
+    @Test
+    public void missingFolderListsEmpty() throws Exception {
+        assertTrue(RecordingItem.listFolder(new File(folder.getRoot(), "missing")).isEmpty());
+    }
+
+    @Test
+    public void newFileNamesAreParsedBack() throws Exception {
+        long time = 1504413010000L;
+        String name = RecordingItem.newFileName(time) + ".m4a";
+        assertEquals(time,
+                new RecordingItem(new File(folder.getRoot(), name), 0, 0).getCreateTime());
+    }
+
+    private void createFile(String name, long lastModified) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        file.createNewFile();
+        if(lastModified > 0) {
+            file.setLastModified(lastModified);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RetentionPolicy}
+ */
+public class RetentionPolicyTest {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long NOW = 100 * DAY;
+
+    private static RecordingItem item(String name, long size, long ageDays) {
+        // renamed files, the create time is the modification time
+        return new RecordingItem(new File("/recordings", name), size, NOW - ageDays * DAY);
+    }
+
+    private static List<String> names(List<RecordingItem> items) {
+        List<String> names = new ArrayList<>();
+        for(RecordingItem item : items) {
+            names.add(item.getName());
+        }
+        return names;
+    }
+
+    private final List<RecordingItem> items = Arrays.asList(item("b.m4a", 300, 10),
+            item("d.m4a", 100, 1), item("a.m4a", 200, 40), item("c.m4a", 400, 5));
+
+    @Test
+    public void unlimitedPolicySelectsNothing() {
+        RetentionPolicy policy = new RetentionPolicy(0, 0);
+        assertFalse(policy.isLimited());
+        assertTrue(policy.select(items, NOW, 0).isEmpty());
+    }
+
+    @Test
+    public void oldRecordingsAreSelected() {
+        RetentionPolicy policy = new RetentionPolicy(0, 7 * DAY);
+        assertTrue(policy.isLimited());
+        assertEquals(Arrays.asList("a.m4a", "b.m4a"), names(policy.select(items, NOW, 0)));
+    }
+
+    @Test
+    public void oldestAreSelectedUntilWithinTotalSize() {
+        RetentionPolicy policy = new RetentionPolicy(500, 0);
+        assertEquals(Arrays.asList("a.m4a", "b.m4a"), names(policy.select(items, NOW, 0)));
+        assertTrue(new RetentionPolicy(1000, 0).select(items, NOW, 0).isEmpty());
+    }
+
+    @Test
+    public void oldestAreSelectedToMakeRoom() {
+        RetentionPolicy policy = new RetentionPolicy(0, 0);
+        assertEquals(Arrays.asList("a.m4a"), names(policy.select(items, NOW, 200)));
+        assertEquals(Arrays.asList("a.m4a", "b.m4a"), names(policy.select(items, NOW, 201)));
+        // never more than there is
+        assertEquals(4, policy.select(items, NOW, 10000).size());
+    }
+}
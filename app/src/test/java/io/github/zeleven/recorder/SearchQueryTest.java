@@ -0,0 +1,53 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SearchQuery}
+ */
+public class SearchQueryTest {
+    @Test
+    public void tokenizesCjkPerCharacter() {
+        // "meeting notes"
+        assertEquals("\u4f1a \u8bae \u8bb0 \u5f55",
+                SearchQuery.tokenize("\u4f1a\u8bae\u8bb0\u5f55"));
+        assertEquals("rec 2018 01 02 \u5468 \u4f1a m4a",
+                SearchQuery.tokenize("Rec_2018-01-02\u5468\u4f1a.m4a"));
+        assertEquals("", SearchQuery.tokenize(" -_. "));
+    }
+
+    @Test
+    public void matchesWordsAsPrefixes() {
+        assertEquals("meet* notes*", SearchQuery.toMatchExpression("Meet  notes"));
+        assertEquals("\"\u4f1a \u8bae*\"", SearchQuery.toMatchExpression("\u4f1a\u8bae"));
+        // operators and quotes are text, not syntax
+        assertEquals("a* b*", SearchQuery.toMatchExpression("\"a\" -b"));
+        assertEquals("", SearchQuery.toMatchExpression("  * \" "));
+    }
+
+    @Test
+    public void buildsSelectionFromRanges() {
+        List<String> args = new ArrayList<>();
+        assertEquals("", new SearchQuery().buildSelection(args));
+        assertTrue(args.isEmpty());
+        assertTrue(new SearchQuery().setText(" ").isEmpty());
+
+        SearchQuery query = new SearchQuery().setText("interview")
+                .setTimeRange(1000, SearchQuery.UNBOUNDED)
+                .setSizeRange(SearchQuery.UNBOUNDED, 2048);
+        assertFalse(query.isEmpty());
+        assertTrue(query.hasFilters());
+        String selection = query.buildSelection(args);
+        assertTrue(selection.contains(SearchIndex.TABLE_FTS + " MATCH ?"));
+        assertTrue(selection.contains(SearchIndex.COLUMN_CREATE_TIME + " >= ?"));
+        assertTrue(selection.contains(SearchIndex.COLUMN_SIZE + " < ?"));
+        assertFalse(selection.contains(SearchIndex.COLUMN_DURATION));
+        assertEquals(Arrays.asList("interview*", "1000", "2048"), args);
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SeekIndex}
+ */
+public class SeekIndexTest {
+    @Test
+    public void findsSyncPointBeforeTime() {
+        SeekIndex index = new SeekIndex();
+        assertEquals(-1, index.find(0));
+        for(int i = 0; i < 1000; i++) {
+            index.add(i * 100, i * 1000);
+        }
+        assertEquals(1000, index.size());
+        assertEquals(0, index.find(0));
+        assertEquals(0, index.find(99));
+        assertEquals(1, index.find(100));
+        assertEquals(5, index.find(599));
+        assertEquals(5000, index.getPosition(index.find(599)));
+        assertEquals(999, index.find(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void equalTimesResolveToFirst() {
+        SeekIndex index = new SeekIndex();
+        index.add(0, 0);
+        index.add(100, 10);
+        index.add(100, 20);
+        index.add(200, 30);
+        assertEquals(1, index.find(100));
+        assertEquals(2, index.find(150));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfOrder() {
+        SeekIndex index = new SeekIndex();
+        index.add(100, 0);
+        index.add(50, 10);
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SegmentedOutput} and the {@link SessionManifest} it writes
+ */
+public class SegmentedOutputTest {
+    private static final int SAMPLE_RATE = 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private File manifest;
+    private final List<CountingStage> stages = new ArrayList<>();
+
+    /**
+     * Stands in for the encoder of a segment, counts the samples and checks their order
+     */
+    private static class CountingStage implements PcmConsumer {
+        final File segment;
+        long samples;
+        short expected;
+        boolean stopped;
+
+        CountingStage(File segment, short first) {
+            this.segment = segment;
+            this.expected = first;
+        }
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {}
+
+        @Override
+        public void onPcm(short[] buffer, int offset, int length) {
+            for(int i = offset; i < offset + length; i++) {
+                assertEquals(expected++, buffer[i]);
+            }
+            samples += length;
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        manifest = new File(folder.getRoot(), "20260101_120000.m3u");
+    }
+
+    private SegmentedOutput createOutput(long segmentMillis) {
+        return new SegmentedOutput(manifest, "aac", segmentMillis,
+                new SegmentedOutput.StageFactory() {
+            @Override
+            public List<PcmConsumer> createStages(File segment) throws IOException {
+                short first = 0;
+                for(CountingStage stage : stages) {
+                    first += stage.samples;
+                }
+                CountingStage stage = new CountingStage(segment, first);
+                stages.add(stage);
+                return Collections.<PcmConsumer>singletonList(stage);
+            }
+        });
+    }
+
+    private static void feed(PcmConsumer consumer, int from, int count, int chunk)
+            throws IOException {
+        short[] buffer = new short[chunk];
+        for(int done = 0; done < count; ) {
+            int length = Math.min(chunk, count - done);
+            for(int i = 0; i < length; i++) {
+                buffer[i] = (short) (from + done + i);
+            }
+            consumer.onPcm(buffer, 0, length);
+            done += length;
+        }
+    }
+
+    @Test
+    public void splitsAtSegmentLengthWithoutLosingSamples() throws Exception {
+        SegmentedOutput output = createOutput(1000);
+        output.onStart(SAMPLE_RATE, 2);
+        feed(output, 0, 5000, 333);
+        output.onStop();
+
+        assertEquals(3, stages.size());
+        assertEquals(2000, stages.get(0).samples);
+        assertEquals(2000, stages.get(1).samples);
+        assertEquals(1000, stages.get(2).samples);
+        for(CountingStage stage : stages) {
+            assertTrue(stage.stopped);
+        }
+
+        List<SessionManifest.Segment> segments = SessionManifest.read(manifest);
+        assertEquals(3, segments.size());
+        assertEquals(new File(folder.getRoot(), "20260101_120000/part002.aac"),
+                segments.get(1).file);
+        assertEquals(1000, segments.get(0).durationMillis);
+        assertEquals(500, segments.get(2).durationMillis);
+        assertEquals(2500, SessionManifest.getDuration(segments));
+    }
+
+    @Test
+    public void noEmptySegmentAtExactBoundary() throws Exception {
+        SegmentedOutput output = createOutput(1000);
+        output.onStart(SAMPLE_RATE, 1);
+        feed(output, 0, 2000, 500);
+        output.onStop();
+        assertEquals(2, output.getSegmentCount());
+        assertEquals(2, SessionManifest.read(manifest).size());
+    }
+
+    @Test
+    public void manifestListsSegmentInProgress() throws Exception {
+        SegmentedOutput output = createOutput(1000);
+        output.onStart(SAMPLE_RATE, 1);
+        feed(output, 0, 1500, 100);
+
+        // what a crash would leave behind
+        List<SessionManifest.Segment> segments = SessionManifest.read(manifest);
+        assertEquals(2, segments.size());
+        assertEquals(1000, segments.get(0).durationMillis);
+        assertEquals(SessionManifest.UNKNOWN_DURATION, segments.get(1).durationMillis);
+        output.onStop();
+    }
+
+    @Test
+    public void deleteRemovesSegments() throws Exception {
+        SegmentedOutput output = createOutput(1000);
+        output.onStart(SAMPLE_RATE, 1);
+        feed(output, 0, 1500, 100);
+        output.onStop();
+        for(SessionManifest.Segment segment : SessionManifest.read(manifest)) {
+            assertTrue(segment.file.createNewFile());
+        }
+
+        assertTrue(SessionManifest.delete(manifest));
+        assertFalse(SessionManifest.segmentFolderFor(manifest).exists());
+        assertFalse(manifest.exists());
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SilenceGate}
+ */
+public class SilenceGateTest {
+    private static final int RATE = 8000;
+    // samples per millisecond at 8 kHz mono
+    private static final int MS = RATE / 1000;
+
+    /**
+     * Collects what the gate passes on
+     */
+    private static class Collector implements PcmConsumer {
+        int samples;
+        int loudSamples;
+        boolean stopped;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {}
+
+        @Override
+        public void onPcm(short[] buffer, int offset, int length) {
+            samples += length;
+            for(int i = offset; i < offset + length; i++) {
+                if(Math.abs(buffer[i]) > 100) {
+                    loudSamples++;
+                }
+            }
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+
+    @Test
+    public void longSilenceShrinksToPreAndPostRoll() throws Exception {
+        Collector collector = new Collector();
+        SilenceGate gate = new SilenceGate(Collections.<PcmConsumer>singletonList(collector));
+        gate.onStart(RATE, 1);
+
+        feed(gate, 1000, 20);      // background noise, kept while the gate starts open
+        feed(gate, 500, 3000);     // speech
+        feed(gate, 10000, 20);     // ten seconds of background
+        feed(gate, 500, 3000);     // speech
+        gate.onStop();
+
+        assertTrue(collector.stopped);
+        // both speech stretches are complete
+        assertEquals(1000 * MS, collector.loudSamples);
+        // 700 ms post-roll and 300 ms pre-roll are left of the ten seconds
+        assertEquals(12000, gate.getInputMillis());
+        assertEquals(1000 + 500 + 700 + 300 + 500,
+                gate.getInputMillis() - gate.getSkippedMillis(), 20);
+        assertEquals(collector.samples, (gate.getInputMillis() - gate.getSkippedMillis()) * MS,
+                20 * MS);
+    }
+
+    @Test
+    public void speechOnsetIsNotClipped() throws Exception {
+        Collector collector = new Collector();
+        SilenceGate gate = new SilenceGate(Collections.<PcmConsumer>singletonList(collector));
+        gate.onStart(RATE, 1);
+        feed(gate, 5000, 0);
+        int before = collector.samples;
+        feed(gate, 100, 3000);
+        // the pre-roll is passed on in front of the speech
+        assertEquals(300 * MS + 100 * MS, collector.samples - before);
+        gate.onStop();
+    }
+
+    /**
+     * Feed a square wave in odd sized buffers
+     */
+    private static void feed(SilenceGate gate, int millis, int amplitude) throws Exception {
+        short[] buffer = new short[333];
+        int remaining = millis * MS;
+        int phase = 0;
+        while(remaining > 0) {
+            int count = Math.min(buffer.length, remaining);
+            for(int i = 0; i < count; i++) {
+                buffer[i] = (short) (((phase++ / 4) & 1) == 0 ? amplitude : -amplitude);
+            }
+            gate.onPcm(buffer, 0, count);
+            remaining -= count;
+        }
+    }
+}
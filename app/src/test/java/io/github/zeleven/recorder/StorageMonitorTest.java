@@ -0,0 +1,51 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link StorageMonitor}
+ */
+public class StorageMonitorTest {
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @Test
+    public void remainingTimeLeavesTheReserve() {
+        long bytesPerMinute = MEGABYTE;
+        assertEquals(60 * 60000, StorageMonitor.remainingMillis(
+                StorageMonitor.RESERVE_BYTES + 60 * MEGABYTE, bytesPerMinute));
+        assertEquals(30000, StorageMonitor.remainingMillis(
+                StorageMonitor.RESERVE_BYTES + MEGABYTE / 2, bytesPerMinute));
+        assertEquals(0, StorageMonitor.remainingMillis(
+                StorageMonitor.RESERVE_BYTES / 2, bytesPerMinute));
+        // doesn't overflow with a large volume and a low rate
+        long terabyte = 1024 * 1024 * MEGABYTE;
+        assertEquals(terabyte / 1000 * 60000, StorageMonitor.remainingMillis(
+                StorageMonitor.RESERVE_BYTES + terabyte, 1000) / 60000 * 60000);
+    }
+
+    @Test
+    public void levelsFollowTheRemainingTime() {
+        assertEquals(StorageMonitor.Level.OK, StorageMonitor.levelOf(StorageMonitor.UNKNOWN));
+        assertEquals(StorageMonitor.Level.OK, StorageMonitor.levelOf(StorageMonitor.LOW_MILLIS));
+        assertEquals(StorageMonitor.Level.LOW,
+                StorageMonitor.levelOf(StorageMonitor.LOW_MILLIS - 1));
+        assertEquals(StorageMonitor.Level.LOW,
+                StorageMonitor.levelOf(StorageMonitor.FULL_MILLIS));
+        assertEquals(StorageMonitor.Level.FULL,
+                StorageMonitor.levelOf(StorageMonitor.FULL_MILLIS - 1));
+        assertEquals(StorageMonitor.Level.FULL, StorageMonitor.levelOf(0));
+    }
+
+    @Test
+    public void freeingGetsBackAboveTheLowLevel() {
+        long bytesPerMinute = MEGABYTE;
+        long usable = StorageMonitor.RESERVE_BYTES + MEGABYTE;
+        long bytesToFree = StorageMonitor.bytesToFree(usable, bytesPerMinute);
+        assertEquals(9 * MEGABYTE, bytesToFree);
+        assertEquals(StorageMonitor.Level.OK, StorageMonitor.levelOf(
+                StorageMonitor.remainingMillis(usable + bytesToFree, bytesPerMinute)));
+        assertEquals(0, StorageMonitor.bytesToFree(usable + 100 * MEGABYTE, bytesPerMinute));
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link StreamClock}
+ */
+public class StreamClockTest {
+    private static final int RATE = 48000;
+    private static final double NOMINAL = 1e9 / RATE;
+
+    @Test
+    public void usesTheNominalRateUntilTimestampsSpanFrames() {
+        StreamClock clock = new StreamClock(RATE);
+        clock.reset(0);
+        assertFalse(clock.isReady());
+        clock.add(480, 1000000000L);
+        assertTrue(clock.isReady());
+        assertEquals(NOMINAL, clock.getNanosPerFrame(), 1e-9);
+        assertEquals(1000000000.0 + 480 * NOMINAL, clock.timeOf(960), 1e-3);
+    }
+
+    @Test
+    public void fitsTheActualRateThroughJitter() {
+        StreamClock clock = new StreamClock(RATE);
+        clock.reset(0);
+        // 200 ppm fast, timestamps jitter by up to 0.5 ms
+        double actual = NOMINAL / 1.0002;
+        for(int i = 1; i <= 36000; i++) {
+            long frame = i * 480L;
+            long jitter = (i * 7919 % 1000 - 500) * 1000L;
+            clock.add(frame, 5000000L + Math.round(frame * actual) + jitter);
+        }
+        assertEquals(actual, clock.getNanosPerFrame(), actual * 1e-6);
+        double time = 5000000.0 + 1000000 * actual;
+        assertEquals(time, clock.timeOf(1000000), 200000);
+        assertEquals(1000000, clock.frameAt(time), 10);
+    }
+
+    @Test
+    public void resetStartsANewEpochAfterTheDeliveredFrames() {
+        StreamClock clock = new StreamClock(RATE);
+        clock.reset(0);
+        clock.add(480, 10000000L);
+        clock.add(960, 20000000L);
+        int epoch = clock.getEpoch();
+
+        clock.reset(960);
+        assertEquals(epoch + 1, clock.getEpoch());
+        assertEquals(960, clock.getBase());
+        assertFalse(clock.isReady());
+        // the gap of the pause doesn't bend the fit
+        clock.add(1440, 90000000L);
+        clock.add(1920, 100000000L);
+        assertEquals(10000000.0 / 480, clock.getNanosPerFrame(), 1e-6);
+        assertEquals(1920, clock.frameAt(100000000L), 1e-6);
+    }
+}
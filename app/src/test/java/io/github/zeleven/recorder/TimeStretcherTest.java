@@ -0,0 +1,96 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link TimeStretcher}
+ */
+public class TimeStretcherTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static short[] sine(int frames, int channelCount, double frequency) {
+        short[] samples = new short[frames * channelCount];
+        for(int i = 0; i < frames; i++) {
+            short value = (short) (10000 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+            for(int c = 0; c < channelCount; c++) {
+                samples[i * channelCount + c] = value;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Feed the input in small chunks like the player does and collect all output
+     */
+    private static short[] stretch(TimeStretcher stretcher, short[] input, int channelCount) {
+        short[] output = new short[input.length * 3 + 16000];
+        int outputLength = 0;
+        int chunk = 320 * channelCount;
+        for(int offset = 0; offset < input.length; offset += chunk) {
+            stretcher.write(input, offset, Math.min(chunk, input.length - offset));
+            outputLength += stretcher.read(output, outputLength, output.length - outputLength);
+        }
+        stretcher.flush();
+        outputLength += stretcher.read(output, outputLength, output.length - outputLength);
+        return Arrays.copyOf(output, outputLength);
+    }
+
+    private static int zeroCrossings(short[] samples, int from, int to) {
+        int count = 0;
+        for(int i = from + 1; i < to; i++) {
+            if((samples[i - 1] < 0) != (samples[i] < 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void normalSpeedKeepsInput() {
+        short[] input = new short[SAMPLE_RATE * 2];
+        for(int i = 0; i < input.length; i++) {
+            input[i] = (short) ((i * 7919) % 20000 - 10000);
+        }
+        short[] output = stretch(new TimeStretcher(SAMPLE_RATE, 2), input, 2);
+        assertTrue(output.length >= input.length);
+        assertArrayEquals(input, Arrays.copyOf(output, input.length));
+    }
+
+    @Test
+    public void doubleSpeedHalvesDuration() {
+        short[] input = sine(SAMPLE_RATE * 4, 1, 220);
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+        stretcher.setSpeed(2f);
+        short[] output = stretch(stretcher, input, 1);
+        assertEquals(input.length / 2, output.length, SAMPLE_RATE / 10);
+
+        // the pitch is unchanged, so one second has as many zero crossings as before
+        int expected = zeroCrossings(input, 0, SAMPLE_RATE);
+        assertEquals(expected, zeroCrossings(output, 0, SAMPLE_RATE), expected / 20);
+    }
+
+    @Test
+    public void halfSpeedDoublesDuration() {
+        short[] input = sine(SAMPLE_RATE * 2, 2, 300);
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 2);
+        stretcher.setSpeed(0.5f);
+        short[] output = stretch(stretcher, input, 2);
+        assertEquals(input.length * 2, output.length, SAMPLE_RATE / 5);
+
+        int expected = zeroCrossings(input, 0, SAMPLE_RATE * 2);
+        assertEquals(expected, zeroCrossings(output, 0, SAMPLE_RATE * 2), expected / 20);
+    }
+
+    @Test
+    public void speedIsClamped() {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+        stretcher.setSpeed(10f);
+        assertEquals(TimeStretcher.MAX_SPEED, stretcher.getSpeed(), 0);
+        stretcher.setSpeed(0.1f);
+        assertEquals(TimeStretcher.MIN_SPEED, stretcher.getSpeed(), 0);
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link TranscodeCheckpoint}
+ */
+public class TranscodeCheckpointTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void checkpointIsWrittenAndRead() throws Exception {
+        File sidecar = TranscodeCheckpoint.sidecarFor(
+                new File(folder.getRoot(), "20170903_123010.m4a"));
+        new TranscodeCheckpoint(1000, 2000, 30000000L, 120000, false).write(sidecar);
+        new TranscodeCheckpoint(1000, 2000, 40000000L, 160000, false).write(sidecar);
+
+        TranscodeCheckpoint checkpoint = TranscodeCheckpoint.read(sidecar);
+        assertNotNull(checkpoint);
+        assertTrue(checkpoint.matches(1000, 2000));
+        assertFalse(checkpoint.matches(1000, 2001));
+        assertEquals(40000000L, checkpoint.getSourceTimeUs());
+        assertEquals(160000, checkpoint.getOutputBytes());
+        assertFalse(checkpoint.isComplete());
+        assertEquals(1, sidecar.getParentFile().listFiles().length);
+    }
+
+    @Test
+    public void corruptCheckpointIsIgnored() throws Exception {
+        File sidecar = TranscodeCheckpoint.sidecarFor(new File(folder.getRoot(), "a.m4a"));
+        assertNull(TranscodeCheckpoint.read(sidecar));
+        sidecar.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(sidecar);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        assertNull(TranscodeCheckpoint.read(sidecar));
+    }
+}
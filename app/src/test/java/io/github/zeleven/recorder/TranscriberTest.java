@@ -0,0 +1,109 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the chunking of {@link Transcriber}
+ */
+public class TranscriberTest {
+    private static final int RATE = 16000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Transcribes a chunk as its number of samples
+     */
+    private static class CountingEngine implements SpeechEngine {
+        int chunks;
+
+        @Override
+        public int getSampleRate() {
+            return RATE;
+        }
+
+        @Override
+        public String transcribe(short[] samples, int length) {
+            chunks++;
+            return String.valueOf(length);
+        }
+
+        @Override
+        public void release() {}
+    }
+
+    private static void feed(PcmConsumer consumer, int samples) throws IOException {
+        short[] buffer = new short[3000];
+        while(samples > 0) {
+            int count = Math.min(samples, buffer.length);
+            consumer.onPcm(buffer, 0, count);
+            samples -= count;
+        }
+    }
+
+    @Test
+    public void fullChunksAreWrittenAsTheyComplete() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        CountingEngine engine = new CountingEngine();
+        int chunkSamples = (int) (RATE * Transcriber.CHUNK_MILLIS / 1000);
+        Transcript.Writer writer = Transcript.openWriter(recording);
+        Transcriber.ChunkWriter chunks = new Transcriber.ChunkWriter(engine, writer, 0);
+        chunks.onStart(RATE, 1);
+        feed(chunks, chunkSamples * 2 + RATE);
+        // the last second waits for more audio
+        assertEquals(2, engine.chunks);
+        assertEquals(2 * Transcriber.CHUNK_MILLIS, Transcript.read(recording).getEndMillis());
+
+        chunks.onStop();
+        writer.close();
+        assertTrue(chunks.isFinished());
+        Transcript transcript = Transcript.read(recording);
+        assertTrue(transcript.isComplete());
+        List<Transcript.Entry> entries = transcript.getEntries();
+        assertEquals(3, entries.size());
+        assertEquals(2 * Transcriber.CHUNK_MILLIS, entries.get(2).startMillis);
+        assertEquals(2 * Transcriber.CHUNK_MILLIS + 1000, entries.get(2).endMillis);
+        assertEquals(String.valueOf(RATE), entries.get(2).text);
+    }
+
+    @Test
+    public void resumedChunksContinueTheTimeline() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        CountingEngine engine = new CountingEngine();
+        Transcript.Writer writer = Transcript.openWriter(recording);
+        writer.add(0, Transcriber.CHUNK_MILLIS, "before");
+        writer.close();
+
+        long start = Transcript.read(recording).getEndMillis();
+        writer = Transcript.openWriter(recording);
+        Transcriber.ChunkWriter chunks = new Transcriber.ChunkWriter(engine, writer, start);
+        chunks.onStart(RATE, 1);
+        feed(chunks, RATE / 2);
+        chunks.onStop();
+        writer.close();
+
+        Transcript transcript = Transcript.read(recording);
+        assertEquals(2, transcript.getEntries().size());
+        assertEquals(Transcriber.CHUNK_MILLIS + 500, transcript.getEndMillis());
+        assertEquals("before 8000", transcript.getText());
+    }
+
+    @Test(expected = IOException.class)
+    public void stereoIsRejected() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        Transcript.Writer writer = Transcript.openWriter(recording);
+        try {
+            new Transcriber.ChunkWriter(new CountingEngine(), writer, 0).onStart(RATE, 2);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link Transcript}
+ */
+public class TranscriptTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendedChunksAreReadBack() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        Transcript empty = Transcript.read(recording);
+        assertFalse(empty.isComplete());
+        assertEquals(0, empty.getEndMillis());
+        assertEquals("", empty.getText());
+
+        Transcript.Writer writer = Transcript.openWriter(recording);
+        writer.add(0, 15000, "good morning");
+        writer.add(15000, 30000, "");
+        writer.add(30000, 41000, "the\tbudget\n");
+        writer.close();
+        Transcript transcript = Transcript.read(recording);
+        assertFalse(transcript.isComplete());
+        assertEquals(3, transcript.getEntries().size());
+        assertEquals(41000, transcript.getEndMillis());
+        assertEquals("good morning the budget", transcript.getText());
+
+        writer = Transcript.openWriter(recording);
+        writer.finish();
+        writer.close();
+        assertTrue(Transcript.read(recording).isComplete());
+    }
+
+    @Test
+    public void partialLineIsDroppedBeforeAppending() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        Transcript.Writer writer = Transcript.openWriter(recording);
+        writer.add(0, 15000, "first");
+        writer.close();
+        // killed while writing the second line
+        FileOutputStream out = new FileOutputStream(Transcript.sidecarFor(recording), true);
+        out.write("15000\t30000\tsec".getBytes("UTF-8"));
+        out.close();
+        assertEquals(15000, Transcript.read(recording).getEndMillis());
+
+        writer = Transcript.openWriter(recording);
+        writer.add(15000, 30000, "second");
+        writer.close();
+        Transcript transcript = Transcript.read(recording);
+        assertEquals(2, transcript.getEntries().size());
+        assertEquals("first second", transcript.getText());
+    }
+
+    @Test
+    public void corruptSidecarIsStartedAgain() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        File sidecar = Transcript.sidecarFor(recording);
+        sidecar.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(sidecar);
+        out.write("garbage\n".getBytes("UTF-8"));
+        out.close();
+        assertEquals(0, Transcript.read(recording).getEntries().size());
+
+        Transcript.Writer writer = Transcript.openWriter(recording);
+        writer.add(0, 1000, "text");
+        writer.close();
+        assertEquals("text", Transcript.read(recording).getText());
+    }
+
+    @Test
+    public void writtenTranscriptMovesWithRecording() throws Exception {
+        File recording = new File(folder.getRoot(), "a.m4a");
+        File target = new File(folder.getRoot(), "b.m4a");
+        Transcript.write(recording, Arrays.asList(new Transcript.Entry(0, 15000, "one"),
+                new Transcript.Entry(15000, 20000, "two")));
+        assertTrue(Transcript.read(recording).isComplete());
+
+        Transcript.transfer(recording, target, true);
+        assertFalse(Transcript.sidecarFor(recording).exists());
+        Transcript transcript = Transcript.read(target);
+        assertTrue(transcript.isComplete());
+        assertEquals(20000, transcript.getEndMillis());
+        assertEquals("one two", transcript.getText());
+
+        Transcript.delete(target);
+        assertFalse(Transcript.sidecarFor(target).exists());
+    }
+}
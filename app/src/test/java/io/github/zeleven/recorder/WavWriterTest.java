@@ -0,0 +1,43 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link WavWriter}
+ */
+public class WavWriterTest {
+    private static ByteBuffer header(long dataSize) {
+        ByteBuffer header = ByteBuffer.allocate(WavWriter.HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        WavWriter.fillHeader(header, 48000, 2, dataSize);
+        return header;
+    }
+
+    @Test
+    public void headerStoresSizes() {
+        ByteBuffer header = header(192000);
+        assertEquals(WavWriter.HEADER_SIZE, header.remaining());
+        assertEquals(192000 + WavWriter.HEADER_SIZE - 8, header.getInt(4));
+        // bytes per second
+        assertEquals(48000 * 4, header.getInt(28));
+        assertEquals(192000, header.getInt(40));
+    }
+
+    @Test
+    public void sizesBeyondFourGigabytesAreClamped() {
+        // about 7 hours of 48 kHz stereo
+        ByteBuffer header = header(5000000000L);
+        assertEquals(WavWriter.MAX_CHUNK_SIZE, header.getInt(4) & 0xFFFFFFFFL);
+        assertEquals(WavWriter.MAX_CHUNK_SIZE, header.getInt(40) & 0xFFFFFFFFL);
+
+        // the RIFF size reaches the limit before the data size does
+        header = header(WavWriter.MAX_CHUNK_SIZE - 10);
+        assertEquals(WavWriter.MAX_CHUNK_SIZE, header.getInt(4) & 0xFFFFFFFFL);
+        assertEquals(WavWriter.MAX_CHUNK_SIZE - 10, header.getInt(40) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.zeleven.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link WaveformSummary}
+ */
+public class WaveformSummaryTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loudPartIsFoundInLongInput() {
+        WaveformSummary.Builder builder = new WaveformSummary.Builder();
+        builder.onStart(8000, 1);
+        short[] buffer = new short[1000];
+        // ten minutes of silence with a full scale burst in the second half
+        for(int i = 0; i < 4800; i++) {
+            buffer[0] = (short) (i == 3600 ? 32767 : 0);
+            builder.onPcm(buffer, 0, buffer.length);
+        }
+        builder.onStop();
+        WaveformSummary summary = builder.build(1, 2);
+
+        assertEquals(WaveformSummary.BUCKET_COUNT, summary.size());
+        int loudBucket = -1;
+        for(int i = 0; i < summary.size(); i++) {
+            if(summary.getLevel(i) > 0) {
+                assertEquals(-1, loudBucket);
+                loudBucket = i;
+            }
+        }
+        // 75% into the input, within the resolution of the merged blocks
+        assertTrue(Math.abs(loudBucket - 75) <= 1);
+        assertEquals(1f, summary.getLevel(loudBucket), 0.01f);
+    }
+
+    @Test
+    public void shortInputFillsAllBuckets() {
+        WaveformSummary.Builder builder = new WaveformSummary.Builder();
+        builder.onStart(8000, 1);
+        short[] buffer = new short[300];
+        java.util.Arrays.fill(buffer, (short) 16384);
+        builder.onPcm(buffer, 0, buffer.length);
+        builder.onStop();
+        WaveformSummary summary = builder.build(1, 2);
+        for(int i = 0; i < summary.size(); i++) {
+            assertTrue(summary.getLevel(i) > 0.8f);
+        }
+    }
+
+    @Test
+    public void sidecarRoundTrips() throws Exception {
+        File recording = new File(folder.getRoot(), "20170903_123010.aac");
+        new FileOutputStream(recording).close();
+        File sidecar = WaveformSummary.sidecarFor(recording);
+        assertNull(WaveformSummary.read(sidecar));
+
+        new WaveformSummary(100, 200, new byte[] {0, (byte) 255, 51}).write(sidecar);
+        WaveformSummary summary = WaveformSummary.read(sidecar);
+        assertNotNull(summary);
+        assertTrue(summary.matches(100, 200));
+        assertFalse(summary.matches(101, 200));
+        assertEquals(3, summary.size());
+        assertEquals(1f, summary.getLevel(1), 0f);
+        assertEquals(0.2f, summary.getLevel(2), 1e-6f);
+        recording.delete();
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.zeleven.recorder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files in csv format, e.g. of the last release and of the
+ * current tree, and exits with status 1 if a benchmark got slower than the threshold.
+ * All benchmarks measure the average time, so a higher score is slower. A change is
+ * only reported as regression if it exceeds the error margins of both runs.
+ * <p>
+ * Usage: {@code BenchmarkComparison <baseline.csv> <results.csv> <threshold percent>}
+ */
+public class BenchmarkComparison {
+    private static final int COLUMN_BENCHMARK = 0;
+    private static final int COLUMN_SCORE = 4;
+    private static final int COLUMN_ERROR = 5;
+    private static final int COLUMN_UNIT = 6;
+    private static final int COLUMN_FIRST_PARAM = 7;
+
+    private static class Score {
+        final double value;
+        final double error;
+        final String unit;
+
+        Score(double value, double error, String unit) {
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 3) {
+            System.err.println("Usage: BenchmarkComparison <baseline.csv> <results.csv> "
+                    + "<threshold percent>");
+            System.exit(2);
+        }
+        Map<String, Score> baseline = read(new File(args[0]));
+        Map<String, Score> results = read(new File(args[1]));
+        double threshold = Double.parseDouble(args[2]) / 100;
+
+        int regressions = 0;
+        for(Map.Entry<String, Score> entry : results.entrySet()) {
+            Score current = entry.getValue();
+            Score previous = baseline.get(entry.getKey());
+            if(previous == null || !previous.unit.equals(current.unit)) {
+                System.out.println(String.format("%-70s %12.3f %s (new)", entry.getKey(),
+                        current.value, current.unit));
+                continue;
+            }
+            double change = current.value / previous.value - 1;
+            boolean regression = change > threshold
+                    && current.value - current.error > previous.value + previous.error;
+            if(regression) {
+                regressions++;
+            }
+            System.out.println(String.format("%-70s %12.3f %s %+7.1f%%%s", entry.getKey(),
+                    current.value, current.unit, change * 100,
+                    regression ? "  REGRESSION" : ""));
+        }
+        if(regressions > 0) {
+            System.out.println(regressions + " benchmark(s) slower than "
+                    + args[2] + "% over the baseline");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param file the result file written by JMH with {@code -rf csv}
+     * @return the scores by benchmark name and parameters
+     */
+    static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            List<String> header = parseLine(reader.readLine());
+            String line;
+            while((line = reader.readLine()) != null) {
+                List<String> columns = parseLine(line);
+                if(columns.size() <= COLUMN_UNIT) {
+                    continue;
+                }
+                StringBuilder key = new StringBuilder(columns.get(COLUMN_BENCHMARK));
+                for(int i = COLUMN_FIRST_PARAM; i < columns.size(); i++) {
+                    // benchmarks without the parameter have an empty column
+                    if(columns.get(i).isEmpty()) {
+                        continue;
+                    }
+                    key.append(' ').append(header.get(i).replace("Param: ", ""))
+                            .append('=').append(columns.get(i));
+                }
+                scores.put(key.toString(), new Score(parseNumber(columns.get(COLUMN_SCORE)),
+                        parseNumber(columns.get(COLUMN_ERROR)), columns.get(COLUMN_UNIT)));
+            }
+        } finally {
+            reader.close();
+        }
+        return scores;
+    }
+
+    private static double parseNumber(String value) {
+        if(value.isEmpty() || value.equals("NaN")) {
+            return 0;
+        }
+        // JMH formats the numbers with the default locale
+        return Double.parseDouble(value.replace(',', '.'));
+    }
+
+    /**
+     * @param line a csv line, fields may be quoted
+     * @return the fields without quotes
+     */
+    private static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        if(line == null) {
+            return fields;
+        }
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if(c == '"') {
+                quoted = !quoted;
+            } else if(c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.zeleven.recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU cost of one second of audio in each preset of the {@link DspChain}, at the
+ * sample rate and buffer size of capture. A score of 10,000 us is 1% of a core; a device
+ * several times slower than the benchmark machine should still stay well below the
+ * budget of the consumer thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DspBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+    // about the minimum buffer size of AudioRecord at 44.1kHz mono
+    private static final int BUFFER_SAMPLES = 2048;
+
+    @Param({DspChain.PRESET_BASIC, DspChain.PRESET_VOICE, DspChain.PRESET_FULL})
+    public String preset;
+
+    @Param({"1", "2"})
+    public int channelCount;
+
+    private short[] second;
+    private short[] buffer;
+    private DspChain chain;
+
+    @Setup
+    public void setUp() {
+        // speech-like bursts over noise, so every stage has work to do
+        Random random = new Random(42);
+        second = new short[SAMPLE_RATE * channelCount];
+        for(int i = 0; i < second.length; i++) {
+            int frame = i / channelCount;
+            double burst = (frame / (SAMPLE_RATE / 4)) % 2 == 0 ? 6000 : 0;
+            double tone = Math.sin(2 * Math.PI * 220 * frame / SAMPLE_RATE) * burst;
+            second[i] = (short) (tone + random.nextGaussian() * 300);
+        }
+        buffer = new short[BUFFER_SAMPLES * channelCount];
+        chain = new DspChain(DspChain.fromPreference(preset));
+        chain.onStart(SAMPLE_RATE, channelCount);
+    }
+
+    @Benchmark
+    public short processOneSecond() {
+        for(int offset = 0; offset < second.length; offset += buffer.length) {
+            int count = Math.min(buffer.length, second.length - offset);
+            // the chain works in place, so every buffer starts from the captured audio
+            System.arraycopy(second, offset, buffer, 0, count);
+            chain.onPcm(buffer, 0, count);
+        }
+        return buffer[0];
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.zeleven.recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of one captured buffer in the stages of {@link AudioRecordEngine} which run
+ * for every recording: the ring buffer between capture and consumer thread, the level
+ * meter and the waveform summary.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PcmBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+    // about the minimum buffer size of AudioRecord at 44.1kHz mono
+    private static final int BUFFER_SAMPLES = 2048;
+
+    private final short[] buffer = new short[BUFFER_SAMPLES];
+    private final short[] target = new short[BUFFER_SAMPLES];
+    private PcmRingBuffer ringBuffer;
+    private LevelMeter levelMeter;
+    private WaveformSummary.Builder waveformBuilder;
+
+    @Setup
+    public void setUp() {
+        // a tone with noise, so the level computation can't take a shortcut
+        Random random = new Random(42);
+        for(int i = 0; i < buffer.length; i++) {
+            double tone = Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * 8000;
+            buffer[i] = (short) (tone + random.nextGaussian() * 1000);
+        }
+        ringBuffer = new PcmRingBuffer(SAMPLE_RATE * 2);
+        levelMeter = new LevelMeter();
+        levelMeter.onStart(SAMPLE_RATE, 1);
+        waveformBuilder = new WaveformSummary.Builder();
+        waveformBuilder.onStart(SAMPLE_RATE, 1);
+    }
+
+    @Benchmark
+    public int ringBufferWriteRead() {
+        ringBuffer.write(buffer, 0, buffer.length);
+        return ringBuffer.read(target, 0, target.length);
+    }
+
+    @Benchmark
+    public float levelMeter() {
+        levelMeter.onPcm(buffer, 0, buffer.length);
+        return levelMeter.getPeak();
+    }
+
+    @Benchmark
+    public WaveformSummary.Builder waveformSummary() {
+        waveformBuilder.onPcm(buffer, 0, buffer.length);
+        return waveformBuilder;
+    }
+}
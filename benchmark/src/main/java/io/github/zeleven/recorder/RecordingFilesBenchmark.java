@@ -0,0 +1,124 @@
+package io.github.zeleven.recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening the file list of a folder with many recordings: listing and sorting the
+ * folder, loading the metadata index and looking every item up in it, and the per file
+ * name handling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordingFilesBenchmark {
+    private static final long FIRST_RECORDING_TIME = 1504413010000L;
+
+    @Param({"1000", "10000"})
+    public int fileCount;
+
+    private File folder;
+    private File indexFile;
+    private List<RecordingItem> items;
+    private MetadataIndex index;
+    private String[] fileNames;
+    private int nextName;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = File.createTempFile("recordings", "");
+        folder.delete();
+        folder.mkdir();
+        fileNames = new String[fileCount];
+        for(int i = 0; i < fileCount; i++) {
+            long time = FIRST_RECORDING_TIME + i * 60000L;
+            // every tenth recording has been renamed by the user
+            String name = i % 10 == 0 ? "meeting " + i + ".m4a"
+                    : RecordingItem.newFileName(time) + ".m4a";
+            File file = new File(folder, name);
+            file.createNewFile();
+            file.setLastModified(time);
+            fileNames[i] = name;
+        }
+
+        File metaFolder = new File(folder, WaveformSummary.META_FOLDER);
+        metaFolder.mkdir();
+        indexFile = new File(metaFolder, "index");
+        index = new MetadataIndex(indexFile);
+        items = RecordingItem.listFolder(folder);
+        for(RecordingItem item : items) {
+            index.put(new RecordingMetadata(item.getPath(), item.getSize(),
+                    item.getLastModified(), 60000, "audio/mp4a-latm", 44100,
+                    item.getCreateTime()));
+        }
+        index.save();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for(File metaFile : new File(folder, WaveformSummary.META_FOLDER).listFiles()) {
+            metaFile.delete();
+        }
+        for(File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    @Benchmark
+    public List<RecordingItem> listFolder() {
+        return RecordingItem.listFolder(folder);
+    }
+
+    @Benchmark
+    public MetadataIndex loadIndex() {
+        MetadataIndex loaded = new MetadataIndex(indexFile);
+        loaded.load();
+        return loaded;
+    }
+
+    @Benchmark
+    public void lookUpIndex(Blackhole blackhole) {
+        for(RecordingItem item : items) {
+            blackhole.consume(index.get(item.getPath(), item.getSize(),
+                    item.getLastModified()));
+        }
+    }
+
+    @Benchmark
+    public void saveIndex() throws IOException {
+        index.save();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long parseCreateTime() {
+        String name = fileNames[nextName++ % fileNames.length];
+        return RecordingItem.parseCreateTime(name, 0);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String newFileName() {
+        return RecordingItem.newFileName(FIRST_RECORDING_TIME + nextName++ * 1000L);
+    }
+}